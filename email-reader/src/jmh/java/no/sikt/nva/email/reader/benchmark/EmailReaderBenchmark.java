@@ -0,0 +1,94 @@
+package no.sikt.nva.email.reader.benchmark;
+
+import static no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusUrlExtractor.DELIVERY_URL_PREFIX;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import no.sikt.nva.email.reader.mapper.messagebodyreader.EmailParser;
+import no.sikt.nva.email.reader.mapper.messagebodyreader.MultipartReader;
+import no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator;
+import no.sikt.nva.email.reader.mapper.messagebodyreader.ValidationVerdict;
+import no.sikt.nva.email.reader.util.EmailGenerator;
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.dom.Header;
+import org.apache.james.mime4j.dom.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+//Measures each stage of ScopusEmailReader separately, so parser and extractor changes can be compared.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EmailReaderBenchmark {
+
+    private static final String BUCKET = "benchmark-bucket";
+    private static final String OBJECT_KEY = "benchmark-email";
+    private static final String DELIVERY_TEMPLATE = "<h3>Abstract and Indexes</h3><br/>"
+                                                    + "It can be downloaded from : <br/>"
+                                                    + DELIVERY_URL_PREFIX
+                                                    + "some_path/2023-6-14/2023-6-14_ANI-ITEM-%d.zip"
+                                                    + "?X-Amz-Signature=%d<br/><br/>";
+    private static final String FILLER_LINE = "<font face=\"Courier New\" size=\"2\">Elsevier B.V. Registered Office: "
+                                              + "Radarweg 29, 1043 NX Amsterdam, The Netherlands</font><br/>\n";
+    private static final int BYTES_PER_KILOBYTE = 1024;
+
+    @Param({"3", "30", "300"})
+    private int urlCount;
+
+    @Param({"1", "64", "1024"})
+    private int bodyKilobytes;
+
+    private String email;
+    private byte[] emailBytes;
+    private Message message;
+    private ScopusEmailValidator validator;
+
+    @Setup
+    public void setup() throws MimeException, IOException {
+        email = EmailGenerator.generateValidEmailWithBody(createBody());
+        emailBytes = email.getBytes(StandardCharsets.UTF_8);
+        message = EmailParser.parseEmail(email);
+        validator = ScopusEmailValidator.withDefaultRules();
+    }
+
+    @Benchmark
+    public Message parseEmail() {
+        return EmailParser.parseEmail(email);
+    }
+
+    @Benchmark
+    public Header parseHeader() {
+        return EmailParser.parseHeader(new ByteArrayInputStream(emailBytes));
+    }
+
+    @Benchmark
+    public ValidationVerdict validateEmail() {
+        return validator.validate(message, emailBytes.length);
+    }
+
+    @Benchmark
+    public Set<URI> extractScopusUrl() {
+        return new MultipartReader(message, BUCKET, OBJECT_KEY).extractScopusURL();
+    }
+
+    private String createBody() {
+        var body = new StringBuilder();
+        var bodyLength = bodyKilobytes * BYTES_PER_KILOBYTE;
+        for (var index = 0; index < urlCount; index++) {
+            body.append(String.format(DELIVERY_TEMPLATE, index, index));
+        }
+        while (body.length() < bodyLength) {
+            body.append(FILLER_LINE);
+        }
+        return body.toString();
+    }
+}
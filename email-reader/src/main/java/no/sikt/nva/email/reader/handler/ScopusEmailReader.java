@@ -1,75 +1,505 @@
 package no.sikt.nva.email.reader.handler;
 
+import static no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator.COULD_NOT_VERIFY_EMAIL;
+import static no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator.UNKNOWN_SIZE;
+import static no.sikt.nva.email.reader.service.StreamingS3Uploader.ZIP_CONTENT_TYPE;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3EventNotificationRecord;
+import io.vavr.CheckedFunction0;
 import io.vavr.control.Try;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import no.sikt.nva.email.metrics.Metric;
+import no.sikt.nva.email.metrics.MetricsLogger;
 import no.sikt.nva.email.reader.mapper.messagebodyreader.EmailParser;
 import no.sikt.nva.email.reader.mapper.messagebodyreader.MultipartReader;
 import no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator;
+import no.sikt.nva.email.reader.metrics.CountingInputStream;
+import no.sikt.nva.email.reader.metrics.ScopusMetrics;
+import no.sikt.nva.email.reader.model.ScopusEmailContinuation;
+import no.sikt.nva.email.reader.model.ScopusEmailHeartbeat;
+import no.sikt.nva.email.reader.model.exception.DownloadDeferredException;
 import no.sikt.nva.email.reader.model.exception.EmailException;
+import no.sikt.nva.email.reader.service.DownloadDeadlinePolicy;
+import no.sikt.nva.email.reader.service.DownloadMemoryBudget;
+import no.sikt.nva.email.reader.service.DownloadRetryPolicy;
+import no.sikt.nva.email.reader.service.DownloadWatchdog;
 import no.sikt.nva.email.reader.service.FileRetriever;
+import no.sikt.nva.email.reader.service.LambdaContinuationTrigger;
+import no.sikt.nva.email.reader.service.RemoteFileMetadata;
+import no.sikt.nva.email.reader.service.ScopusEmailContinuationStore;
+import no.sikt.nva.email.reader.service.ScopusEmailContinuationTrigger;
+import no.sikt.nva.email.reader.service.ScopusEmailHeartbeatStore;
+import no.sikt.nva.email.reader.service.ScopusEmailPrimer;
+import no.sikt.nva.email.reader.service.ScopusEmailProgress;
+import no.sikt.nva.email.reader.service.SegmentedFileRetriever;
+import no.sikt.nva.email.reader.service.StoredArchiveInspector;
+import no.sikt.nva.email.reader.service.StreamingS3Uploader;
+import no.sikt.nva.email.reader.service.ZipEntryExtractor;
 import no.sikt.nva.email.reader.service.ZipFileRetriever;
+import no.sikt.nva.email.reader.service.ZipVerifyingInputStream;
 import no.unit.nva.s3.S3Driver;
 import nva.commons.core.Environment;
 import nva.commons.core.JacocoGenerated;
 import nva.commons.core.paths.UnixPath;
 import nva.commons.core.paths.UriWrapper;
 import org.apache.james.mime4j.dom.Message;
+import org.crac.Core;
+import org.crac.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
 
 
-public class ScopusEmailReader implements RequestHandler<S3Event, Set<URI>> {
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class ScopusEmailReader implements RequestHandler<S3Event, Set<URI>>, Resource {
     private static final Logger logger = LoggerFactory.getLogger(ScopusEmailReader.class);
 
 
 
     public static final String UNABLE_TO_DOWNLOAD_FILE = "Unable to download file";
     public static final String COULD_NOT_PERSIST_FILE_IN_S_3_BUCKET = "Could not persist file in s3 bucket";
+    public static final String DOWNLOAD_PARALLELISM_ENV_NAME = "SCOPUS_DOWNLOAD_PARALLELISM";
+    public static final int DEFAULT_DOWNLOAD_PARALLELISM = 4;
+    public static final String RECORD_PARALLELISM_ENV_NAME = "SCOPUS_RECORD_PARALLELISM";
+    public static final int DEFAULT_RECORD_PARALLELISM = 4;
+    public static final String SEGMENT_SIZE_ENV_NAME = "SCOPUS_DOWNLOAD_SEGMENT_SIZE";
+    public static final String SEGMENT_CONCURRENCY_ENV_NAME = "SCOPUS_DOWNLOAD_SEGMENT_CONCURRENCY";
+    public static final String EXTRACT_ENTRIES_ENV_NAME = "SCOPUS_EXTRACT_ENTRIES";
+    public static final String DOWNLOAD_DEFERRED = "Not enough time left to download file, deferred to next invocation";
+    public static final String DOWNLOAD_EXCEEDS_INVOCATION = "File cannot be downloaded within one invocation";
+    public static final String CONTINUATION_NOT_TRIGGERED = "Could not trigger the continuation of deferred downloads";
+    private static final String FAILED_TO_PROCESS_MESSAGE = "Failed to process {}";
+    private static final String URI_FAILURE_TEMPLATE = "%s: %s";
+    private static final String FAILURE_DELIMITER = ", ";
+    private static final String REUSING_STORED_ARCHIVE_MESSAGE = "Reusing stored archive {}, {} is unchanged";
     private static final String S3_URI_TEMPLATE = "s3://%s/%s";
-    private static final int SINGLE_EXPECTED_RECORD = 0;
+    private static final String EXTRACTION_FAILED_MESSAGE = "Could not extract the entries of {}, kept the archive";
+    private static final String PRIMED_MESSAGE = "Primed email processing, extracted {}";
+    private static final String RECONNECT_FAILED_MESSAGE = "Could not reconnect to {} after restore";
+    private static final String RECORD_SUCCEEDED_MESSAGE = "Processed {}, persisted {}";
+    private static final String RECORD_INCOMPLETE_MESSAGE = "Incomplete {}, persisted only {}";
+    private static final String RESUMING_MESSAGE = "Resuming {}, {} downloads pending and {} completed";
+    private static final String DEFERRING_MESSAGE = "Deferring {}, {} ms left and {} ms needed";
+    private static final String CONTINUING_MESSAGE = "Continuing deferred downloads of {} in a new invocation";
+    private static final String MEMORY_BUDGET_MESSAGE = "Downloading {} segments at a time, buffers take {} bytes";
+    public static final String OPEN_EMAIL_STAGE = "OpenEmail";
+    public static final String PARSE_STAGE = "Parse";
+    public static final String VALIDATE_STAGE = "Validate";
+    public static final String EXTRACT_STAGE = "Extract";
+    public static final String DOWNLOAD_STAGE = "Download";
+    public static final String TRANSFER_STAGE = "Transfer";
+    public static final String DURATION_METRIC = "Duration";
+    public static final String TIME_TO_FIRST_BYTE_METRIC = "TimeToFirstByte";
+    public static final String BYTES_DOWNLOADED_METRIC = "BytesDownloaded";
+    public static final String BYTES_UPLOADED_METRIC = "BytesUploaded";
+    public static final String THROUGHPUT_METRIC = "Throughput";
+    public static final String REUSED_METRIC = "Reused";
+    public static final String FAILED_METRIC = "Failed";
+    public static final String URI_PROPERTY = "Uri";
+    public static final String OBJECT_KEY_PROPERTY = "ObjectKey";
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final long MILLIS_PER_SECOND = 1000L;
     private final S3Client s3Client;
 
     private final FileRetriever fileRetriever;
     private final String scopusZipBucket;
+    private final int downloadParallelism;
+    private final int recordParallelism;
+    private final StreamingS3Uploader uploader;
+    private final StoredArchiveInspector storedArchiveInspector;
+    private final MetricsLogger metricsLogger;
+    private final ZipEntryExtractor entryExtractor;
+    private final ScopusEmailHeartbeatStore heartbeatStore;
+    private final ScopusEmailValidator emailValidator;
+    private final ScopusEmailContinuationStore continuationStore;
+    private final DownloadDeadlinePolicy deadlinePolicy;
+    private final ScopusEmailContinuationTrigger continuationTrigger;
 
     @JacocoGenerated
     public ScopusEmailReader() {
-        this(S3Driver.defaultS3Client().build(),
-                new ZipFileRetriever(HttpClient.newBuilder().build()),
-                new Environment().readEnv("SCOPUS_ZIP_BUCKET"));
+        this(builder(S3Driver.defaultS3Client().build(),
+                     createFileRetriever(new Environment()),
+                     new Environment().readEnv("SCOPUS_ZIP_BUCKET"))
+                 .withControlBucket(new Environment().readEnv("SCOPUS_CONTROL_BUCKET"))
+                 .withDownloadParallelism(readIntegerEnv(new Environment(), DOWNLOAD_PARALLELISM_ENV_NAME,
+                                                         DEFAULT_DOWNLOAD_PARALLELISM))
+                 .withRecordParallelism(readIntegerEnv(new Environment(), RECORD_PARALLELISM_ENV_NAME,
+                                                       DEFAULT_RECORD_PARALLELISM))
+                 .withEntryExtraction(new Environment().readEnvOpt(EXTRACT_ENTRIES_ENV_NAME)
+                                          .map(Boolean::parseBoolean)
+                                          .orElse(false))
+                 .withEmailValidator(ScopusEmailValidator.fromEnvironment(new Environment()))
+                 .withDeadlinePolicy(DownloadDeadlinePolicy.fromEnvironment(new Environment())));
+        Core.getGlobalContext().register(this);
     }
 
     public ScopusEmailReader(S3Client s3Client, FileRetriever fileRetriever, String scopusZipBucket) {
-        this.s3Client = s3Client;
-        this.fileRetriever = fileRetriever;
-        this.scopusZipBucket = scopusZipBucket;
+        this(builder(s3Client, fileRetriever, scopusZipBucket));
     }
 
+    private ScopusEmailReader(Builder builder) {
+        this.s3Client = builder.s3Client;
+        this.fileRetriever = builder.fileRetriever;
+        this.scopusZipBucket = builder.scopusZipBucket;
+        this.downloadParallelism = builder.downloadParallelism;
+        this.recordParallelism = builder.recordParallelism;
+        this.uploader = new StreamingS3Uploader(s3Client);
+        this.storedArchiveInspector = new StoredArchiveInspector(s3Client, scopusZipBucket);
+        this.metricsLogger = builder.metricsLogger;
+        this.entryExtractor = builder.extractEntries ? new ZipEntryExtractor(s3Client) : null;
+        this.heartbeatStore = new ScopusEmailHeartbeatStore(s3Client, builder.controlBucket);
+        this.emailValidator = builder.emailValidator;
+        this.continuationStore = new ScopusEmailContinuationStore(s3Client, builder.controlBucket);
+        this.deadlinePolicy = builder.deadlinePolicy;
+        this.continuationTrigger = builder.continuationTrigger;
+    }
+
+    public static Builder builder(S3Client s3Client, FileRetriever fileRetriever, String scopusZipBucket) {
+        return new Builder(s3Client, fileRetriever, scopusZipBucket);
+    }
+
+    //A failure is retried by Lambda with the same event, which also resumes the deferred downloads. Without failures
+    //the deferred downloads are continued by a new invocation, and this one returns normally. The records are read
+    //first, then the URIs of all records share one download pool, so the memory budget holds for any number of them.
     @Override
     public Set<URI> handleRequest(S3Event event, Context context) {
-        return Try.of(() -> getEmailFromS3(event))
-                .mapTry(email -> extractMessage(event, email))
-                .mapTry(message -> extractUrisFromMessage(event, message))
-                .mapTry(uriSet -> downloadToBucketStorage(uriSet, event))
-                .getOrElseThrow(throwable -> handleFailure(throwable, event));
+        var invocationMillis = context.getRemainingTimeInMillis();
+        var emails = runConcurrently(event.getRecords(), recordParallelism, this::resumeOrReadEmail);
+        var progress = collectProgress(emails);
+        var uriEmails = collectUriEmails(emails);
+        var downloads = timed(DOWNLOAD_STAGE,
+                              () -> downloadToBucketStorage(uriEmails, progress, context, invocationMillis)).get();
+        var failures = new LinkedHashMap<String, EmailException>();
+        emails.forEach((notification, continuation) -> continuation.onFailure(
+            throwable -> failures.put(toS3Uri(notification), handleFailure(throwable, notification))));
+        downloads.forEach((uri, persistedUri) -> persistedUri.onFailure(
+            throwable -> recordFailure(failures, uri, throwable, uriEmails.get(uri).get(0))));
+        emails.keySet().forEach(notification -> logRecordOutcome(notification, progress));
+        if (!failures.isEmpty()) {
+            throw combineFailures(failures);
+        }
+        triggerContinuation(progress, context);
+        return progress.values().stream()
+                   .map(ScopusEmailProgress::current)
+                   .flatMap(ScopusEmailContinuation::storedUris)
+                   .collect(Collectors.toSet());
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws IOException {
+        logger.info(PRIMED_MESSAGE, ScopusEmailPrimer.primeEmailProcessing());
+    }
+
+    //Pooled connections in the snapshot are stale, a cheap request reconnects and resolves fresh credentials.
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        var request = HeadBucketRequest.builder().bucket(scopusZipBucket).build();
+        Try.run(() -> s3Client.headBucket(request))
+            .onFailure(throwable -> logger.warn(RECONNECT_FAILED_MESSAGE, scopusZipBucket, throwable));
+    }
+
+    //An email with pending downloads left by an earlier invocation is resumed without reading it again.
+    private ScopusEmailContinuation resumeOrReadEmail(S3EventNotificationRecord notification) {
+        var emailKey = extractObjectKey(notification);
+        return continuationStore.readUnfinished(emailKey)
+                   .map(ScopusEmailReader::logResumed)
+                   .orElseGet(() -> continuationStore.write(
+                       ScopusEmailContinuation.start(emailKey, readUrisFromEmail(notification))));
+    }
+
+    private static ScopusEmailContinuation logResumed(ScopusEmailContinuation continuation) {
+        logger.info(RESUMING_MESSAGE, continuation.emailKey(), continuation.pending().size(),
+                    continuation.completed().size());
+        return continuation;
+    }
+
+    //Opening the email only waits for the response headers, its body streams from S3 while it is parsed.
+    private Set<URI> readUrisFromEmail(S3EventNotificationRecord notification) {
+        return timed(OPEN_EMAIL_STAGE, () -> getEmailFromS3(notification))
+                .flatMap(email -> timed(PARSE_STAGE, () -> parseMessage(email)))
+                .flatMap(message -> timed(VALIDATE_STAGE, () -> validateMessage(message, notification)))
+                .flatMap(message -> timed(EXTRACT_STAGE, () -> extractUrisFromMessage(notification, message))
+                                        .peek(uris -> recordHeartbeat(notification, message, uris)))
+                .getOrElseThrow(throwable -> handleFailure(throwable, notification));
+    }
+
+    private void recordHeartbeat(S3EventNotificationRecord notification, Message message, Set<URI> uris) {
+        heartbeatStore.write(new ScopusEmailHeartbeat(Instant.now(),
+                                                      extractObjectKey(notification),
+                                                      message.getMessageId(),
+                                                      uris.size()));
+    }
+
+    private <T> Try<T> timed(String stage, CheckedFunction0<T> action) {
+        var start = System.nanoTime();
+        var result = Try.of(action);
+        metricsLogger.emit(stage, List.of(Metric.milliseconds(DURATION_METRIC, millisSince(start))));
+        return result;
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / NANOS_PER_MILLI;
+    }
+
+    private Map<S3EventNotificationRecord, ScopusEmailProgress> collectProgress(
+        Map<S3EventNotificationRecord, Try<ScopusEmailContinuation>> emails) {
+        var progress = new LinkedHashMap<S3EventNotificationRecord, ScopusEmailProgress>();
+        emails.forEach((notification, continuation) -> continuation.forEach(
+            found -> progress.put(notification, new ScopusEmailProgress(continuationStore, found))));
+        return progress;
+    }
+
+    //URIs shared by several emails are downloaded once, failures are reported against the first email.
+    private static Map<URI, List<S3EventNotificationRecord>> collectUriEmails(
+        Map<S3EventNotificationRecord, Try<ScopusEmailContinuation>> emails) {
+        var uriEmails = new LinkedHashMap<URI, List<S3EventNotificationRecord>>();
+        emails.forEach((notification, continuation) -> continuation.forEach(
+            found -> found.pending().forEach(
+                uri -> uriEmails.computeIfAbsent(uri, key -> new ArrayList<>()).add(notification))));
+        return uriEmails;
+    }
+
+    private Map<URI, Try<URI>> downloadToBucketStorage(
+        Map<URI, List<S3EventNotificationRecord>> uriEmails,
+        Map<S3EventNotificationRecord, ScopusEmailProgress> progress,
+        Context context,
+        long invocationMillis) {
+        return runConcurrently(uriEmails.keySet(), downloadParallelism,
+                               uri -> persistAndRecord(uri, uriEmails.get(uri), progress, context, invocationMillis));
+    }
+
+    private URI persistAndRecord(URI uri,
+                                 List<S3EventNotificationRecord> notifications,
+                                 Map<S3EventNotificationRecord, ScopusEmailProgress> progress,
+                                 Context context,
+                                 long invocationMillis) {
+        var storedUri = persistInBucket(uri, notifications.get(0), context, invocationMillis);
+        notifications.forEach(notification -> progress.get(notification).complete(uri, storedUri));
+        return storedUri;
+    }
+
+    private void recordFailure(Map<String, EmailException> failures,
+                               URI uri,
+                               Throwable throwable,
+                               S3EventNotificationRecord notification) {
+        if (!(throwable instanceof DownloadDeferredException)) {
+            failures.put(uri.toString(), handleFailure(throwable, notification));
+        }
+    }
+
+    private void triggerContinuation(Map<S3EventNotificationRecord, ScopusEmailProgress> progress, Context context) {
+        var deferred = progress.entrySet().stream()
+                           .filter(entry -> entry.getValue().current().hasPendingUris())
+                           .map(Map.Entry::getKey)
+                           .toList();
+        if (deferred.isEmpty()) {
+            return;
+        }
+        logger.info(CONTINUING_MESSAGE, deferred.stream().map(ScopusEmailReader::toS3Uri).toList());
+        Try.run(() -> continuationTrigger.trigger(deferred, context))
+            .getOrElseThrow(throwable -> new EmailException(CONTINUATION_NOT_TRIGGERED,
+                                                            extractBucketName(deferred.get(0)),
+                                                            extractObjectKey(deferred.get(0)),
+                                                            throwable));
+    }
+
+    private static void logRecordOutcome(S3EventNotificationRecord notification,
+                                         Map<S3EventNotificationRecord, ScopusEmailProgress> progress) {
+        var continuation = Optional.ofNullable(progress.get(notification)).map(ScopusEmailProgress::current);
+        var persisted = continuation.map(found -> found.storedUris().collect(Collectors.toSet())).orElse(Set.of());
+        if (continuation.filter(found -> !found.hasPendingUris()).isPresent()) {
+            logger.info(RECORD_SUCCEEDED_MESSAGE, toS3Uri(notification), persisted);
+        } else {
+            logger.warn(RECORD_INCOMPLETE_MESSAGE, toS3Uri(notification), persisted);
+        }
+    }
+
+    @JacocoGenerated
+    private static FileRetriever createFileRetriever(Environment environment) {
+        var httpClient = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+        var metricsLogger = ScopusMetrics.createMetricsLogger(System.out);
+        var retryPolicy = DownloadRetryPolicy.fromEnvironment(environment, metricsLogger);
+        var watchdog = DownloadWatchdog.fromEnvironment(environment, metricsLogger);
+        var downloadParallelism = Math.max(1, readIntegerEnv(environment, DOWNLOAD_PARALLELISM_ENV_NAME,
+                                                             DEFAULT_DOWNLOAD_PARALLELISM));
+        var segmentSize = readIntegerEnv(environment, SEGMENT_SIZE_ENV_NAME,
+                                         SegmentedFileRetriever.DEFAULT_SEGMENT_SIZE);
+        var segmentConcurrency = DownloadMemoryBudget.forRuntime().segmentConcurrency(
+            downloadParallelism, segmentSize,
+            readIntegerEnv(environment, SEGMENT_CONCURRENCY_ENV_NAME, SegmentedFileRetriever.DEFAULT_CONCURRENCY));
+        logger.info(MEMORY_BUDGET_MESSAGE, segmentConcurrency,
+                    DownloadMemoryBudget.bufferedBytes(downloadParallelism, segmentSize, segmentConcurrency));
+        return new SegmentedFileRetriever(httpClient,
+                new ZipFileRetriever(httpClient, retryPolicy, watchdog),
+                segmentSize,
+                segmentConcurrency,
+                retryPolicy);
+    }
+
+    @JacocoGenerated
+    private static int readIntegerEnv(Environment environment, String name, int defaultValue) {
+        return environment.readEnvOpt(name)
+                .map(Integer::parseInt)
+                .orElse(defaultValue);
+    }
+
+    private static <T, R> Map<T, Try<R>> runConcurrently(Collection<T> inputs,
+                                                         int parallelism,
+                                                         Function<T, R> task) {
+        if (inputs.isEmpty()) {
+            return Map.of();
+        }
+        var executor = Executors.newFixedThreadPool(Math.min(parallelism, inputs.size()));
+        try {
+            var futures = new LinkedHashMap<T, CompletableFuture<R>>();
+            inputs.forEach(input -> futures.put(input, CompletableFuture.supplyAsync(() -> task.apply(input),
+                                                                                     executor)));
+            var results = new LinkedHashMap<T, Try<R>>();
+            futures.forEach((input, future) -> results.put(input, await(future)));
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <R> Try<R> await(CompletableFuture<R> future) {
+        return Try.of(future::join).recoverWith(throwable -> Try.failure(unwrap(throwable)));
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
     }
 
-    private Set<URI> downloadToBucketStorage(Set<URI> uris, S3Event event) {
-        var s3Driver = new S3Driver(s3Client, scopusZipBucket);
-        return uris.stream().map(uri -> persistInBucket(uri, s3Driver, event)).collect(Collectors.toSet());
+    private EmailException combineFailures(Map<String, EmailException> failures) {
+        failures.forEach((source, failure) -> logger.error(FAILED_TO_PROCESS_MESSAGE, source, failure));
+        var message = failures.entrySet()
+                .stream()
+                .map(entry -> String.format(URI_FAILURE_TEMPLATE, entry.getValue().getMessage(), entry.getKey()))
+                .collect(Collectors.joining(FAILURE_DELIMITER));
+        var firstFailure = failures.values().iterator().next();
+        var exception = new EmailException(message, firstFailure.getBucket(), firstFailure.getObjectKey());
+        failures.values().forEach(exception::addSuppressed);
+        return exception;
     }
 
-    private URI persistInBucket(URI uri, S3Driver s3Driver, S3Event event) {
+    private URI persistInBucket(URI uri,
+                                S3EventNotificationRecord notification,
+                                Context context,
+                                long invocationMillis) {
         var objectKey = getFileNameFromURL(uri);
-        return persistFilesToS3(fileRetriever.retrieveFile(uri), objectKey, s3Driver, event);
+        var remoteFile = fileRetriever.fetchMetadata(uri);
+        if (remoteFile.map(file -> storedArchiveInspector.isAlreadyStored(objectKey, file)).orElse(false)) {
+            logger.info(REUSING_STORED_ARCHIVE_MESSAGE, objectKey, uri);
+            emitReusedTransfer(uri, objectKey);
+            var storedUri = URI.create(String.format(S3_URI_TEMPLATE, scopusZipBucket, objectKey));
+            if (entryExtractor != null) {
+                extractStoredArchive(objectKey, storedUri);
+            }
+            return storedUri;
+        }
+        ensureTimeToFinish(uri, remoteFile, notification, context, invocationMillis);
+        var objectMetadata = remoteFile.map(StoredArchiveInspector::toObjectMetadata).orElse(Map.of());
+        return transfer(uri, remoteFile, objectKey, objectMetadata, notification);
+    }
+
+    //A download that cannot finish would be killed with the invocation, it is left pending for the next one instead.
+    //Every invocation starts with the time this one started with, a download needing more would be deferred forever.
+    private void ensureTimeToFinish(URI uri,
+                                    Optional<RemoteFileMetadata> remoteFile,
+                                    S3EventNotificationRecord notification,
+                                    Context context,
+                                    long invocationMillis) {
+        var requiredMillis = deadlinePolicy.requiredMillis(remoteFile);
+        if (invocationMillis < requiredMillis) {
+            throw new EmailException(DOWNLOAD_EXCEEDS_INVOCATION,
+                                     extractBucketName(notification),
+                                     extractObjectKey(notification));
+        }
+        var remainingMillis = context.getRemainingTimeInMillis();
+        if (remainingMillis < requiredMillis) {
+            logger.info(DEFERRING_MESSAGE, uri, remainingMillis, requiredMillis);
+            throw new DownloadDeferredException(DOWNLOAD_DEFERRED);
+        }
+    }
+
+    private URI transfer(URI uri,
+                         Optional<RemoteFileMetadata> remoteFile,
+                         UnixPath objectKey,
+                         Map<String, String> objectMetadata,
+                         S3EventNotificationRecord notification) {
+        var start = System.nanoTime();
+        //The archive is verified while it streams through, a truncated download fails before the upload completes.
+        var download = Try.of(() -> new CountingInputStream(
+            new ZipVerifyingInputStream(retrieveFile(uri, remoteFile, notification))));
+        var timeToFirstByte = millisSince(start);
+        var bytesUploaded = new LongAdder();
+        var storedUri = download.map(
+            inputStream -> persistFilesToS3(inputStream, objectKey, objectMetadata, bytesUploaded, notification));
+        var durationMillis = millisSince(start);
+        var bytesDownloaded = download.map(CountingInputStream::getCount).getOrElse(0L);
+        emitTransfer(uri, objectKey, List.of(
+            Metric.milliseconds(DURATION_METRIC, durationMillis),
+            Metric.milliseconds(TIME_TO_FIRST_BYTE_METRIC, timeToFirstByte),
+            Metric.bytes(BYTES_DOWNLOADED_METRIC, bytesDownloaded),
+            Metric.bytes(BYTES_UPLOADED_METRIC, bytesUploaded.sum()),
+            Metric.bytesPerSecond(THROUGHPUT_METRIC, throughput(bytesDownloaded, durationMillis)),
+            Metric.count(REUSED_METRIC, 0),
+            Metric.count(FAILED_METRIC, storedUri.isSuccess() ? 0 : 1)));
+        return storedUri.get();
+    }
+
+    private void emitReusedTransfer(URI uri, UnixPath objectKey) {
+        emitTransfer(uri, objectKey, List.of(Metric.bytes(BYTES_DOWNLOADED_METRIC, 0),
+                                             Metric.bytes(BYTES_UPLOADED_METRIC, 0),
+                                             Metric.count(REUSED_METRIC, 1),
+                                             Metric.count(FAILED_METRIC, 0)));
+    }
+
+    private void emitTransfer(URI uri, UnixPath objectKey, List<Metric> metrics) {
+        //The URI is a property and not a dimension, presigned URLs would create a new metric for every delivery.
+        metricsLogger.emit(TRANSFER_STAGE,
+                           Map.of(URI_PROPERTY, uri.toString(), OBJECT_KEY_PROPERTY, objectKey.toString()),
+                           metrics);
+    }
+
+    private static long throughput(long bytes, long durationMillis) {
+        return durationMillis == 0 ? bytes * MILLIS_PER_SECOND : bytes * MILLIS_PER_SECOND / durationMillis;
+    }
+
+    private InputStream retrieveFile(URI uri,
+                                     Optional<RemoteFileMetadata> remoteFile,
+                                     S3EventNotificationRecord notification) {
+        return Try.of(() -> fileRetriever.retrieveFile(uri, remoteFile))
+                .getOrElseThrow(throwable -> new EmailException(UNABLE_TO_DOWNLOAD_FILE,
+                        extractBucketName(notification),
+                        extractObjectKey(notification),
+                        throwable));
     }
 
     private static UnixPath getFileNameFromURL(URI uri) {
@@ -80,63 +510,170 @@ public class ScopusEmailReader implements RequestHandler<S3Event, Set<URI>> {
 
     private URI persistFilesToS3(InputStream inputStream,
                                  UnixPath objectPath,
-                                 S3Driver s3Driver,
-                                 S3Event event) {
-        try {
-            return s3Driver.insertFile(objectPath, inputStream);
+                                 Map<String, String> objectMetadata,
+                                 LongAdder bytesUploaded,
+                                 S3EventNotificationRecord notification) {
+        try (inputStream) {
+            return entryExtractor == null
+                    ? uploader.upload(scopusZipBucket, objectPath, inputStream, objectMetadata, ZIP_CONTENT_TYPE,
+                                      bytesUploaded::add)
+                    : uploadAndExtract(inputStream, objectPath, objectMetadata, bytesUploaded);
         } catch (Exception e) {
             throw new EmailException(COULD_NOT_PERSIST_FILE_IN_S_3_BUCKET,
-                    extractBucketName(event),
-                    extractObjectKey(event));
+                    extractBucketName(notification),
+                    extractObjectKey(notification));
         }
     }
 
-    private RuntimeException handleFailure(Throwable throwable,
-                                           S3Event event) {
+    //The entries are extracted from the bytes read for the upload, the archive is downloaded only once.
+    private URI uploadAndExtract(InputStream inputStream,
+                                 UnixPath objectPath,
+                                 Map<String, String> objectMetadata,
+                                 LongAdder bytesUploaded) throws IOException {
+        try (var extraction = entryExtractor.extract(scopusZipBucket, objectPath, inputStream)) {
+            var storedUri = uploader.upload(scopusZipBucket, objectPath, extraction, objectMetadata, ZIP_CONTENT_TYPE,
+                                            bytesUploaded::add);
+            Try.of(() -> extraction.complete(storedUri))
+                .onFailure(throwable -> logger.warn(EXTRACTION_FAILED_MESSAGE, storedUri, throwable));
+            return storedUri;
+        }
+    }
+
+    //Extraction is optional, failing to extract never fails the archive that is already stored.
+    private void extractStoredArchive(UnixPath objectKey, URI storedUri) {
+        Try.run(() -> entryExtractor.extractStoredArchiveWithoutManifest(scopusZipBucket, objectKey, storedUri))
+            .onFailure(throwable -> logger.warn(EXTRACTION_FAILED_MESSAGE, storedUri, throwable));
+    }
+
+    private EmailException handleFailure(Throwable throwable,
+                                          S3EventNotificationRecord notification) {
         return throwable instanceof EmailException emailException
                 ? emailException
                 : new EmailException(
                 UNABLE_TO_DOWNLOAD_FILE,
-                extractBucketName(event),
-                extractObjectKey(event),
+                extractBucketName(notification),
+                extractObjectKey(notification),
                 throwable);
     }
 
-    private Set<URI> extractUrisFromMessage(S3Event event, Message message) {
-        var messageReader = new MultipartReader(message, extractBucketName(event), extractObjectKey(event));
+    private Set<URI> extractUrisFromMessage(S3EventNotificationRecord notification, Message message) {
+        var messageReader = new MultipartReader(message,
+                                                extractBucketName(notification),
+                                                extractObjectKey(notification));
         var scopusEmail = messageReader.extractScopusURL();
         logger.info("Found the following URIS {}", scopusEmail);
         return scopusEmail;
     }
 
-    private Message extractMessage(S3Event event, String emailString) {
-        var message = EmailParser.parseEmail(emailString);
-        validateMessage(message, event);
+    private Message parseMessage(InputStream emailStream) throws IOException {
+        try (emailStream) {
+            return EmailParser.parseEmail(emailStream);
+        }
+    }
+
+    private Message validateMessage(Message message, S3EventNotificationRecord notification) {
+        var verdict = emailValidator.validate(message, extractObjectSize(notification));
+        if (!verdict.valid()) {
+            throw new EmailException(String.format(URI_FAILURE_TEMPLATE, COULD_NOT_VERIFY_EMAIL, verdict.reason()),
+                                     extractBucketName(notification),
+                                     extractObjectKey(notification));
+        }
         return message;
     }
 
-    private void validateMessage(Message message, S3Event event) {
-        var mimeValidator = new ScopusEmailValidator(
-                extractBucketName(event),
-                extractObjectKey(event));
-        mimeValidator.validateEmail(message);
+    private InputStream getEmailFromS3(S3EventNotificationRecord notification) {
+        var request = GetObjectRequest.builder()
+                .bucket(extractBucketName(notification))
+                .key(extractObjectKey(notification))
+                .build();
+        return s3Client.getObject(request, ResponseTransformer.toInputStream());
     }
 
-    private String getEmailFromS3(S3Event event) {
-        var s3Driver = new S3Driver(s3Client, extractBucketName(event));
-        var fileUri = createS3BucketUri(event);
-        return s3Driver.getFile(UriWrapper.fromUri(fileUri).toS3bucketPath());
+    private static String toS3Uri(S3EventNotificationRecord notification) {
+        return String.format(S3_URI_TEMPLATE, extractBucketName(notification), extractObjectKey(notification));
     }
 
-    private String extractBucketName(S3Event event) {
-        return event.getRecords().get(SINGLE_EXPECTED_RECORD).getS3().getBucket().getName();
+    private static String extractBucketName(S3EventNotificationRecord notification) {
+        return notification.getS3().getBucket().getName();
     }
 
-    private URI createS3BucketUri(S3Event s3Event) {
-        return URI.create(String.format(S3_URI_TEMPLATE, extractBucketName(s3Event), extractObjectKey(s3Event)));
+    private static String extractObjectKey(S3EventNotificationRecord notification) {
+        return notification.getS3().getObject().getKey();
     }
 
-    private String extractObjectKey(S3Event event) {
-        return event.getRecords().get(SINGLE_EXPECTED_RECORD).getS3().getObject().getKey();
+    private static long extractObjectSize(S3EventNotificationRecord notification) {
+        return Optional.ofNullable(notification.getS3().getObject().getSizeAsLong()).orElse(UNKNOWN_SIZE);
+    }
+
+    //The optional settings of the reader, each left out setting keeps its default.
+    public static final class Builder {
+
+        private final S3Client s3Client;
+        private final FileRetriever fileRetriever;
+        private final String scopusZipBucket;
+        private String controlBucket;
+        private int downloadParallelism = DEFAULT_DOWNLOAD_PARALLELISM;
+        private int recordParallelism = DEFAULT_RECORD_PARALLELISM;
+        private MetricsLogger metricsLogger = ScopusMetrics.createMetricsLogger(System.out);
+        private boolean extractEntries;
+        private ScopusEmailValidator emailValidator = ScopusEmailValidator.withDefaultRules();
+        private DownloadDeadlinePolicy deadlinePolicy = DownloadDeadlinePolicy.withDefaults();
+        private ScopusEmailContinuationTrigger continuationTrigger = LambdaContinuationTrigger.withDefaultClient();
+
+        private Builder(S3Client s3Client, FileRetriever fileRetriever, String scopusZipBucket) {
+            this.s3Client = s3Client;
+            this.fileRetriever = fileRetriever;
+            this.scopusZipBucket = scopusZipBucket;
+            this.controlBucket = scopusZipBucket;
+        }
+
+        //The bucket of the heartbeat and the continuations, kept apart from the archives importers read. Defaults to
+        //the archive bucket.
+        public Builder withControlBucket(String controlBucket) {
+            this.controlBucket = controlBucket;
+            return this;
+        }
+
+        //At least one download runs at a time, whatever is configured.
+        public Builder withDownloadParallelism(int downloadParallelism) {
+            this.downloadParallelism = Math.max(1, downloadParallelism);
+            return this;
+        }
+
+        //The records of an event are read and validated concurrently, apart from the downloads. At least one at a
+        //time, whatever is configured.
+        public Builder withRecordParallelism(int recordParallelism) {
+            this.recordParallelism = Math.max(1, recordParallelism);
+            return this;
+        }
+
+        public Builder withMetricsLogger(MetricsLogger metricsLogger) {
+            this.metricsLogger = metricsLogger;
+            return this;
+        }
+
+        public Builder withEntryExtraction(boolean extractEntries) {
+            this.extractEntries = extractEntries;
+            return this;
+        }
+
+        public Builder withEmailValidator(ScopusEmailValidator emailValidator) {
+            this.emailValidator = emailValidator;
+            return this;
+        }
+
+        public Builder withDeadlinePolicy(DownloadDeadlinePolicy deadlinePolicy) {
+            this.deadlinePolicy = deadlinePolicy;
+            return this;
+        }
+
+        public Builder withContinuationTrigger(ScopusEmailContinuationTrigger continuationTrigger) {
+            this.continuationTrigger = continuationTrigger;
+            return this;
+        }
+
+        public ScopusEmailReader build() {
+            return new ScopusEmailReader(this);
+        }
     }
 }
@@ -1,85 +1,261 @@
 package no.sikt.nva.email.reader.handler;
 
+import static no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator.UNKNOWN_SIZE;
 import static nva.commons.core.attempt.Try.attempt;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
+import io.vavr.control.Try;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import no.sikt.nva.email.reader.mapper.messagebodyreader.EmailParser;
 import no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator;
+import no.sikt.nva.email.reader.model.ScopusEmailHeartbeat;
 import no.sikt.nva.email.reader.model.exception.NoScopusEmailsReceivedException;
+import no.sikt.nva.email.reader.service.ScopusEmailHeartbeatStore;
+import no.sikt.nva.email.reader.service.ScopusEmailPrimer;
 import no.unit.nva.s3.S3Driver;
 import nva.commons.core.Environment;
 import nva.commons.core.JacocoGenerated;
 import nva.commons.core.StringUtils;
 import nva.commons.core.attempt.Failure;
-import nva.commons.core.paths.UnixPath;
-import org.apache.james.mime4j.dom.Message;
+import org.apache.james.mime4j.dom.Header;
+import org.crac.Core;
+import org.crac.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
+//A heartbeat written by the reader within the last 24 hours is enough. Without one the recent emails are listed and
+//validated concurrently, newest first, and the remaining validations are cancelled as soon as one email is a valid
+//Scopus email. When the candidates cannot all be validated before the invocation is about to time out, the check is
+//left unfinished and no alarm is raised, a slow S3 is not a missing email.
+@SuppressWarnings("PMD.DoNotUseThreads")
 public class VerifyScopusEmailReceivedHandler
-    implements RequestHandler<ScheduledEvent, Void> {
+    implements RequestHandler<ScheduledEvent, Void>, Resource {
 
+    public static final String VERIFY_PARALLELISM_ENV_NAME = "SCOPUS_VERIFY_PARALLELISM";
+    public static final int DEFAULT_VERIFY_PARALLELISM = 4;
+    public static final String VERIFY_TIME_RESERVE_ENV_NAME = "SCOPUS_VERIFY_TIME_RESERVE_MILLIS";
+    public static final Duration DEFAULT_VERIFY_TIME_RESERVE = Duration.ofSeconds(10);
+    //Only the header is validated, so the first 64 KiB are fetched, and twice as much again while the header has not
+    //ended, up to 1 MiB. The attachments and body of an email are never downloaded.
+    public static final int HEADER_RANGE_BYTES = 64 * 1024;
+    public static final int MAX_HEADER_RANGE_BYTES = 1024 * 1024;
+    public static final String HEADER_RANGE_TEMPLATE = "bytes=0-%d";
+    public static final String HEADER_RANGE = String.format(HEADER_RANGE_TEMPLATE, HEADER_RANGE_BYTES - 1);
     private static final Logger logger = LoggerFactory.getLogger(VerifyScopusEmailReceivedHandler.class);
 
     private static final String NON_SCOPUS_EMAIL_FOUND = "NON SCOPUS EMAIL FOUND {}";
+    private static final String TIME_BUDGET_EXHAUSTED_MESSAGE =
+        "Time budget of {} exhausted with {} of {} candidate emails not validated";
+    private static final String HEADER_TOO_LONG_MESSAGE = "Header of {} does not end within {} bytes";
+    private static final String VALIDATION_INTERRUPTED_MESSAGE = "Interrupted while validating candidate emails";
+    private static final String CHECK_UNFINISHED_MESSAGE =
+        "Could not check for a Scopus email within {}, no alarm is raised";
+    private static final String HEARTBEAT_FOUND_MESSAGE = "Found heartbeat of valid Scopus email {}";
+    private static final String PRIMED_MESSAGE = "Primed email processing, extracted {}";
+    private static final String RECONNECT_FAILED_MESSAGE = "Could not reconnect to {} after restore";
 
-    //we expect to receive one email once a week; and we have object expiration set to 20 days.
-    private static final Integer GENEROUS_LIMIT_OF_EXPECTED_KEYS_IN_BUCKET = 10;
     private final S3Client s3Client;
     private final String bucketName;
+    private final int parallelism;
+    private final Duration timeReserve;
+    private final ScopusEmailHeartbeatStore heartbeatStore;
+    private final ScopusEmailValidator emailValidator;
 
     @JacocoGenerated
     public VerifyScopusEmailReceivedHandler() {
         this(S3Driver.defaultS3Client().build(),
-             new Environment().readEnv("SCOPUS_EMAIL_BUCKET_NAME"));
+             new Environment().readEnv("SCOPUS_EMAIL_BUCKET_NAME"),
+             new Environment().readEnvOpt(VERIFY_PARALLELISM_ENV_NAME)
+                 .map(Integer::parseInt)
+                 .orElse(DEFAULT_VERIFY_PARALLELISM),
+             new Environment().readEnvOpt(VERIFY_TIME_RESERVE_ENV_NAME)
+                 .map(Long::parseLong)
+                 .map(Duration::ofMillis)
+                 .orElse(DEFAULT_VERIFY_TIME_RESERVE),
+             new Environment().readEnv("SCOPUS_CONTROL_BUCKET"),
+             ScopusEmailValidator.fromEnvironment(new Environment()));
+        Core.getGlobalContext().register(this);
     }
 
     public VerifyScopusEmailReceivedHandler(S3Client s3Client,
                                             String bucketName) {
+        this(s3Client, bucketName, DEFAULT_VERIFY_PARALLELISM, DEFAULT_VERIFY_TIME_RESERVE);
+    }
+
+    public VerifyScopusEmailReceivedHandler(S3Client s3Client,
+                                            String bucketName,
+                                            int parallelism,
+                                            Duration timeReserve) {
+        this(s3Client, bucketName, parallelism, timeReserve, null);
+    }
+
+    public VerifyScopusEmailReceivedHandler(S3Client s3Client,
+                                            String bucketName,
+                                            int parallelism,
+                                            Duration timeReserve,
+                                            String heartbeatBucketName) {
+        this(s3Client, bucketName, parallelism, timeReserve, heartbeatBucketName,
+             ScopusEmailValidator.withDefaultRules());
+    }
+
+    public VerifyScopusEmailReceivedHandler(S3Client s3Client,
+                                            String bucketName,
+                                            int parallelism,
+                                            Duration timeReserve,
+                                            String heartbeatBucketName,
+                                            ScopusEmailValidator emailValidator) {
         this.s3Client = s3Client;
         this.bucketName = bucketName;
+        this.parallelism = Math.max(1, parallelism);
+        this.timeReserve = timeReserve;
+        this.heartbeatStore = heartbeatBucketName == null
+                                  ? null
+                                  : new ScopusEmailHeartbeatStore(s3Client, heartbeatBucketName);
+        this.emailValidator = emailValidator;
     }
 
     @Override
     public Void handleRequest(ScheduledEvent scheduledEvent, Context context) {
-        if (didNotReceiveScopusEmail()) {
+        var timeBudget = Duration.ofMillis(context.getRemainingTimeInMillis()).minus(timeReserve);
+        var received = scopusEmailReceived(timeBudget);
+        if (received.isEmpty()) {
+            logger.warn(CHECK_UNFINISHED_MESSAGE, timeBudget);
+        } else if (!received.get()) {
             emitAlarm();
         }
         return null;
     }
 
-    private static boolean isWithinLast24Hours(S3Object s3Object) {
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws IOException {
+        logger.info(PRIMED_MESSAGE, ScopusEmailPrimer.primeEmailProcessing());
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        var request = HeadBucketRequest.builder().bucket(bucketName).build();
+        Try.run(() -> s3Client.headBucket(request))
+            .onFailure(throwable -> logger.warn(RECONNECT_FAILED_MESSAGE, bucketName, throwable));
+    }
+
+    private static boolean isWithinLast24Hours(Instant instant) {
         var twentyFourHoursAgo = Instant.now().minus(24, ChronoUnit.HOURS);
-        return s3Object.lastModified().isAfter(twentyFourHoursAgo);
+        return instant.isAfter(twentyFourHoursAgo);
     }
 
     private void emitAlarm() {
         throw new NoScopusEmailsReceivedException();
     }
 
-    private boolean didNotReceiveScopusEmail() {
-        return getObjectsYoungerThan24Hours()
-                   .stream()
-                   .noneMatch(this::validateScopusEmail);
+    //Empty when the check did not finish within the time budget.
+    private Optional<Boolean> scopusEmailReceived(Duration timeBudget) {
+        return hasRecentHeartbeat() ? Optional.of(true) : findScopusEmailInBucket(timeBudget);
+    }
+
+    private boolean hasRecentHeartbeat() {
+        return heartbeatStore != null
+               && heartbeatStore.read()
+                      .filter(heartbeat -> isWithinLast24Hours(heartbeat.validatedAt()))
+                      .map(VerifyScopusEmailReceivedHandler::logHeartbeatFound)
+                      .isPresent();
+    }
+
+    private static ScopusEmailHeartbeat logHeartbeatFound(ScopusEmailHeartbeat heartbeat) {
+        logger.info(HEARTBEAT_FOUND_MESSAGE, heartbeat);
+        return heartbeat;
+    }
+
+    private Optional<Boolean> findScopusEmailInBucket(Duration timeBudget) {
+        var candidates = getObjectsYoungerThan24Hours();
+        if (candidates.isEmpty()) {
+            return Optional.of(false);
+        }
+        if (timeBudget.isNegative() || timeBudget.isZero()) {
+            logger.warn(TIME_BUDGET_EXHAUSTED_MESSAGE, timeBudget, candidates.size(), candidates.size());
+            return Optional.empty();
+        }
+        var executor = Executors.newFixedThreadPool(Math.min(parallelism, candidates.size()));
+        try {
+            return anyIsScopusEmail(candidates, executor, timeBudget);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn(VALIDATION_INTERRUPTED_MESSAGE, e);
+            return Optional.empty();
+        } finally {
+            //Interrupts the validations still running and drops the ones not started.
+            executor.shutdownNow();
+        }
+    }
+
+    private Optional<Boolean> anyIsScopusEmail(List<S3Object> candidates,
+                                               ExecutorService executor,
+                                               Duration timeBudget) throws InterruptedException {
+        var validations = new ExecutorCompletionService<Boolean>(executor);
+        candidates.forEach(candidate -> validations.submit(() -> validateScopusEmail(candidate)));
+        var deadline = System.nanoTime() + timeBudget.toNanos();
+        for (var pending = candidates.size(); pending > 0; pending--) {
+            var validation = validations.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (validation == null) {
+                logger.warn(TIME_BUDGET_EXHAUSTED_MESSAGE, timeBudget, pending, candidates.size());
+                return Optional.empty();
+            }
+            if (attempt(validation::get).orElse(failure -> false)) {
+                return Optional.of(true);
+            }
+        }
+        return Optional.of(false);
     }
 
     private boolean validateScopusEmail(S3Object s3Object) {
-        return attempt(() -> getFileFromS3(s3Object))
-                   .map(EmailParser::parseEmail)
-                   .map(message -> validateEmail(message, s3Object.key()))
+        return attempt(() -> parseHeaderFromS3(s3Object))
+                   .map(header -> isValidScopusEmail(header, s3Object))
                    .orElse(this::logErrorAndReturnFalse);
     }
 
-    private String getFileFromS3(S3Object s3Object) {
-        var s3Driver = new S3Driver(s3Client, bucketName);
-        return s3Driver.getFile(UnixPath.of(s3Object.key()));
+    //A range that is filled up without the blank line ending the header truncates it, so a longer range is fetched.
+    private Header parseHeaderFromS3(S3Object s3Object) {
+        var rangeBytes = HEADER_RANGE_BYTES;
+        var email = fetchRange(s3Object, rangeBytes);
+        while (isTruncatedHeader(email, rangeBytes) && rangeBytes < MAX_HEADER_RANGE_BYTES) {
+            rangeBytes = Math.min(2 * rangeBytes, MAX_HEADER_RANGE_BYTES);
+            email = fetchRange(s3Object, rangeBytes);
+        }
+        if (isTruncatedHeader(email, rangeBytes)) {
+            logger.warn(HEADER_TOO_LONG_MESSAGE, s3Object.key(), rangeBytes);
+        }
+        return EmailParser.parseHeader(new ByteArrayInputStream(email));
+    }
+
+    private static boolean isTruncatedHeader(byte[] email, int rangeBytes) {
+        return email.length == rangeBytes && !EmailParser.containsEndOfHeader(email);
+    }
+
+    private byte[] fetchRange(S3Object s3Object, int rangeBytes) {
+        var request = GetObjectRequest.builder()
+                          .bucket(bucketName)
+                          .key(s3Object.key())
+                          .range(String.format(HEADER_RANGE_TEMPLATE, rangeBytes - 1))
+                          .build();
+        return s3Client.getObject(request, ResponseTransformer.toBytes()).asByteArray();
     }
 
     private Boolean logErrorAndReturnFalse(Failure<Boolean> fail) {
@@ -87,25 +263,38 @@ public class VerifyScopusEmailReceivedHandler
         return false;
     }
 
-    private boolean validateEmail(Message email, String objectKey) {
-        var scopusEmailValidator = new ScopusEmailValidator(bucketName, objectKey);
-        scopusEmailValidator.validateEmail(email);
-        return true;
+    //The listed size is the size of the whole email, although only the header range was downloaded.
+    private boolean isValidScopusEmail(Header header, S3Object s3Object) {
+        var size = Optional.ofNullable(s3Object.size()).orElse(UNKNOWN_SIZE);
+        return emailValidator.validate(header, size).valid();
     }
 
     private List<S3Object> getObjectsYoungerThan24Hours() {
-        var response = s3Client.listObjectsV2(createListObjectRequest());
-        return response.contents()
-                   .stream()
-                   .filter(VerifyScopusEmailReceivedHandler::isWithinLast24Hours)
+        return listAllObjects().stream()
+                   .filter(s3Object -> isWithinLast24Hours(s3Object.lastModified()))
+                   .sorted(Comparator.comparing(S3Object::lastModified).reversed())
                    .toList();
     }
 
-    private ListObjectsV2Request createListObjectRequest() {
+    //A burst of spam can push the Scopus email past the first page, so every page is read.
+    private List<S3Object> listAllObjects() {
+        var objects = new ArrayList<S3Object>();
+        String continuationToken = null;
+        do {
+            var response = s3Client.listObjectsV2(createListObjectRequest(continuationToken));
+            objects.addAll(response.contents());
+            continuationToken = Boolean.TRUE.equals(response.isTruncated())
+                                    ? response.nextContinuationToken()
+                                    : null;
+        } while (continuationToken != null);
+        return objects;
+    }
+
+    private ListObjectsV2Request createListObjectRequest(String continuationToken) {
         return ListObjectsV2Request
                    .builder()
                    .prefix(StringUtils.EMPTY_STRING)
-                   .maxKeys(GENEROUS_LIMIT_OF_EXPECTED_KEYS_IN_BUCKET)
+                   .continuationToken(continuationToken)
                    .bucket(bucketName)
                    .build();
     }
@@ -1,27 +1,81 @@
 package no.sikt.nva.email.reader.mapper.messagebodyreader;
 
 import io.vavr.control.Try;
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.codec.DecodeMonitor;
+import org.apache.james.mime4j.dom.Header;
 import org.apache.james.mime4j.dom.Message;
+import org.apache.james.mime4j.field.LenientFieldParser;
 import org.apache.james.mime4j.message.DefaultMessageBuilder;
+import org.apache.james.mime4j.message.HeaderImpl;
+import org.apache.james.mime4j.parser.AbstractContentHandler;
+import org.apache.james.mime4j.parser.MimeStreamParser;
+import org.apache.james.mime4j.stream.Field;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 public final class EmailParser {
 
-
-
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
     private EmailParser() {
 
     }
 
     public static Message parseEmail(String emailString) {
-        return Try.of(() -> extractMimeMessage(emailString))
+        return parseEmail(new ByteArrayInputStream(emailString.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static Message parseEmail(InputStream emailStream) {
+        return Try.of(() -> extractMimeMessage(emailStream))
+                .get();
+    }
+
+    //Stops reading at the end of the top-level header, validation-only callers never decode the body parts.
+    public static Header parseHeader(InputStream emailStream) {
+        return Try.of(() -> extractTopLevelHeader(emailStream))
                 .get();
     }
 
-    private static Message extractMimeMessage(String emailString) throws IOException {
-        return new DefaultMessageBuilder().parseMessage(new ByteArrayInputStream(emailString.getBytes()));
+    //The header ends at the first empty line, with or without carriage returns.
+    public static boolean containsEndOfHeader(byte[] email) {
+        for (var index = 0; index < email.length - 1; index++) {
+            if (email[index] == LINE_FEED && isLineFeedAt(email, email[index + 1] == CARRIAGE_RETURN
+                                                                   ? index + 2
+                                                                   : index + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLineFeedAt(byte[] email, int index) {
+        return index < email.length && email[index] == LINE_FEED;
+    }
+
+    private static Message extractMimeMessage(InputStream emailStream) throws IOException {
+        return new DefaultMessageBuilder().parseMessage(emailStream);
+    }
+
+    private static Header extractTopLevelHeader(InputStream emailStream) throws IOException, MimeException {
+        var header = new HeaderImpl();
+        var parser = new MimeStreamParser();
+        parser.setContentHandler(new AbstractContentHandler() {
+            @Override
+            public void field(Field field) throws MimeException {
+                header.addField(LenientFieldParser.getParser().parse(field, DecodeMonitor.SILENT));
+            }
+
+            @Override
+            public void endHeader() {
+                parser.stop();
+            }
+        });
+        parser.parse(emailStream);
+        return header;
     }
 
 
@@ -0,0 +1,35 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+import org.apache.james.mime4j.dom.Header;
+import org.apache.james.mime4j.stream.Field;
+
+//At least one field with the name must have a body matching the pattern. The pattern is compiled once per rule set.
+public record HeaderPatternRule(String name, int cost, String fieldName, Pattern pattern) implements ValidationRule {
+
+    public static final String SPF = "Spf";
+    public static final String DKIM = "Dkim";
+    public static final String RECEIVED_SPF_HEADER = "Received-SPF";
+    public static final String AUTHENTICATION_RESULTS_HEADER = "Authentication-Results";
+    private static final String NO_MATCHING_FIELD_MESSAGE = "No %s header matching %s in email";
+
+    public static HeaderPatternRule spf(String pattern) {
+        return new HeaderPatternRule(SPF, 4, RECEIVED_SPF_HEADER, Pattern.compile(pattern));
+    }
+
+    public static HeaderPatternRule dkim(String pattern) {
+        return new HeaderPatternRule(DKIM, 3, AUTHENTICATION_RESULTS_HEADER, Pattern.compile(pattern));
+    }
+
+    @Override
+    public Optional<String> violation(Header header, long sizeInBytes) {
+        return header.getFields(fieldName).stream().anyMatch(this::matches)
+                   ? Optional.empty()
+                   : Optional.of(String.format(NO_MATCHING_FIELD_MESSAGE, fieldName, pattern.pattern()));
+    }
+
+    private boolean matches(Field field) {
+        return pattern.matcher(field.getBody()).find();
+    }
+}
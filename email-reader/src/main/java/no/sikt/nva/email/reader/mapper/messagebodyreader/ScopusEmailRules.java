@@ -0,0 +1,64 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import static nva.commons.core.attempt.Try.attempt;
+import java.util.ArrayList;
+import java.util.List;
+import nva.commons.core.Environment;
+import nva.commons.core.JsonUtils;
+
+//Configures the rules a Scopus email must pass, a missing value disables its rule. Read as JSON from
+//SCOPUS_EMAIL_RULES, without it Scopus emails are validated by SPF, subject and sender as they always were.
+public record ScopusEmailRules(Long maxSizeBytes,
+                               String subject,
+                               List<String> senders,
+                               List<String> senderDomains,
+                               String dkimPattern,
+                               String spfPattern) {
+
+    public static final String EMAIL_RULES_ENV_NAME = "SCOPUS_EMAIL_RULES";
+    public static final String DEFAULT_SPF_PATTERN = "^Pass \\(protection\\.outlook\\.com";
+
+    public static ScopusEmailRules defaults() {
+        return new ScopusEmailRules(null,
+                                    ScopusEmailValidator.VALID_SUBJECT,
+                                    List.of(ScopusEmailValidator.VALID_FROM_LOCAL_PART
+                                            + "@" + ScopusEmailValidator.VALID_FROM_DOMAIN),
+                                    List.of(ScopusEmailValidator.SIKT_OUTLOOK_DOMAIN),
+                                    null,
+                                    DEFAULT_SPF_PATTERN);
+    }
+
+    public static ScopusEmailRules fromEnvironment(Environment environment) {
+        return environment.readEnvOpt(EMAIL_RULES_ENV_NAME)
+                   .map(ScopusEmailRules::fromJson)
+                   .orElseGet(ScopusEmailRules::defaults);
+    }
+
+    public static ScopusEmailRules fromJson(String json) {
+        return attempt(() -> JsonUtils.dtoObjectMapper.readValue(json, ScopusEmailRules.class)).orElseThrow();
+    }
+
+    public List<ValidationRule> toRules() {
+        var rules = new ArrayList<ValidationRule>();
+        if (maxSizeBytes != null) {
+            rules.add(new SizeRule(maxSizeBytes));
+        }
+        if (subject != null) {
+            rules.add(new SubjectRule(subject));
+        }
+        if (senders != null || senderDomains != null) {
+            rules.add(SenderRule.ignoringCase(orEmpty(senders), orEmpty(senderDomains)));
+        }
+        if (dkimPattern != null) {
+            rules.add(HeaderPatternRule.dkim(dkimPattern));
+        }
+        if (spfPattern != null) {
+            rules.add(HeaderPatternRule.spf(spfPattern));
+        }
+        return List.copyOf(rules);
+    }
+
+    private static List<String> orEmpty(List<String> values) {
+        return values == null ? List.of() : values;
+    }
+}
@@ -0,0 +1,109 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import nva.commons.core.paths.UriWrapper;
+
+//State is kept between calls to scan, so scanning body parts one by one equals scanning them concatenated.
+public class ScopusUrlExtractor {
+
+    public static final String DELIVERY_URL_PREFIX =
+        "https://sccontent-scudd-delivery-prod.s3.amazonaws.com/sccontent-scudd-delivery-prod/";
+    public static final String CITED_BY_MARKER = "ANI-CITEDBY";
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+    private static final String URL_PUNCTUATION = ".-/:#?=&;%~+_";
+    private static final byte[] PREFIX = DELIVERY_URL_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final int[] PREFIX_FALLBACK = computeFallbackTable(PREFIX);
+    private static final int END_OF_STREAM = -1;
+    private static final int NOT_COLLECTING = -1;
+    private final Set<URI> uris = new HashSet<>();
+    private final StringBuilder currentUrl = new StringBuilder();
+    private final int chunkSize;
+    private int matchedPrefixLength;
+    private int collectedSuffixLength = NOT_COLLECTING;
+
+    public ScopusUrlExtractor() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public ScopusUrlExtractor(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public void scan(InputStream inputStream) throws IOException {
+        var chunk = new byte[chunkSize];
+        var read = inputStream.read(chunk);
+        while (read != END_OF_STREAM) {
+            for (var index = 0; index < read; index++) {
+                accept(chunk[index]);
+            }
+            read = inputStream.read(chunk);
+        }
+    }
+
+    public Set<URI> finish() {
+        completeCurrentUrl();
+        return Set.copyOf(uris);
+    }
+
+    private static int[] computeFallbackTable(byte[] pattern) {
+        var table = new int[pattern.length];
+        var length = 0;
+        for (var index = 1; index < pattern.length; index++) {
+            while (length > 0 && pattern[index] != pattern[length]) {
+                length = table[length - 1];
+            }
+            if (pattern[index] == pattern[length]) {
+                length++;
+            }
+            table[index] = length;
+        }
+        return table;
+    }
+
+    private static boolean isUrlCharacter(byte character) {
+        return character >= 'a' && character <= 'z'
+               || character >= 'A' && character <= 'Z'
+               || character >= '0' && character <= '9'
+               || URL_PUNCTUATION.indexOf(character) >= 0;
+    }
+
+    private void accept(byte character) {
+        if (collectedSuffixLength != NOT_COLLECTING) {
+            if (isUrlCharacter(character)) {
+                currentUrl.append((char) character);
+                collectedSuffixLength++;
+                return;
+            }
+            completeCurrentUrl();
+        }
+        matchPrefix(character);
+    }
+
+    private void matchPrefix(byte character) {
+        while (matchedPrefixLength > 0 && character != PREFIX[matchedPrefixLength]) {
+            matchedPrefixLength = PREFIX_FALLBACK[matchedPrefixLength - 1];
+        }
+        if (character == PREFIX[matchedPrefixLength]) {
+            matchedPrefixLength++;
+        }
+        if (matchedPrefixLength == PREFIX.length) {
+            matchedPrefixLength = 0;
+            currentUrl.setLength(0);
+            currentUrl.append(DELIVERY_URL_PREFIX);
+            collectedSuffixLength = 0;
+        }
+    }
+
+    private void completeCurrentUrl() {
+        if (collectedSuffixLength > 0 && currentUrl.indexOf(CITED_BY_MARKER) < 0) {
+            uris.add(UriWrapper.fromUri(currentUrl.toString()).getUri());
+        }
+        collectedSuffixLength = NOT_COLLECTING;
+        currentUrl.setLength(0);
+    }
+}
@@ -0,0 +1,54 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.james.mime4j.dom.Header;
+import org.apache.james.mime4j.dom.address.Mailbox;
+import org.apache.james.mime4j.dom.field.FieldName;
+import org.apache.james.mime4j.dom.field.MailboxListField;
+
+//The first From mailbox must be one of the addresses or belong to one of the domains. The sets hold lower case
+//values, ignoringCase lower cases configured values so the comparison ignores case.
+public record SenderRule(Set<String> addresses, Set<String> domains) implements ValidationRule {
+
+    public static final String NAME = "Sender";
+    private static final String WRONG_SENDER_MESSAGE = "Wrong sender in email: %s";
+
+    public static SenderRule ignoringCase(Collection<String> addresses, Collection<String> domains) {
+        return new SenderRule(toLowerCase(addresses), toLowerCase(domains));
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int cost() {
+        return 2;
+    }
+
+    @Override
+    public Optional<String> violation(Header header, long sizeInBytes) {
+        var sender = Optional.ofNullable(header.getField(FieldName.FROM))
+                         .filter(MailboxListField.class::isInstance)
+                         .map(field -> ((MailboxListField) field).getMailboxList())
+                         .filter(mailboxes -> !mailboxes.isEmpty())
+                         .map(mailboxes -> mailboxes.get(0));
+        return sender.filter(this::isAllowed).isPresent()
+                   ? Optional.empty()
+                   : Optional.of(String.format(WRONG_SENDER_MESSAGE, sender.map(Mailbox::getAddress).orElse(null)));
+    }
+
+    private boolean isAllowed(Mailbox sender) {
+        return addresses.contains(sender.getAddress().toLowerCase(Locale.ROOT))
+               || domains.contains(String.valueOf(sender.getDomain()).toLowerCase(Locale.ROOT));
+    }
+
+    private static Set<String> toLowerCase(Collection<String> values) {
+        return values.stream().map(value -> value.toLowerCase(Locale.ROOT)).collect(Collectors.toUnmodifiableSet());
+    }
+}
@@ -0,0 +1,28 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import java.util.Optional;
+import org.apache.james.mime4j.dom.Header;
+
+//Needs nothing but the object size, an email of unknown size passes.
+public record SizeRule(long maxSizeBytes) implements ValidationRule {
+
+    public static final String NAME = "Size";
+    private static final String TOO_LARGE_MESSAGE = "Email of %d bytes is larger than %d bytes";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int cost() {
+        return 0;
+    }
+
+    @Override
+    public Optional<String> violation(Header header, long sizeInBytes) {
+        return sizeInBytes > maxSizeBytes
+                   ? Optional.of(String.format(TOO_LARGE_MESSAGE, sizeInBytes, maxSizeBytes))
+                   : Optional.empty();
+    }
+}
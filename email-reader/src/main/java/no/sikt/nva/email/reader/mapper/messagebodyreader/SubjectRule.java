@@ -0,0 +1,33 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import java.util.Optional;
+import org.apache.james.mime4j.dom.Header;
+import org.apache.james.mime4j.dom.field.FieldName;
+import org.apache.james.mime4j.dom.field.UnstructuredField;
+
+public record SubjectRule(String subject) implements ValidationRule {
+
+    public static final String NAME = "Subject";
+    private static final String WRONG_SUBJECT_MESSAGE = "Wrong subject received: %s, should have been: %s";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int cost() {
+        return 1;
+    }
+
+    @Override
+    public Optional<String> violation(Header header, long sizeInBytes) {
+        var receivedSubject = Optional.ofNullable(header.getField(FieldName.SUBJECT))
+                                  .filter(UnstructuredField.class::isInstance)
+                                  .map(field -> ((UnstructuredField) field).getValue())
+                                  .orElse(null);
+        return subject.equals(receivedSubject)
+                   ? Optional.empty()
+                   : Optional.of(String.format(WRONG_SUBJECT_MESSAGE, receivedSubject, subject));
+    }
+}
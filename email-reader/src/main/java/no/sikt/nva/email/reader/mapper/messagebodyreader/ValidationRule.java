@@ -0,0 +1,16 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import java.util.Optional;
+import org.apache.james.mime4j.dom.Header;
+
+//A precompiled, immutable check of one property of an email, safe to share between threads and invocations.
+public interface ValidationRule {
+
+    String name();
+
+    //Relative cost of evaluating the rule, cheaper rules are evaluated first.
+    int cost();
+
+    //Describes why the email breaks the rule, empty when the email passes.
+    Optional<String> violation(Header header, long sizeInBytes);
+}
@@ -0,0 +1,14 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+public record ValidationVerdict(boolean valid, String rule, String reason) {
+
+    private static final ValidationVerdict ACCEPTED = new ValidationVerdict(true, null, null);
+
+    public static ValidationVerdict accepted() {
+        return ACCEPTED;
+    }
+
+    public static ValidationVerdict rejected(String rule, String reason) {
+        return new ValidationVerdict(false, rule, reason);
+    }
+}
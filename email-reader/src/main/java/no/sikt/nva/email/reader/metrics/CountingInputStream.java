@@ -0,0 +1,51 @@
+package no.sikt.nva.email.reader.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CountingInputStream extends FilterInputStream {
+
+    private static final int END_OF_STREAM = -1;
+    private final AtomicLong count = new AtomicLong();
+
+    public CountingInputStream(InputStream inputStream) {
+        super(inputStream);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var value = super.read();
+        if (value != END_OF_STREAM) {
+            count.incrementAndGet();
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        var bytesRead = super.read(buffer, offset, length);
+        if (bytesRead > 0) {
+            count.addAndGet(bytesRead);
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public long skip(long length) throws IOException {
+        var skipped = super.skip(length);
+        count.addAndGet(skipped);
+        return skipped;
+    }
+
+    //Rewinding would count the same bytes twice.
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+}
@@ -0,0 +1,18 @@
+package no.sikt.nva.email.reader.metrics;
+
+import java.io.PrintStream;
+import no.sikt.nva.email.metrics.MetricsLogger;
+
+//Every metric of the Scopus reader is reported per pipeline stage, in a namespace of its own.
+public final class ScopusMetrics {
+
+    public static final String NAMESPACE = "NVA/ScopusEmailReader";
+    public static final String STAGE_DIMENSION = "Stage";
+
+    private ScopusMetrics() {
+    }
+
+    public static MetricsLogger createMetricsLogger(PrintStream output) {
+        return new MetricsLogger(NAMESPACE, STAGE_DIMENSION, output);
+    }
+}
@@ -0,0 +1,5 @@
+package no.sikt.nva.email.reader.model;
+
+public record ArchiveEntry(String key, long size) {
+
+}
@@ -0,0 +1,13 @@
+package no.sikt.nva.email.reader.model;
+
+import java.util.List;
+
+public record ArchiveManifest(String archive, int entryCount, long totalSize, List<ArchiveEntry> entries) {
+
+    public static ArchiveManifest of(String archive, List<ArchiveEntry> entries) {
+        return new ArchiveManifest(archive,
+                                   entries.size(),
+                                   entries.stream().mapToLong(ArchiveEntry::size).sum(),
+                                   entries);
+    }
+}
@@ -0,0 +1,31 @@
+package no.sikt.nva.email.reader.model;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+//The downloads of one email. Pending URIs are left for the next invocation, completed URIs map to their stored archive.
+public record ScopusEmailContinuation(String emailKey, List<URI> pending, Map<URI, URI> completed) {
+
+    public static ScopusEmailContinuation start(String emailKey, Collection<URI> uris) {
+        return new ScopusEmailContinuation(emailKey, List.copyOf(uris), Map.of());
+    }
+
+    public ScopusEmailContinuation complete(URI uri, URI storedUri) {
+        var stillPending = pending.stream().filter(pendingUri -> !pendingUri.equals(uri)).toList();
+        var nowCompleted = new LinkedHashMap<>(completed);
+        nowCompleted.put(uri, storedUri);
+        return new ScopusEmailContinuation(emailKey, stillPending, nowCompleted);
+    }
+
+    public boolean hasPendingUris() {
+        return !pending.isEmpty();
+    }
+
+    public Stream<URI> storedUris() {
+        return completed.values().stream();
+    }
+}
@@ -0,0 +1,7 @@
+package no.sikt.nva.email.reader.model;
+
+import java.time.Instant;
+
+public record ScopusEmailHeartbeat(Instant validatedAt, String objectKey, String messageId, int uriCount) {
+
+}
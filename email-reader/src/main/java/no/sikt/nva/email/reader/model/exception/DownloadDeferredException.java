@@ -0,0 +1,10 @@
+package no.sikt.nva.email.reader.model.exception;
+
+//Thrown instead of starting a download that cannot finish before the invocation times out. The download stays pending
+//and is not a failure of the email.
+public class DownloadDeferredException extends RuntimeException {
+
+    public DownloadDeferredException(String message) {
+        super(message);
+    }
+}
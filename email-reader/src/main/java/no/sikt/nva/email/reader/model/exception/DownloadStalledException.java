@@ -0,0 +1,12 @@
+package no.sikt.nva.email.reader.model.exception;
+
+import java.io.IOException;
+
+//Thrown by a watched download the watchdog aborted, the message is the reason. Being an IOException it is handed to
+//the resume logic like any broken connection.
+public class DownloadStalledException extends IOException {
+
+    public DownloadStalledException(String reason, Throwable cause) {
+        super(reason, cause);
+    }
+}
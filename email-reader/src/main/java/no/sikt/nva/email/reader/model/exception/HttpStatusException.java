@@ -0,0 +1,25 @@
+package no.sikt.nva.email.reader.model.exception;
+
+import java.util.Set;
+
+//A response with an unexpected status code. Client errors other than timeouts and throttling are permanent, an expired
+//presigned URL answers 403 or 404 and asking again only delays the failure.
+public class HttpStatusException extends RuntimeException {
+
+    private static final Set<Integer> TEMPORARY_CLIENT_ERRORS = Set.of(408, 425, 429);
+    private static final int FIRST_SERVER_ERROR = 500;
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode) {
+        super("Request failed with status code: " + statusCode);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isRetryable() {
+        return statusCode >= FIRST_SERVER_ERROR || TEMPORARY_CLIENT_ERRORS.contains(statusCode);
+    }
+}
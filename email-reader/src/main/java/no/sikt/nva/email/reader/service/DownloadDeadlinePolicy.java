@@ -0,0 +1,42 @@
+package no.sikt.nva.email.reader.service;
+
+import java.time.Duration;
+import java.util.Optional;
+import nva.commons.core.Environment;
+import nva.commons.core.JacocoGenerated;
+
+//Estimates the time a download needs before it is started. The reserve leaves time to record the continuation and
+//report the outcome, and an archive of known size needs its transfer time at the expected throughput on top.
+public class DownloadDeadlinePolicy {
+
+    public static final String RESERVE_ENV_NAME = "SCOPUS_DOWNLOAD_DEADLINE_RESERVE_SECONDS";
+    public static final String EXPECTED_THROUGHPUT_ENV_NAME = "SCOPUS_DOWNLOAD_EXPECTED_BYTES_PER_SECOND";
+    public static final Duration DEFAULT_RESERVE = Duration.ofSeconds(60);
+    public static final long DEFAULT_EXPECTED_BYTES_PER_SECOND = 16 * 1024 * 1024;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private final long reserveMillis;
+    private final long expectedBytesPerSecond;
+
+    public DownloadDeadlinePolicy(Duration reserve, long expectedBytesPerSecond) {
+        this.reserveMillis = reserve.toMillis();
+        this.expectedBytesPerSecond = expectedBytesPerSecond;
+    }
+
+    public static DownloadDeadlinePolicy withDefaults() {
+        return new DownloadDeadlinePolicy(DEFAULT_RESERVE, DEFAULT_EXPECTED_BYTES_PER_SECOND);
+    }
+
+    @JacocoGenerated
+    public static DownloadDeadlinePolicy fromEnvironment(Environment environment) {
+        return new DownloadDeadlinePolicy(
+            environment.readEnvOpt(RESERVE_ENV_NAME).map(Long::parseLong).map(Duration::ofSeconds)
+                .orElse(DEFAULT_RESERVE),
+            environment.readEnvOpt(EXPECTED_THROUGHPUT_ENV_NAME).map(Long::parseLong)
+                .orElse(DEFAULT_EXPECTED_BYTES_PER_SECOND));
+    }
+
+    public long requiredMillis(Optional<RemoteFileMetadata> remoteFile) {
+        var contentLength = remoteFile.map(RemoteFileMetadata::contentLength).orElse(0L);
+        return reserveMillis + Math.max(0L, contentLength) * MILLIS_PER_SECOND / expectedBytesPerSecond;
+    }
+}
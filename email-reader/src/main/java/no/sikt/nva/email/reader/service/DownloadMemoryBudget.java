@@ -0,0 +1,45 @@
+package no.sikt.nva.email.reader.service;
+
+import nva.commons.core.JacocoGenerated;
+
+//Bounds the heap held by download and upload buffers to a share of the max heap. The buffers are the archive upload
+//parts, the entry upload parts and the small entries uploaded from memory, shared by all downloads, and per
+//concurrent download its segments in flight and its extraction pipe:
+//  partSize * bufferCount + entryPartSize * (entryBufferCount + entryUploadConcurrency)
+//    + downloadParallelism * (segmentSize * segmentConcurrency + pipeBufferSize)
+//The rest of the heap is left to the HTTP and S3 clients and to parsing the emails.
+public class DownloadMemoryBudget {
+
+    public static final double BUFFER_HEAP_SHARE = 0.5;
+    private static final long SHARED_BUFFER_BYTES =
+        (long) StreamingS3Uploader.DEFAULT_PART_SIZE * StreamingS3Uploader.DEFAULT_BUFFER_COUNT
+        + (long) ZipEntryExtractor.ENTRY_PART_SIZE
+          * (ZipEntryExtractor.ENTRY_BUFFER_COUNT + ZipEntryExtractor.ENTRY_UPLOAD_CONCURRENCY);
+    private static final int MIN_SEGMENT_CONCURRENCY = 1;
+    private final long maxHeapBytes;
+
+    public DownloadMemoryBudget(long maxHeapBytes) {
+        this.maxHeapBytes = maxHeapBytes;
+    }
+
+    @JacocoGenerated
+    public static DownloadMemoryBudget forRuntime() {
+        return new DownloadMemoryBudget(Runtime.getRuntime().maxMemory());
+    }
+
+    public static long bufferedBytes(int downloadParallelism, int segmentSize, int segmentConcurrency) {
+        return SHARED_BUFFER_BYTES
+               + downloadParallelism * ((long) segmentSize * segmentConcurrency + ZipEntryExtractor.PIPE_BUFFER_SIZE);
+    }
+
+    //The configured segment concurrency, lowered until the buffers fit the budget, but never below one segment.
+    public int segmentConcurrency(int downloadParallelism, int segmentSize, int configuredConcurrency) {
+        var budgetBytes = (long) (maxHeapBytes * BUFFER_HEAP_SHARE);
+        var concurrency = configuredConcurrency;
+        while (concurrency > MIN_SEGMENT_CONCURRENCY
+               && bufferedBytes(downloadParallelism, segmentSize, concurrency) > budgetBytes) {
+            concurrency--;
+        }
+        return Math.max(MIN_SEGMENT_CONCURRENCY, concurrency);
+    }
+}
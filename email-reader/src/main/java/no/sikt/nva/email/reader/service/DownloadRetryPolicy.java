@@ -0,0 +1,166 @@
+package no.sikt.nva.email.reader.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnStateTransitionEvent;
+import io.github.resilience4j.core.IntervalFunction;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.retry.event.RetryEvent;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import no.sikt.nva.email.metrics.Metric;
+import no.sikt.nva.email.metrics.MetricsLogger;
+import no.sikt.nva.email.reader.metrics.ScopusMetrics;
+import no.sikt.nva.email.reader.model.exception.HttpStatusException;
+import nva.commons.core.Environment;
+import nva.commons.core.JacocoGenerated;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//One retry and one circuit breaker per host, shared by every download of the retrievers using the policy. Only
+//failures that can be temporary are retried, I/O errors and 408, 425, 429 and 5xx responses, with exponential backoff
+//and jitter. When most recent calls to a host failed that way its circuit opens, and calls fail without being sent
+//until the open state has passed. Every retry is reported with its attempt number and wait.
+public class DownloadRetryPolicy {
+
+    public static final String MAX_ATTEMPTS_ENV_NAME = "SCOPUS_DOWNLOAD_MAX_ATTEMPTS";
+    public static final String INITIAL_WAIT_ENV_NAME = "SCOPUS_DOWNLOAD_INITIAL_WAIT_MILLIS";
+    public static final String CIRCUIT_OPEN_WAIT_ENV_NAME = "SCOPUS_DOWNLOAD_CIRCUIT_OPEN_MILLIS";
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final Duration DEFAULT_INITIAL_WAIT = Duration.ofMillis(500);
+    public static final Duration DEFAULT_CIRCUIT_OPEN_WAIT = Duration.ofSeconds(30);
+    public static final double BACKOFF_MULTIPLIER = 2.0;
+    public static final double JITTER_FACTOR = 0.5;
+    public static final int CIRCUIT_WINDOW_SIZE = 10;
+    public static final int CIRCUIT_MINIMUM_CALLS = 5;
+    public static final float CIRCUIT_FAILURE_RATE_THRESHOLD = 50.0f;
+    public static final String RETRY_STAGE = "Retry";
+    public static final String ATTEMPT_METRIC = "Attempt";
+    public static final String RETRY_WAIT_METRIC = "RetryWait";
+    public static final String CIRCUIT_OPENED_METRIC = "CircuitOpened";
+    public static final String HOST_PROPERTY = "Host";
+    public static final String OUTCOME_PROPERTY = "Outcome";
+    public static final String RETRIED_OUTCOME = "Retried";
+    public static final String SUCCEEDED_OUTCOME = "Succeeded";
+    public static final String EXHAUSTED_OUTCOME = "Exhausted";
+    private static final Logger logger = LoggerFactory.getLogger(DownloadRetryPolicy.class);
+    private static final String RETRYING_MESSAGE = "Attempt {} against {} failed, retrying in {} ms";
+    private static final String CIRCUIT_TRANSITION_MESSAGE = "Circuit breaker for {} changed {}";
+    private final RetryRegistry retryRegistry;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final MetricsLogger metricsLogger;
+
+    public DownloadRetryPolicy(int maxAttempts,
+                               Duration initialWait,
+                               Duration circuitOpenWait,
+                               MetricsLogger metricsLogger) {
+        this.metricsLogger = metricsLogger;
+        this.retryRegistry = RetryRegistry.of(createRetryConfig(maxAttempts, initialWait));
+        this.circuitBreakerRegistry = CircuitBreakerRegistry.of(createCircuitBreakerConfig(circuitOpenWait));
+        retryRegistry.getEventPublisher().onEntryAdded(event -> reportRetries(event.getAddedEntry()));
+        circuitBreakerRegistry.getEventPublisher().onEntryAdded(event -> reportTransitions(event.getAddedEntry()));
+    }
+
+    public static DownloadRetryPolicy withDefaults() {
+        return new DownloadRetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_WAIT, DEFAULT_CIRCUIT_OPEN_WAIT,
+                                       ScopusMetrics.createMetricsLogger(System.out));
+    }
+
+    @JacocoGenerated
+    public static DownloadRetryPolicy fromEnvironment(Environment environment, MetricsLogger metricsLogger) {
+        return new DownloadRetryPolicy(
+            environment.readEnvOpt(MAX_ATTEMPTS_ENV_NAME).map(Integer::parseInt).orElse(DEFAULT_MAX_ATTEMPTS),
+            environment.readEnvOpt(INITIAL_WAIT_ENV_NAME).map(Long::parseLong).map(Duration::ofMillis)
+                .orElse(DEFAULT_INITIAL_WAIT),
+            environment.readEnvOpt(CIRCUIT_OPEN_WAIT_ENV_NAME).map(Long::parseLong).map(Duration::ofMillis)
+                .orElse(DEFAULT_CIRCUIT_OPEN_WAIT),
+            metricsLogger);
+    }
+
+    public static boolean isRetryable(Throwable throwable) {
+        return throwable instanceof HttpStatusException statusException
+                   ? statusException.isRetryable()
+                   : throwable instanceof IOException || throwable instanceof UncheckedIOException;
+    }
+
+    //Retry only sees runtime exceptions, so checked I/O errors are wrapped before they reach it.
+    public static RuntimeException unchecked(Throwable throwable) {
+        if (throwable instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return throwable instanceof IOException ioException
+                   ? new UncheckedIOException(ioException)
+                   : new IllegalStateException(throwable);
+    }
+
+    //Every attempt passes the circuit breaker, so an open circuit also ends the remaining retries.
+    public <T> T execute(URI uri, Supplier<T> call) {
+        var host = String.valueOf(uri.getHost());
+        var circuitBreaker = circuitBreakerRegistry.circuitBreaker(host);
+        var retry = retryRegistry.retry(host);
+        return Retry.decorateSupplier(retry, CircuitBreaker.decorateSupplier(circuitBreaker, call)).get();
+    }
+
+    private static RetryConfig createRetryConfig(int maxAttempts, Duration initialWait) {
+        return RetryConfig.custom()
+                   .maxAttempts(maxAttempts)
+                   .intervalFunction(IntervalFunction.ofExponentialRandomBackoff(initialWait, BACKOFF_MULTIPLIER,
+                                                                                 JITTER_FACTOR))
+                   .retryOnException(DownloadRetryPolicy::isRetryable)
+                   .build();
+    }
+
+    //Permanent failures such as an expired link say nothing about the host and are not counted.
+    private static CircuitBreakerConfig createCircuitBreakerConfig(Duration circuitOpenWait) {
+        return CircuitBreakerConfig.custom()
+                   .slidingWindowSize(CIRCUIT_WINDOW_SIZE)
+                   .minimumNumberOfCalls(CIRCUIT_MINIMUM_CALLS)
+                   .failureRateThreshold(CIRCUIT_FAILURE_RATE_THRESHOLD)
+                   .waitDurationInOpenState(circuitOpenWait)
+                   .permittedNumberOfCallsInHalfOpenState(1)
+                   .ignoreException(throwable -> !isRetryable(throwable))
+                   .build();
+    }
+
+    private void reportRetries(Retry retry) {
+        retry.getEventPublisher()
+            .onRetry(event -> {
+                logger.warn(RETRYING_MESSAGE, event.getNumberOfRetryAttempts(), event.getName(),
+                            event.getWaitInterval().toMillis(), event.getLastThrowable());
+                emitRetryMetrics(event, RETRIED_OUTCOME,
+                                 List.of(Metric.count(ATTEMPT_METRIC, event.getNumberOfRetryAttempts()),
+                                         Metric.milliseconds(RETRY_WAIT_METRIC,
+                                                             event.getWaitInterval().toMillis())));
+            })
+            .onSuccess(event -> emitRetryMetrics(event, SUCCEEDED_OUTCOME, attemptsOf(event)))
+            .onError(event -> emitRetryMetrics(event, EXHAUSTED_OUTCOME, attemptsOf(event)));
+    }
+
+    private void reportTransitions(CircuitBreaker circuitBreaker) {
+        circuitBreaker.getEventPublisher().onStateTransition(this::reportTransition);
+    }
+
+    private void reportTransition(CircuitBreakerOnStateTransitionEvent event) {
+        logger.warn(CIRCUIT_TRANSITION_MESSAGE, event.getCircuitBreakerName(), event.getStateTransition());
+        if (event.getStateTransition().getToState() == CircuitBreaker.State.OPEN) {
+            metricsLogger.emit(RETRY_STAGE, Map.of(HOST_PROPERTY, event.getCircuitBreakerName()),
+                               List.of(Metric.count(CIRCUIT_OPENED_METRIC, 1)));
+        }
+    }
+
+    private static List<Metric> attemptsOf(RetryEvent event) {
+        return List.of(Metric.count(ATTEMPT_METRIC, event.getNumberOfRetryAttempts()));
+    }
+
+    private void emitRetryMetrics(RetryEvent event, String outcome, List<Metric> metrics) {
+        metricsLogger.emit(RETRY_STAGE, Map.of(HOST_PROPERTY, event.getName(), OUTCOME_PROPERTY, outcome), metrics);
+    }
+}
@@ -0,0 +1,231 @@
+package no.sikt.nva.email.reader.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import no.sikt.nva.email.metrics.Metric;
+import no.sikt.nva.email.metrics.MetricsLogger;
+import no.sikt.nva.email.reader.metrics.ScopusMetrics;
+import no.sikt.nva.email.reader.model.exception.DownloadStalledException;
+import nva.commons.core.Environment;
+import nva.commons.core.JacocoGenerated;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Aborts response bodies that make no progress for the stall timeout, or that deliver less than the throughput floor
+//over a window. Only time spent inside read counts, so a consumer that stops reading, e.g. while an upload part is
+//sent, never looks like a slow server. An aborted read is interrupted and its stream closed, and the read fails with
+//DownloadStalledException naming the reason.
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class DownloadWatchdog {
+
+    public static final String STALL_TIMEOUT_ENV_NAME = "SCOPUS_DOWNLOAD_STALL_TIMEOUT_SECONDS";
+    public static final String MIN_THROUGHPUT_ENV_NAME = "SCOPUS_DOWNLOAD_MIN_BYTES_PER_SECOND";
+    public static final Duration DEFAULT_STALL_TIMEOUT = Duration.ofSeconds(60);
+    public static final long DEFAULT_MIN_BYTES_PER_SECOND = 64 * 1024;
+    public static final Duration DEFAULT_THROUGHPUT_WINDOW = Duration.ofSeconds(30);
+    public static final String WATCHDOG_STAGE = "Watchdog";
+    public static final String ABORTED_METRIC = "Aborted";
+    public static final String URI_PROPERTY = "Uri";
+    public static final String REASON_PROPERTY = "Reason";
+    public static final String STALLED_MESSAGE = "No bytes received for %d ms";
+    public static final String TOO_SLOW_MESSAGE = "Received %d bytes/s, below the floor of %d bytes/s";
+    private static final Logger logger = LoggerFactory.getLogger(DownloadWatchdog.class);
+    private static final String ABORTING_MESSAGE = "Aborting download of {}: {}";
+    private static final int CHECKS_PER_PERIOD = 10;
+    private static final long MIN_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final int END_OF_STREAM = -1;
+    private final long stallTimeoutNanos;
+    private final long minBytesPerSecond;
+    private final long throughputWindowNanos;
+    private final long checkIntervalNanos;
+    private final MetricsLogger metricsLogger;
+    private final ScheduledExecutorService scheduler;
+
+    public DownloadWatchdog(Duration stallTimeout,
+                            long minBytesPerSecond,
+                            Duration throughputWindow,
+                            MetricsLogger metricsLogger) {
+        this.stallTimeoutNanos = stallTimeout.toNanos();
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.throughputWindowNanos = throughputWindow.toNanos();
+        this.checkIntervalNanos = Math.max(MIN_CHECK_INTERVAL_NANOS,
+                                           Math.min(stallTimeoutNanos, throughputWindowNanos) / CHECKS_PER_PERIOD);
+        this.metricsLogger = metricsLogger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(DownloadWatchdog::daemonThread);
+    }
+
+    public static DownloadWatchdog withDefaults() {
+        return new DownloadWatchdog(DEFAULT_STALL_TIMEOUT, DEFAULT_MIN_BYTES_PER_SECOND, DEFAULT_THROUGHPUT_WINDOW,
+                                    ScopusMetrics.createMetricsLogger(System.out));
+    }
+
+    @JacocoGenerated
+    public static DownloadWatchdog fromEnvironment(Environment environment, MetricsLogger metricsLogger) {
+        return new DownloadWatchdog(
+            environment.readEnvOpt(STALL_TIMEOUT_ENV_NAME).map(Long::parseLong).map(Duration::ofSeconds)
+                .orElse(DEFAULT_STALL_TIMEOUT),
+            environment.readEnvOpt(MIN_THROUGHPUT_ENV_NAME).map(Long::parseLong)
+                .orElse(DEFAULT_MIN_BYTES_PER_SECOND),
+            DEFAULT_THROUGHPUT_WINDOW,
+            metricsLogger);
+    }
+
+    public InputStream watch(URI uri, InputStream body) {
+        var watchedStream = new WatchedInputStream(uri, body);
+        watchedStream.start();
+        return watchedStream;
+    }
+
+    private static Thread daemonThread(Runnable runnable) {
+        var thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void reportAbort(URI uri, String reason) {
+        logger.warn(ABORTING_MESSAGE, uri, reason);
+        metricsLogger.emit(WATCHDOG_STAGE, Map.of(URI_PROPERTY, uri.toString(), REASON_PROPERTY, reason),
+                           List.of(Metric.count(ABORTED_METRIC, 1)));
+    }
+
+    private final class WatchedInputStream extends FilterInputStream {
+
+        private final Object lock = new Object();
+        private final URI uri;
+        private ScheduledFuture<?> check;
+        private Thread readingThread;
+        private boolean reading;
+        private long readStartNanos;
+        private long windowReadNanos;
+        private long windowBytes;
+        private String abortReason;
+
+        private WatchedInputStream(URI uri, InputStream body) {
+            super(body);
+            this.uri = uri;
+        }
+
+        private void start() {
+            check = scheduler.scheduleAtFixedRate(this::checkProgress, checkIntervalNanos, checkIntervalNanos,
+                                                  TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int read() throws IOException {
+            var singleByte = new byte[1];
+            var read = read(singleByte, 0, 1);
+            return read == END_OF_STREAM ? END_OF_STREAM : Byte.toUnsignedInt(singleByte[0]);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            beginRead();
+            try {
+                var read = super.read(buffer, offset, length);
+                endRead(read, null);
+                return read;
+            } catch (IOException exception) {
+                endRead(0, exception);
+                throw exception;
+            }
+        }
+
+        //Skipped bytes are not timed, reading them keeps every byte under watch.
+        @Override
+        public long skip(long length) throws IOException {
+            return read() == END_OF_STREAM ? 0 : 1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            check.cancel(false);
+            super.close();
+        }
+
+        private void beginRead() throws IOException {
+            synchronized (lock) {
+                throwIfAborted(null);
+                readingThread = Thread.currentThread();
+                reading = true;
+                readStartNanos = System.nanoTime();
+            }
+        }
+
+        //An abort can interrupt the read right as it returns, the interrupt is cleared so it never reaches later
+        //blocking calls such as the request that resumes the download.
+        private void endRead(int read, IOException failure) throws IOException {
+            synchronized (lock) {
+                reading = false;
+                windowReadNanos += System.nanoTime() - readStartNanos;
+                if (abortReason != null) {
+                    Thread.interrupted();
+                    throwIfAborted(failure);
+                }
+                if (read == END_OF_STREAM) {
+                    check.cancel(false);
+                } else {
+                    windowBytes += read;
+                }
+            }
+        }
+
+        private void throwIfAborted(IOException failure) throws DownloadStalledException {
+            if (abortReason != null) {
+                throw new DownloadStalledException(abortReason, failure);
+            }
+        }
+
+        //The abort is reported before the read is interrupted, so it is recorded by the time the read fails.
+        private void checkProgress() {
+            synchronized (lock) {
+                var reason = findAbortReason(System.nanoTime());
+                if (reason == null) {
+                    return;
+                }
+                abortReason = reason;
+                check.cancel(false);
+                reportAbort(uri, reason);
+                if (reading) {
+                    readingThread.interrupt();
+                }
+            }
+            closeQuietly();
+        }
+
+        private String findAbortReason(long now) {
+            var currentReadNanos = reading ? now - readStartNanos : 0;
+            if (currentReadNanos > stallTimeoutNanos) {
+                return String.format(STALLED_MESSAGE, TimeUnit.NANOSECONDS.toMillis(currentReadNanos));
+            }
+            var readNanos = windowReadNanos + currentReadNanos;
+            if (readNanos < throughputWindowNanos) {
+                return null;
+            }
+            var bytesPerSecond = windowBytes * NANOS_PER_SECOND / readNanos;
+            windowBytes = 0;
+            windowReadNanos = -currentReadNanos;
+            return bytesPerSecond < minBytesPerSecond
+                       ? String.format(TOO_SLOW_MESSAGE, bytesPerSecond, minBytesPerSecond)
+                       : null;
+        }
+
+        //Closing unblocks reads that do not respond to interrupts, the read fails either way.
+        private void closeQuietly() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                //the stream is abandoned
+            }
+        }
+    }
+}
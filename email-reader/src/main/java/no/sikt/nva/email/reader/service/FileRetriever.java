@@ -3,8 +3,18 @@ package no.sikt.nva.email.reader.service;
 
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Optional;
 
 public interface FileRetriever {
 
     InputStream retrieveFile(URI uri);
+
+    default Optional<RemoteFileMetadata> fetchMetadata(URI uri) {
+        return Optional.empty();
+    }
+
+    //Retrieves the file described by metadata from an earlier fetchMetadata, so it is not probed a second time.
+    default InputStream retrieveFile(URI uri, Optional<RemoteFileMetadata> metadata) {
+        return retrieveFile(uri);
+    }
 }
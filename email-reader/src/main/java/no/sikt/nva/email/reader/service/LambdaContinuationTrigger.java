@@ -0,0 +1,67 @@
+package no.sikt.nva.email.reader.service;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3EventNotificationRecord;
+import io.vavr.Lazy;
+import io.vavr.control.Try;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import nva.commons.core.JsonUtils;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvocationType;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+
+//Invokes the running function again, asynchronously, with an S3 event naming the emails to continue. The invoked ARN
+//carries the alias, so the continuation runs on the same published version. The client is created on first use, an
+//invocation that defers nothing never pays for it.
+public class LambdaContinuationTrigger implements ScopusEmailContinuationTrigger {
+
+    public static final String RECORDS_FIELD = "Records";
+    public static final String S3_FIELD = "s3";
+    public static final String BUCKET_FIELD = "bucket";
+    public static final String NAME_FIELD = "name";
+    public static final String OBJECT_FIELD = "object";
+    public static final String KEY_FIELD = "key";
+    public static final String SIZE_FIELD = "size";
+    private final Lazy<LambdaClient> lambdaClient;
+
+    public LambdaContinuationTrigger(LambdaClient lambdaClient) {
+        this(Lazy.of(() -> lambdaClient));
+    }
+
+    private LambdaContinuationTrigger(Lazy<LambdaClient> lambdaClient) {
+        this.lambdaClient = lambdaClient;
+    }
+
+    public static LambdaContinuationTrigger withDefaultClient() {
+        return new LambdaContinuationTrigger(Lazy.of(LambdaClient::create));
+    }
+
+    @Override
+    public void trigger(Collection<S3EventNotificationRecord> notifications, Context context) {
+        var request = InvokeRequest.builder()
+                          .functionName(context.getInvokedFunctionArn())
+                          .invocationType(InvocationType.EVENT)
+                          .payload(SdkBytes.fromUtf8String(toS3Event(notifications)))
+                          .build();
+        lambdaClient.get().invoke(request);
+    }
+
+    private static String toS3Event(Collection<S3EventNotificationRecord> notifications) {
+        var records = notifications.stream().map(LambdaContinuationTrigger::toRecord).toList();
+        return Try.of(() -> JsonUtils.dtoObjectMapper.writeValueAsString(Map.of(RECORDS_FIELD, records))).get();
+    }
+
+    //Only the fields the reader uses are sent, the size is left out when the original event had none.
+    private static Map<String, Object> toRecord(S3EventNotificationRecord notification) {
+        var object = new LinkedHashMap<String, Object>();
+        object.put(KEY_FIELD, notification.getS3().getObject().getKey());
+        Optional.ofNullable(notification.getS3().getObject().getSizeAsLong())
+            .ifPresent(size -> object.put(SIZE_FIELD, size));
+        var bucket = Map.of(NAME_FIELD, notification.getS3().getBucket().getName());
+        return Map.of(S3_FIELD, Map.of(BUCKET_FIELD, bucket, OBJECT_FIELD, object));
+    }
+}
@@ -0,0 +1,43 @@
+package no.sikt.nva.email.reader.service;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PartBufferPool {
+
+    private final BlockingQueue<byte[]> freeBuffers = new LinkedBlockingQueue<>();
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+    private final int bufferSize;
+    private final int capacity;
+
+    public PartBufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+    }
+
+    //Blocks until a buffer is released when all buffers are in use, which throttles the reader to the uploader.
+    public byte[] acquire() throws InterruptedException {
+        var buffer = freeBuffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        return mayAllocateNewBuffer() ? new byte[bufferSize] : freeBuffers.take();
+    }
+
+    public void release(byte[] buffer) {
+        freeBuffers.add(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getAllocatedBuffers() {
+        return allocatedBuffers.get();
+    }
+
+    private boolean mayAllocateNewBuffer() {
+        return allocatedBuffers.getAndUpdate(count -> count < capacity ? count + 1 : count) < capacity;
+    }
+}
@@ -0,0 +1,71 @@
+package no.sikt.nva.email.reader.service;
+
+import io.vavr.control.Try;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Scopus links are presigned for GET only, so a one byte ranged GET is used instead of a HEAD request.
+public class RemoteFileInspector {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemoteFileInspector.class);
+    private static final Pattern CONTENT_RANGE_TOTAL = Pattern.compile("^bytes \\d+-\\d+/(\\d+)$");
+    private static final String FIRST_BYTE_RANGE = "bytes=0-0";
+    private static final String RANGE_HEADER = "Range";
+    private static final String COULD_NOT_INSPECT_MESSAGE = "Could not inspect {}";
+    private static final int TOTAL_LENGTH_GROUP = 1;
+    private final HttpClient httpClient;
+
+    public RemoteFileInspector(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    public Optional<RemoteFileMetadata> inspect(URI uri) {
+        return Try.of(() -> sendProbe(uri))
+                   .onFailure(throwable -> logger.warn(COULD_NOT_INSPECT_MESSAGE, uri, throwable))
+                   .toJavaOptional()
+                   .flatMap(RemoteFileInspector::toMetadata);
+    }
+
+    private HttpResponse<InputStream> sendProbe(URI uri) throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder()
+                          .GET()
+                          .setHeader(RANGE_HEADER, FIRST_BYTE_RANGE)
+                          .timeout(ZipFileRetriever.RESPONSE_TIMEOUT)
+                          .uri(uri)
+                          .build();
+        var response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        //The body is never needed, and when ranges are not supported it is the whole file.
+        response.body().close();
+        return response;
+    }
+
+    private static Optional<RemoteFileMetadata> toMetadata(HttpResponse<InputStream> response) {
+        var etag = response.headers().firstValue(ZipFileRetriever.ETAG_HEADER).orElse(null);
+        if (response.statusCode() == HttpURLConnection.HTTP_PARTIAL) {
+            return response.headers()
+                       .firstValue(ZipFileRetriever.CONTENT_RANGE_HEADER)
+                       .map(CONTENT_RANGE_TOTAL::matcher)
+                       .filter(Matcher::matches)
+                       .map(matcher -> Long.parseLong(matcher.group(TOTAL_LENGTH_GROUP)))
+                       .map(contentLength -> new RemoteFileMetadata(contentLength, etag, true));
+        }
+        if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+            return response.headers()
+                       .firstValueAsLong(ZipFileRetriever.CONTENT_LENGTH_HEADER)
+                       .stream()
+                       .mapToObj(contentLength -> new RemoteFileMetadata(contentLength, etag, false))
+                       .findFirst();
+        }
+        return Optional.empty();
+    }
+}
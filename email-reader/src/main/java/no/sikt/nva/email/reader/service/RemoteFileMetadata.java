@@ -0,0 +1,5 @@
+package no.sikt.nva.email.reader.service;
+
+public record RemoteFileMetadata(long contentLength, String etag, boolean acceptsRanges) {
+
+}
@@ -0,0 +1,96 @@
+package no.sikt.nva.email.reader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public class ResumableHttpInputStream extends InputStream {
+
+    public static final long UNKNOWN_LENGTH = -1L;
+    public static final int MAX_RESUMES_WITHOUT_PROGRESS = 3;
+    private static final int END_OF_STREAM = -1;
+    private static final int BYTE_MASK = 0xFF;
+    private final long expectedLength;
+    private final RangeOpener rangeOpener;
+    private InputStream current;
+    private long position;
+    private int resumesWithoutProgress;
+
+    public ResumableHttpInputStream(InputStream initialBody, long expectedLength, RangeOpener rangeOpener) {
+        super();
+        this.current = initialBody;
+        this.expectedLength = expectedLength;
+        this.rangeOpener = rangeOpener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        var singleByte = new byte[1];
+        var read = read(singleByte, 0, 1);
+        return read == END_OF_STREAM ? END_OF_STREAM : singleByte[0] & BYTE_MASK;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        var read = readOrResume(buffer, offset, length);
+        while (read == END_OF_STREAM && isTruncated()) {
+            resume(new IOException("Stream ended at byte " + position + " of " + expectedLength));
+            read = readOrResume(buffer, offset, length);
+        }
+        return read;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        current.close();
+    }
+
+    private int readOrResume(byte[] buffer, int offset, int length) throws IOException {
+        while (true) {
+            try {
+                var read = current.read(buffer, offset, length);
+                registerProgress(read);
+                return read;
+            } catch (IOException e) {
+                resume(e);
+            }
+        }
+    }
+
+    private void registerProgress(int read) {
+        if (read > 0) {
+            position += read;
+            resumesWithoutProgress = 0;
+        }
+    }
+
+    private boolean isTruncated() {
+        return expectedLength != UNKNOWN_LENGTH && position < expectedLength;
+    }
+
+    private void resume(IOException cause) throws IOException {
+        if (resumesWithoutProgress >= MAX_RESUMES_WITHOUT_PROGRESS) {
+            throw cause;
+        }
+        resumesWithoutProgress++;
+        closeQuietly(current);
+        current = rangeOpener.open(position);
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException ignored) {
+            //the broken stream is replaced anyway
+        }
+    }
+
+    @FunctionalInterface
+    public interface RangeOpener {
+
+        InputStream open(long offset) throws IOException;
+    }
+}
@@ -0,0 +1,66 @@
+package no.sikt.nva.email.reader.service;
+
+import io.vavr.control.Try;
+import java.util.Optional;
+import no.sikt.nva.email.reader.model.ScopusEmailContinuation;
+import nva.commons.core.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+//The progress of every email is kept in one small object, so an invocation that runs out of time or fails resumes the
+//pending downloads in the next invocation. It lives in the control bucket, like the heartbeat.
+public class ScopusEmailContinuationStore {
+
+    public static final String CONTINUATION_PREFIX = "continuation/";
+    private static final Logger logger = LoggerFactory.getLogger(ScopusEmailContinuationStore.class);
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final String JSON_EXTENSION = ".json";
+    private static final String COULD_NOT_WRITE_CONTINUATION = "Could not write continuation {} to {}";
+    private static final String COULD_NOT_READ_CONTINUATION = "Could not read continuation of {} from {}";
+    private final S3Client s3Client;
+    private final String bucket;
+
+    public ScopusEmailContinuationStore(S3Client s3Client, String bucket) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+    }
+
+    public static String continuationKey(String emailKey) {
+        return CONTINUATION_PREFIX + emailKey + JSON_EXTENSION;
+    }
+
+    //A lost continuation only costs the next invocation a fresh start, so failing to write it does not fail the email.
+    public ScopusEmailContinuation write(ScopusEmailContinuation continuation) {
+        var request = PutObjectRequest.builder()
+                          .bucket(bucket)
+                          .key(continuationKey(continuation.emailKey()))
+                          .contentType(JSON_CONTENT_TYPE)
+                          .build();
+        Try.of(() -> JsonUtils.dtoObjectMapper.writeValueAsString(continuation))
+            .map(content -> s3Client.putObject(request, RequestBody.fromString(content)))
+            .onFailure(throwable -> logger.warn(COULD_NOT_WRITE_CONTINUATION, continuation, bucket, throwable));
+        return continuation;
+    }
+
+    //A finished continuation is left by an email that completed, the same email delivered again starts over.
+    public Optional<ScopusEmailContinuation> readUnfinished(String emailKey) {
+        var request = GetObjectRequest.builder().bucket(bucket).key(continuationKey(emailKey)).build();
+        return Try.of(() -> s3Client.getObject(request, ResponseTransformer.toBytes()).asUtf8String())
+                   .mapTry(content -> JsonUtils.dtoObjectMapper.readValue(content, ScopusEmailContinuation.class))
+                   .onFailure(throwable -> logUnexpectedReadFailure(emailKey, throwable))
+                   .toJavaOptional()
+                   .filter(ScopusEmailContinuation::hasPendingUris);
+    }
+
+    private void logUnexpectedReadFailure(String emailKey, Throwable throwable) {
+        if (!(throwable instanceof NoSuchKeyException)) {
+            logger.warn(COULD_NOT_READ_CONTINUATION, emailKey, bucket, throwable);
+        }
+    }
+}
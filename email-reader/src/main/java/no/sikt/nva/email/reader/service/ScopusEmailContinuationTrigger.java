@@ -0,0 +1,11 @@
+package no.sikt.nva.email.reader.service;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3EventNotificationRecord;
+import java.util.Collection;
+
+//Starts the next invocation for emails with deferred downloads, so they do not depend on the retries of a failure.
+public interface ScopusEmailContinuationTrigger {
+
+    void trigger(Collection<S3EventNotificationRecord> notifications, Context context);
+}
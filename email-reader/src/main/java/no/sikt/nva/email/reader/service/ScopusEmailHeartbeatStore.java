@@ -0,0 +1,59 @@
+package no.sikt.nva.email.reader.service;
+
+import io.vavr.control.Try;
+import java.util.Optional;
+import no.sikt.nva.email.reader.model.ScopusEmailHeartbeat;
+import nva.commons.core.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+//The last valid Scopus email is recorded in one small object, so checking that an email arrived is a single GET.
+//It lives in the control bucket. Importers read every object of the archive bucket, and an object written to the email
+//bucket would be processed as a received email.
+public class ScopusEmailHeartbeatStore {
+
+    public static final String HEARTBEAT_KEY = "heartbeat/last-valid-scopus-email.json";
+    private static final Logger logger = LoggerFactory.getLogger(ScopusEmailHeartbeatStore.class);
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final String COULD_NOT_WRITE_HEARTBEAT = "Could not write heartbeat {} to {}";
+    private static final String COULD_NOT_READ_HEARTBEAT = "Could not read heartbeat from {}";
+    private final S3Client s3Client;
+    private final String bucket;
+
+    public ScopusEmailHeartbeatStore(S3Client s3Client, String bucket) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+    }
+
+    //A missing heartbeat only costs the verifier a fallback, so failing to write it does not fail the email.
+    public void write(ScopusEmailHeartbeat heartbeat) {
+        var request = PutObjectRequest.builder()
+                          .bucket(bucket)
+                          .key(HEARTBEAT_KEY)
+                          .contentType(JSON_CONTENT_TYPE)
+                          .build();
+        Try.of(() -> JsonUtils.dtoObjectMapper.writeValueAsString(heartbeat))
+            .map(content -> s3Client.putObject(request, RequestBody.fromString(content)))
+            .onFailure(throwable -> logger.warn(COULD_NOT_WRITE_HEARTBEAT, heartbeat, bucket, throwable));
+    }
+
+    public Optional<ScopusEmailHeartbeat> read() {
+        var request = GetObjectRequest.builder().bucket(bucket).key(HEARTBEAT_KEY).build();
+        return Try.of(() -> s3Client.getObject(request, ResponseTransformer.toBytes()).asUtf8String())
+                   .mapTry(content -> JsonUtils.dtoObjectMapper.readValue(content, ScopusEmailHeartbeat.class))
+                   .onFailure(this::logUnexpectedReadFailure)
+                   .toJavaOptional();
+    }
+
+    private void logUnexpectedReadFailure(Throwable throwable) {
+        if (!(throwable instanceof NoSuchKeyException)) {
+            logger.warn(COULD_NOT_READ_HEARTBEAT, bucket, throwable);
+        }
+    }
+}
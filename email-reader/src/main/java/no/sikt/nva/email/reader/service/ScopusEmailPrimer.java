@@ -0,0 +1,33 @@
+package no.sikt.nva.email.reader.service;
+
+import static no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator.UNKNOWN_SIZE;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Set;
+import no.sikt.nva.email.reader.mapper.messagebodyreader.EmailParser;
+import no.sikt.nva.email.reader.mapper.messagebodyreader.MultipartReader;
+import no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator;
+import nva.commons.core.ioutils.IoUtils;
+
+//Runs a bundled email through header parsing, parsing, validation and URL extraction, so a snapshot holds loaded
+//and warm classes.
+public final class ScopusEmailPrimer {
+
+    public static final String SAMPLE_EMAIL_RESOURCE = "priming/sample_scopus_email.eml";
+    private static final String PRIMING_BUCKET = "priming";
+
+    private ScopusEmailPrimer() {
+    }
+
+    public static Set<URI> primeEmailProcessing() throws IOException {
+        var validator = ScopusEmailValidator.withDefaultRules();
+        try (var headerStream = IoUtils.inputStreamFromResources(SAMPLE_EMAIL_RESOURCE)) {
+            validator.validate(EmailParser.parseHeader(headerStream), UNKNOWN_SIZE);
+        }
+        try (var emailStream = IoUtils.inputStreamFromResources(SAMPLE_EMAIL_RESOURCE)) {
+            var message = EmailParser.parseEmail(emailStream);
+            validator.validate(message, UNKNOWN_SIZE);
+            return new MultipartReader(message, PRIMING_BUCKET, SAMPLE_EMAIL_RESOURCE).extractScopusURL();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package no.sikt.nva.email.reader.service;
+
+import java.net.URI;
+import no.sikt.nva.email.reader.model.ScopusEmailContinuation;
+
+//The continuation of one email while its downloads run. A completion is recorded under the lock of its own email, so a
+//write never overtakes an earlier write of the same email and downloads of other emails never wait for it.
+public class ScopusEmailProgress {
+
+    private final ScopusEmailContinuationStore continuationStore;
+    private final Object lock = new Object();
+    private ScopusEmailContinuation continuation;
+
+    public ScopusEmailProgress(ScopusEmailContinuationStore continuationStore, ScopusEmailContinuation continuation) {
+        this.continuationStore = continuationStore;
+        this.continuation = continuation;
+    }
+
+    public ScopusEmailContinuation current() {
+        synchronized (lock) {
+            return continuation;
+        }
+    }
+
+    public void complete(URI uri, URI storedUri) {
+        synchronized (lock) {
+            continuation = continuationStore.write(continuation.complete(uri, storedUri));
+        }
+    }
+}
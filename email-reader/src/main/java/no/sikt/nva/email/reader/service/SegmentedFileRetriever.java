@@ -0,0 +1,139 @@
+package no.sikt.nva.email.reader.service;
+
+import io.vavr.control.Try;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import no.sikt.nva.email.reader.model.exception.HttpStatusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class SegmentedFileRetriever implements FileRetriever {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENCY = 4;
+    //A segment is read into memory before the response completes, so the timeout covers the whole segment and
+    //doubles as its throughput floor, 16 MiB in two minutes is about 140 KB/s.
+    public static final Duration SEGMENT_TIMEOUT = Duration.ofMinutes(2);
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedFileRetriever.class);
+    private static final String RANGE_HEADER = "Range";
+    private static final String IF_MATCH_HEADER = "If-Match";
+    private static final String RANGE_TEMPLATE = "bytes=%d-%d";
+    private static final String CONTENT_RANGE_PREFIX_TEMPLATE = "bytes %d-%d/";
+    private static final String FALLING_BACK_MESSAGE = "Ranged download not possible for {}, using single stream";
+    private static final String SEGMENTED_DOWNLOAD_MESSAGE = "Downloading {} bytes from {} in segments of {} bytes";
+    private final HttpClient httpClient;
+    private final FileRetriever fallbackRetriever;
+    private final RemoteFileInspector remoteFileInspector;
+    private final int segmentSize;
+    private final int concurrency;
+    private final ExecutorService segmentExecutor;
+    private final DownloadRetryPolicy retryPolicy;
+
+    public SegmentedFileRetriever(HttpClient httpClient, FileRetriever fallbackRetriever) {
+        this(httpClient, fallbackRetriever, DEFAULT_SEGMENT_SIZE, DEFAULT_CONCURRENCY);
+    }
+
+    public SegmentedFileRetriever(HttpClient httpClient,
+                                  FileRetriever fallbackRetriever,
+                                  int segmentSize,
+                                  int concurrency) {
+        this(httpClient, fallbackRetriever, segmentSize, concurrency, DownloadRetryPolicy.withDefaults());
+    }
+
+    public SegmentedFileRetriever(HttpClient httpClient,
+                                  FileRetriever fallbackRetriever,
+                                  int segmentSize,
+                                  int concurrency,
+                                  DownloadRetryPolicy retryPolicy) {
+        this.httpClient = httpClient;
+        this.fallbackRetriever = fallbackRetriever;
+        this.remoteFileInspector = new RemoteFileInspector(httpClient);
+        this.segmentSize = segmentSize;
+        this.concurrency = concurrency;
+        this.segmentExecutor = Executors.newCachedThreadPool(SegmentedFileRetriever::daemonThread);
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Override
+    public Optional<RemoteFileMetadata> fetchMetadata(URI uri) {
+        return remoteFileInspector.inspect(uri);
+    }
+
+    @Override
+    public InputStream retrieveFile(URI uri) {
+        return retrieveFile(uri, fetchMetadata(uri));
+    }
+
+    @Override
+    public InputStream retrieveFile(URI uri, Optional<RemoteFileMetadata> metadata) {
+        var rangedFile = metadata.filter(RemoteFileMetadata::acceptsRanges)
+                             .filter(remoteFile -> remoteFile.contentLength() > segmentSize);
+        if (rangedFile.isEmpty()) {
+            logger.info(FALLING_BACK_MESSAGE, uri);
+            return fallbackRetriever.retrieveFile(uri);
+        }
+        var remoteFile = rangedFile.get();
+        logger.info(SEGMENTED_DOWNLOAD_MESSAGE, remoteFile.contentLength(), uri, segmentSize);
+        return new SegmentedInputStream(remoteFile.contentLength(),
+                                        segmentSize,
+                                        concurrency,
+                                        (start, endInclusive) -> fetchSegment(uri, remoteFile.etag(), start,
+                                                                              endInclusive),
+                                        segmentExecutor);
+    }
+
+    private static Thread daemonThread(Runnable runnable) {
+        var thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private byte[] fetchSegment(URI uri, String etag, long start, long endInclusive) {
+        return retryPolicy.execute(uri, () -> sendSegmentRequest(uri, etag, start, endInclusive));
+    }
+
+    private byte[] sendSegmentRequest(URI uri, String etag, long start, long endInclusive) {
+        return Try.of(() -> httpClient.send(createSegmentRequest(uri, etag, start, endInclusive),
+                                            HttpResponse.BodyHandlers.ofByteArray()))
+                   .map(response -> validateSegment(response, start, endInclusive))
+                   .getOrElseThrow(DownloadRetryPolicy::unchecked);
+    }
+
+    private static byte[] validateSegment(HttpResponse<byte[]> response, long start, long endInclusive) {
+        var expectedContentRange = String.format(CONTENT_RANGE_PREFIX_TEMPLATE, start, endInclusive);
+        var isExpectedRange = response.headers()
+                                  .firstValue(ZipFileRetriever.CONTENT_RANGE_HEADER)
+                                  .map(contentRange -> contentRange.startsWith(expectedContentRange))
+                                  .orElse(false);
+        if (response.statusCode() != HttpURLConnection.HTTP_PARTIAL) {
+            throw new HttpStatusException(response.statusCode());
+        }
+        if (!isExpectedRange) {
+            throw new IllegalStateException("Unexpected response for segment " + expectedContentRange
+                                            + ", status code: " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private static HttpRequest createSegmentRequest(URI uri, String etag, long start, long endInclusive) {
+        var builder = HttpRequest.newBuilder()
+                          .GET()
+                          .setHeader(RANGE_HEADER, String.format(RANGE_TEMPLATE, start, endInclusive))
+                          .timeout(SEGMENT_TIMEOUT)
+                          .uri(uri);
+        if (Objects.nonNull(etag)) {
+            builder.setHeader(IF_MATCH_HEADER, etag);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,101 @@
+package no.sikt.nva.email.reader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+//Keeps at most "concurrency" segments in flight and hands them to the reader in order.
+public class SegmentedInputStream extends InputStream {
+
+    private static final int END_OF_STREAM = -1;
+    private static final int BYTE_MASK = 0xFF;
+    private static final byte[] NO_SEGMENT = new byte[0];
+    private final long contentLength;
+    private final int segmentSize;
+    private final int concurrency;
+    private final SegmentFetcher segmentFetcher;
+    private final Executor executor;
+    private final Deque<CompletableFuture<byte[]>> segmentsInFlight = new ArrayDeque<>();
+    private long nextSegmentStart;
+    private byte[] currentSegment = NO_SEGMENT;
+    private int positionInSegment;
+
+    public SegmentedInputStream(long contentLength,
+                                int segmentSize,
+                                int concurrency,
+                                SegmentFetcher segmentFetcher,
+                                Executor executor) {
+        super();
+        this.contentLength = contentLength;
+        this.segmentSize = segmentSize;
+        this.concurrency = concurrency;
+        this.segmentFetcher = segmentFetcher;
+        this.executor = executor;
+    }
+
+    @Override
+    public int read() throws IOException {
+        var singleByte = new byte[1];
+        var read = read(singleByte, 0, 1);
+        return read == END_OF_STREAM ? END_OF_STREAM : singleByte[0] & BYTE_MASK;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (positionInSegment == currentSegment.length && !advanceToNextSegment()) {
+            return END_OF_STREAM;
+        }
+        var read = Math.min(length, currentSegment.length - positionInSegment);
+        System.arraycopy(currentSegment, positionInSegment, buffer, offset, read);
+        positionInSegment += read;
+        return read;
+    }
+
+    @Override
+    public void close() {
+        segmentsInFlight.forEach(segment -> segment.cancel(true));
+        segmentsInFlight.clear();
+        nextSegmentStart = contentLength;
+    }
+
+    private boolean advanceToNextSegment() throws IOException {
+        fillWindow();
+        var nextSegment = segmentsInFlight.poll();
+        if (nextSegment == null) {
+            return false;
+        }
+        currentSegment = awaitSegment(nextSegment);
+        positionInSegment = 0;
+        fillWindow();
+        return true;
+    }
+
+    private void fillWindow() {
+        while (segmentsInFlight.size() < concurrency && nextSegmentStart < contentLength) {
+            var start = nextSegmentStart;
+            var endInclusive = Math.min(start + segmentSize, contentLength) - 1;
+            segmentsInFlight.add(CompletableFuture.supplyAsync(() -> segmentFetcher.fetch(start, endInclusive),
+                                                               executor));
+            nextSegmentStart = endInclusive + 1;
+        }
+    }
+
+    private byte[] awaitSegment(CompletableFuture<byte[]> segment) throws IOException {
+        try {
+            return segment.join();
+        } catch (CompletionException e) {
+            close();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @FunctionalInterface
+    public interface SegmentFetcher {
+
+        byte[] fetch(long start, long endInclusive);
+    }
+}
@@ -0,0 +1,72 @@
+package no.sikt.nva.email.reader.service;
+
+import io.vavr.control.Try;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import nva.commons.core.paths.UnixPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+//Archives are stored with the ETag and length of their source, so a redelivered email can reuse them. An archive
+//without its checksum tag is downloaded again, hashing the stored copy would take as long as the download itself.
+public class StoredArchiveInspector {
+
+    public static final String SOURCE_ETAG_METADATA = "source-etag";
+    public static final String SOURCE_CONTENT_LENGTH_METADATA = "source-content-length";
+    private static final Logger logger = LoggerFactory.getLogger(StoredArchiveInspector.class);
+    private static final String COULD_NOT_INSPECT_STORED_ARCHIVE = "Could not inspect stored archive {}";
+    private final S3Client s3Client;
+    private final String bucket;
+
+    public StoredArchiveInspector(S3Client s3Client, String bucket) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+    }
+
+    public static Map<String, String> toObjectMetadata(RemoteFileMetadata remoteFile) {
+        return Objects.isNull(remoteFile.etag())
+                   ? Map.of(SOURCE_CONTENT_LENGTH_METADATA, String.valueOf(remoteFile.contentLength()))
+                   : Map.of(SOURCE_CONTENT_LENGTH_METADATA, String.valueOf(remoteFile.contentLength()),
+                            SOURCE_ETAG_METADATA, remoteFile.etag());
+    }
+
+    public boolean isAlreadyStored(UnixPath objectKey, RemoteFileMetadata remoteFile) {
+        return Objects.nonNull(remoteFile.etag())
+               && headObject(objectKey).map(storedObject -> isSameFile(storedObject, remoteFile)).orElse(false)
+               && hasChecksumTag(objectKey);
+    }
+
+    private boolean hasChecksumTag(UnixPath objectKey) {
+        var request = GetObjectTaggingRequest.builder().bucket(bucket).key(objectKey.toString()).build();
+        return Try.of(() -> s3Client.getObjectTagging(request))
+                   .map(tagging -> tagging.tagSet().stream()
+                                       .anyMatch(tag -> StreamingS3Uploader.SHA_256_TAG.equals(tag.key())))
+                   .getOrElse(false);
+    }
+
+    private static boolean isSameFile(HeadObjectResponse storedObject, RemoteFileMetadata remoteFile) {
+        var storedMetadata = storedObject.metadata();
+        return remoteFile.etag().equals(storedMetadata.get(SOURCE_ETAG_METADATA))
+               && String.valueOf(remoteFile.contentLength()).equals(storedMetadata.get(SOURCE_CONTENT_LENGTH_METADATA))
+               && Objects.equals(storedObject.contentLength(), remoteFile.contentLength());
+    }
+
+    private Optional<HeadObjectResponse> headObject(UnixPath objectKey) {
+        var request = HeadObjectRequest.builder().bucket(bucket).key(objectKey.toString()).build();
+        return Try.of(() -> s3Client.headObject(request))
+                   .onFailure(throwable -> logUnexpectedFailure(objectKey, throwable))
+                   .toJavaOptional();
+    }
+
+    private static void logUnexpectedFailure(UnixPath objectKey, Throwable throwable) {
+        if (!(throwable instanceof NoSuchKeyException)) {
+            logger.warn(COULD_NOT_INSPECT_STORED_ARCHIVE, objectKey, throwable);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package no.sikt.nva.email.reader.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongConsumer;
+import nva.commons.core.paths.UnixPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.Tag;
+import software.amazon.awssdk.services.s3.model.Tagging;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+//Every request carries a CRC32C checksum that S3 verifies on arrival, and the SHA-256 of the whole object is computed
+//while reading and stored as the sha256 tag, so consumers can check the object without downloading it twice.
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class StreamingS3Uploader {
+
+    //S3 requires every part except the last one to be at least 5 MiB.
+    public static final int DEFAULT_PART_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+    public static final String ZIP_CONTENT_TYPE = "application/zip";
+    public static final String OCTET_STREAM_CONTENT_TYPE = "application/octet-stream";
+    public static final String SHA_256_TAG = "sha256";
+    private static final String SHA_256_ALGORITHM = "SHA-256";
+    private static final Logger logger = LoggerFactory.getLogger(StreamingS3Uploader.class);
+    private static final String S3_URI_TEMPLATE = "s3://%s/%s";
+    private static final String ABORTING_UPLOAD_MESSAGE = "Aborting multipart upload {} of {}";
+    private static final int END_OF_STREAM = -1;
+    private static final int FIRST_PART_NUMBER = 1;
+    private final S3Client s3Client;
+    private final PartBufferPool bufferPool;
+    private final ExecutorService partUploadExecutor;
+
+    public StreamingS3Uploader(S3Client s3Client) {
+        this(s3Client, DEFAULT_PART_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    public StreamingS3Uploader(S3Client s3Client, int partSize, int bufferCount) {
+        this.s3Client = s3Client;
+        this.bufferPool = new PartBufferPool(partSize, bufferCount);
+        this.partUploadExecutor = Executors.newFixedThreadPool(bufferCount, StreamingS3Uploader::daemonThread);
+    }
+
+    public URI upload(String bucket, UnixPath objectKey, InputStream inputStream) throws IOException {
+        return upload(bucket, objectKey, inputStream, Map.of());
+    }
+
+    public URI upload(String bucket,
+                      UnixPath objectKey,
+                      InputStream inputStream,
+                      Map<String, String> metadata) throws IOException {
+        return upload(bucket, objectKey, inputStream, metadata, ZIP_CONTENT_TYPE);
+    }
+
+    public URI upload(String bucket,
+                      UnixPath objectKey,
+                      InputStream inputStream,
+                      Map<String, String> metadata,
+                      String contentType) throws IOException {
+        return upload(bucket, objectKey, inputStream, metadata, contentType, bytes -> { });
+    }
+
+    //The bytes sent are reported for every request S3 accepted, also when a later part of the upload fails.
+    public URI upload(String bucket,
+                      UnixPath objectKey,
+                      InputStream inputStream,
+                      Map<String, String> metadata,
+                      String contentType,
+                      LongConsumer bytesSent) throws IOException {
+        var digest = createDigest();
+        var firstPart = acquireBuffer();
+        var firstPartLength = fillOrRelease(inputStream, firstPart, digest);
+        if (firstPartLength < bufferPool.getBufferSize()) {
+            try {
+                putObject(bucket, objectKey, metadata, contentType, firstPart, firstPartLength, toTagging(digest));
+                bytesSent.accept(firstPartLength);
+            } finally {
+                bufferPool.release(firstPart);
+            }
+        } else {
+            uploadInParts(bucket, objectKey, metadata, contentType, inputStream, firstPart, digest, bytesSent);
+        }
+        return URI.create(String.format(S3_URI_TEMPLATE, bucket, objectKey));
+    }
+
+    //Stores content already held in memory with a single request, without taking a part buffer from the pool.
+    public URI uploadInMemory(String bucket,
+                              UnixPath objectKey,
+                              byte[] content,
+                              Map<String, String> metadata,
+                              String contentType) {
+        var digest = createDigest();
+        digest.update(content);
+        putObject(bucket, objectKey, metadata, contentType, content, content.length, toTagging(digest));
+        return URI.create(String.format(S3_URI_TEMPLATE, bucket, objectKey));
+    }
+
+    public int getPartSize() {
+        return bufferPool.getBufferSize();
+    }
+
+    private static Thread daemonThread(Runnable runnable) {
+        var thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void putObject(String bucket,
+                           UnixPath objectKey,
+                           Map<String, String> metadata,
+                           String contentType,
+                           byte[] content,
+                           int length,
+                           Tagging tagging) {
+        var request = PutObjectRequest.builder()
+                          .bucket(bucket)
+                          .key(objectKey.toString())
+                          .contentType(contentType)
+                          .metadata(metadata)
+                          .tagging(tagging)
+                          .checksumAlgorithm(ChecksumAlgorithm.CRC32_C)
+                          .build();
+        s3Client.putObject(request, createRequestBody(content, length));
+    }
+
+    private void uploadInParts(String bucket,
+                               UnixPath objectKey,
+                               Map<String, String> metadata,
+                               String contentType,
+                               InputStream inputStream,
+                               byte[] firstPart,
+                               MessageDigest digest,
+                               LongConsumer bytesSent) throws IOException {
+        var uploadId = createMultipartUpload(bucket, objectKey, metadata, contentType);
+        try {
+            var completedParts = uploadParts(bucket, objectKey, uploadId, inputStream, firstPart, digest, bytesSent);
+            completeMultipartUpload(bucket, objectKey, uploadId, completedParts);
+        } catch (IOException | RuntimeException e) {
+            abortMultipartUpload(bucket, objectKey, uploadId);
+            throw e;
+        }
+        //Tags of a multipart upload can only be set once the object exists, the digest is known only at the end. A
+        //failure here leaves the object untagged, and StoredArchiveInspector does not reuse an untagged archive.
+        putObjectTagging(bucket, objectKey, toTagging(digest));
+    }
+
+    private List<CompletedPart> uploadParts(String bucket,
+                                            UnixPath objectKey,
+                                            String uploadId,
+                                            InputStream inputStream,
+                                            byte[] firstPart,
+                                            MessageDigest digest,
+                                            LongConsumer bytesSent) throws IOException {
+        List<CompletableFuture<CompletedPart>> partUploads = new ArrayList<>();
+        var partNumber = FIRST_PART_NUMBER;
+        var buffer = firstPart;
+        var length = bufferPool.getBufferSize();
+        while (length > 0 && noPartHasFailed(partUploads)) {
+            partUploads.add(submitPart(bucket, objectKey, uploadId, partNumber, buffer, length, bytesSent));
+            partNumber++;
+            buffer = acquireBuffer();
+            length = fillOrRelease(inputStream, buffer, digest);
+        }
+        bufferPool.release(buffer);
+        return awaitParts(partUploads);
+    }
+
+    private static boolean noPartHasFailed(List<CompletableFuture<CompletedPart>> partUploads) {
+        return partUploads.stream().noneMatch(CompletableFuture::isCompletedExceptionally);
+    }
+
+    private CompletableFuture<CompletedPart> submitPart(String bucket,
+                                                        UnixPath objectKey,
+                                                        String uploadId,
+                                                        int partNumber,
+                                                        byte[] buffer,
+                                                        int length,
+                                                        LongConsumer bytesSent) {
+        return CompletableFuture.supplyAsync(
+            () -> uploadPartAndRelease(bucket, objectKey, uploadId, partNumber, buffer, length, bytesSent),
+            partUploadExecutor);
+    }
+
+    private CompletedPart uploadPartAndRelease(String bucket,
+                                               UnixPath objectKey,
+                                               String uploadId,
+                                               int partNumber,
+                                               byte[] buffer,
+                                               int length,
+                                               LongConsumer bytesSent) {
+        try {
+            var request = UploadPartRequest.builder()
+                              .bucket(bucket)
+                              .key(objectKey.toString())
+                              .uploadId(uploadId)
+                              .partNumber(partNumber)
+                              .contentLength((long) length)
+                              .checksumAlgorithm(ChecksumAlgorithm.CRC32_C)
+                              .build();
+            var response = s3Client.uploadPart(request, createRequestBody(buffer, length));
+            bytesSent.accept(length);
+            return CompletedPart.builder()
+                       .partNumber(partNumber)
+                       .eTag(response.eTag())
+                       .checksumCRC32C(response.checksumCRC32C())
+                       .build();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static List<CompletedPart> awaitParts(List<CompletableFuture<CompletedPart>> partUploads)
+        throws IOException {
+        try {
+            return partUploads.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private String createMultipartUpload(String bucket,
+                                         UnixPath objectKey,
+                                         Map<String, String> metadata,
+                                         String contentType) {
+        var request = CreateMultipartUploadRequest.builder()
+                          .bucket(bucket)
+                          .key(objectKey.toString())
+                          .contentType(contentType)
+                          .metadata(metadata)
+                          .checksumAlgorithm(ChecksumAlgorithm.CRC32_C)
+                          .build();
+        return s3Client.createMultipartUpload(request).uploadId();
+    }
+
+    private void completeMultipartUpload(String bucket,
+                                         UnixPath objectKey,
+                                         String uploadId,
+                                         List<CompletedPart> completedParts) {
+        var request = CompleteMultipartUploadRequest.builder()
+                          .bucket(bucket)
+                          .key(objectKey.toString())
+                          .uploadId(uploadId)
+                          .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                          .build();
+        s3Client.completeMultipartUpload(request);
+    }
+
+    private void putObjectTagging(String bucket, UnixPath objectKey, Tagging tagging) {
+        var request = PutObjectTaggingRequest.builder()
+                          .bucket(bucket)
+                          .key(objectKey.toString())
+                          .tagging(tagging)
+                          .build();
+        s3Client.putObjectTagging(request);
+    }
+
+    private void abortMultipartUpload(String bucket, UnixPath objectKey, String uploadId) {
+        logger.warn(ABORTING_UPLOAD_MESSAGE, uploadId, objectKey);
+        var request = AbortMultipartUploadRequest.builder()
+                          .bucket(bucket)
+                          .key(objectKey.toString())
+                          .uploadId(uploadId)
+                          .build();
+        s3Client.abortMultipartUpload(request);
+    }
+
+    //The content type of the object is set on the request, the body of a part has no content type of its own.
+    private static RequestBody createRequestBody(byte[] content, int length) {
+        return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(content, 0, length),
+                                               length,
+                                               OCTET_STREAM_CONTENT_TYPE);
+    }
+
+    private byte[] acquireBuffer() throws IOException {
+        try {
+            return bufferPool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(SHA_256_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Tagging toTagging(MessageDigest digest) {
+        var sha256 = HexFormat.of().formatHex(digest.digest());
+        return Tagging.builder().tagSet(Tag.builder().key(SHA_256_TAG).value(sha256).build()).build();
+    }
+
+    private int fillOrRelease(InputStream inputStream, byte[] buffer, MessageDigest digest) throws IOException {
+        try {
+            var length = fill(inputStream, buffer);
+            digest.update(buffer, 0, length);
+            return length;
+        } catch (IOException | RuntimeException e) {
+            bufferPool.release(buffer);
+            throw e;
+        }
+    }
+
+    private static int fill(InputStream inputStream, byte[] buffer) throws IOException {
+        var length = 0;
+        var read = 0;
+        while (read != END_OF_STREAM && length < buffer.length) {
+            read = inputStream.read(buffer, length, buffer.length - length);
+            length += Math.max(read, 0);
+        }
+        return length;
+    }
+}
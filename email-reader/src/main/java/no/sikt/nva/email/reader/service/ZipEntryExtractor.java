@@ -0,0 +1,332 @@
+package no.sikt.nva.email.reader.service;
+
+import static nva.commons.core.attempt.Try.attempt;
+import io.vavr.control.Try;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+import java.util.zip.ZipInputStream;
+import no.sikt.nva.email.reader.metrics.CountingInputStream;
+import no.sikt.nva.email.reader.model.ArchiveEntry;
+import no.sikt.nva.email.reader.model.ArchiveManifest;
+import nva.commons.core.JsonUtils;
+import nva.commons.core.paths.UnixPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+//Decompresses an archive while it is read for upload and stores every entry as its own object under the archive name
+//without extension. The manifest is written last, so a prefix with a manifest holds every entry of the archive.
+//Extraction is best effort, a failing entry ends the extraction but never the upload of the archive itself.
+//Entries smaller than one part are read into memory and uploaded concurrently, so an archive of thousands of small
+//entries is not held back by one request at a time while the pipe from the archive upload fills up.
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class ZipEntryExtractor {
+
+    public static final String MANIFEST_FILE_NAME = "manifest.json";
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    //Large entries are streamed one at a time, parts of the minimum size keep the extra memory small.
+    public static final int ENTRY_PART_SIZE = 5 * 1024 * 1024;
+    public static final int ENTRY_BUFFER_COUNT = 2;
+    //Small entries held in memory while they are uploaded, shared by all extractions, each smaller than one part.
+    public static final int ENTRY_UPLOAD_CONCURRENCY = 4;
+    public static final int PIPE_BUFFER_SIZE = 1024 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(ZipEntryExtractor.class);
+    private static final String EXTRACTED_MESSAGE = "Extracted {} entries of {} to {}";
+    private static final String UNSAFE_ENTRY_MESSAGE = "Skipping entry {} of {}, its name leaves the entry prefix";
+    private static final String PATH_SEPARATOR = "/";
+    private static final String CURRENT_DIRECTORY = ".";
+    private static final String PARENT_DIRECTORY = "..";
+    private static final Pattern ABSOLUTE_NAME = Pattern.compile("^(/|[A-Za-z]:)");
+    private static final String BACKSLASH = "\\";
+    private static final String ZIP_EXTENSION = ".zip";
+    private static final int END_OF_STREAM = -1;
+    private final S3Client s3Client;
+    private final StreamingS3Uploader entryUploader;
+    private final ExecutorService extractionExecutor;
+    private final ExecutorService entryUploadExecutor;
+    private final Semaphore entryUploadPermits;
+
+    public ZipEntryExtractor(S3Client s3Client) {
+        this(s3Client, new StreamingS3Uploader(s3Client, ENTRY_PART_SIZE, ENTRY_BUFFER_COUNT));
+    }
+
+    public ZipEntryExtractor(S3Client s3Client, StreamingS3Uploader entryUploader) {
+        this.s3Client = s3Client;
+        this.entryUploader = entryUploader;
+        this.extractionExecutor = Executors.newCachedThreadPool(ZipEntryExtractor::daemonThread);
+        this.entryUploadExecutor = Executors.newFixedThreadPool(ENTRY_UPLOAD_CONCURRENCY,
+                                                                ZipEntryExtractor::daemonThread);
+        this.entryUploadPermits = new Semaphore(ENTRY_UPLOAD_CONCURRENCY);
+    }
+
+    public static UnixPath entryPrefix(UnixPath archiveKey) {
+        var archiveName = archiveKey.toString();
+        return archiveName.endsWith(ZIP_EXTENSION)
+                   ? UnixPath.of(archiveName.substring(0, archiveName.length() - ZIP_EXTENSION.length()))
+                   : archiveKey;
+    }
+
+    //The returned stream must be read to the end or closed, the extraction waits for the archive bytes it passes on.
+    //Both ends of the pipe are closed by the extraction, the copy by the returned stream and the entries by the task.
+    @SuppressWarnings("PMD.CloseResource")
+    public Extraction extract(String bucket, UnixPath archiveKey, InputStream archive) throws IOException {
+        var entryStream = new PipedInputStream(PIPE_BUFFER_SIZE);
+        var archiveCopy = new PipedOutputStream(entryStream);
+        var prefix = entryPrefix(archiveKey);
+        var entries = CompletableFuture.supplyAsync(() -> storeEntries(bucket, prefix, entryStream),
+                                                    extractionExecutor);
+        return new Extraction(archive, archiveCopy, entries, bucket, prefix);
+    }
+
+    //Entry names come from the remote archive. A name such as ../x or /x would write outside the prefix and could
+    //replace any object in the bucket, so such entries are never stored.
+    public static Optional<UnixPath> entryKey(UnixPath prefix, String entryName) {
+        if (ABSOLUTE_NAME.matcher(entryName).find() || entryName.contains(BACKSLASH)) {
+            return Optional.empty();
+        }
+        var segments = Arrays.stream(entryName.split(PATH_SEPARATOR))
+                           .filter(segment -> !segment.isEmpty() && !CURRENT_DIRECTORY.equals(segment))
+                           .toList();
+        if (segments.isEmpty() || segments.contains(PARENT_DIRECTORY)) {
+            return Optional.empty();
+        }
+        var key = prefix.addChild(String.join(PATH_SEPARATOR, segments));
+        return key.toString().startsWith(prefix + PATH_SEPARATOR) ? Optional.of(key) : Optional.empty();
+    }
+
+    //An archive reused from an earlier run has no entries when extraction failed or was enabled after it was stored.
+    public void extractStoredArchiveWithoutManifest(String bucket, UnixPath archiveKey, URI archiveUri)
+        throws IOException {
+        if (hasManifest(bucket, archiveKey)) {
+            return;
+        }
+        var request = GetObjectRequest.builder().bucket(bucket).key(archiveKey.toString()).build();
+        try (var extraction = extract(bucket, archiveKey,
+                                      s3Client.getObject(request, ResponseTransformer.toInputStream()))) {
+            extraction.transferTo(OutputStream.nullOutputStream());
+            extraction.complete(archiveUri);
+        }
+    }
+
+    private boolean hasManifest(String bucket, UnixPath archiveKey) {
+        var request = HeadObjectRequest.builder()
+                          .bucket(bucket)
+                          .key(entryPrefix(archiveKey).addChild(MANIFEST_FILE_NAME).toString())
+                          .build();
+        return Try.of(() -> s3Client.headObject(request)).isSuccess();
+    }
+
+    private static Thread daemonThread(Runnable runnable) {
+        var thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    //The pipe is read to the end even when an entry fails, the archive upload is never blocked on the extraction.
+    private List<ArchiveEntry> storeEntries(String bucket, UnixPath prefix, PipedInputStream entryStream) {
+        try (entryStream) {
+            try {
+                return storeEntries(bucket, prefix, new ZipInputStream(entryStream));
+            } finally {
+                entryStream.transferTo(OutputStream.nullOutputStream());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //Closing the zip stream would close the pipe before the rest of the archive is consumed.
+    @SuppressWarnings("PMD.CloseResource")
+    private List<ArchiveEntry> storeEntries(String bucket, UnixPath prefix, ZipInputStream zipInputStream)
+        throws IOException {
+        var uploads = new ArrayList<CompletableFuture<Optional<ArchiveEntry>>>();
+        var entry = zipInputStream.getNextEntry();
+        while (entry != null && noUploadHasFailed(uploads)) {
+            if (!entry.isDirectory()) {
+                uploads.add(storeSafeEntry(bucket, prefix, entry.getName(), zipInputStream));
+            }
+            entry = zipInputStream.getNextEntry();
+        }
+        return awaitUploads(uploads);
+    }
+
+    private static boolean noUploadHasFailed(List<CompletableFuture<Optional<ArchiveEntry>>> uploads) {
+        return uploads.stream().noneMatch(CompletableFuture::isCompletedExceptionally);
+    }
+
+    private static List<ArchiveEntry> awaitUploads(List<CompletableFuture<Optional<ArchiveEntry>>> uploads)
+        throws IOException {
+        try {
+            return uploads.stream().map(CompletableFuture::join).flatMap(Optional::stream).toList();
+        } catch (CompletionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private CompletableFuture<Optional<ArchiveEntry>> storeSafeEntry(String bucket,
+                                                                     UnixPath prefix,
+                                                                     String entryName,
+                                                                     InputStream entryContent) throws IOException {
+        var key = entryKey(prefix, entryName);
+        if (key.isEmpty()) {
+            logger.warn(UNSAFE_ENTRY_MESSAGE, entryName, prefix);
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return storeEntry(bucket, key.get(), entryContent).thenApply(Optional::of);
+    }
+
+    //Closing the entry stream would close the archive, the next entry is read from the same stream.
+    @SuppressWarnings("PMD.CloseResource")
+    private CompletableFuture<ArchiveEntry> storeEntry(String bucket, UnixPath key, InputStream entryContent)
+        throws IOException {
+        var head = entryContent.readNBytes(entryUploader.getPartSize());
+        if (head.length < entryUploader.getPartSize()) {
+            return submitInMemoryUpload(bucket, key, head);
+        }
+        var countingStream = new CountingInputStream(
+            new SequenceInputStream(new ByteArrayInputStream(head), entryContent));
+        entryUploader.upload(bucket, key, countingStream, Map.of(), contentType(key));
+        return CompletableFuture.completedFuture(new ArchiveEntry(key.toString(), countingStream.getCount()));
+    }
+
+    //Waits while all permits are taken, so the entries held in memory stay within the upload concurrency.
+    private CompletableFuture<ArchiveEntry> submitInMemoryUpload(String bucket, UnixPath key, byte[] content)
+        throws IOException {
+        try {
+            entryUploadPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        return CompletableFuture.supplyAsync(() -> uploadInMemory(bucket, key, content), entryUploadExecutor);
+    }
+
+    private ArchiveEntry uploadInMemory(String bucket, UnixPath key, byte[] content) {
+        try {
+            entryUploader.uploadInMemory(bucket, key, content, Map.of(), contentType(key));
+            return new ArchiveEntry(key.toString(), content.length);
+        } finally {
+            entryUploadPermits.release();
+        }
+    }
+
+    private static String contentType(UnixPath key) {
+        return Optional.ofNullable(URLConnection.guessContentTypeFromName(key.toString()))
+                   .orElse(StreamingS3Uploader.OCTET_STREAM_CONTENT_TYPE);
+    }
+
+    private void putManifest(String bucket, UnixPath prefix, ArchiveManifest manifest) {
+        var request = PutObjectRequest.builder()
+                          .bucket(bucket)
+                          .key(prefix.addChild(MANIFEST_FILE_NAME).toString())
+                          .contentType(JSON_CONTENT_TYPE)
+                          .build();
+        var content = attempt(() -> JsonUtils.dtoObjectMapper.writeValueAsString(manifest)).orElseThrow();
+        s3Client.putObject(request, RequestBody.fromString(content));
+    }
+
+    //Passes every byte read from the archive on to the extraction, and ends the extraction at end of stream or close.
+    public final class Extraction extends FilterInputStream {
+
+        private final OutputStream archiveCopy;
+        private final CompletableFuture<List<ArchiveEntry>> entries;
+        private final String bucket;
+        private final UnixPath prefix;
+
+        private Extraction(InputStream archive,
+                           OutputStream archiveCopy,
+                           CompletableFuture<List<ArchiveEntry>> entries,
+                           String bucket,
+                           UnixPath prefix) {
+            super(archive);
+            this.archiveCopy = archiveCopy;
+            this.entries = entries;
+            this.bucket = bucket;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var value = super.read();
+            if (value == END_OF_STREAM) {
+                archiveCopy.close();
+            } else {
+                archiveCopy.write(value);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            var bytesRead = super.read(buffer, offset, length);
+            if (bytesRead == END_OF_STREAM) {
+                archiveCopy.close();
+            } else {
+                archiveCopy.write(buffer, offset, bytesRead);
+            }
+            return bytesRead;
+        }
+
+        //Skipped bytes would be missing from the extracted entries.
+        @Override
+        public long skip(long length) throws IOException {
+            return read() == END_OF_STREAM ? 0 : 1;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                archiveCopy.close();
+            } finally {
+                super.close();
+            }
+        }
+
+        //Call once the archive has been read to the end, waits for the remaining entries and writes the manifest.
+        public ArchiveManifest complete(URI archiveUri) throws IOException {
+            var manifest = ArchiveManifest.of(archiveUri.toString(), awaitEntries());
+            putManifest(bucket, prefix, manifest);
+            logger.info(EXTRACTED_MESSAGE, manifest.entryCount(), archiveUri, prefix);
+            return manifest;
+        }
+
+        private List<ArchiveEntry> awaitEntries() throws IOException {
+            try {
+                return entries.join();
+            } catch (CompletionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+}
@@ -1,56 +1,142 @@
 package no.sikt.nva.email.reader.service;
 
-import io.github.resilience4j.retry.Retry;
-import io.github.resilience4j.retry.RetryRegistry;
 import io.vavr.control.Try;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.function.Supplier;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import no.sikt.nva.email.reader.model.exception.HttpStatusException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ZipFileRetriever implements FileRetriever {
 
+    public static final String ETAG_HEADER = "ETag";
+    public static final String CONTENT_LENGTH_HEADER = "Content-Length";
+    public static final String CONTENT_RANGE_HEADER = "Content-Range";
+    //Time until the response headers arrive, the body is watched by the download watchdog.
+    public static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(30);
     private static final Logger logger = LoggerFactory.getLogger(ZipFileRetriever.class);
+    private static final String RANGE_HEADER = "Range";
+    private static final String IF_RANGE_HEADER = "If-Range";
+    private static final String OPEN_ENDED_RANGE_TEMPLATE = "bytes=%d-";
+    private static final String CONTENT_RANGE_PREFIX_TEMPLATE = "bytes %d-";
+    private static final String RESUMING_DOWNLOAD_MESSAGE = "Resuming download of {} from byte {}";
 
     private final HttpClient httpClient;
+    private final RemoteFileInspector remoteFileInspector;
+    private final DownloadRetryPolicy retryPolicy;
+    private final DownloadWatchdog watchdog;
 
     public ZipFileRetriever(HttpClient httpClient) {
+        this(httpClient, DownloadRetryPolicy.withDefaults());
+    }
+
+    public ZipFileRetriever(HttpClient httpClient, DownloadRetryPolicy retryPolicy) {
+        this(httpClient, retryPolicy, DownloadWatchdog.withDefaults());
+    }
+
+    public ZipFileRetriever(HttpClient httpClient, DownloadRetryPolicy retryPolicy, DownloadWatchdog watchdog) {
         this.httpClient = httpClient;
+        this.remoteFileInspector = new RemoteFileInspector(httpClient);
+        this.retryPolicy = retryPolicy;
+        this.watchdog = watchdog;
     }
 
     @Override
-    public InputStream retrieveFile(URI uri) {
-        var retryRegistry = RetryRegistry.ofDefaults();
-        var retryWithDefaultConfig = retryRegistry.retry("sendRequest");
-        Supplier<InputStream> supplier = () -> sendRequest(uri);
-        return Try.ofSupplier(Retry.decorateSupplier(retryWithDefaultConfig, supplier)).get();
+    public Optional<RemoteFileMetadata> fetchMetadata(URI uri) {
+        return remoteFileInspector.inspect(uri);
     }
 
-    private InputStream sendRequest(URI uri) {
-        return Try.of(() -> httpClient.send(createRequest(uri), HttpResponse.BodyHandlers.ofInputStream()))
-                   .mapTry(this::getBodyFromResponse).get();
+    @Override
+    public InputStream retrieveFile(URI uri) {
+        var response = sendWithRetry(createRequest(uri), HttpURLConnection.HTTP_OK);
+        var etag = response.headers().firstValue(ETAG_HEADER).orElse(null);
+        var contentLength = response.headers()
+                                .firstValueAsLong(CONTENT_LENGTH_HEADER)
+                                .orElse(ResumableHttpInputStream.UNKNOWN_LENGTH);
+        return new ResumableHttpInputStream(watchdog.watch(uri, response.body()),
+                                            contentLength,
+                                            offset -> watchdog.watch(uri, resumeFrom(uri, etag, offset)));
     }
 
-    private InputStream getBodyFromResponse(HttpResponse<InputStream> response) {
-        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
-            logger.error("Request failed with status code: {}, for url: {}", response.statusCode(),
-                         response.request().uri().toString());
-            throw new RuntimeException("Request failed with status code: " + response.statusCode());
+    private InputStream resumeFrom(URI uri, String etag, long offset) throws IOException {
+        logger.warn(RESUMING_DOWNLOAD_MESSAGE, uri, offset);
+        var response = Try.of(() -> sendWithRetry(createRangeRequest(uri, etag, offset),
+                                                  HttpURLConnection.HTTP_PARTIAL))
+                           .getOrElseThrow(IOException::new);
+        if (!isContinuationOf(response, etag, offset)) {
+            response.body().close();
+            throw new IOException("Server returned a different entity or range when resuming " + uri);
         }
         return response.body();
     }
 
+    private static boolean isContinuationOf(HttpResponse<InputStream> response, String etag, long offset) {
+        var contentRangeMatches = response.headers()
+                                      .firstValue(CONTENT_RANGE_HEADER)
+                                      .map(range -> range.startsWith(
+                                          String.format(CONTENT_RANGE_PREFIX_TEMPLATE, offset)))
+                                      .orElse(false);
+        var etagMatches = Objects.isNull(etag)
+                          || response.headers().firstValue(ETAG_HEADER).map(etag::equals).orElse(true);
+        return contentRangeMatches && etagMatches;
+    }
+
+    private HttpResponse<InputStream> sendWithRetry(HttpRequest request, int expectedStatusCode) {
+        return retryPolicy.execute(request.uri(), () -> sendRequest(request, expectedStatusCode));
+    }
+
+    private HttpResponse<InputStream> sendRequest(HttpRequest request, int expectedStatusCode) {
+        return Try.of(() -> httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream()))
+                   .map(response -> validateResponse(request, response, expectedStatusCode))
+                   .getOrElseThrow(DownloadRetryPolicy::unchecked);
+    }
+
+    private HttpResponse<InputStream> validateResponse(HttpRequest request,
+                                                       HttpResponse<InputStream> response,
+                                                       int expectedStatusCode) {
+        if (response.statusCode() != expectedStatusCode) {
+            logger.error("Request failed with status code: {}, for url: {}", response.statusCode(), request.uri());
+            closeQuietly(response.body());
+            throw new HttpStatusException(response.statusCode());
+        }
+        return response;
+    }
+
+    //The body of a rejected response is not read, closing it releases the connection.
+    private static void closeQuietly(InputStream body) {
+        if (Objects.nonNull(body)) {
+            Try.run(body::close);
+        }
+    }
+
     private HttpRequest createRequest(URI uri) {
         return HttpRequest.newBuilder()
                    .GET()
                    .setHeader("Accept", "application/zip")
+                   .timeout(RESPONSE_TIMEOUT)
                    .uri(uri)
                    .build();
     }
+
+    private HttpRequest createRangeRequest(URI uri, String etag, long offset) {
+        var builder = HttpRequest.newBuilder()
+                          .GET()
+                          .setHeader("Accept", "application/zip")
+                          .setHeader(RANGE_HEADER, String.format(OPEN_ENDED_RANGE_TEMPLATE, offset))
+                          .timeout(RESPONSE_TIMEOUT)
+                          .uri(uri);
+        if (Objects.nonNull(etag)) {
+            builder.setHeader(IF_RANGE_HEADER, etag);
+        }
+        return builder.build();
+    }
 }
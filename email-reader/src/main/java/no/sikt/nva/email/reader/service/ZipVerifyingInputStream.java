@@ -0,0 +1,154 @@
+package no.sikt.nva.email.reader.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipException;
+
+//Keeps the tail of the stream and validates the zip end of central directory once the stream is exhausted, so a
+//truncated archive fails the read that hits end of stream instead of being stored.
+public class ZipVerifyingInputStream extends FilterInputStream {
+
+    public static final String MISSING_END_OF_CENTRAL_DIRECTORY = "Missing zip end of central directory record";
+    public static final String CENTRAL_DIRECTORY_MISMATCH =
+        "Zip central directory at %d with size %d does not end at the end of central directory record at %d";
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH = 56;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int TAIL_LENGTH = ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH + ZIP64_LOCATOR_LENGTH
+                                           + END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_COMMENT_LENGTH;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+    private static final int END_OF_STREAM = -1;
+    private final byte[] tail = new byte[TAIL_LENGTH];
+    private long position;
+    private boolean verified;
+
+    public ZipVerifyingInputStream(InputStream inputStream) {
+        super(inputStream);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var value = super.read();
+        if (value == END_OF_STREAM) {
+            verifyOnce();
+        } else {
+            tail[(int) (position++ % TAIL_LENGTH)] = (byte) value;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        var bytesRead = super.read(buffer, offset, length);
+        if (bytesRead == END_OF_STREAM) {
+            verifyOnce();
+        } else {
+            keepInTail(buffer, offset, bytesRead);
+        }
+        return bytesRead;
+    }
+
+    //Only the last bytes of a read can end up in the tail, they are copied in at most two runs around the ring.
+    private void keepInTail(byte[] buffer, int offset, int length) {
+        var kept = Math.min(length, TAIL_LENGTH);
+        var source = offset + length - kept;
+        var target = (int) ((position + length - kept) % TAIL_LENGTH);
+        var firstRun = Math.min(kept, TAIL_LENGTH - target);
+        System.arraycopy(buffer, source, tail, target, firstRun);
+        System.arraycopy(buffer, source + firstRun, tail, 0, kept - firstRun);
+        position += length;
+    }
+
+    //Skipped bytes would be missing from the tail.
+    @Override
+    public long skip(long length) throws IOException {
+        return read() == END_OF_STREAM ? 0 : 1;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void verifyOnce() throws IOException {
+        if (!verified) {
+            verify(linearTail());
+            verified = true;
+        }
+    }
+
+    private byte[] linearTail() {
+        var length = (int) Math.min(position, TAIL_LENGTH);
+        var linear = new byte[length];
+        for (var index = 0; index < length; index++) {
+            linear[index] = tail[(int) ((position - length + index) % TAIL_LENGTH)];
+        }
+        return linear;
+    }
+
+    private void verify(byte[] tailBytes) throws ZipException {
+        var recordIndex = findEndOfCentralDirectory(tailBytes);
+        var tailStart = position - tailBytes.length;
+        var centralDirectorySize = readUnsignedInt(tailBytes, recordIndex + 12);
+        var centralDirectoryOffset = readUnsignedInt(tailBytes, recordIndex + 16);
+        var centralDirectoryEnd = tailStart + recordIndex;
+        if (centralDirectorySize == ZIP64_MARKER || centralDirectoryOffset == ZIP64_MARKER) {
+            var zip64RecordIndex = findZip64EndOfCentralDirectory(tailBytes, recordIndex, tailStart);
+            centralDirectorySize = readLong(tailBytes, zip64RecordIndex + 40);
+            centralDirectoryOffset = readLong(tailBytes, zip64RecordIndex + 48);
+            centralDirectoryEnd = tailStart + zip64RecordIndex;
+        }
+        if (centralDirectoryOffset + centralDirectorySize != centralDirectoryEnd) {
+            throw new ZipException(String.format(CENTRAL_DIRECTORY_MISMATCH, centralDirectoryOffset,
+                                                 centralDirectorySize, centralDirectoryEnd));
+        }
+    }
+
+    //The record is followed by a comment of at most 64 KiB, so it is searched backwards from the end.
+    private static int findEndOfCentralDirectory(byte[] tailBytes) throws ZipException {
+        for (var index = tailBytes.length - END_OF_CENTRAL_DIRECTORY_LENGTH; index >= 0; index--) {
+            if (readInt(tailBytes, index) == END_OF_CENTRAL_DIRECTORY_SIGNATURE
+                && index + END_OF_CENTRAL_DIRECTORY_LENGTH + readUnsignedShort(tailBytes, index + 20)
+                   == tailBytes.length) {
+                return index;
+            }
+        }
+        throw new ZipException(MISSING_END_OF_CENTRAL_DIRECTORY);
+    }
+
+    private static int findZip64EndOfCentralDirectory(byte[] tailBytes, int recordIndex, long tailStart)
+        throws ZipException {
+        var locatorIndex = recordIndex - ZIP64_LOCATOR_LENGTH;
+        if (locatorIndex < 0 || readInt(tailBytes, locatorIndex) != ZIP64_LOCATOR_SIGNATURE) {
+            throw new ZipException(MISSING_END_OF_CENTRAL_DIRECTORY);
+        }
+        var zip64RecordIndex = readLong(tailBytes, locatorIndex + 8) - tailStart;
+        if (zip64RecordIndex < 0
+            || zip64RecordIndex + ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH > locatorIndex
+            || readInt(tailBytes, (int) zip64RecordIndex) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+            throw new ZipException(MISSING_END_OF_CENTRAL_DIRECTORY);
+        }
+        return (int) zip64RecordIndex;
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int index) {
+        return (bytes[index] & 0xFF) | (bytes[index + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] bytes, int index) {
+        return readUnsignedShort(bytes, index) | readUnsignedShort(bytes, index + 2) << 16;
+    }
+
+    private static long readUnsignedInt(byte[] bytes, int index) {
+        return readInt(bytes, index) & ZIP64_MARKER;
+    }
+
+    private static long readLong(byte[] bytes, int index) {
+        return readUnsignedInt(bytes, index) | readUnsignedInt(bytes, index + 4) << 32;
+    }
+}
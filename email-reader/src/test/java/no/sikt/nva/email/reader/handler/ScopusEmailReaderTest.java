@@ -3,13 +3,31 @@ package no.sikt.nva.email.reader.handler;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.S3Event;
 import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import com.fasterxml.jackson.databind.JsonNode;
+import no.sikt.nva.email.metrics.MetricsLogger;
+import no.sikt.nva.email.reader.metrics.ScopusMetrics;
+import no.sikt.nva.email.reader.model.ArchiveEntry;
+import no.sikt.nva.email.reader.model.ArchiveManifest;
 import no.sikt.nva.email.reader.model.exception.EmailException;
+import no.sikt.nva.email.reader.service.FileRetriever;
+import no.sikt.nva.email.reader.service.ScopusEmailContinuationStore;
+import no.sikt.nva.email.reader.service.ScopusEmailContinuationTrigger;
+import no.sikt.nva.email.reader.service.ScopusEmailHeartbeatStore;
+import no.sikt.nva.email.reader.util.ConcurrencyTrackingFileRetriever;
 import no.sikt.nva.email.reader.util.EmailGenerator;
+import no.sikt.nva.email.reader.util.FakeContext;
+import no.sikt.nva.email.reader.util.FakeContinuationTrigger;
 import no.sikt.nva.email.reader.util.FakeS3ClientThrowingExceptionWhenInsertingZipFile;
+import no.sikt.nva.email.reader.util.FakeS3ClientWithMultipartUpload;
 import no.sikt.nva.email.reader.util.FakeZipFileRetriever;
+import no.sikt.nva.email.reader.util.FakeZipFileRetrieverFailingForUri;
 import no.sikt.nva.email.reader.util.FakeZipFileRetrieverThrowingException;
+import no.sikt.nva.email.reader.util.FakeZipFileRetrieverWithEntries;
+import no.sikt.nva.email.reader.util.FakeZipFileRetrieverWithMetadata;
 import no.unit.nva.s3.S3Driver;
 import no.unit.nva.stubs.FakeS3Client;
+import nva.commons.core.JsonUtils;
+import nva.commons.core.ioutils.IoUtils;
 import nva.commons.core.paths.UnixPath;
 import nva.commons.core.paths.UriWrapper;
 import org.apache.james.mime4j.MimeException;
@@ -18,36 +36,79 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.BYTES_DOWNLOADED_METRIC;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.BYTES_UPLOADED_METRIC;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.CONTINUATION_NOT_TRIGGERED;
 import static no.sikt.nva.email.reader.handler.ScopusEmailReader.COULD_NOT_PERSIST_FILE_IN_S_3_BUCKET;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.DOWNLOAD_DEFERRED;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.DOWNLOAD_EXCEEDS_INVOCATION;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.DOWNLOAD_STAGE;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.DURATION_METRIC;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.EXTRACT_STAGE;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.FAILED_METRIC;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.OPEN_EMAIL_STAGE;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.PARSE_STAGE;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.REUSED_METRIC;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.THROUGHPUT_METRIC;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.TRANSFER_STAGE;
 import static no.sikt.nva.email.reader.handler.ScopusEmailReader.UNABLE_TO_DOWNLOAD_FILE;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.URI_PROPERTY;
+import static no.sikt.nva.email.reader.handler.ScopusEmailReader.VALIDATE_STAGE;
 import static no.sikt.nva.email.reader.mapper.messagebodyreader.MultipartReader.NO_URL_PRESENT_IN_MESSAGE;
 import static no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator.COULD_NOT_PARSE_EMAIL;
 import static no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator.COULD_NOT_VERIFY_EMAIL;
+import static no.sikt.nva.email.reader.metrics.ScopusMetrics.STAGE_DIMENSION;
+import static no.sikt.nva.email.reader.service.StreamingS3Uploader.SHA_256_TAG;
+import static no.sikt.nva.email.reader.service.ZipEntryExtractor.MANIFEST_FILE_NAME;
+import static nva.commons.core.attempt.Try.attempt;
 import static no.unit.nva.testutils.RandomDataGenerator.randomString;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.arrayWithSize;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class ScopusEmailReaderTest {
 
     public static final long SOME_FILE_SIZE = 100L;
-    public static final Context CONTEXT = mock(Context.class);
+    public static final Duration LAMBDA_TIMEOUT = Duration.ofMinutes(15);
+    public static final Context CONTEXT = new FakeContext(LAMBDA_TIMEOUT);
+    private static final Duration TOO_LITTLE_TIME = Duration.ofSeconds(10);
     private static final String INPUT_BUCKET_NAME = "some-input-bucket-name";
     private static final S3EventNotification.UserIdentityEntity EMPTY_USER_IDENTITY = null;
     private static final S3EventNotification.RequestParametersEntity EMPTY_REQUEST_PARAMETERS = null;
@@ -56,6 +117,13 @@ public class ScopusEmailReaderTest {
     private static final String FULL_ABSTRACTS = "s3://some-bucket/2023-6-14_ANI-ITEM-full-format-xml.zip";
     private static final String DELETE_LIST = "s3://some-bucket/2023-6-14_ANI-ITEM-delete.zip";
     private static final String SCOPUS_ZIP_BUCKET = "some-bucket";
+    private static final String SCOPUS_CONTROL_BUCKET = "some-control-bucket";
+    private static final String SOME_ETAG = "\"some-etag\"";
+    private static final String FULL_ABSTRACTS_KEY = "2023-6-14_ANI-ITEM-full-format-xml.zip";
+    private static final String FULL_ABSTRACTS_PREFIX = "2023-6-14_ANI-ITEM-full-format-xml";
+    private static final URI DELETE_LIST_DOWNLOAD_URI = URI.create(
+        "https://sccontent-scudd-delivery-prod.s3.amazonaws.com/sccontent-scudd-delivery-prod/some_path/2023-6-14"
+        + "/2023-6-14_ANI-ITEM-delete.zip?my-query-param=should-be-preserved");
     private S3Driver s3Driver;
     private FakeS3Client s3Client;
 
@@ -72,7 +140,9 @@ public class ScopusEmailReaderTest {
     void init() throws MimeException, IOException {
         s3Client = new FakeS3Client();
         s3Driver = new S3Driver(s3Client, INPUT_BUCKET_NAME);
-        handler = new ScopusEmailReader(s3Client, new FakeZipFileRetriever(), SCOPUS_ZIP_BUCKET);
+        handler = ScopusEmailReader.builder(s3Client, new FakeZipFileRetriever(), SCOPUS_ZIP_BUCKET)
+                      .withControlBucket(SCOPUS_CONTROL_BUCKET)
+                      .build();
         validEmail = EmailGenerator.generateValidEmail();
     }
 
@@ -142,6 +212,79 @@ public class ScopusEmailReaderTest {
                 hasItem(UnixPath.of("2023-6-14_ANI-ITEM-full-format-xml.zip"))));
     }
 
+    @Test
+    void shouldRecordHeartbeatOfValidatedEmailInControlBucket() throws IOException {
+        var s3Event = createS3Event(validEmail);
+        handler.handleRequest(s3Event, CONTEXT);
+
+        var heartbeat = new ScopusEmailHeartbeatStore(s3Client, SCOPUS_CONTROL_BUCKET).read().orElseThrow();
+        assertThat(heartbeat.objectKey(), is(equalTo(extractObjectKey(s3Event))));
+        assertThat(heartbeat.uriCount(), is(equalTo(urlsInValidEmailTxt().size())));
+        assertThat(new ScopusEmailHeartbeatStore(s3Client, SCOPUS_ZIP_BUCKET).read().isPresent(), is(false));
+    }
+
+    @Test
+    void shouldNotRecordHeartbeatWhenEmailIsInvalid() throws IOException {
+        var s3Event = createS3Event(randomString());
+        assertThrows(EmailException.class, () -> handler.handleRequest(s3Event, CONTEXT));
+
+        assertThat(new ScopusEmailHeartbeatStore(s3Client, SCOPUS_CONTROL_BUCKET).read().isPresent(), is(false));
+    }
+
+    @Test
+    void shouldStoreEveryEntryAndWriteManifestNextToThemWhenExtractionIsEnabled() throws IOException {
+        var entries = Map.of("records/1.xml", randomString(), "records/2.xml", randomString());
+        handler = createExtractingHandler(new FakeZipFileRetrieverWithEntries(entries));
+        handler.handleRequest(createS3Event(validEmail), CONTEXT);
+
+        var driver = new S3Driver(s3Client, SCOPUS_ZIP_BUCKET);
+        var manifest = readManifest(driver);
+        assertThat(manifest.archive(), is(equalTo("s3://some-bucket/2023-6-14_ANI-ITEM-full-format-xml.zip")));
+        assertThat(manifest.entries(), containsInAnyOrder(
+            new ArchiveEntry(FULL_ABSTRACTS_PREFIX + "/records/1.xml", entries.get("records/1.xml").length()),
+            new ArchiveEntry(FULL_ABSTRACTS_PREFIX + "/records/2.xml", entries.get("records/2.xml").length())));
+        for (var entry : entries.entrySet()) {
+            assertThat(driver.getFile(UnixPath.of(FULL_ABSTRACTS_PREFIX, entry.getKey())),
+                       is(equalTo(entry.getValue())));
+        }
+    }
+
+    @Test
+    void shouldNotStoreEntriesWhoseNamesLeaveTheArchivePrefix() throws IOException {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("safe.xml", randomString());
+        entries.put("../escaped.xml", randomString());
+        entries.put("records/../../escaped-via-parent.xml", randomString());
+        entries.put("/absolute.xml", randomString());
+        handler = createExtractingHandler(new FakeZipFileRetrieverWithEntries(entries));
+        handler.handleRequest(createS3Event(validEmail), CONTEXT);
+
+        var driver = new S3Driver(s3Client, SCOPUS_ZIP_BUCKET);
+        assertThat(readManifest(driver).entries(),
+                   contains(new ArchiveEntry(FULL_ABSTRACTS_PREFIX + "/safe.xml", entries.get("safe.xml").length())));
+        var storedFiles = driver.listFiles(UnixPath.EMPTY_PATH, null, 1000).getFiles();
+        assertThat(storedFiles, not(hasItem(UnixPath.of("escaped.xml"))));
+        assertThat(storedFiles, not(hasItem(UnixPath.of("escaped-via-parent.xml"))));
+        assertThat(storedFiles, not(hasItem(UnixPath.of("absolute.xml"))));
+        assertThat(storedFiles, hasItem(UnixPath.of(FULL_ABSTRACTS_KEY)));
+    }
+
+    @Test
+    void shouldWriteManifestOfReusedArchiveThatHasNone() throws IOException {
+        s3Client = new FakeS3ClientWithMultipartUpload();
+        s3Driver = new S3Driver(s3Client, INPUT_BUCKET_NAME);
+        var s3Event = createS3Event(validEmail);
+        var fileRetriever = new FakeZipFileRetrieverWithMetadata(SOME_ETAG);
+        new ScopusEmailReader(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET).handleRequest(s3Event, CONTEXT);
+        var retrievedFilesWithoutExtraction = fileRetriever.getRetrievedFiles();
+
+        createExtractingHandler(fileRetriever).handleRequest(s3Event, CONTEXT);
+
+        assertThat(fileRetriever.getRetrievedFiles(), is(equalTo(retrievedFilesWithoutExtraction)));
+        var manifest = readManifest(new S3Driver(s3Client, SCOPUS_ZIP_BUCKET));
+        assertThat(manifest.archive(), is(equalTo("s3://some-bucket/2023-6-14_ANI-ITEM-full-format-xml.zip")));
+    }
+
     @Test
     void shouldThrowExceptionWhenTheLambdaFailsToPersistTheZipFile() throws IOException {
         s3Client = new FakeS3ClientThrowingExceptionWhenInsertingZipFile();
@@ -170,6 +313,403 @@ public class ScopusEmailReaderTest {
                                                      hasItem(UnixPath.of("2023-6-14_ANI-ITEM-full-format-xml.zip"))));
     }
 
+    @Test
+    void shouldDownloadAllUrisConcurrently() throws IOException {
+        var fileRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = ScopusEmailReader.builder(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET)
+                      .withDownloadParallelism(2)
+                      .build();
+        var actualUrl = handler.handleRequest(createS3Event(validEmail), CONTEXT);
+        assertThat(actualUrl, containsInAnyOrder(urlsInValidEmailTxt().toArray()));
+        assertThat(fileRetriever.getMaxInFlight(), is(equalTo(2)));
+    }
+
+    @Test
+    void shouldNotExceedConfiguredDownloadParallelism() throws IOException {
+        var fileRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = ScopusEmailReader.builder(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET)
+                      .withDownloadParallelism(1)
+                      .build();
+        handler.handleRequest(createS3Event(validEmail), CONTEXT);
+        assertThat(fileRetriever.getMaxInFlight(), is(equalTo(1)));
+    }
+
+    @Test
+    void shouldDownloadOneAtATimeWhenConfiguredParallelismIsNotPositive() throws IOException {
+        var fileRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = ScopusEmailReader.builder(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET)
+                      .withDownloadParallelism(0)
+                      .build();
+        var actualUrl = handler.handleRequest(createS3Event(validEmail), CONTEXT);
+        assertThat(actualUrl, containsInAnyOrder(urlsInValidEmailTxt().toArray()));
+        assertThat(fileRetriever.getMaxInFlight(), is(equalTo(1)));
+    }
+
+    @Test
+    void shouldPersistRemainingFilesAndReportFailingUriWhenOneDownloadFails() throws IOException {
+        var s3Event = createS3Event(validEmail);
+        handler = new ScopusEmailReader(s3Client,
+                                        new FakeZipFileRetrieverFailingForUri(DELETE_LIST_DOWNLOAD_URI),
+                                        SCOPUS_ZIP_BUCKET);
+        var exception = assertThrows(EmailException.class, () -> handler.handleRequest(s3Event, CONTEXT));
+        assertThat(exception.getMessage(), containsString(UNABLE_TO_DOWNLOAD_FILE));
+        assertThat(exception.getMessage(), containsString(DELETE_LIST_DOWNLOAD_URI.toString()));
+        assertThat(exception.getSuppressed(), arrayWithSize(1));
+
+        var driver = new S3Driver(s3Client, SCOPUS_ZIP_BUCKET);
+        var actualFilesInS3 = driver.listFiles(UnixPath.EMPTY_PATH, null, 1000);
+        assertThat(actualFilesInS3.getFiles(), hasItem(UnixPath.of("2023-6-14_ANI-ITEM-full-format-xml.zip")));
+    }
+
+    @Test
+    void shouldNotDownloadArchiveAgainWhenTheSameVersionIsAlreadyStored() throws IOException {
+        s3Client = new FakeS3ClientWithMultipartUpload();
+        s3Driver = new S3Driver(s3Client, INPUT_BUCKET_NAME);
+        var fileRetriever = new FakeZipFileRetrieverWithMetadata(SOME_ETAG);
+        handler = new ScopusEmailReader(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET);
+        var s3Event = createS3Event(validEmail);
+        handler.handleRequest(s3Event, CONTEXT);
+        var retrievedFilesAfterFirstRun = fileRetriever.getRetrievedFiles();
+
+        var actualUrl = handler.handleRequest(s3Event, CONTEXT);
+        assertThat(actualUrl, containsInAnyOrder(urlsInValidEmailTxt().toArray()));
+        assertThat(retrievedFilesAfterFirstRun, is(equalTo(urlsInValidEmailTxt().size())));
+        assertThat(fileRetriever.getRetrievedFiles(), is(equalTo(retrievedFilesAfterFirstRun)));
+    }
+
+    @Test
+    void shouldDownloadStoredArchiveAgainWhenItsChecksumTagIsMissing() throws IOException {
+        var multipartS3Client = new FakeS3ClientWithMultipartUpload();
+        s3Client = multipartS3Client;
+        s3Driver = new S3Driver(s3Client, INPUT_BUCKET_NAME);
+        var fileRetriever = new FakeZipFileRetrieverWithMetadata(SOME_ETAG);
+        handler = new ScopusEmailReader(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET);
+        var s3Event = createS3Event(validEmail);
+        handler.handleRequest(s3Event, CONTEXT);
+        var retrievedFilesAfterFirstRun = fileRetriever.getRetrievedFiles();
+        var checksumTag = multipartS3Client.getTags(SCOPUS_ZIP_BUCKET, FULL_ABSTRACTS_KEY);
+        multipartS3Client.removeTags(SCOPUS_ZIP_BUCKET, FULL_ABSTRACTS_KEY);
+
+        handler.handleRequest(s3Event, CONTEXT);
+
+        assertThat(fileRetriever.getRetrievedFiles(), is(equalTo(retrievedFilesAfterFirstRun + 1)));
+        assertThat(checksumTag, hasKey(SHA_256_TAG));
+        assertThat(multipartS3Client.getTags(SCOPUS_ZIP_BUCKET, FULL_ABSTRACTS_KEY), is(equalTo(checksumTag)));
+    }
+
+    @Test
+    void shouldDownloadArchiveAgainWhenTheRemoteVersionHasChanged() throws IOException {
+        s3Client = new FakeS3ClientWithMultipartUpload();
+        s3Driver = new S3Driver(s3Client, INPUT_BUCKET_NAME);
+        var s3Event = createS3Event(validEmail);
+        new ScopusEmailReader(s3Client, new FakeZipFileRetrieverWithMetadata(SOME_ETAG), SCOPUS_ZIP_BUCKET)
+            .handleRequest(s3Event, CONTEXT);
+
+        var fileRetriever = new FakeZipFileRetrieverWithMetadata(randomString());
+        handler = new ScopusEmailReader(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET);
+        handler.handleRequest(s3Event, CONTEXT);
+        assertThat(fileRetriever.getRetrievedFiles(), is(equalTo(urlsInValidEmailTxt().size())));
+    }
+
+    @Test
+    void shouldEmitDurationOfEveryStageAsEmbeddedMetrics() throws IOException {
+        var output = new ByteArrayOutputStream();
+        handler = ScopusEmailReader.builder(s3Client, new FakeZipFileRetriever(), SCOPUS_ZIP_BUCKET)
+                      .withMetricsLogger(createMetricsLogger(output))
+                      .build();
+        handler.handleRequest(createS3Event(validEmail), CONTEXT);
+
+        var stages = readMetricDocuments(output).stream()
+                         .filter(document -> document.has(DURATION_METRIC))
+                         .map(document -> document.get(STAGE_DIMENSION).asText())
+                         .collect(Collectors.toSet());
+        assertThat(stages, hasItems(OPEN_EMAIL_STAGE, PARSE_STAGE, VALIDATE_STAGE, EXTRACT_STAGE, DOWNLOAD_STAGE,
+                                    TRANSFER_STAGE));
+    }
+
+    @Test
+    void shouldEmitBytesAndThroughputForEveryDownloadedUri() throws IOException {
+        var output = new ByteArrayOutputStream();
+        handler = ScopusEmailReader.builder(s3Client, new FakeZipFileRetriever(), SCOPUS_ZIP_BUCKET)
+                      .withMetricsLogger(createMetricsLogger(output))
+                      .build();
+        handler.handleRequest(createS3Event(validEmail), CONTEXT);
+
+        var transfers = transferDocuments(output);
+        var sampleZipSize = IoUtils.inputStreamFromResources("scopus.zip").readAllBytes().length;
+        assertThat(transfers.size(), is(equalTo(urlsInValidEmailTxt().size())));
+        assertThat(transfers.stream().map(document -> document.get(URI_PROPERTY).asText()).toList(),
+                   hasItem(DELETE_LIST_DOWNLOAD_URI.toString()));
+        transfers.forEach(document -> {
+            assertThat(document.get(BYTES_DOWNLOADED_METRIC).asLong(), is(equalTo((long) sampleZipSize)));
+            assertThat(document.get(BYTES_UPLOADED_METRIC).asLong(), is(equalTo((long) sampleZipSize)));
+            assertThat(document.has(THROUGHPUT_METRIC), is(true));
+            assertThat(document.get(FAILED_METRIC).asInt(), is(equalTo(0)));
+        });
+    }
+
+    @Test
+    void shouldEmitFailedTransferWhenDownloadFails() throws IOException {
+        var output = new ByteArrayOutputStream();
+        handler = ScopusEmailReader.builder(s3Client, new FakeZipFileRetrieverFailingForUri(DELETE_LIST_DOWNLOAD_URI),
+                                            SCOPUS_ZIP_BUCKET)
+                      .withMetricsLogger(createMetricsLogger(output))
+                      .build();
+        var s3Event = createS3Event(validEmail);
+        assertThrows(EmailException.class, () -> handler.handleRequest(s3Event, CONTEXT));
+
+        var failedTransfer = transferDocuments(output).stream()
+                                 .filter(document -> DELETE_LIST_DOWNLOAD_URI.toString()
+                                                         .equals(document.get(URI_PROPERTY).asText()))
+                                 .findFirst()
+                                 .orElseThrow();
+        assertThat(failedTransfer.get(FAILED_METRIC).asInt(), is(equalTo(1)));
+        assertThat(failedTransfer.get(BYTES_UPLOADED_METRIC).asLong(), is(equalTo(0L)));
+    }
+
+    @Test
+    void shouldEmitNoUploadedBytesWhenTheUploadFailsAfterTheDownload() throws IOException {
+        s3Client = new FakeS3ClientThrowingExceptionWhenInsertingZipFile();
+        s3Driver = new S3Driver(s3Client, INPUT_BUCKET_NAME);
+        var output = new ByteArrayOutputStream();
+        handler = ScopusEmailReader.builder(s3Client, new FakeZipFileRetriever(), SCOPUS_ZIP_BUCKET)
+                      .withMetricsLogger(createMetricsLogger(output))
+                      .build();
+        var s3Event = createS3Event(validEmail);
+        assertThrows(EmailException.class, () -> handler.handleRequest(s3Event, CONTEXT));
+
+        var failedTransfer = transferDocuments(output).get(0);
+        assertThat(failedTransfer.get(FAILED_METRIC).asInt(), is(equalTo(1)));
+        assertThat(failedTransfer.get(BYTES_DOWNLOADED_METRIC).asLong(), is(greaterThan(0L)));
+        assertThat(failedTransfer.get(BYTES_UPLOADED_METRIC).asLong(), is(equalTo(0L)));
+    }
+
+    @Test
+    void shouldEmitReusedTransferWhenArchiveIsAlreadyStored() throws IOException {
+        s3Client = new FakeS3ClientWithMultipartUpload();
+        s3Driver = new S3Driver(s3Client, INPUT_BUCKET_NAME);
+        var s3Event = createS3Event(validEmail);
+        var fileRetriever = new FakeZipFileRetrieverWithMetadata(SOME_ETAG);
+        new ScopusEmailReader(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET).handleRequest(s3Event, CONTEXT);
+
+        var output = new ByteArrayOutputStream();
+        handler = ScopusEmailReader.builder(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET)
+                      .withMetricsLogger(createMetricsLogger(output))
+                      .build();
+        handler.handleRequest(s3Event, CONTEXT);
+
+        transferDocuments(output).forEach(document -> {
+            assertThat(document.get(REUSED_METRIC).asInt(), is(equalTo(1)));
+            assertThat(document.get(BYTES_DOWNLOADED_METRIC).asLong(), is(equalTo(0L)));
+        });
+    }
+
+    @Test
+    void shouldDownloadUrisSharedByEveryRecordOnlyOnce() throws IOException, MimeException {
+        var fileRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = new ScopusEmailReader(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET);
+        var s3Event = createS3Event(validEmail, EmailGenerator.generateValidEmailWithSiktSender(), validEmail);
+
+        var actualUrl = handler.handleRequest(s3Event, CONTEXT);
+
+        assertThat(actualUrl, containsInAnyOrder(urlsInValidEmailTxt().toArray()));
+        assertThat(fileRetriever.getRetrievedUris(), hasSize(urlsInValidEmailTxt().size()));
+    }
+
+    @Test
+    void shouldNotExceedDownloadParallelismWhenRecordsAreReadConcurrently() throws IOException, MimeException {
+        var fileRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = ScopusEmailReader.builder(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET)
+                      .withRecordParallelism(3)
+                      .withDownloadParallelism(1)
+                      .build();
+        var s3Event = createS3Event(validEmail, EmailGenerator.generateValidEmailWithSiktSender(), validEmail);
+
+        handler.handleRequest(s3Event, CONTEXT);
+
+        assertThat(fileRetriever.getMaxInFlight(), is(equalTo(1)));
+    }
+
+    @Test
+    void shouldProcessValidRecordsAndReportFailingRecordWhenOneEmailIsInvalid() throws IOException, MimeException {
+        var invalidEmail = EmailGenerator.generateEmailWithInvalidSubject();
+        var s3Event = createS3Event(validEmail, invalidEmail);
+        var invalidRecordKey = s3Event.getRecords().get(1).getS3().getObject().getKey();
+
+        var exception = assertThrows(EmailException.class, () -> handler.handleRequest(s3Event, CONTEXT));
+
+        assertThat(exception.getMessage(), containsString(COULD_NOT_VERIFY_EMAIL));
+        assertThat(exception.getMessage(), containsString(invalidRecordKey));
+        assertThat(exception.getObjectKey(), is(equalTo(invalidRecordKey)));
+        assertThat(exception.getSuppressed(), arrayWithSize(1));
+        var driver = new S3Driver(s3Client, SCOPUS_ZIP_BUCKET);
+        var actualFilesInS3 = driver.listFiles(UnixPath.EMPTY_PATH, null, 1000);
+        assertThat(actualFilesInS3.getFiles(), hasItems(UnixPath.of("2023-6-14_ANI-ITEM-full-format-xml.zip"),
+                                                        UnixPath.of("2023-6-14_ANI-ITEM-delete.zip")));
+    }
+
+    @Test
+    void shouldDeferDownloadsThatCannotFinishBeforeTheInvocationTimesOut() throws IOException {
+        var fileRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = createHandlerDownloadingOneAtATime(fileRetriever, new FakeContinuationTrigger());
+        var s3Event = createS3Event(validEmail);
+        var context = new FakeContext(LAMBDA_TIMEOUT, LAMBDA_TIMEOUT, TOO_LITTLE_TIME);
+
+        var actualUrl = handler.handleRequest(s3Event, context);
+
+        assertThat(fileRetriever.getRetrievedUris(), hasSize(1));
+        assertThat(actualUrl, hasSize(1));
+        var continuation = new ScopusEmailContinuationStore(s3Client, SCOPUS_CONTROL_BUCKET)
+                               .readUnfinished(extractObjectKey(s3Event))
+                               .orElseThrow();
+        assertThat(continuation.completed().keySet(), contains(fileRetriever.getRetrievedUris().get(0)));
+        assertThat(continuation.pending(), hasSize(urlsInValidEmailTxt().size() - 1));
+    }
+
+    @Test
+    void shouldTriggerContinuationForEmailsWithDeferredDownloads() throws IOException {
+        var trigger = new FakeContinuationTrigger();
+        handler = createHandlerDownloadingOneAtATime(new ConcurrencyTrackingFileRetriever(), trigger);
+        var s3Event = createS3Event(validEmail);
+
+        handler.handleRequest(s3Event, new FakeContext(LAMBDA_TIMEOUT, LAMBDA_TIMEOUT, TOO_LITTLE_TIME));
+
+        assertThat(trigger.getTriggeredNotifications(), contains(s3Event.getRecords().get(0)));
+    }
+
+    @Test
+    void shouldNotTriggerContinuationWhenEveryDownloadCompleted() throws IOException {
+        var trigger = new FakeContinuationTrigger();
+        handler = createHandlerDownloadingOneAtATime(new ConcurrencyTrackingFileRetriever(), trigger);
+
+        handler.handleRequest(createS3Event(validEmail), CONTEXT);
+
+        assertThat(trigger.getTriggeredNotifications(), is(empty()));
+    }
+
+    @Test
+    void shouldFailWithoutDeferringDownloadsThatCannotFinishWithinAnyInvocation() throws IOException {
+        var trigger = new FakeContinuationTrigger();
+        var fileRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = createHandlerDownloadingOneAtATime(fileRetriever, trigger);
+        var s3Event = createS3Event(validEmail);
+        var context = new FakeContext(TOO_LITTLE_TIME);
+
+        var exception = assertThrows(EmailException.class, () -> handler.handleRequest(s3Event, context));
+
+        assertThat(exception.getMessage(), containsString(DOWNLOAD_EXCEEDS_INVOCATION));
+        assertThat(exception.getMessage(), not(containsString(DOWNLOAD_DEFERRED)));
+        assertThat(fileRetriever.getRetrievedUris(), is(empty()));
+        assertThat(trigger.getTriggeredNotifications(), is(empty()));
+    }
+
+    @Test
+    void shouldFailWhenContinuationCannotBeTriggered() throws IOException {
+        handler = createHandlerDownloadingOneAtATime(new ConcurrencyTrackingFileRetriever(),
+                                                     (notifications, context) -> {
+                                                         throw SdkClientException.create(randomString());
+                                                     });
+        var s3Event = createS3Event(validEmail);
+        var context = new FakeContext(LAMBDA_TIMEOUT, LAMBDA_TIMEOUT, TOO_LITTLE_TIME);
+
+        var exception = assertThrows(EmailException.class, () -> handler.handleRequest(s3Event, context));
+
+        assertThat(exception.getMessage(), containsString(CONTINUATION_NOT_TRIGGERED));
+        assertThat(exception.getObjectKey(), is(equalTo(extractObjectKey(s3Event))));
+    }
+
+    @Test
+    void shouldResumeOnlyPendingDownloadsInTheFollowUpInvocation() throws IOException {
+        var s3Event = createS3Event(validEmail);
+        var firstRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = createHandlerDownloadingOneAtATime(firstRetriever, new FakeContinuationTrigger());
+        handler.handleRequest(s3Event, new FakeContext(LAMBDA_TIMEOUT, LAMBDA_TIMEOUT, TOO_LITTLE_TIME));
+
+        var followUpRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = createHandlerDownloadingOneAtATime(followUpRetriever, new FakeContinuationTrigger());
+        var actualUrl = handler.handleRequest(s3Event, CONTEXT);
+
+        assertThat(actualUrl, containsInAnyOrder(urlsInValidEmailTxt().toArray()));
+        assertThat(followUpRetriever.getRetrievedUris(), hasSize(urlsInValidEmailTxt().size() - 1));
+        assertThat(followUpRetriever.getRetrievedUris(), not(hasItem(firstRetriever.getRetrievedUris().get(0))));
+        var continuationStore = new ScopusEmailContinuationStore(s3Client, SCOPUS_CONTROL_BUCKET);
+        assertThat(continuationStore.readUnfinished(extractObjectKey(s3Event)).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldReturnNoUrisWhenEventHasNoRecords() {
+        assertThat(handler.handleRequest(new S3Event(List.of()), CONTEXT), is(empty()));
+    }
+
+    @Test
+    void shouldPrimeEmailProcessingBeforeCheckpointWithoutDownloadingAnything() throws IOException {
+        var fileRetriever = new ConcurrencyTrackingFileRetriever();
+        handler = new ScopusEmailReader(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET);
+
+        handler.beforeCheckpoint(null);
+
+        assertThat(fileRetriever.getRetrievedUris(), is(empty()));
+    }
+
+    @Test
+    void shouldReconnectToZipBucketAfterRestore() {
+        var restoredS3Client = mock(S3Client.class);
+        handler = new ScopusEmailReader(restoredS3Client, new FakeZipFileRetriever(), SCOPUS_ZIP_BUCKET);
+
+        handler.afterRestore(null);
+
+        verify(restoredS3Client).headBucket(HeadBucketRequest.builder().bucket(SCOPUS_ZIP_BUCKET).build());
+    }
+
+    @Test
+    void shouldNotFailRestoreWhenReconnectingFails() {
+        var restoredS3Client = mock(S3Client.class);
+        when(restoredS3Client.headBucket(any(HeadBucketRequest.class)))
+            .thenThrow(SdkClientException.create(randomString()));
+        handler = new ScopusEmailReader(restoredS3Client, new FakeZipFileRetriever(), SCOPUS_ZIP_BUCKET);
+
+        assertDoesNotThrow(() -> handler.afterRestore(null));
+    }
+
+    private ScopusEmailReader createExtractingHandler(FileRetriever fileRetriever) {
+        return ScopusEmailReader.builder(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET)
+                   .withMetricsLogger(createMetricsLogger(new ByteArrayOutputStream()))
+                   .withEntryExtraction(true)
+                   .build();
+    }
+
+    private static ArchiveManifest readManifest(S3Driver driver) throws IOException {
+        return JsonUtils.dtoObjectMapper.readValue(
+            driver.getFile(UnixPath.of(FULL_ABSTRACTS_PREFIX, MANIFEST_FILE_NAME)), ArchiveManifest.class);
+    }
+
+    private ScopusEmailReader createHandlerDownloadingOneAtATime(FileRetriever fileRetriever,
+                                                                 ScopusEmailContinuationTrigger trigger) {
+        return ScopusEmailReader.builder(s3Client, fileRetriever, SCOPUS_ZIP_BUCKET)
+                   .withControlBucket(SCOPUS_CONTROL_BUCKET)
+                   .withDownloadParallelism(1)
+                   .withMetricsLogger(createMetricsLogger(new ByteArrayOutputStream()))
+                   .withContinuationTrigger(trigger)
+                   .build();
+    }
+
+    private static MetricsLogger createMetricsLogger(ByteArrayOutputStream output) {
+        return ScopusMetrics.createMetricsLogger(new PrintStream(output, true, StandardCharsets.UTF_8));
+    }
+
+    private static List<JsonNode> transferDocuments(ByteArrayOutputStream output) {
+        return readMetricDocuments(output).stream()
+                   .filter(document -> TRANSFER_STAGE.equals(document.get(STAGE_DIMENSION).asText()))
+                   .toList();
+    }
+
+    private static List<JsonNode> readMetricDocuments(ByteArrayOutputStream output) {
+        return output.toString(StandardCharsets.UTF_8)
+                   .lines()
+                   .map(line -> attempt(() -> JsonUtils.dtoObjectMapper.readTree(line)).orElseThrow())
+                   .toList();
+    }
+
     private Set<URI> urlsInValidEmailTxt() {
         return Set.of(UriWrapper.fromUri(FULL_ABSTRACTS).getUri(),
                 UriWrapper.fromUri(DELETE_LIST).getUri());
@@ -196,6 +736,27 @@ public class ScopusEmailReaderTest {
 
     }
 
+    private S3Event createS3Event(String... contents) throws IOException {
+        var records = new ArrayList<S3EventNotification.S3EventNotificationRecord>();
+        for (var content : contents) {
+            var s3ObjectKey = getObjectKey(s3Driver.insertFile(UnixPath.of(randomString()), content));
+            records.add(createRecord(s3ObjectKey));
+        }
+        return new S3Event(records);
+    }
+
+    private S3EventNotification.S3EventNotificationRecord createRecord(String s3ObjectKey) {
+        return new S3EventNotification.S3EventNotificationRecord(randomString(),
+                randomString(),
+                randomString(),
+                Instant.now().toString(),
+                randomString(),
+                EMPTY_REQUEST_PARAMETERS,
+                EMPTY_RESPONSE_ELEMENTS,
+                createS3Entity(s3ObjectKey),
+                EMPTY_USER_IDENTITY);
+    }
+
     private String getObjectKey(URI uri) {
         return UriWrapper.fromUri(uri).toS3bucketPath().toString();
     }
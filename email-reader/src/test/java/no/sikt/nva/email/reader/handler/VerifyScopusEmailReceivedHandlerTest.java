@@ -1,46 +1,68 @@
 package no.sikt.nva.email.reader.handler;
 
+import static no.sikt.nva.email.reader.handler.VerifyScopusEmailReceivedHandler.HEADER_RANGE;
+import static no.sikt.nva.email.reader.service.ScopusEmailHeartbeatStore.HEARTBEAT_KEY;
 import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static nva.commons.core.attempt.Try.attempt;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import no.sikt.nva.email.reader.model.ScopusEmailHeartbeat;
 import no.sikt.nva.email.reader.model.exception.NoScopusEmailsReceivedException;
 import no.sikt.nva.email.reader.util.EmailGenerator;
-import no.unit.nva.stubs.FakeContext;
+import no.sikt.nva.email.reader.util.FakeContext;
+import nva.commons.core.JsonUtils;
 import nva.commons.core.ioutils.IoUtils;
 import org.apache.james.mime4j.MimeException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.invocation.InvocationOnMock;
-import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 public class VerifyScopusEmailReceivedHandlerTest {
 
     private static final String OBJECT_KEY = "someObjectKey";
     private static final String BUCKET_NAME = "someBucketName";
+    private static final String HEARTBEAT_BUCKET_NAME = "someHeartbeatBucketName";
 
-    private final FakeContext context = new FakeContext() {
-        @Override
-        public String getInvokedFunctionArn() {
-            return randomString();
-        }
-    };
+    private static final Duration TIME_RESERVE = Duration.ofMinutes(1);
+    private static final int HEADER_PADDING_FIELDS = 800;
+    private static final Pattern RANGE = Pattern.compile("bytes=0-(\\d+)");
+
+    private final FakeContext context = new FakeContext(Duration.ofMinutes(5));
     private final ScheduledEvent scheduledEvent = new ScheduledEvent();
     private S3Client s3Client;
     private VerifyScopusEmailReceivedHandler handler;
@@ -53,6 +75,27 @@ public class VerifyScopusEmailReceivedHandlerTest {
                                                        BUCKET_NAME);
     }
 
+    @Test
+    void shouldPrimeEmailProcessingBeforeCheckpointWithoutCallingS3() throws IOException {
+        handler.beforeCheckpoint(null);
+
+        verifyNoInteractions(s3Client);
+    }
+
+    @Test
+    void shouldReconnectToEmailBucketAfterRestore() {
+        handler.afterRestore(null);
+
+        verify(s3Client).headBucket(HeadBucketRequest.builder().bucket(BUCKET_NAME).build());
+    }
+
+    @Test
+    void shouldNotFailRestoreWhenReconnectingFails() {
+        when(s3Client.headBucket(any(HeadBucketRequest.class))).thenThrow(SdkClientException.create(randomString()));
+
+        assertDoesNotThrow(() -> handler.afterRestore(null));
+    }
+
     @Test
     void shouldEmitEventWhenThereIsNoObjectYoungerThan24hours() {
         stubObjectKeyListResponse(createOldS3Object());
@@ -74,6 +117,199 @@ public class VerifyScopusEmailReceivedHandlerTest {
         assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, context));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldOnlyRequestTheHeaderRangeOfCandidateEmails() throws MimeException, IOException {
+        stubObjectKeyListResponse(freshObject());
+        stubs3Content(EmailGenerator.generateValidEmail());
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, context));
+        verify(s3Client).getObject(argThat((GetObjectRequest request) -> HEADER_RANGE.equals(request.range())),
+                                   any(ResponseTransformer.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldFetchLongerRangeWhenHeaderDoesNotEndInFirstRange() throws MimeException, IOException {
+        stubObjectKeyListResponse(freshObject());
+        var email = headerPadding() + EmailGenerator.generateValidEmail();
+        stubs3ContentRespectingRange(email);
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, context));
+        verify(s3Client).getObject(argThat((GetObjectRequest request) -> "bytes=0-131071".equals(request.range())),
+                                   any(ResponseTransformer.class));
+    }
+
+    @Test
+    void shouldValidateNewestCandidateFirst() throws MimeException, IOException {
+        var newest = objectModifiedMinutesAgo(1);
+        stubObjectKeyListResponse(List.of(objectModifiedMinutesAgo(30), newest, objectModifiedMinutesAgo(60)));
+        var requestedKeys = new CopyOnWriteArrayList<String>();
+        var validEmail = EmailGenerator.generateValidEmail();
+        stubs3ContentPerKey(key -> {
+            requestedKeys.add(key);
+            return validEmail;
+        });
+        handler = new VerifyScopusEmailReceivedHandler(s3Client, BUCKET_NAME, 1, Duration.ofMinutes(1));
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, context));
+        assertThat(requestedKeys.get(0), is(equalTo(newest.key())));
+    }
+
+    @Test
+    void shouldValidateOneAtATimeWhenConfiguredParallelismIsNotPositive() throws MimeException, IOException {
+        stubObjectKeyListResponse(List.of(objectModifiedMinutesAgo(1), objectModifiedMinutesAgo(30)));
+        var validEmail = EmailGenerator.generateValidEmail();
+        stubs3ContentPerKey(key -> validEmail);
+        handler = new VerifyScopusEmailReceivedHandler(s3Client, BUCKET_NAME, 0, Duration.ofMinutes(1));
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, context));
+    }
+
+    @Test
+    void shouldCancelRemainingValidationsWhenOneEmailIsScopusEmail() throws Exception {
+        var newest = objectModifiedMinutesAgo(1);
+        stubObjectKeyListResponse(List.of(newest, objectModifiedMinutesAgo(30)));
+        var validEmail = EmailGenerator.generateValidEmail();
+        var olderStarted = new CountDownLatch(1);
+        var cancelled = new CountDownLatch(1);
+        stubs3ContentPerKey(key -> newest.key().equals(key)
+                                       ? awaitThenReturn(olderStarted, validEmail)
+                                       : countDownAndBlockUntilInterrupted(olderStarted, cancelled));
+        handler = new VerifyScopusEmailReceivedHandler(s3Client, BUCKET_NAME, 2, Duration.ofMinutes(1));
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, context));
+        assertThat(cancelled.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    void shouldNotEmitEventWhenValidationTakesLongerThanTimeBudget() throws InterruptedException {
+        stubObjectKeyListResponse(freshObject());
+        var cancelled = new CountDownLatch(1);
+        stubs3ContentPerKey(key -> countDownAndBlockUntilInterrupted(new CountDownLatch(1), cancelled));
+        handler = new VerifyScopusEmailReceivedHandler(s3Client, BUCKET_NAME, 1, TIME_RESERVE);
+        var contextAboutToTimeOut = new FakeContext(TIME_RESERVE.plusMillis(100));
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, contextAboutToTimeOut));
+        assertThat(cancelled.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldNotValidateOrEmitEventWhenNoTimeIsLeftBeyondTheReserve() {
+        stubObjectKeyListResponse(freshObject());
+        handler = new VerifyScopusEmailReceivedHandler(s3Client, BUCKET_NAME, 1, TIME_RESERVE);
+        var contextWithinReserve = new FakeContext(TIME_RESERVE.minusSeconds(1));
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, contextWithinReserve));
+        verify(s3Client, never()).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+    }
+
+    @Test
+    void shouldNotListEmailsWhenHeartbeatIsYoungerThan24Hours() {
+        stubs3ContentPerKey(key -> heartbeatValidatedAt(Instant.now().minus(1, ChronoUnit.HOURS)));
+        handler = createHandlerReadingHeartbeat();
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, context));
+        verify(s3Client, never()).listObjectsV2(any(ListObjectsV2Request.class));
+    }
+
+    @Test
+    void shouldValidateRecentEmailsWhenHeartbeatIsOlderThan24Hours() throws MimeException, IOException {
+        stubObjectKeyListResponse(freshObject());
+        var validEmail = EmailGenerator.generateValidEmail();
+        stubs3ContentPerKey(key -> HEARTBEAT_KEY.equals(key)
+                                       ? heartbeatValidatedAt(Instant.now().minus(25, ChronoUnit.HOURS))
+                                       : validEmail);
+        handler = createHandlerReadingHeartbeat();
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, context));
+    }
+
+    @Test
+    void shouldEmitEventWhenHeartbeatIsMissingAndThereIsNoRecentEmail() {
+        stubObjectKeyListResponse(createOldS3Object());
+        stubs3ContentPerKey(key -> {
+            throw NoSuchKeyException.builder().message(key).build();
+        });
+        handler = createHandlerReadingHeartbeat();
+
+        assertThrows(NoScopusEmailsReceivedException.class, () -> handler.handleRequest(scheduledEvent, context));
+    }
+
+    @Test
+    void shouldFindScopusEmailBeyondFirstPageOfListing() throws MimeException, IOException {
+        var continuationToken = randomString();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class)))
+            .thenReturn(ListObjectsV2Response.builder()
+                            .contents(createOldS3Object())
+                            .isTruncated(true)
+                            .nextContinuationToken(continuationToken)
+                            .build())
+            .thenReturn(ListObjectsV2Response.builder().contents(freshObject()).build());
+        stubs3Content(EmailGenerator.generateValidEmail());
+
+        assertDoesNotThrow(() -> handler.handleRequest(scheduledEvent, context));
+        verify(s3Client).listObjectsV2(ListObjectsV2Request.builder()
+                                           .prefix("")
+                                           .continuationToken(continuationToken)
+                                           .bucket(BUCKET_NAME)
+                                           .build());
+    }
+
+    private VerifyScopusEmailReceivedHandler createHandlerReadingHeartbeat() {
+        return new VerifyScopusEmailReceivedHandler(s3Client, BUCKET_NAME, 1, Duration.ofMinutes(1),
+                                                    HEARTBEAT_BUCKET_NAME);
+    }
+
+    private static String heartbeatValidatedAt(Instant validatedAt) {
+        var heartbeat = new ScopusEmailHeartbeat(validatedAt, OBJECT_KEY, randomString(), 2);
+        return attempt(() -> JsonUtils.dtoObjectMapper.writeValueAsString(heartbeat)).orElseThrow();
+    }
+
+    private static String awaitThenReturn(CountDownLatch latch, String content) {
+        attempt(() -> latch.await(10, TimeUnit.SECONDS)).orElseThrow();
+        return content;
+    }
+
+    private static String countDownAndBlockUntilInterrupted(CountDownLatch started, CountDownLatch interrupted) {
+        started.countDown();
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            interrupted.countDown();
+        }
+        return randomString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubs3ContentPerKey(UnaryOperator<String> contentForKey) {
+        when(s3Client.getObject(any(GetObjectRequest.class), any(ResponseTransformer.class)))
+            .thenAnswer(invocationOnMock -> {
+                var request = (GetObjectRequest) invocationOnMock.getArgument(0);
+                return returnObject(invocationOnMock, contentForKey.apply(request.key()));
+            });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubs3ContentRespectingRange(String content) {
+        var bytes = content.getBytes(StandardCharsets.UTF_8);
+        when(s3Client.getObject(any(GetObjectRequest.class), any(ResponseTransformer.class)))
+            .thenAnswer(invocationOnMock -> {
+                var matcher = RANGE.matcher(((GetObjectRequest) invocationOnMock.getArgument(0)).range());
+                var end = matcher.matches() ? Integer.parseInt(matcher.group(1)) + 1 : bytes.length;
+                var range = new String(bytes, 0, Math.min(end, bytes.length), StandardCharsets.UTF_8);
+                return returnObject(invocationOnMock, range);
+            });
+    }
+
+    //More header fields than fit the first range, each shorter than the line limit of the parser.
+    private static String headerPadding() {
+        return IntStream.range(0, HEADER_PADDING_FIELDS)
+                   .mapToObj(index -> String.format("X-Relay-%03d: %s\r\n", index, "a".repeat(80)))
+                   .collect(Collectors.joining());
+    }
+
     @SuppressWarnings("unchecked")
     private void stubs3Content(String content) {
 
@@ -83,16 +319,13 @@ public class VerifyScopusEmailReceivedHandlerTest {
     }
 
     @SuppressWarnings("unchecked")
-    private ResponseBytes<GetObjectResponse> returnObject(InvocationOnMock invocationOnMock,
-                                                          String content) throws Exception {
+    private Object returnObject(InvocationOnMock invocationOnMock, String content) throws Exception {
         var contentsAsByteArray = content.getBytes(StandardCharsets.UTF_8);
         var response = GetObjectResponse
                            .builder()
                            .contentLength((long) contentsAsByteArray.length)
                            .build();
-        var transformer =
-            (ResponseTransformer<GetObjectResponse, ResponseBytes<GetObjectResponse>>)
-                invocationOnMock.getArgument(1);
+        var transformer = (ResponseTransformer<GetObjectResponse, ?>) invocationOnMock.getArgument(1);
         return transformer.transform(response,
                                      AbortableInputStream.create(IoUtils.stringToStream(content)));
     }
@@ -114,6 +347,13 @@ public class VerifyScopusEmailReceivedHandlerTest {
                            .build());
     }
 
+    private static S3Object objectModifiedMinutesAgo(int minutes) {
+        return S3Object.builder()
+                   .key(randomString())
+                   .lastModified(Instant.now().minus(minutes, ChronoUnit.MINUTES))
+                   .build();
+    }
+
     private List<S3Object> freshObject() {
         return List.of(S3Object.builder()
                            .key(OBJECT_KEY)
@@ -0,0 +1,78 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import no.sikt.nva.email.reader.metrics.CountingInputStream;
+import org.apache.james.mime4j.dom.Message;
+import org.apache.james.mime4j.dom.TextBody;
+import org.apache.james.mime4j.dom.field.FieldName;
+import org.apache.james.mime4j.dom.field.MailboxListField;
+import org.apache.james.mime4j.dom.field.UnstructuredField;
+import org.junit.jupiter.api.Test;
+
+public class EmailParserTest {
+
+    private static final String EIGHT_BIT_TEXT = "Bl\u00e5b\u00e6rsyltet\u00f8y";
+    private static final String EIGHT_BIT_EMAIL = "Subject: Scopus Data available for downloading\r\n"
+                                                  + "Content-Type: text/plain; charset=UTF-8\r\n"
+                                                  + "Content-Transfer-Encoding: 8bit\r\n"
+                                                  + "\r\n"
+                                                  + EIGHT_BIT_TEXT;
+    private static final String SENDER = "ELSRAPTechSPFDataDefenders@elsevier.com";
+    private static final int LARGE_BODY_LENGTH = 10 * 1024 * 1024;
+
+    @Test
+    void shouldParseEmailDirectlyFromByteStreamWithoutCorruptingEightBitParts() throws IOException {
+        var emailStream = new ByteArrayInputStream(EIGHT_BIT_EMAIL.getBytes(StandardCharsets.UTF_8));
+        var message = EmailParser.parseEmail(emailStream);
+        assertThat(readBody(message), is(equalTo(EIGHT_BIT_TEXT)));
+    }
+
+    @Test
+    void shouldParseEmailFromStringAsUtf8() throws IOException {
+        var message = EmailParser.parseEmail(EIGHT_BIT_EMAIL);
+        assertThat(readBody(message), is(equalTo(EIGHT_BIT_TEXT)));
+    }
+
+    @Test
+    void shouldParseHeaderWithoutReadingTheBody() {
+        var email = "From: " + SENDER + "\r\n"
+                    + "Subject: =?UTF-8?Q?Bl=C3=A5b=C3=A6rsyltet=C3=B8y?=\r\n"
+                    + "\r\n"
+                    + "x".repeat(LARGE_BODY_LENGTH);
+        var emailStream = new CountingInputStream(
+            new ByteArrayInputStream(email.getBytes(StandardCharsets.UTF_8)));
+
+        var header = EmailParser.parseHeader(emailStream);
+
+        assertThat(((UnstructuredField) header.getField(FieldName.SUBJECT)).getValue(), is(equalTo(EIGHT_BIT_TEXT)));
+        assertThat(((MailboxListField) header.getField(FieldName.FROM)).getMailboxList().get(0).getAddress(),
+                   is(equalTo(SENDER)));
+        assertThat(emailStream.getCount(), is(lessThan((long) LARGE_BODY_LENGTH)));
+    }
+
+    @Test
+    void shouldFindEndOfHeaderWithAndWithoutCarriageReturns() {
+        assertThat(EmailParser.containsEndOfHeader(bytes("From: " + SENDER + "\r\n\r\nbody")), is(true));
+        assertThat(EmailParser.containsEndOfHeader(bytes("From: " + SENDER + "\n\nbody")), is(true));
+    }
+
+    @Test
+    void shouldNotFindEndOfHeaderInTruncatedHeader() {
+        assertThat(EmailParser.containsEndOfHeader(bytes("From: " + SENDER + "\r\nSubject: trunc")), is(false));
+        assertThat(EmailParser.containsEndOfHeader(bytes("From: " + SENDER + "\r\n")), is(false));
+    }
+
+    private static byte[] bytes(String email) {
+        return email.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readBody(Message message) throws IOException {
+        return new String(((TextBody) message.getBody()).getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    }
+}
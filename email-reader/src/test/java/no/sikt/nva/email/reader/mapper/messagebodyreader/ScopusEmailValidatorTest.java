@@ -0,0 +1,114 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import static no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusEmailValidator.UNKNOWN_SIZE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import no.sikt.nva.email.reader.util.EmailGenerator;
+import nva.commons.core.Environment;
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.dom.Header;
+import org.junit.jupiter.api.Test;
+
+public class ScopusEmailValidatorTest {
+
+    private static final long MAX_SIZE_BYTES = 1024;
+    private static final String SIZE_RULES = "{\"maxSizeBytes\": " + MAX_SIZE_BYTES + ", "
+                                             + "\"subject\": \"Scopus Data available for downloading\"}";
+    private static final String DKIM_RULES = "{\"subject\": \"Scopus Data available for downloading\", "
+                                             + "\"dkimPattern\": \"\\\\bdkim=pass\\\\b\"}";
+
+    @Test
+    void shouldAcceptValidEmailWithDefaultRules() throws MimeException, IOException {
+        var message = EmailParser.parseEmail(EmailGenerator.generateValidEmail());
+
+        var verdict = ScopusEmailValidator.withDefaultRules().validate(message, UNKNOWN_SIZE);
+
+        assertThat(verdict, is(equalTo(ValidationVerdict.accepted())));
+    }
+
+    @Test
+    void shouldAcceptEmailFromSiktDomain() throws MimeException, IOException {
+        var message = EmailParser.parseEmail(EmailGenerator.generateValidEmailWithSiktSender());
+
+        assertThat(ScopusEmailValidator.withDefaultRules().validate(message, UNKNOWN_SIZE).valid(), is(true));
+    }
+
+    @Test
+    void shouldAcceptEmailOfAnySizeWithDefaultRules() throws MimeException, IOException {
+        var message = EmailParser.parseEmail(EmailGenerator.generateValidEmail());
+
+        assertThat(ScopusEmailValidator.withDefaultRules().validate(message, Long.MAX_VALUE).valid(), is(true));
+    }
+
+    @Test
+    void shouldReportTheCheapestViolatedRule() throws MimeException, IOException {
+        var message = EmailParser.parseEmail(EmailGenerator.generateEmailWithInvalidSubject());
+        var validator = new ScopusEmailValidator(ScopusEmailRules.fromJson(SIZE_RULES).toRules());
+
+        var verdict = validator.validate(message, MAX_SIZE_BYTES + 1);
+
+        assertThat(verdict.valid(), is(false));
+        assertThat(verdict.rule(), is(equalTo(SizeRule.NAME)));
+    }
+
+    @Test
+    void shouldEvaluateRulesCheapestFirstAndStopAtFirstViolation() throws MimeException, IOException {
+        var evaluated = new ArrayList<String>();
+        var rules = List.of(recordingRule("expensive", 10, true, evaluated),
+                            recordingRule("failing", 5, false, evaluated),
+                            recordingRule("cheap", 1, true, evaluated));
+        var message = EmailParser.parseEmail(EmailGenerator.generateValidEmail());
+
+        var verdict = new ScopusEmailValidator(rules).validate(message, UNKNOWN_SIZE);
+
+        assertThat(verdict.rule(), is(equalTo("failing")));
+        assertThat(evaluated, contains("cheap", "failing"));
+    }
+
+    @Test
+    void shouldRejectEmailWithoutPassingDkimResultWhenDkimRuleIsConfigured() throws MimeException, IOException {
+        var environment = mock(Environment.class);
+        when(environment.readEnvOpt(ScopusEmailRules.EMAIL_RULES_ENV_NAME)).thenReturn(Optional.of(DKIM_RULES));
+        var message = EmailParser.parseEmail(EmailGenerator.generateValidEmail());
+
+        var verdict = ScopusEmailValidator.fromEnvironment(environment).validate(message, UNKNOWN_SIZE);
+
+        assertThat(verdict.rule(), is(equalTo(HeaderPatternRule.DKIM)));
+    }
+
+    @Test
+    void shouldUseDefaultRulesWhenNoRulesAreConfigured() {
+        var environment = mock(Environment.class);
+        when(environment.readEnvOpt(ScopusEmailRules.EMAIL_RULES_ENV_NAME)).thenReturn(Optional.empty());
+
+        assertThat(ScopusEmailRules.fromEnvironment(environment), is(equalTo(ScopusEmailRules.defaults())));
+    }
+
+    private static ValidationRule recordingRule(String name, int cost, boolean passes, List<String> evaluated) {
+        return new ValidationRule() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public int cost() {
+                return cost;
+            }
+
+            @Override
+            public Optional<String> violation(Header header, long sizeInBytes) {
+                evaluated.add(name);
+                return passes ? Optional.empty() : Optional.of(name);
+            }
+        };
+    }
+}
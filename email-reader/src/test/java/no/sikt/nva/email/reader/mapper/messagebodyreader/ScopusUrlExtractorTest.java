@@ -0,0 +1,104 @@
+package no.sikt.nva.email.reader.mapper.messagebodyreader;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import no.sikt.nva.email.reader.util.EmailGenerator;
+import nva.commons.core.paths.UriWrapper;
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.dom.Multipart;
+import org.apache.james.mime4j.dom.TextBody;
+import org.apache.james.mime4j.message.BodyPart;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class ScopusUrlExtractorTest {
+
+    //The regular expressions used by MultipartReader before the streaming extractor was introduced.
+    private static final Pattern LEGACY_URL_PATTERN = Pattern.compile(
+        "https://sccontent-scudd-delivery-prod\\.s3\\.amazonaws\\.com"
+        + "/sccontent-scudd-delivery-prod/[\\w.\\-/:#?=&;%~+]+");
+    private static final Pattern LEGACY_NOT_CITED_BY_PATTERN = Pattern.compile("^((?!ANI-CITEDBY).)*$");
+    private static final String FULL_FORMAT_URL = ScopusUrlExtractor.DELIVERY_URL_PREFIX
+                                                  + "some_path/2023-6-14/2023-6-14_ANI-ITEM-full-format-xml.zip"
+                                                  + "?my-query-param=should-be-preserved";
+    private static final String CITED_BY_URL = ScopusUrlExtractor.DELIVERY_URL_PREFIX
+                                               + "some_path/2023-6-14/2023-6-14_ANI-CITEDBY.zip";
+
+    public static Stream<Arguments> emailFixtures() throws MimeException, IOException {
+        return Stream.of(Arguments.of(EmailGenerator.generateValidEmail()),
+                         Arguments.of(EmailGenerator.generateValidEmailWithSiktSender()),
+                         Arguments.of(EmailGenerator.generateEmailWithInvalidSubject()),
+                         Arguments.of(EmailGenerator.generateEmailWithoutScopusLinks()));
+    }
+
+    @ParameterizedTest(name = "should find the same URIs as the regular expression based extractor")
+    @MethodSource("emailFixtures")
+    void shouldFindTheSameUrisAsTheRegularExpressionBasedExtractor(String email) throws IOException {
+        var multipart = (Multipart) EmailParser.parseEmail(email).getBody();
+        var extractor = new ScopusUrlExtractor();
+        var concatenatedBody = new StringBuilder();
+        for (var bodyPart : multipart.getBodyParts()) {
+            var bodyBytes = ((TextBody) ((BodyPart) bodyPart).getBody()).getInputStream().readAllBytes();
+            extractor.scan(new ByteArrayInputStream(bodyBytes));
+            concatenatedBody.append(new String(bodyBytes, StandardCharsets.UTF_8));
+        }
+        assertThat(extractor.finish(), is(equalTo(extractWithRegularExpressions(concatenatedBody.toString()))));
+    }
+
+    @ParameterizedTest(name = "should find URLs split across chunk boundaries, chunk size {0}")
+    @ValueSource(ints = {1, 2, 3, 7, 64, 8192})
+    void shouldFindUrlsSplitAcrossChunkBoundaries(int chunkSize) throws IOException {
+        var text = randomString() + " " + FULL_FORMAT_URL + "\" " + CITED_BY_URL + "<br>" + randomString();
+        var extractor = new ScopusUrlExtractor(chunkSize);
+        extractor.scan(toStream(text));
+        assertThat(extractor.finish(), containsInAnyOrder(UriWrapper.fromUri(FULL_FORMAT_URL).getUri()));
+    }
+
+    @ParameterizedTest(name = "should treat consecutive scans as one concatenated text")
+    @ValueSource(ints = {10, 40, 90})
+    void shouldTreatConsecutiveScansAsOneConcatenatedText(int splitAt) throws IOException {
+        var text = "<a href=\"" + FULL_FORMAT_URL + "\">";
+        var extractor = new ScopusUrlExtractor();
+        extractor.scan(toStream(text.substring(0, splitAt)));
+        extractor.scan(toStream(text.substring(splitAt)));
+        assertThat(extractor.finish(), is(equalTo(extractWithRegularExpressions(text))));
+    }
+
+    @ParameterizedTest(name = "should ignore a prefix without any path")
+    @ValueSource(strings = {ScopusUrlExtractor.DELIVERY_URL_PREFIX, ScopusUrlExtractor.DELIVERY_URL_PREFIX + " "})
+    void shouldIgnorePrefixWithoutAnyPath(String text) throws IOException {
+        var extractor = new ScopusUrlExtractor();
+        extractor.scan(toStream(text));
+        assertThat(extractor.finish(), is(empty()));
+    }
+
+    private static Set<URI> extractWithRegularExpressions(String body) {
+        var uris = new HashSet<URI>();
+        var matcher = LEGACY_URL_PATTERN.matcher(body);
+        while (matcher.find()) {
+            var uriString = matcher.group();
+            if (LEGACY_NOT_CITED_BY_PATTERN.matcher(uriString).find()) {
+                uris.add(UriWrapper.fromUri(uriString).getUri());
+            }
+        }
+        return uris;
+    }
+
+    private static ByteArrayInputStream toStream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
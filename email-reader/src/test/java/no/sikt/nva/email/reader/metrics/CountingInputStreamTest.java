@@ -0,0 +1,25 @@
+package no.sikt.nva.email.reader.metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+public class CountingInputStreamTest {
+
+    @Test
+    void shouldCountEveryByteReadOrSkipped() throws IOException {
+        var inputStream = new CountingInputStream(new ByteArrayInputStream(new byte[100]));
+
+        inputStream.read();
+        inputStream.skip(9);
+        inputStream.readNBytes(40);
+        inputStream.readAllBytes();
+        inputStream.read();
+
+        assertThat(inputStream.getCount(), is(equalTo(100L)));
+        assertThat(inputStream.markSupported(), is(false));
+    }
+}
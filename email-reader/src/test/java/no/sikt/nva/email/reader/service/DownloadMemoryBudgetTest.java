@@ -0,0 +1,51 @@
+package no.sikt.nva.email.reader.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import org.junit.jupiter.api.Test;
+
+class DownloadMemoryBudgetTest {
+
+    private static final int MEBIBYTE = 1024 * 1024;
+    private static final int SEGMENT_SIZE = 16 * MEBIBYTE;
+    private static final int DOWNLOAD_PARALLELISM = 4;
+    private static final int CONFIGURED_CONCURRENCY = 4;
+
+    @Test
+    void shouldKeepConfiguredConcurrencyWhenBuffersFitHalfTheHeap() {
+        var budget = new DownloadMemoryBudget(2048L * MEBIBYTE);
+
+        assertThat(budget.segmentConcurrency(DOWNLOAD_PARALLELISM, SEGMENT_SIZE, CONFIGURED_CONCURRENCY),
+                   is(equalTo(CONFIGURED_CONCURRENCY)));
+    }
+
+    @Test
+    void shouldLowerConcurrencyUntilBuffersFitHalfTheHeap() {
+        var maxHeapBytes = 512L * MEBIBYTE;
+        var budget = new DownloadMemoryBudget(maxHeapBytes);
+
+        var concurrency = budget.segmentConcurrency(DOWNLOAD_PARALLELISM, SEGMENT_SIZE, CONFIGURED_CONCURRENCY);
+
+        assertThat(concurrency, is(equalTo(2)));
+        assertThat(DownloadMemoryBudget.bufferedBytes(DOWNLOAD_PARALLELISM, SEGMENT_SIZE, concurrency),
+                   is(lessThanOrEqualTo(maxHeapBytes / 2)));
+    }
+
+    @Test
+    void shouldKeepOneSegmentWhenEvenOneDoesNotFit() {
+        var budget = new DownloadMemoryBudget(64L * MEBIBYTE);
+
+        assertThat(budget.segmentConcurrency(DOWNLOAD_PARALLELISM, SEGMENT_SIZE, CONFIGURED_CONCURRENCY),
+                   is(equalTo(1)));
+    }
+
+    @Test
+    void shouldCountSharedUploadBuffersAndPerDownloadSegmentsAndPipe() {
+        var expected = 16L * MEBIBYTE * 4 + 5L * MEBIBYTE * (2 + 4)
+                       + DOWNLOAD_PARALLELISM * (SEGMENT_SIZE * 4L + MEBIBYTE);
+
+        assertThat(DownloadMemoryBudget.bufferedBytes(DOWNLOAD_PARALLELISM, SEGMENT_SIZE, 4), is(equalTo(expected)));
+    }
+}
@@ -0,0 +1,118 @@
+package no.sikt.nva.email.reader.service;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomUri;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import no.sikt.nva.email.metrics.MetricsLogger;
+import no.sikt.nva.email.reader.metrics.ScopusMetrics;
+import no.sikt.nva.email.reader.model.exception.DownloadStalledException;
+import no.sikt.nva.email.reader.util.InputStreamStallingAfterContent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+public class DownloadWatchdogTest {
+
+    private static final Duration SHORT_TIMEOUT = Duration.ofMillis(100);
+    private static final Duration LONG_TIMEOUT = Duration.ofMinutes(1);
+    private static final long HIGH_FLOOR = 1024L * 1024 * 1024;
+    private static final long SLOW_READ_MILLIS = 5;
+    private static final byte[] CONTENT = "some archive content".getBytes(StandardCharsets.UTF_8);
+    private ByteArrayOutputStream metrics;
+    private MetricsLogger metricsLogger;
+
+    @BeforeEach
+    void init() {
+        metrics = new ByteArrayOutputStream();
+        metricsLogger = ScopusMetrics.createMetricsLogger(new PrintStream(metrics, true, StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    void shouldAbortReadThatMakesNoProgressWithinStallTimeout() throws IOException {
+        var watchdog = new DownloadWatchdog(SHORT_TIMEOUT, 0, LONG_TIMEOUT, metricsLogger);
+        var watched = watchdog.watch(randomUri(), new InputStreamStallingAfterContent(CONTENT));
+
+        var exception = assertThrowsStalled(watched::readAllBytes);
+
+        assertThat(exception.getMessage(), containsString("No bytes received"));
+        assertThat(Thread.currentThread().isInterrupted(), is(false));
+        assertThat(metrics.toString(StandardCharsets.UTF_8), containsString(DownloadWatchdog.ABORTED_METRIC));
+    }
+
+    @Test
+    void shouldAbortTransferBelowThroughputFloor() {
+        var watchdog = new DownloadWatchdog(LONG_TIMEOUT, HIGH_FLOOR, SHORT_TIMEOUT, metricsLogger);
+        var watched = watchdog.watch(randomUri(), new SlowInputStream());
+
+        var exception = assertThrowsStalled(() -> watched.transferTo(OutputStream.nullOutputStream()));
+
+        assertThat(exception.getMessage(), containsString("below the floor"));
+    }
+
+    @Test
+    void shouldNotCountTimeSpentOutsideReads() throws Exception {
+        var watchdog = new DownloadWatchdog(SHORT_TIMEOUT, HIGH_FLOOR, SHORT_TIMEOUT, metricsLogger);
+        var watched = watchdog.watch(randomUri(), new ByteArrayInputStream(CONTENT));
+        var content = new ByteArrayOutputStream();
+
+        var value = watched.read();
+        while (value != -1) {
+            content.write(value);
+            Thread.sleep(SHORT_TIMEOUT.toMillis() / 10);
+            value = watched.read();
+        }
+
+        assertThat(content.toByteArray(), is(equalTo(CONTENT)));
+    }
+
+    @Test
+    void shouldFailEveryReadAfterAbort() {
+        var watchdog = new DownloadWatchdog(SHORT_TIMEOUT, 0, LONG_TIMEOUT, metricsLogger);
+        var watched = watchdog.watch(randomUri(), new InputStreamStallingAfterContent(CONTENT));
+
+        assertThrowsStalled(watched::readAllBytes);
+
+        assertThrowsStalled(() -> watched.skip(1));
+    }
+
+    private static DownloadStalledException assertThrowsStalled(Executable executable) {
+        return assertThrows(DownloadStalledException.class, executable);
+    }
+
+    //Delivers one byte per read, far below any useful floor, and never ends.
+    private static final class SlowInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            try {
+                Thread.sleep(SLOW_READ_MILLIS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            buffer[offset] = (byte) read();
+            return 1;
+        }
+    }
+}
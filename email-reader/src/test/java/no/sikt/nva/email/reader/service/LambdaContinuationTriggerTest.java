@@ -0,0 +1,77 @@
+package no.sikt.nva.email.reader.service;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3BucketEntity;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3Entity;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3EventNotificationRecord;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3ObjectEntity;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import no.sikt.nva.email.reader.util.FakeContext;
+import nva.commons.core.JsonUtils;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvocationType;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+
+public class LambdaContinuationTriggerTest {
+
+    private static final long SOME_SIZE = 1234L;
+    private static final FakeContext CONTEXT = new FakeContext(Duration.ofMinutes(15));
+
+    @Test
+    void shouldInvokeRunningFunctionAsynchronouslyWithEventNamingTheEmails() throws IOException {
+        var lambdaClient = mock(LambdaClient.class);
+        var bucket = randomString();
+        var key = randomString();
+
+        new LambdaContinuationTrigger(lambdaClient).trigger(List.of(createRecord(bucket, key, SOME_SIZE)), CONTEXT);
+
+        var request = captureInvokeRequest(lambdaClient);
+        assertThat(request.functionName(), is(equalTo(CONTEXT.getInvokedFunctionArn())));
+        assertThat(request.invocationType(), is(equalTo(InvocationType.EVENT)));
+        var s3 = readPayload(request).get("Records").get(0).get("s3");
+        assertThat(s3.get("bucket").get("name").asText(), is(equalTo(bucket)));
+        assertThat(s3.get("object").get("key").asText(), is(equalTo(key)));
+        assertThat(s3.get("object").get("size").asLong(), is(equalTo(SOME_SIZE)));
+    }
+
+    @Test
+    void shouldLeaveOutSizeWhenOriginalEventHadNone() throws IOException {
+        var lambdaClient = mock(LambdaClient.class);
+
+        new LambdaContinuationTrigger(lambdaClient).trigger(List.of(createRecord(randomString(), randomString(), null)),
+                                                            CONTEXT);
+
+        var object = readPayload(captureInvokeRequest(lambdaClient)).get("Records").get(0).get("s3").get("object");
+        assertThat(object.has("size"), is(false));
+    }
+
+    private static InvokeRequest captureInvokeRequest(LambdaClient lambdaClient) {
+        var captor = ArgumentCaptor.forClass(InvokeRequest.class);
+        verify(lambdaClient).invoke(captor.capture());
+        return captor.getValue();
+    }
+
+    private static JsonNode readPayload(InvokeRequest request) throws IOException {
+        return JsonUtils.dtoObjectMapper.readTree(request.payload().asUtf8String());
+    }
+
+    private static S3EventNotificationRecord createRecord(String bucket, String key, Long size) {
+        var s3 = new S3Entity(randomString(),
+                              new S3BucketEntity(bucket, null, randomString()),
+                              new S3ObjectEntity(key, size, randomString(), randomString(), randomString()),
+                              randomString());
+        return new S3EventNotificationRecord(randomString(), randomString(), randomString(),
+                                             Instant.now().toString(), randomString(), null, null, s3, null);
+    }
+}
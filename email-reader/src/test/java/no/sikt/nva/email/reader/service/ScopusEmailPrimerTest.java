@@ -0,0 +1,20 @@
+package no.sikt.nva.email.reader.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import java.io.IOException;
+import java.net.URI;
+import no.sikt.nva.email.reader.mapper.messagebodyreader.ScopusUrlExtractor;
+import org.junit.jupiter.api.Test;
+
+public class ScopusEmailPrimerTest {
+
+    private static final URI SAMPLE_FULL_FORMAT_URI = URI.create(
+        ScopusUrlExtractor.DELIVERY_URL_PREFIX
+        + "priming/2024-1-1/2024-1-1_ANI-ITEM-full-format-xml.zip?X-Amz-Signature=priming");
+
+    @Test
+    void shouldExtractDeliveryUrisFromBundledSampleEmail() throws IOException {
+        assertThat(ScopusEmailPrimer.primeEmailProcessing(), contains(SAMPLE_FULL_FORMAT_URI));
+    }
+}
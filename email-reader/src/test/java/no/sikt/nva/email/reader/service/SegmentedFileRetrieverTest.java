@@ -0,0 +1,110 @@
+package no.sikt.nva.email.reader.service;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomUri;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.Optional;
+import java.util.Random;
+import no.sikt.nva.email.reader.util.FakeRangeServer;
+import no.sikt.nva.email.reader.util.FakeZipFileRetriever;
+import nva.commons.core.ioutils.IoUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SegmentedFileRetrieverTest {
+
+    private static final int SEGMENT_SIZE = 16;
+    private static final int CONCURRENCY = 3;
+    private HttpClient httpClient;
+    private SegmentedFileRetriever retriever;
+
+    @BeforeEach
+    void init() {
+        httpClient = mock(HttpClient.class);
+        retriever = new SegmentedFileRetriever(httpClient, new FakeZipFileRetriever(), SEGMENT_SIZE, CONCURRENCY);
+    }
+
+    @Test
+    void shouldReassembleSegmentsInOrder() throws IOException, InterruptedException {
+        var content = randomBytes(SEGMENT_SIZE * 10 + 3);
+        var server = stubServer(new FakeRangeServer(content, true));
+
+        var actualContent = retriever.retrieveFile(randomUri()).readAllBytes();
+
+        assertThat(actualContent, is(equalTo(content)));
+        assertThat(server.getRangedRequests(), is(greaterThan(10)));
+    }
+
+    @Test
+    void shouldFallBackToSingleStreamWhenServerDoesNotSupportRanges() throws IOException, InterruptedException {
+        stubServer(new FakeRangeServer(randomBytes(SEGMENT_SIZE * 4), false));
+
+        var actualContent = retriever.retrieveFile(randomUri()).readAllBytes();
+
+        assertThat(actualContent, is(equalTo(sampleZip())));
+    }
+
+    @Test
+    void shouldFallBackToSingleStreamWhenFileIsSmallerThanOneSegment() throws IOException, InterruptedException {
+        stubServer(new FakeRangeServer(randomBytes(SEGMENT_SIZE - 1), true));
+
+        var actualContent = retriever.retrieveFile(randomUri()).readAllBytes();
+
+        assertThat(actualContent, is(equalTo(sampleZip())));
+    }
+
+    @Test
+    void shouldFailReadingWhenSegmentCannotBeFetched() throws IOException, InterruptedException {
+        stubServer(new FakeRangeServer(randomBytes(SEGMENT_SIZE * 4), true, SEGMENT_SIZE * 2));
+
+        var inputStream = retriever.retrieveFile(randomUri());
+
+        assertThrows(IOException.class, inputStream::readAllBytes);
+    }
+
+    @Test
+    void shouldReportMetadataOfRemoteFileWithoutDownloadingIt() throws IOException, InterruptedException {
+        var content = randomBytes(SEGMENT_SIZE * 4);
+        var server = stubServer(new FakeRangeServer(content, true));
+
+        var metadata = retriever.fetchMetadata(randomUri()).orElseThrow();
+
+        assertThat(metadata, is(equalTo(new RemoteFileMetadata(content.length, FakeRangeServer.ETAG, true))));
+        assertThat(server.getRangedRequests(), is(equalTo(1)));
+    }
+
+    @Test
+    void shouldNotProbeFileAgainWhenGivenItsMetadata() throws IOException, InterruptedException {
+        var content = randomBytes(SEGMENT_SIZE * 4);
+        var server = stubServer(new FakeRangeServer(content, true));
+        var metadata = new RemoteFileMetadata(content.length, FakeRangeServer.ETAG, true);
+
+        var actualContent = retriever.retrieveFile(randomUri(), Optional.of(metadata)).readAllBytes();
+
+        assertThat(actualContent, is(equalTo(content)));
+        assertThat(server.getRangedRequests(), is(equalTo(4)));
+    }
+
+    private FakeRangeServer stubServer(FakeRangeServer server) throws IOException, InterruptedException {
+        when(httpClient.send(any(), any())).thenAnswer(server::answer);
+        return server;
+    }
+
+    private static byte[] sampleZip() throws IOException {
+        return IoUtils.inputStreamFromResources("scopus.zip").readAllBytes();
+    }
+
+    private static byte[] randomBytes(int length) {
+        var bytes = new byte[length];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,187 @@
+package no.sikt.nva.email.reader.service;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import no.sikt.nva.email.reader.util.FakeS3ClientWithMultipartUpload;
+import no.unit.nva.s3.S3Driver;
+import nva.commons.core.paths.UnixPath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StreamingS3UploaderTest {
+
+    private static final String BUCKET = "some-bucket";
+    private static final UnixPath OBJECT_KEY = UnixPath.of("2023-6-14_ANI-ITEM-full-format-xml.zip");
+    private static final int PART_SIZE = 1024;
+    private static final int BUFFER_COUNT = 2;
+    private FakeS3ClientWithMultipartUpload s3Client;
+    private StreamingS3Uploader uploader;
+
+    @BeforeEach
+    void init() {
+        s3Client = new FakeS3ClientWithMultipartUpload();
+        uploader = new StreamingS3Uploader(s3Client, PART_SIZE, BUFFER_COUNT);
+    }
+
+    @Test
+    void shouldUploadStreamSmallerThanOnePartWithSinglePutObject() throws IOException {
+        var content = randomString();
+        var uri = uploader.upload(BUCKET, OBJECT_KEY, toStream(content));
+        assertThat(uri, is(equalTo(URI.create("s3://some-bucket/2023-6-14_ANI-ITEM-full-format-xml.zip"))));
+        assertThat(s3Client.getPutObjectCount(), is(equalTo(1)));
+        assertThat(s3Client.getUploadedPartCount(), is(equalTo(0)));
+        assertThat(new S3Driver(s3Client, BUCKET).getFile(OBJECT_KEY), is(equalTo(content)));
+    }
+
+    @Test
+    void shouldUploadStreamLargerThanOnePartAsMultipartUploadInOrder() throws IOException {
+        var content = contentOfLength(PART_SIZE * 5 + PART_SIZE / 2);
+        uploader.upload(BUCKET, OBJECT_KEY, toStream(content));
+        assertThat(s3Client.getUploadedPartCount(), is(equalTo(6)));
+        assertThat(new S3Driver(s3Client, BUCKET).getFile(OBJECT_KEY), is(equalTo(content)));
+    }
+
+    @Test
+    void shouldUploadStreamOfExactlyOnePartAsMultipartUpload() throws IOException {
+        var content = contentOfLength(PART_SIZE);
+        uploader.upload(BUCKET, OBJECT_KEY, toStream(content));
+        assertThat(s3Client.getUploadedPartCount(), is(equalTo(1)));
+        assertThat(new S3Driver(s3Client, BUCKET).getFile(OBJECT_KEY), is(equalTo(content)));
+    }
+
+    @Test
+    void shouldAbortMultipartUploadWhenPartUploadFails() {
+        s3Client = new FakeS3ClientWithMultipartUpload(2);
+        uploader = new StreamingS3Uploader(s3Client, PART_SIZE, BUFFER_COUNT);
+        var content = contentOfLength(PART_SIZE * 4);
+        assertThrows(IOException.class, () -> uploader.upload(BUCKET, OBJECT_KEY, toStream(content)));
+        assertThat(s3Client.getAbortedUploads(), hasSize(1));
+    }
+
+    @Test
+    void shouldReportBytesOfEveryPartAcceptedByS3() throws IOException {
+        var bytesSent = new LongAdder();
+        var content = contentOfLength(PART_SIZE * 2 + PART_SIZE / 2);
+        uploader.upload(BUCKET, OBJECT_KEY, toStream(content), Map.of(), StreamingS3Uploader.ZIP_CONTENT_TYPE,
+                        bytesSent::add);
+        assertThat(bytesSent.sum(), is(equalTo((long) content.length())));
+    }
+
+    @Test
+    void shouldNotReportBytesOfPartRejectedByS3() {
+        s3Client = new FakeS3ClientWithMultipartUpload(2);
+        uploader = new StreamingS3Uploader(s3Client, PART_SIZE, 1);
+        var bytesSent = new LongAdder();
+        var content = contentOfLength(PART_SIZE * 2);
+        assertThrows(IOException.class,
+                     () -> uploader.upload(BUCKET, OBJECT_KEY, toStream(content), Map.of(),
+                                           StreamingS3Uploader.ZIP_CONTENT_TYPE, bytesSent::add));
+        assertThat(bytesSent.sum(), is(equalTo((long) PART_SIZE)));
+    }
+
+    @Test
+    void shouldTagObjectUploadedWithSinglePutObjectWithSha256OfContent() throws Exception {
+        var content = randomString();
+        uploader.upload(BUCKET, OBJECT_KEY, toStream(content));
+        assertThat(s3Client.getTags(BUCKET, OBJECT_KEY.toString()),
+                   hasEntry(StreamingS3Uploader.SHA_256_TAG, sha256(content.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void shouldTagObjectUploadedInPartsWithSha256OfWholeContent() throws Exception {
+        var content = contentOfLength(PART_SIZE * 3 + PART_SIZE / 2);
+        uploader.upload(BUCKET, OBJECT_KEY, toStream(content));
+        assertThat(s3Client.getTags(BUCKET, OBJECT_KEY.toString()),
+                   hasEntry(StreamingS3Uploader.SHA_256_TAG, sha256(content.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void shouldUploadZipThatPassesVerification() throws IOException {
+        var zip = zipOfLength(PART_SIZE * 3);
+        uploader.upload(BUCKET, OBJECT_KEY, new ZipVerifyingInputStream(new ByteArrayInputStream(zip)));
+        assertThat(s3Client.getAbortedUploads(), hasSize(0));
+        assertThat(new S3Driver(s3Client, BUCKET).getFile(OBJECT_KEY).length(), is(equalTo(zip.length)));
+    }
+
+    @Test
+    void shouldAbortMultipartUploadOfTruncatedZip() throws IOException {
+        var zip = zipOfLength(PART_SIZE * 3);
+        var truncated = new ByteArrayInputStream(zip, 0, zip.length - 10);
+        var exception = assertThrows(IOException.class,
+                                     () -> uploader.upload(BUCKET, OBJECT_KEY, new ZipVerifyingInputStream(truncated)));
+        assertThat(exception, is(instanceOf(ZipException.class)));
+        assertThat(s3Client.getAbortedUploads(), hasSize(1));
+    }
+
+    @Test
+    void shouldNotStoreTruncatedZipSmallerThanOnePart() throws IOException {
+        var zip = zipOfLength(PART_SIZE / 4);
+        var truncated = new ByteArrayInputStream(zip, 0, zip.length / 2);
+        assertThrows(ZipException.class,
+                     () -> uploader.upload(BUCKET, OBJECT_KEY, new ZipVerifyingInputStream(truncated)));
+        assertThat(s3Client.getPutObjectCount(), is(equalTo(0)));
+    }
+
+    @Test
+    void shouldNeverAllocateMoreBuffersThanPoolCapacity() throws InterruptedException {
+        var bufferPool = new PartBufferPool(PART_SIZE, BUFFER_COUNT);
+        for (var i = 0; i < 10; i++) {
+            var first = bufferPool.acquire();
+            var second = bufferPool.acquire();
+            bufferPool.release(first);
+            bufferPool.release(second);
+        }
+        assertThat(bufferPool.getAllocatedBuffers(), is(lessThanOrEqualTo(BUFFER_COUNT)));
+    }
+
+    private static String contentOfLength(int length) {
+        var content = new StringBuilder();
+        while (content.length() < length) {
+            content.append(randomString());
+        }
+        return content.substring(0, length);
+    }
+
+    //Uncompressed entries keep the zip about as long as the content, so it spans the expected number of parts.
+    private static byte[] zipOfLength(int length) throws IOException {
+        var content = contentOfLength(length).getBytes(StandardCharsets.UTF_8);
+        var zip = new ByteArrayOutputStream();
+        try (var zipOutputStream = new ZipOutputStream(zip)) {
+            zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+            zipOutputStream.setComment(randomString());
+            zipOutputStream.putNextEntry(new ZipEntry(randomString()));
+            zipOutputStream.write(content);
+            zipOutputStream.closeEntry();
+        }
+        return zip.toByteArray();
+    }
+
+    private static String sha256(byte[] content) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    private static ByteArrayInputStream toStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
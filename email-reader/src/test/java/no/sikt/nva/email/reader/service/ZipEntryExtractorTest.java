@@ -0,0 +1,270 @@
+package no.sikt.nva.email.reader.service;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import no.sikt.nva.email.reader.model.ArchiveEntry;
+import no.sikt.nva.email.reader.model.ArchiveManifest;
+import no.sikt.nva.email.reader.util.FakeS3ClientWithMultipartUpload;
+import no.unit.nva.s3.S3Driver;
+import nva.commons.core.JsonUtils;
+import nva.commons.core.paths.UnixPath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+public class ZipEntryExtractorTest {
+
+    private static final String BUCKET = "some-bucket";
+    private static final UnixPath ARCHIVE_KEY = UnixPath.of("2024-05-01-full.zip");
+    private static final UnixPath ENTRY_PREFIX = UnixPath.of("2024-05-01-full");
+    private static final URI ARCHIVE_URI = URI.create("s3://some-bucket/2024-05-01-full.zip");
+    private static final int PART_SIZE = 1024;
+    private static final int BUFFER_COUNT = 2;
+    //More than the pipe buffer, so the archive could not be passed on if the failed extraction stopped reading.
+    private static final int PIPE_OVERFLOW = 2 * 1024 * 1024;
+    private FakeS3ClientWithMultipartUpload s3Client;
+    private ZipEntryExtractor extractor;
+
+    @BeforeEach
+    void init() {
+        s3Client = new FakeS3ClientWithMultipartUpload();
+        extractor = new ZipEntryExtractor(s3Client, new StreamingS3Uploader(s3Client, PART_SIZE, BUFFER_COUNT));
+    }
+
+    @Test
+    void shouldStoreEveryEntryUnderPrefixOfArchiveWhileArchiveIsUploaded() throws IOException {
+        var entries = Map.of("records/1.xml", randomString(), "records/2.xml", contentOfLength(PART_SIZE * 3));
+        var archive = createZip(entries);
+        var uploader = new StreamingS3Uploader(s3Client, PART_SIZE, BUFFER_COUNT);
+
+        try (var extraction = extractor.extract(BUCKET, ARCHIVE_KEY, new ByteArrayInputStream(archive))) {
+            uploader.upload(BUCKET, ARCHIVE_KEY, extraction);
+            extraction.complete(ARCHIVE_URI);
+        }
+
+        var driver = new S3Driver(s3Client, BUCKET);
+        assertThat(driver.getFile(ARCHIVE_KEY).length(), is(equalTo(archive.length)));
+        for (var entry : entries.entrySet()) {
+            assertThat(driver.getFile(ENTRY_PREFIX.addChild(entry.getKey())), is(equalTo(entry.getValue())));
+        }
+    }
+
+    @Test
+    void shouldWriteManifestWithEntriesSizesAndCount() throws IOException {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("first.xml", randomString());
+        entries.put("second.xml", randomString());
+
+        var manifest = extractCompletely(createZip(entries));
+
+        var storedManifest = JsonUtils.dtoObjectMapper.readValue(
+            new S3Driver(s3Client, BUCKET).getFile(ENTRY_PREFIX.addChild(ZipEntryExtractor.MANIFEST_FILE_NAME)),
+            ArchiveManifest.class);
+        assertThat(storedManifest, is(equalTo(manifest)));
+        assertThat(manifest.entryCount(), is(equalTo(2)));
+        assertThat(manifest.entries(), contains(new ArchiveEntry("2024-05-01-full/first.xml",
+                                                                 entries.get("first.xml").length()),
+                                                new ArchiveEntry("2024-05-01-full/second.xml",
+                                                                 entries.get("second.xml").length())));
+        assertThat(manifest.totalSize(), is(equalTo((long) entries.get("first.xml").length()
+                                                    + entries.get("second.xml").length())));
+    }
+
+    @Test
+    void shouldPassArchiveOnUnchangedWhenReadByteByByte() throws IOException {
+        var archive = createZip(Map.of("entry.xml", randomString()));
+        try (var extraction = extractor.extract(BUCKET, ARCHIVE_KEY, new ByteArrayInputStream(archive))) {
+            assertThat(extraction.markSupported(), is(false));
+            assertThat(readByteByByte(extraction), is(equalTo(archive)));
+            assertThat(extraction.complete(ARCHIVE_URI).entryCount(), is(equalTo(1)));
+        }
+    }
+
+    @Test
+    void shouldPassSkippedBytesOnToExtraction() throws IOException {
+        var archive = createZip(Map.of("entry.xml", randomString()));
+        try (var extraction = extractor.extract(BUCKET, ARCHIVE_KEY, new ByteArrayInputStream(archive))) {
+            while (extraction.skip(archive.length) > 0) {
+                assertThat(extraction.markSupported(), is(false));
+            }
+            assertThat(extraction.complete(ARCHIVE_URI).entryCount(), is(equalTo(1)));
+        }
+    }
+
+    @Test
+    void shouldFailCompletionWhenAnEntryCannotBeStored() throws IOException {
+        s3Client = new FakeS3ClientWithMultipartUpload(1);
+        extractor = new ZipEntryExtractor(s3Client, new StreamingS3Uploader(s3Client, PART_SIZE, BUFFER_COUNT));
+        var archive = createZip(Map.of("large.xml", contentOfLength(PART_SIZE * 2)));
+        try (var extraction = extractor.extract(BUCKET, ARCHIVE_KEY, new ByteArrayInputStream(archive))) {
+            assertThrows(IOException.class, () -> {
+                extraction.readAllBytes();
+                extraction.complete(ARCHIVE_URI);
+            });
+        }
+    }
+
+    @Test
+    void shouldPassWholeArchiveOnWhenAnEntryCannotBeStored() throws IOException {
+        s3Client = new FakeS3ClientWithMultipartUpload(1);
+        extractor = new ZipEntryExtractor(s3Client, new StreamingS3Uploader(s3Client, PART_SIZE, BUFFER_COUNT));
+        var archive = createZip(Map.of("large.xml", contentOfLength(PART_SIZE * 2),
+                                       "after.xml", contentOfLength(PIPE_OVERFLOW)));
+        try (var extraction = extractor.extract(BUCKET, ARCHIVE_KEY, new ByteArrayInputStream(archive))) {
+            assertThat(extraction.readAllBytes(), is(equalTo(archive)));
+            assertThrows(IOException.class, () -> extraction.complete(ARCHIVE_URI));
+        }
+        assertThat(s3Client.headObjectExists(BUCKET, ENTRY_PREFIX.addChild(ZipEntryExtractor.MANIFEST_FILE_NAME)),
+                   is(false));
+    }
+
+    @Test
+    void shouldUploadSmallEntriesConcurrently() throws IOException {
+        var concurrentUploads = new CountDownLatch(2);
+        var uploadsMet = new AtomicBoolean(true);
+        s3Client = new FakeS3ClientWithMultipartUpload() {
+            @Override
+            public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+                if (!request.key().endsWith(ZipEntryExtractor.MANIFEST_FILE_NAME)) {
+                    concurrentUploads.countDown();
+                    uploadsMet.compareAndSet(true, await(concurrentUploads));
+                }
+                return super.putObject(request, requestBody);
+            }
+        };
+        extractor = new ZipEntryExtractor(s3Client, new StreamingS3Uploader(s3Client, PART_SIZE, BUFFER_COUNT));
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("first.xml", randomString());
+        entries.put("second.xml", randomString());
+
+        var manifest = extractCompletely(createZip(entries));
+
+        assertThat(uploadsMet.get(), is(true));
+        assertThat(manifest.entryCount(), is(equalTo(2)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"../escaped.xml", "records/../../escaped.xml", "records/../inside.xml", "/absolute.xml",
+        "\\windows\\share.xml", "C:/drive.xml", "..", "./", ""})
+    void shouldRejectEntryNamesThatCanLeaveThePrefix(String entryName) {
+        assertThat(ZipEntryExtractor.entryKey(ENTRY_PREFIX, entryName), is(equalTo(Optional.empty())));
+    }
+
+    @Test
+    void shouldNormalizeCurrentDirectoryAndEmptySegmentsOfEntryNames() {
+        assertThat(ZipEntryExtractor.entryKey(ENTRY_PREFIX, "./records//1.xml"),
+                   is(equalTo(Optional.of(ENTRY_PREFIX.addChild("records/1.xml")))));
+    }
+
+    @Test
+    void shouldSkipEntriesWhoseNamesLeaveThePrefixAndStoreTheRest() throws IOException {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("../" + ARCHIVE_KEY, randomString());
+        entries.put("inside.xml", randomString());
+
+        var manifest = extractCompletely(createZip(entries));
+
+        assertThat(manifest.entries(), contains(new ArchiveEntry("2024-05-01-full/inside.xml",
+                                                                 entries.get("inside.xml").length())));
+        assertThat(s3Client.headObjectExists(BUCKET, ARCHIVE_KEY), is(false));
+    }
+
+    @Test
+    void shouldExtractStoredArchiveThatHasNoManifest() throws IOException {
+        var archive = createZip(Map.of("entry.xml", randomString()));
+        new StreamingS3Uploader(s3Client).upload(BUCKET, ARCHIVE_KEY, new ByteArrayInputStream(archive));
+
+        extractor.extractStoredArchiveWithoutManifest(BUCKET, ARCHIVE_KEY, ARCHIVE_URI);
+
+        var storedManifest = JsonUtils.dtoObjectMapper.readValue(
+            new S3Driver(s3Client, BUCKET).getFile(ENTRY_PREFIX.addChild(ZipEntryExtractor.MANIFEST_FILE_NAME)),
+            ArchiveManifest.class);
+        assertThat(storedManifest.entryCount(), is(equalTo(1)));
+    }
+
+    @Test
+    void shouldNotExtractStoredArchiveThatAlreadyHasAManifest() throws IOException {
+        var archive = createZip(Map.of("entry.xml", randomString()));
+        new StreamingS3Uploader(s3Client).upload(BUCKET, ARCHIVE_KEY, new ByteArrayInputStream(archive));
+        extractor.extractStoredArchiveWithoutManifest(BUCKET, ARCHIVE_KEY, ARCHIVE_URI);
+        var putsAfterFirstExtraction = s3Client.getPutObjectCount();
+
+        extractor.extractStoredArchiveWithoutManifest(BUCKET, ARCHIVE_KEY, ARCHIVE_URI);
+
+        assertThat(s3Client.getPutObjectCount(), is(equalTo(putsAfterFirstExtraction)));
+    }
+
+    @Test
+    void shouldUseArchiveKeyAsPrefixWhenArchiveHasNoZipExtension() {
+        var archiveKey = UnixPath.of(randomString());
+        assertThat(ZipEntryExtractor.entryPrefix(archiveKey), is(equalTo(archiveKey)));
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private ArchiveManifest extractCompletely(byte[] archive) throws IOException {
+        try (var extraction = extractor.extract(BUCKET, ARCHIVE_KEY, new ByteArrayInputStream(archive))) {
+            extraction.readAllBytes();
+            return extraction.complete(ARCHIVE_URI);
+        }
+    }
+
+    private static byte[] readByteByByte(InputStream inputStream) throws IOException {
+        var content = new ByteArrayOutputStream();
+        var value = inputStream.read();
+        while (value != -1) {
+            content.write(value);
+            value = inputStream.read();
+        }
+        return content.toByteArray();
+    }
+
+    private static byte[] createZip(Map<String, String> entries) throws IOException {
+        var zip = new ByteArrayOutputStream();
+        try (var zipOutputStream = new ZipOutputStream(zip)) {
+            for (var entry : entries.entrySet()) {
+                zipOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+                zipOutputStream.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zipOutputStream.closeEntry();
+            }
+        }
+        return zip.toByteArray();
+    }
+
+    private static String contentOfLength(int length) {
+        var content = new StringBuilder();
+        while (content.length() < length) {
+            content.append(randomString());
+        }
+        return content.substring(0, length);
+    }
+}
@@ -1,25 +1,54 @@
 package no.sikt.nva.email.reader.service;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import no.sikt.nva.email.reader.metrics.ScopusMetrics;
+import no.sikt.nva.email.reader.model.exception.HttpStatusException;
+import no.sikt.nva.email.reader.util.FakeRangeServer;
+import no.sikt.nva.email.reader.util.InputStreamFailingAfterContent;
+import no.sikt.nva.email.reader.util.InputStreamStallingAfterContent;
 import nva.commons.core.ioutils.IoUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
 import static no.unit.nva.testutils.RandomDataGenerator.randomUri;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ZipFileRetrieverTest {
 
+    private static final String SOME_ETAG = "\"some-etag\"";
+    private static final Duration SHORT_WAIT = Duration.ofMillis(1);
+    private static final Duration LONG_WAIT = Duration.ofMinutes(1);
+    private static final Duration STALL_TIMEOUT = Duration.ofMillis(100);
     private ZipFileRetriever zipFileRetriever;
     private HttpClient httpClient;
     private HttpResponse okResponse;
@@ -42,6 +71,169 @@ public class ZipFileRetrieverTest {
         assertThat(inputStream,  not(equalTo(null)));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldNotRetryWhenPresignedLinkHasExpired() throws IOException, InterruptedException {
+        var forbiddenResponse = createResponse(HttpURLConnection.HTTP_FORBIDDEN, InputStream.nullInputStream(),
+                                               Map.of());
+        when(httpClient.send(any(), any())).thenReturn(forbiddenResponse);
+
+        var exception = assertThrows(HttpStatusException.class, () -> zipFileRetriever.retrieveFile(randomUri()));
+
+        assertThat(exception.getStatusCode(), is(equalTo(HttpURLConnection.HTTP_FORBIDDEN)));
+        verify(httpClient, times(1)).send(any(), any());
+    }
+
+    @Test
+    void shouldRetryWhenConnectionFails() throws IOException, InterruptedException {
+        when(httpClient.send(any(), any())).thenThrow(new IOException("Connection reset")).thenReturn(okResponse);
+
+        var inputStream = zipFileRetriever.retrieveFile(randomUri());
+
+        assertThat(inputStream, not(equalTo(null)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldStopSendingRequestsToHostWhenCircuitIsOpen() throws IOException, InterruptedException {
+        var metricsLogger = ScopusMetrics.createMetricsLogger(System.out);
+        var retryPolicy = new DownloadRetryPolicy(1, SHORT_WAIT, LONG_WAIT, metricsLogger);
+        var retriever = new ZipFileRetriever(httpClient, retryPolicy);
+        when(httpClient.send(any(), any())).thenReturn(badResponse);
+        var uri = randomUri();
+        for (var call = 0; call < DownloadRetryPolicy.CIRCUIT_MINIMUM_CALLS; call++) {
+            assertThrows(HttpStatusException.class, () -> retriever.retrieveFile(uri));
+        }
+
+        assertThrows(CallNotPermittedException.class, () -> retriever.retrieveFile(uri));
+        verify(httpClient, times(DownloadRetryPolicy.CIRCUIT_MINIMUM_CALLS)).send(any(), any());
+    }
+
+    @Test
+    void shouldReportAttemptsAndWaitOfRetries() throws IOException, InterruptedException {
+        var metrics = new ByteArrayOutputStream();
+        var metricsLogger = ScopusMetrics.createMetricsLogger(new PrintStream(metrics, true, StandardCharsets.UTF_8));
+        var retriever = new ZipFileRetriever(httpClient, new DownloadRetryPolicy(3, SHORT_WAIT, LONG_WAIT,
+                                                                                 metricsLogger));
+        mockResponseThatFailsTheFirstTimeButReturnsSuccessTheSecondTime(randomUri());
+
+        retriever.retrieveFile(randomUri());
+
+        var reported = metrics.toString(StandardCharsets.UTF_8);
+        assertThat(reported, containsString(DownloadRetryPolicy.RETRY_WAIT_METRIC));
+        assertThat(reported, containsString(DownloadRetryPolicy.RETRIED_OUTCOME));
+        assertThat(reported, containsString(DownloadRetryPolicy.SUCCEEDED_OUTCOME));
+    }
+
+    @Test
+    void shouldReportSizeAndEtagOfRemoteFile() throws IOException, InterruptedException {
+        var content = randomString().getBytes(StandardCharsets.UTF_8);
+        when(httpClient.send(any(), any())).thenAnswer(new FakeRangeServer(content, true)::answer);
+
+        var metadata = zipFileRetriever.fetchMetadata(randomUri()).orElseThrow();
+
+        assertThat(metadata, is(equalTo(new RemoteFileMetadata(content.length, FakeRangeServer.ETAG, true))));
+    }
+
+    @Test
+    void shouldReportNoMetadataWhenRemoteFileCannotBeInspected() throws IOException, InterruptedException {
+        when(httpClient.send(any(), any())).thenThrow(new IOException("Connection refused"));
+
+        assertThat(zipFileRetriever.fetchMetadata(randomUri()).isEmpty(), is(true));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldResumeFromLastDeliveredByteWhenConnectionIsReset() throws IOException, InterruptedException {
+        var content = randomString().getBytes(StandardCharsets.UTF_8);
+        var splitAt = content.length / 2;
+        var firstResponse = createResponse(HttpURLConnection.HTTP_OK,
+                                           new InputStreamFailingAfterContent(Arrays.copyOf(content, splitAt)),
+                                           Map.of(ZipFileRetriever.ETAG_HEADER, SOME_ETAG,
+                                                  ZipFileRetriever.CONTENT_LENGTH_HEADER,
+                                                  String.valueOf(content.length)));
+        var resumedResponse = createPartialResponse(content, splitAt, SOME_ETAG);
+        when(httpClient.send(any(), any())).thenReturn(firstResponse).thenReturn(resumedResponse);
+
+        var actualContent = zipFileRetriever.retrieveFile(randomUri()).readAllBytes();
+
+        assertThat(actualContent, is(equalTo(content)));
+        var requests = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(httpClient, times(2)).send(requests.capture(), any());
+        var resumeRequest = requests.getAllValues().get(1);
+        assertThat(resumeRequest.headers().firstValue("Range").orElseThrow(), is(equalTo("bytes=" + splitAt + "-")));
+        assertThat(resumeRequest.headers().firstValue("If-Range").orElseThrow(), is(equalTo(SOME_ETAG)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldResumeWhenStreamEndsBeforeContentLengthIsReached() throws IOException, InterruptedException {
+        var content = randomString().getBytes(StandardCharsets.UTF_8);
+        var splitAt = content.length / 2;
+        var firstResponse = createResponse(HttpURLConnection.HTTP_OK,
+                                           new ByteArrayInputStream(Arrays.copyOf(content, splitAt)),
+                                           Map.of(ZipFileRetriever.CONTENT_LENGTH_HEADER,
+                                                  String.valueOf(content.length)));
+        var resumedResponse = createPartialResponse(content, splitAt, SOME_ETAG);
+        when(httpClient.send(any(), any())).thenReturn(firstResponse).thenReturn(resumedResponse);
+
+        var actualContent = zipFileRetriever.retrieveFile(randomUri()).readAllBytes();
+
+        assertThat(actualContent, is(equalTo(content)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldResumeFromLastDeliveredByteWhenWatchdogAbortsStalledBody() throws IOException, InterruptedException {
+        var content = randomString().getBytes(StandardCharsets.UTF_8);
+        var splitAt = content.length / 2;
+        var stalledResponse = createResponse(HttpURLConnection.HTTP_OK,
+                                             new InputStreamStallingAfterContent(Arrays.copyOf(content, splitAt)),
+                                             Map.of(ZipFileRetriever.ETAG_HEADER, SOME_ETAG,
+                                                    ZipFileRetriever.CONTENT_LENGTH_HEADER,
+                                                    String.valueOf(content.length)));
+        var resumedResponse = createPartialResponse(content, splitAt, SOME_ETAG);
+        when(httpClient.send(any(), any())).thenReturn(stalledResponse).thenReturn(resumedResponse);
+        var watchdog = new DownloadWatchdog(STALL_TIMEOUT, 0, LONG_WAIT, ScopusMetrics.createMetricsLogger(System.out));
+        var retriever = new ZipFileRetriever(httpClient, DownloadRetryPolicy.withDefaults(), watchdog);
+
+        var actualContent = retriever.retrieveFile(randomUri()).readAllBytes();
+
+        assertThat(actualContent, is(equalTo(content)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldFailWhenResumedResponseDoesNotContinueFromLastDeliveredByte() throws IOException,
+                                                                                    InterruptedException {
+        var content = randomString().getBytes(StandardCharsets.UTF_8);
+        var splitAt = content.length / 2;
+        var firstResponse = createResponse(HttpURLConnection.HTTP_OK,
+                                           new InputStreamFailingAfterContent(Arrays.copyOf(content, splitAt)),
+                                           Map.of(ZipFileRetriever.ETAG_HEADER, SOME_ETAG));
+        var wrongRangeResponse = createPartialResponse(content, 0, SOME_ETAG);
+        when(httpClient.send(any(), any())).thenReturn(firstResponse).thenReturn(wrongRangeResponse);
+
+        var inputStream = zipFileRetriever.retrieveFile(randomUri());
+
+        assertThrows(IOException.class, inputStream::readAllBytes);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldFailWhenResumedResponseIsADifferentEntity() throws IOException, InterruptedException {
+        var content = randomString().getBytes(StandardCharsets.UTF_8);
+        var splitAt = content.length / 2;
+        var firstResponse = createResponse(HttpURLConnection.HTTP_OK,
+                                           new InputStreamFailingAfterContent(Arrays.copyOf(content, splitAt)),
+                                           Map.of(ZipFileRetriever.ETAG_HEADER, SOME_ETAG));
+        var otherEntityResponse = createPartialResponse(content, splitAt, "\"other-etag\"");
+        when(httpClient.send(any(), any())).thenReturn(firstResponse).thenReturn(otherEntityResponse);
+
+        var inputStream = zipFileRetriever.retrieveFile(randomUri());
+
+        assertThrows(IOException.class, inputStream::readAllBytes);
+    }
 
     @SuppressWarnings("unchecked")
     private void mockResponseThatFailsTheFirstTimeButReturnsSuccessTheSecondTime(URI url)
@@ -51,20 +243,41 @@ public class ZipFileRetrieverTest {
                 .thenReturn(okResponse);
     }
 
+    private HttpResponse<Object> createPartialResponse(byte[] content, int offset, String etag) {
+        var contentRange = String.format("bytes %d-%d/%d", offset, content.length - 1, content.length);
+        return createResponse(HttpURLConnection.HTTP_PARTIAL,
+                              new ByteArrayInputStream(Arrays.copyOfRange(content, offset, content.length)),
+                              Map.of(ZipFileRetriever.ETAG_HEADER, etag,
+                                     ZipFileRetriever.CONTENT_RANGE_HEADER, contentRange));
+    }
 
     @SuppressWarnings("unchecked")
-    private HttpResponse<Object> createOkResponse() {
+    private HttpResponse<Object> createResponse(int statusCode, InputStream body, Map<String, String> headers) {
         var response = (HttpResponse<Object>) mock(HttpResponse.class);
-        when(response.statusCode()).thenReturn(HttpURLConnection.HTTP_OK);
-        when(response.body()).thenReturn(IoUtils.inputStreamFromResources("scopus.zip"));
+        when(response.statusCode()).thenReturn(statusCode);
+        when(response.body()).thenReturn(body);
+        when(response.headers()).thenReturn(toHttpHeaders(headers));
         return response;
     }
 
+    private HttpResponse<Object> createOkResponse() {
+        return createResponse(HttpURLConnection.HTTP_OK,
+                              IoUtils.inputStreamFromResources("scopus.zip"),
+                              Map.of());
+    }
+
     @SuppressWarnings("unchecked")
     private HttpResponse<Object> createBadResponse() {
         var response = (HttpResponse<Object>) mock(HttpResponse.class);
-        when(response.statusCode()).thenReturn(HttpURLConnection.HTTP_BAD_METHOD);
+        when(response.statusCode()).thenReturn(HttpURLConnection.HTTP_UNAVAILABLE);
         return response;
     }
 
+    private static HttpHeaders toHttpHeaders(Map<String, String> headers) {
+        var multiValuedHeaders = headers.entrySet()
+                                     .stream()
+                                     .collect(Collectors.toMap(Map.Entry::getKey,
+                                                               entry -> List.of(entry.getValue())));
+        return HttpHeaders.of(multiValuedHeaders, (name, value) -> true);
+    }
 }
@@ -0,0 +1,151 @@
+package no.sikt.nva.email.reader.service;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+
+public class ZipVerifyingInputStreamTest {
+
+    private static final int ZIP64_MARKER = 0xFFFFFFFF;
+    private static final int MANY_ENTRIES = 3000;
+    private static final int ODD_CHUNK_SIZE = 7919;
+
+    @Test
+    void shouldPassThroughValidZipUnchanged() throws IOException {
+        var zip = createZip(10);
+        try (var inputStream = new ZipVerifyingInputStream(new ByteArrayInputStream(zip))) {
+            assertThat(inputStream.readAllBytes(), is(equalTo(zip)));
+        }
+    }
+
+    @Test
+    void shouldVerifyZipReadByteByByte() throws IOException {
+        var zip = createZip(3);
+        try (var inputStream = new ZipVerifyingInputStream(new ByteArrayInputStream(zip))) {
+            assertThat(readByteByByte(inputStream), is(equalTo(zip)));
+        }
+    }
+
+    @Test
+    void shouldVerifyZipLongerThanTailReadInChunksWrappingAroundTheTail() throws IOException {
+        var zip = createZip(MANY_ENTRIES);
+        try (var inputStream = new ZipVerifyingInputStream(new ByteArrayInputStream(zip))) {
+            var content = new ByteArrayOutputStream();
+            var chunk = new byte[ODD_CHUNK_SIZE];
+            var bytesRead = inputStream.read(chunk, 1, chunk.length - 1);
+            while (bytesRead != -1) {
+                content.write(chunk, 1, bytesRead);
+                bytesRead = inputStream.read(chunk, 1, chunk.length - 1);
+            }
+            assertThat(content.toByteArray(), is(equalTo(zip)));
+        }
+    }
+
+    @Test
+    void shouldFailWhenEndOfCentralDirectoryIsTruncated() {
+        var zip = createZip(3);
+        var truncated = Arrays.copyOf(zip, zip.length - 1);
+        assertThrows(ZipException.class, () -> readFully(truncated));
+    }
+
+    @Test
+    void shouldFailWhenEntriesAreMissing() {
+        var zip = createZip(3);
+        var withoutFirstBytes = Arrays.copyOfRange(zip, 100, zip.length);
+        assertThrows(ZipException.class, () -> readFully(withoutFirstBytes));
+    }
+
+    @Test
+    void shouldFailWhenContentIsNotZip() {
+        assertThrows(ZipException.class, () -> readFully(randomString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void shouldVerifyZip64EndOfCentralDirectory() throws IOException {
+        var zip = createZip64(0);
+        assertThat(readFully(zip), is(equalTo(zip)));
+    }
+
+    @Test
+    void shouldFailWhenZip64CentralDirectoryDoesNotMatch() {
+        assertThrows(ZipException.class, () -> readFully(createZip64(1)));
+    }
+
+    @Test
+    void shouldFailWhenZip64LocatorIsMissing() {
+        var zip = createZip64(0);
+        var withoutLocator = Arrays.copyOfRange(zip, 76, zip.length);
+        assertThrows(ZipException.class, () -> readFully(withoutLocator));
+    }
+
+    @Test
+    void shouldKeepTailWhenSkipping() throws IOException {
+        var zip = createZip(3);
+        try (var inputStream = new ZipVerifyingInputStream(new ByteArrayInputStream(zip))) {
+            assertThat(inputStream.markSupported(), is(false));
+            var skipped = 0L;
+            var skippedNow = inputStream.skip(zip.length);
+            while (skippedNow > 0) {
+                skipped += skippedNow;
+                skippedNow = inputStream.skip(zip.length);
+            }
+            assertThat(skipped, is(equalTo((long) zip.length)));
+        }
+    }
+
+    private static byte[] readFully(byte[] content) throws IOException {
+        try (var inputStream = new ZipVerifyingInputStream(new ByteArrayInputStream(content))) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    private static byte[] readByteByByte(InputStream inputStream) throws IOException {
+        var content = new ByteArrayOutputStream();
+        var value = inputStream.read();
+        while (value != -1) {
+            content.write(value);
+            value = inputStream.read();
+        }
+        return content.toByteArray();
+    }
+
+    private static byte[] createZip(int entries) {
+        var zip = new ByteArrayOutputStream();
+        try (var zipOutputStream = new ZipOutputStream(zip)) {
+            zipOutputStream.setComment(randomString());
+            for (var i = 0; i < entries; i++) {
+                zipOutputStream.putNextEntry(new ZipEntry(randomString()));
+                zipOutputStream.write(randomString().getBytes(StandardCharsets.UTF_8));
+                zipOutputStream.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return zip.toByteArray();
+    }
+
+    //An empty archive whose central directory sizes are only found in the zip64 record at offset 0.
+    private static byte[] createZip64(long centralDirectorySize) {
+        var buffer = ByteBuffer.allocate(56 + 20 + 22).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+            .putLong(0).putLong(0).putLong(centralDirectorySize).putLong(0);
+        buffer.putInt(0x07064b50).putInt(0).putLong(0).putInt(1);
+        buffer.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) -1).putShort((short) -1)
+            .putInt(ZIP64_MARKER).putInt(ZIP64_MARKER).putShort((short) 0);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,42 @@
+package no.sikt.nva.email.reader.util;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.sikt.nva.email.reader.service.FileRetriever;
+import nva.commons.core.ioutils.IoUtils;
+
+public class ConcurrencyTrackingFileRetriever implements FileRetriever {
+
+    private static final String PATH_TO_SAMPLE_ZIP = "scopus.zip";
+    private static final long SIMULATED_DOWNLOAD_MILLIS = 200L;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final List<URI> retrievedUris = new CopyOnWriteArrayList<>();
+
+    @Override
+    public InputStream retrieveFile(URI uri) {
+        retrievedUris.add(uri);
+        var current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            Thread.sleep(SIMULATED_DOWNLOAD_MILLIS);
+            return IoUtils.inputStreamFromResources(PATH_TO_SAMPLE_ZIP);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    public List<URI> getRetrievedUris() {
+        return retrievedUris;
+    }
+}
@@ -45,6 +45,17 @@ public class EmailGenerator {
         return writeMessageToString(message);
     }
 
+    public static String generateValidEmailWithBody(String bodyText) throws MimeException, IOException {
+        var message = Message.Builder.of()
+                          .setBody(createMultipartBody(bodyText))
+                          .setSubject(VALID_SUBJECT)
+                          .setFrom(createValidFromMailBox())
+                          .setField(createValidReceivedSpfHeader())
+                          .build();
+
+        return writeMessageToString(message);
+    }
+
     public static String generateValidEmailWithSiktSender() throws IOException, MimeException {
         var message = Message.Builder.of()
                           .setBody(createValidMultipartBody())
@@ -130,10 +141,14 @@ public class EmailGenerator {
     }
 
     private static Multipart createValidMultipartBody() throws IOException {
+        return createMultipartBody(readValidBodyText());
+    }
+
+    private static Multipart createMultipartBody(String bodyText) throws IOException {
         return MultipartBuilder
                    .create(MIXED_SUB_TYPE)
                    .addBodyPart(BodyPartBuilder.create()
-                                    .setBody(readValidBodyText(), StandardCharsets.UTF_8)
+                                    .setBody(bodyText, StandardCharsets.UTF_8)
                                     .setContentType(CONTENT_TYPE_TEXT_HTML, new NameValuePair(CHARSET, UTF_8))
                                     .setContentTransferEncoding(TRANSFER_ENCODING_QUOTED_PRINTABLE)
                                     .build())
@@ -0,0 +1,78 @@
+package no.sikt.nva.email.reader.util;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+//Reports the given remaining times one per call, and the last one from then on, so a test decides when time runs out.
+public class FakeContext implements Context {
+
+    private static final String FUNCTION_NAME = "ScopusEmailReader";
+    private static final int MEMORY_LIMIT_IN_MB = 2048;
+    private final Deque<Duration> remainingTimes;
+
+    public FakeContext(Duration... remainingTimes) {
+        this.remainingTimes = new ArrayDeque<>(Arrays.asList(remainingTimes));
+    }
+
+    @Override
+    public synchronized int getRemainingTimeInMillis() {
+        var remaining = remainingTimes.size() > 1 ? remainingTimes.poll() : remainingTimes.peek();
+        return (int) remaining.toMillis();
+    }
+
+    @Override
+    public String getAwsRequestId() {
+        return "some-request-id";
+    }
+
+    @Override
+    public String getLogGroupName() {
+        return "/aws/lambda/" + FUNCTION_NAME;
+    }
+
+    @Override
+    public String getLogStreamName() {
+        return "some-log-stream";
+    }
+
+    @Override
+    public String getFunctionName() {
+        return FUNCTION_NAME;
+    }
+
+    @Override
+    public String getFunctionVersion() {
+        return "$LATEST";
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return "arn:aws:lambda:eu-west-1:123456789012:function:" + FUNCTION_NAME;
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+        return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+        return null;
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return MEMORY_LIMIT_IN_MB;
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return null;
+    }
+}
@@ -0,0 +1,22 @@
+package no.sikt.nva.email.reader.util;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3EventNotificationRecord;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import no.sikt.nva.email.reader.service.ScopusEmailContinuationTrigger;
+
+public class FakeContinuationTrigger implements ScopusEmailContinuationTrigger {
+
+    private final List<S3EventNotificationRecord> triggeredNotifications = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void trigger(Collection<S3EventNotificationRecord> notifications, Context context) {
+        triggeredNotifications.addAll(notifications);
+    }
+
+    public List<S3EventNotificationRecord> getTriggeredNotifications() {
+        return triggeredNotifications;
+    }
+}
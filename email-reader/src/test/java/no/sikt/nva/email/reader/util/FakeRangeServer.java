@@ -0,0 +1,74 @@
+package no.sikt.nva.email.reader.util;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.mockito.invocation.InvocationOnMock;
+
+//Answers HttpClient.send calls like an S3 presigned URL that supports byte ranges.
+public class FakeRangeServer {
+
+    public static final String ETAG = "\"some-etag\"";
+    private static final String RANGE_HEADER = "Range";
+    private static final String RANGE_PREFIX = "bytes=";
+    private final byte[] content;
+    private final boolean supportsRanges;
+    private final int failingSegmentStart;
+    private final AtomicInteger rangedRequests = new AtomicInteger();
+
+    public FakeRangeServer(byte[] content, boolean supportsRanges) {
+        this(content, supportsRanges, -1);
+    }
+
+    public FakeRangeServer(byte[] content, boolean supportsRanges, int failingSegmentStart) {
+        this.content = content.clone();
+        this.supportsRanges = supportsRanges;
+        this.failingSegmentStart = failingSegmentStart;
+    }
+
+    public HttpResponse<Object> answer(InvocationOnMock invocation) {
+        HttpRequest request = invocation.getArgument(0);
+        var range = request.headers().firstValue(RANGE_HEADER);
+        if (range.isEmpty() || !supportsRanges) {
+            return response(HttpURLConnection.HTTP_OK, content, Map.of("Content-Length", List.of(
+                String.valueOf(content.length))), false);
+        }
+        rangedRequests.incrementAndGet();
+        var bounds = range.get().substring(RANGE_PREFIX.length()).split("-");
+        var start = Integer.parseInt(bounds[0]);
+        if (start == failingSegmentStart) {
+            return response(HttpURLConnection.HTTP_INTERNAL_ERROR, new byte[0], Map.of(), false);
+        }
+        var endInclusive = bounds.length > 1 ? Integer.parseInt(bounds[1]) : content.length - 1;
+        var contentRange = String.format("bytes %d-%d/%d", start, endInclusive, content.length);
+        var isProbe = start == 0 && endInclusive == 0;
+        return response(HttpURLConnection.HTTP_PARTIAL,
+                        Arrays.copyOfRange(content, start, endInclusive + 1),
+                        Map.of("Content-Range", List.of(contentRange), "ETag", List.of(ETAG)),
+                        !isProbe);
+    }
+
+    public int getRangedRequests() {
+        return rangedRequests.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<Object> response(int statusCode,
+                                                 byte[] body,
+                                                 Map<String, List<String>> headers,
+                                                 boolean bodyAsBytes) {
+        var response = (HttpResponse<Object>) mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(statusCode);
+        when(response.headers()).thenReturn(HttpHeaders.of(headers, (name, value) -> true));
+        when(response.body()).thenReturn(bodyAsBytes ? body : new ByteArrayInputStream(body));
+        return response;
+    }
+}
@@ -0,0 +1,187 @@
+package no.sikt.nva.email.reader.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.unit.nva.stubs.FakeS3Client;
+import nva.commons.core.paths.UnixPath;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectTaggingResponse;
+import software.amazon.awssdk.services.s3.model.Tag;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+public class FakeS3ClientWithMultipartUpload extends FakeS3Client {
+
+    private final Map<String, SortedMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final Map<String, CreateMultipartUploadRequest> createRequests = new ConcurrentHashMap<>();
+    private final List<String> abortedUploads = new CopyOnWriteArrayList<>();
+    private final Map<String, HeadObjectResponse> storedObjects = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> storedTags = new ConcurrentHashMap<>();
+    private final AtomicInteger putObjectCount = new AtomicInteger();
+    private final AtomicInteger uploadedPartCount = new AtomicInteger();
+    private final int failingPartNumber;
+
+    public FakeS3ClientWithMultipartUpload() {
+        this(-1);
+    }
+
+    public FakeS3ClientWithMultipartUpload(int failingPartNumber) {
+        super();
+        this.failingPartNumber = failingPartNumber;
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody) {
+        putObjectCount.incrementAndGet();
+        return storeObject(putObjectRequest, requestBody);
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        var storedObject = storedObjects.get(objectId(request.bucket(), request.key()));
+        if (storedObject == null) {
+            throw NoSuchKeyException.builder().message("No such key: " + request.key()).build();
+        }
+        return storedObject;
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        var uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new ConcurrentSkipListMap<>());
+        createRequests.put(uploadId, request);
+        return CreateMultipartUploadResponse.builder().uploadId(uploadId).build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody) {
+        if (request.partNumber() == failingPartNumber) {
+            throw new UnsupportedOperationException("I don't work");
+        }
+        uploads.get(request.uploadId()).put(request.partNumber(), readBytes(requestBody));
+        uploadedPartCount.incrementAndGet();
+        return UploadPartResponse.builder().eTag(UUID.randomUUID().toString()).build();
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        var content = new ByteArrayOutputStream();
+        var parts = uploads.remove(request.uploadId());
+        request.multipartUpload().parts().forEach(part -> content.writeBytes(parts.get(part.partNumber())));
+        var createRequest = createRequests.remove(request.uploadId());
+        storeObject(PutObjectRequest.builder()
+                        .bucket(request.bucket())
+                        .key(request.key())
+                        .metadata(createRequest.metadata())
+                        .build(),
+                    RequestBody.fromBytes(content.toByteArray()));
+        return CompleteMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public PutObjectTaggingResponse putObjectTagging(PutObjectTaggingRequest request) {
+        var tags = new ConcurrentHashMap<String, String>();
+        request.tagging().tagSet().forEach(tag -> tags.put(tag.key(), tag.value()));
+        storedTags.put(objectId(request.bucket(), request.key()), tags);
+        return PutObjectTaggingResponse.builder().build();
+    }
+
+    @Override
+    public GetObjectTaggingResponse getObjectTagging(GetObjectTaggingRequest request) {
+        var tags = getTags(request.bucket(), request.key()).entrySet()
+                       .stream()
+                       .map(tag -> Tag.builder().key(tag.getKey()).value(tag.getValue()).build())
+                       .toList();
+        return GetObjectTaggingResponse.builder().tagSet(tags).build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        uploads.remove(request.uploadId());
+        abortedUploads.add(request.uploadId());
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    public int getPutObjectCount() {
+        return putObjectCount.get();
+    }
+
+    public int getUploadedPartCount() {
+        return uploadedPartCount.get();
+    }
+
+    public List<String> getAbortedUploads() {
+        return abortedUploads;
+    }
+
+    public Map<String, String> getTags(String bucket, String key) {
+        return storedTags.getOrDefault(objectId(bucket, key), Map.of());
+    }
+
+    public boolean headObjectExists(String bucket, UnixPath key) {
+        return storedObjects.containsKey(objectId(bucket, key.toString()));
+    }
+
+    public void removeTags(String bucket, String key) {
+        storedTags.remove(objectId(bucket, key));
+    }
+
+    private PutObjectResponse storeObject(PutObjectRequest request, RequestBody requestBody) {
+        var storedObject = HeadObjectResponse.builder()
+                               .contentLength((long) readBytes(requestBody).length)
+                               .metadata(request.metadata())
+                               .build();
+        storedObjects.put(objectId(request.bucket(), request.key()), storedObject);
+        if (request.tagging() != null) {
+            storedTags.put(objectId(request.bucket(), request.key()), parseTagging(request.tagging()));
+        }
+        //Entries are stored concurrently, the stored files of the base client are not safe for concurrent writes.
+        synchronized (this) {
+            return super.putObject(request, requestBody);
+        }
+    }
+
+    private static Map<String, String> parseTagging(String tagging) {
+        var tags = new ConcurrentHashMap<String, String>();
+        for (var tag : tagging.split("&")) {
+            var keyAndValue = tag.split("=", 2);
+            tags.put(keyAndValue[0], keyAndValue[1]);
+        }
+        return tags;
+    }
+
+    private static String objectId(String bucket, String key) {
+        return bucket + "/" + key;
+    }
+
+    private static byte[] readBytes(RequestBody requestBody) {
+        try (var inputStream = requestBody.contentStreamProvider().newStream()) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
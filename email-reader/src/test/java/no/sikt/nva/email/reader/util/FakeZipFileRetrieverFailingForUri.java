@@ -0,0 +1,24 @@
+package no.sikt.nva.email.reader.util;
+
+import java.io.InputStream;
+import java.net.URI;
+import no.sikt.nva.email.reader.service.FileRetriever;
+import nva.commons.core.ioutils.IoUtils;
+
+public class FakeZipFileRetrieverFailingForUri implements FileRetriever {
+
+    private static final String PATH_TO_SAMPLE_ZIP = "scopus.zip";
+    private final URI failingUri;
+
+    public FakeZipFileRetrieverFailingForUri(URI failingUri) {
+        this.failingUri = failingUri;
+    }
+
+    @Override
+    public InputStream retrieveFile(URI uri) {
+        if (failingUri.equals(uri)) {
+            throw new UnsupportedOperationException("I don't work");
+        }
+        return IoUtils.inputStreamFromResources(PATH_TO_SAMPLE_ZIP);
+    }
+}
@@ -0,0 +1,42 @@
+package no.sikt.nva.email.reader.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import no.sikt.nva.email.reader.service.FileRetriever;
+
+//Serves an archive with the given entries, entry names are written as given, also names no archiver would create.
+public class FakeZipFileRetrieverWithEntries implements FileRetriever {
+
+    private final byte[] archive;
+
+    public FakeZipFileRetrieverWithEntries(Map<String, String> entries) {
+        this.archive = createZip(entries);
+    }
+
+    @Override
+    public InputStream retrieveFile(URI uri) {
+        return new ByteArrayInputStream(archive);
+    }
+
+    private static byte[] createZip(Map<String, String> entries) {
+        var zip = new ByteArrayOutputStream();
+        try (var zipOutputStream = new ZipOutputStream(zip)) {
+            for (var entry : entries.entrySet()) {
+                zipOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+                zipOutputStream.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zipOutputStream.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return zip.toByteArray();
+    }
+}
@@ -0,0 +1,45 @@
+package no.sikt.nva.email.reader.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.sikt.nva.email.reader.service.FileRetriever;
+import no.sikt.nva.email.reader.service.RemoteFileMetadata;
+import nva.commons.core.ioutils.IoUtils;
+
+public class FakeZipFileRetrieverWithMetadata implements FileRetriever {
+
+    private static final String PATH_TO_SAMPLE_ZIP = "scopus.zip";
+    private final String etag;
+    private final AtomicInteger retrievedFiles = new AtomicInteger();
+
+    public FakeZipFileRetrieverWithMetadata(String etag) {
+        this.etag = etag;
+    }
+
+    @Override
+    public InputStream retrieveFile(URI uri) {
+        retrievedFiles.incrementAndGet();
+        return IoUtils.inputStreamFromResources(PATH_TO_SAMPLE_ZIP);
+    }
+
+    @Override
+    public Optional<RemoteFileMetadata> fetchMetadata(URI uri) {
+        return Optional.of(new RemoteFileMetadata(sampleZipLength(), etag, true));
+    }
+
+    public int getRetrievedFiles() {
+        return retrievedFiles.get();
+    }
+
+    private static long sampleZipLength() {
+        try (var inputStream = IoUtils.inputStreamFromResources(PATH_TO_SAMPLE_ZIP)) {
+            return inputStream.readAllBytes().length;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package no.sikt.nva.email.reader.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class InputStreamFailingAfterContent extends InputStream {
+
+    private final ByteArrayInputStream content;
+
+    public InputStreamFailingAfterContent(byte[] content) {
+        super();
+        this.content = new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var read = content.read();
+        if (read == -1) {
+            throw new IOException("Connection reset");
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        var read = content.read(buffer, offset, length);
+        if (read == -1) {
+            throw new IOException("Connection reset");
+        }
+        return read;
+    }
+}
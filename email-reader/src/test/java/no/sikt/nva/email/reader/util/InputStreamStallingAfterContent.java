@@ -0,0 +1,38 @@
+package no.sikt.nva.email.reader.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+
+//Delivers the content, then blocks like a stalled connection until the reading thread is interrupted.
+public class InputStreamStallingAfterContent extends InputStream {
+
+    private final ByteArrayInputStream content;
+    private final CountDownLatch never = new CountDownLatch(1);
+
+    public InputStreamStallingAfterContent(byte[] content) {
+        super();
+        this.content = new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var singleByte = new byte[1];
+        return read(singleByte, 0, 1) == -1 ? -1 : Byte.toUnsignedInt(singleByte[0]);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        var read = content.read(buffer, offset, length);
+        if (read == -1) {
+            try {
+                never.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Stalled read interrupted");
+            }
+        }
+        return read;
+    }
+}
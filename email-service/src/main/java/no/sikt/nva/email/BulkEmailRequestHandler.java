@@ -0,0 +1,219 @@
+package no.sikt.nva.email;
+
+import static nva.commons.core.attempt.Try.attempt;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import java.net.HttpURLConnection;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import no.sikt.nva.email.model.BulkEmailRequest;
+import no.sikt.nva.email.model.BulkEmailResponse;
+import no.sikt.nva.email.model.EmailRequest;
+import no.sikt.nva.email.model.EmailResult;
+import no.sikt.nva.email.service.SendRateLimiter;
+import no.sikt.nva.email.service.SesEmailSender;
+import no.sikt.nva.email.template.TemplateException;
+import no.sikt.nva.email.template.TemplateRenderer;
+import nva.commons.apigateway.ApiGatewayHandler;
+import nva.commons.apigateway.RequestInfo;
+import nva.commons.apigateway.exceptions.ApiGatewayException;
+import nva.commons.core.Environment;
+import nva.commons.core.JacocoGenerated;
+import nva.commons.core.StringUtils;
+import nva.commons.core.attempt.Failure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+
+/**
+ * Sends a list of emails in one invocation. Emails sharing sender, subject and body are sent with SendBulkEmail,
+ * the rest one by one, with at most {@code BULK_SEND_PARALLELISM} SES calls in flight. A failing email does not fail
+ * the request, its error is reported in the result at the same position as the email. The same goes for an email
+ * whose template cannot be rendered, it is reported as failed and the others are sent.
+ */
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class BulkEmailRequestHandler extends ApiGatewayHandler<BulkEmailRequest, BulkEmailResponse> {
+
+    public static final String BULK_SEND_PARALLELISM_ENV_NAME = "BULK_SEND_PARALLELISM";
+    public static final int DEFAULT_BULK_SEND_PARALLELISM = 8;
+    public static final int MAX_EMAILS_PER_REQUEST = 500;
+    public static final String INVALID_BULK_SIZE_MESSAGE =
+        "A bulk request must contain between 1 and " + MAX_EMAILS_PER_REQUEST + " emails";
+    public static final String INVALID_EMAIL_MESSAGE =
+        "Email %d must have a to_address and either a template_id or a subject";
+    public static final String MISSING_STATUS_MESSAGE = "SES returned no status for this email";
+    public static final String BULK_SENT_MESSAGE = "Sent {} emails in {} SES calls, {} failed";
+    private static final String STATUS_COUNT_MISMATCH_MESSAGE = "SES returned {} statuses for {} bulk entries";
+    private static final Logger logger = LoggerFactory.getLogger(BulkEmailRequestHandler.class);
+    private final SesEmailSender emailSender;
+    private final int parallelism;
+    private final TemplateRenderer templateRenderer;
+
+    public BulkEmailRequestHandler(SesV2Client sesClient, Environment environment) {
+        super(BulkEmailRequest.class, environment);
+        this.emailSender = SesEmailSender.fromEnvironment(sesClient, environment);
+        this.parallelism = Math.max(1, environment.readEnvOpt(BULK_SEND_PARALLELISM_ENV_NAME)
+                                           .map(Integer::parseInt)
+                                           .orElse(DEFAULT_BULK_SEND_PARALLELISM));
+        this.templateRenderer = TemplateRenderer.fromEnvironment(environment);
+    }
+
+    @JacocoGenerated
+    public BulkEmailRequestHandler() {
+        this(SesEmailSender.createSesClient(), new Environment());
+    }
+
+    @Override
+    protected void validateRequest(BulkEmailRequest input, RequestInfo requestInfo, Context context)
+        throws ApiGatewayException {
+        if (input.emails() == null || input.emails().isEmpty() || input.emails().size() > MAX_EMAILS_PER_REQUEST) {
+            throw new EmailException(INVALID_BULK_SIZE_MESSAGE, HttpURLConnection.HTTP_BAD_REQUEST);
+        }
+        for (var index = 0; index < input.emails().size(); index++) {
+            if (!isValid(input.emails().get(index))) {
+                throw new EmailException(String.format(INVALID_EMAIL_MESSAGE, index),
+                                         HttpURLConnection.HTTP_BAD_REQUEST);
+            }
+        }
+    }
+
+    @Override
+    protected BulkEmailResponse processInput(BulkEmailRequest input, RequestInfo requestInfo, Context context)
+        throws ApiGatewayException {
+        var results = new EmailResult[input.emails().size()];
+        var emails = renderTemplates(input.emails(), results);
+        var batches = groupIntoBatches(emails);
+        var deadline = SendRateLimiter.deadline(context, EmailRequestHandler.API_GATEWAY_TIMEOUT);
+        sendConcurrently(emails, batches, deadline, results);
+        logger.info(BULK_SENT_MESSAGE, results.length, batches.size(),
+                    Arrays.stream(results).filter(result -> result.error() != null).count());
+        return new BulkEmailResponse(Arrays.asList(results));
+    }
+
+    @Override
+    protected Integer getSuccessStatusCode(BulkEmailRequest input, BulkEmailResponse output) {
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    private static boolean isValid(EmailRequest email) {
+        return email != null
+               && StringUtils.isNotBlank(email.getToAddress())
+               && (StringUtils.isNotBlank(email.getTemplateId()) || StringUtils.isNotBlank(email.getSubject()));
+    }
+
+    //Returns the rendered emails by position. Rendered emails from one template and parameters can still be grouped
+    //as shared content, emails that cannot be rendered get their failed result and are left out.
+    private Map<Integer, EmailRequest> renderTemplates(List<EmailRequest> emails, EmailResult[] results) {
+        var rendered = new LinkedHashMap<Integer, EmailRequest>();
+        for (var index = 0; index < emails.size(); index++) {
+            try {
+                rendered.put(index, templateRenderer.render(emails.get(index)));
+            } catch (TemplateException exception) {
+                var error = EmailRequestHandler.COULD_NOT_RENDER_TEMPLATE_MESSAGE + exception.getMessage();
+                logger.warn(error);
+                results[index] = EmailResult.failure(error);
+            }
+        }
+        return rendered;
+    }
+
+    private static List<List<Integer>> groupIntoBatches(Map<Integer, EmailRequest> emails) {
+        var sharedContentGroups = new LinkedHashMap<SharedContent, List<Integer>>();
+        var batches = new ArrayList<List<Integer>>();
+        for (var entry : emails.entrySet()) {
+            var index = entry.getKey();
+            var email = entry.getValue();
+            if (SesEmailSender.canShareContent(email)) {
+                sharedContentGroups.computeIfAbsent(SharedContent.of(email), key -> new ArrayList<>()).add(index);
+            } else {
+                batches.add(List.of(index));
+            }
+        }
+        sharedContentGroups.values().forEach(group -> batches.addAll(partition(group)));
+        return batches;
+    }
+
+    private static List<List<Integer>> partition(List<Integer> group) {
+        return IntStream.iterate(0, start -> start < group.size(), start -> start + SesEmailSender.MAX_BULK_ENTRIES)
+                   .mapToObj(start -> group.subList(start,
+                                                    Math.min(start + SesEmailSender.MAX_BULK_ENTRIES, group.size())))
+                   .toList();
+    }
+
+    private void sendConcurrently(Map<Integer, EmailRequest> emails,
+                                  List<List<Integer>> batches,
+                                  Instant deadline,
+                                  EmailResult[] results) {
+        if (batches.isEmpty()) {
+            return;
+        }
+        var executor = Executors.newFixedThreadPool(Math.min(parallelism, batches.size()));
+        try {
+            var futures = batches.stream()
+                              .map(batch -> CompletableFuture.supplyAsync(() -> sendBatch(emails, batch, deadline),
+                                                                          executor))
+                              .toList();
+            for (var batchIndex = 0; batchIndex < batches.size(); batchIndex++) {
+                var batch = batches.get(batchIndex);
+                var batchResults = futures.get(batchIndex).join();
+                for (var position = 0; position < batch.size(); position++) {
+                    results[batch.get(position)] = batchResults.get(position);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<EmailResult> sendBatch(Map<Integer, EmailRequest> emails, List<Integer> batch, Instant deadline) {
+        var requests = batch.stream().map(emails::get).toList();
+        return requests.size() == 1
+                   ? List.of(sendSingle(requests.get(0), deadline))
+                   : sendBulk(requests, deadline);
+    }
+
+    private EmailResult sendSingle(EmailRequest emailRequest, Instant deadline) {
+        return attempt(() -> emailSender.send(emailRequest, deadline))
+                   .map(EmailResult::success)
+                   .orElse(this::logAndCreateFailedResult);
+    }
+
+    private List<EmailResult> sendBulk(List<EmailRequest> requests, Instant deadline) {
+        return attempt(() -> emailSender.sendBulk(requests, deadline))
+                   .map(results -> matchToRequests(results, requests.size()))
+                   .orElse(failure -> Collections.nCopies(requests.size(), logAndCreateFailedResult(failure)));
+    }
+
+    //SES returns one status per entry in order, an entry without a status cannot be known to be sent.
+    private static List<EmailResult> matchToRequests(List<EmailResult> results, int requestCount) {
+        if (results.size() != requestCount) {
+            logger.warn(STATUS_COUNT_MISMATCH_MESSAGE, results.size(), requestCount);
+        }
+        return IntStream.range(0, requestCount)
+                   .mapToObj(index -> index < results.size()
+                                          ? results.get(index)
+                                          : EmailResult.failure(MISSING_STATUS_MESSAGE))
+                   .toList();
+    }
+
+    private EmailResult logAndCreateFailedResult(Failure<?> failure) {
+        logger.warn(EmailRequestHandler.COULD_NOT_SEND_EMAIL_MESSAGE, failure.getException());
+        return EmailResult.failure(failure.getException().getMessage());
+    }
+
+    private record SharedContent(String fromAddress, String subject, String text, String textHtml) {
+
+        private static SharedContent of(EmailRequest email) {
+            return new SharedContent(email.getFromAddress(), email.getSubject(), email.getText(),
+                                     email.getTextHtml());
+        }
+    }
+}
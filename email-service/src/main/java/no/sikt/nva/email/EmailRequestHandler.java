@@ -2,51 +2,94 @@ package no.sikt.nva.email;
 
 import static nva.commons.core.attempt.Try.attempt;
 
-import com.amazonaws.regions.Regions;
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
-import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceClientBuilder;
-import com.amazonaws.services.simpleemail.model.Body;
-import com.amazonaws.services.simpleemail.model.Content;
-import com.amazonaws.services.simpleemail.model.Destination;
-import com.amazonaws.services.simpleemail.model.Message;
-import com.amazonaws.services.simpleemail.model.SendEmailRequest;
-import com.amazonaws.services.simpleemail.model.SendEmailResult;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.vavr.control.Try;
 
 import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.time.Instant;
 
 import no.sikt.nva.email.model.EmailRequest;
+import no.sikt.nva.email.service.SendRateLimiter;
+import no.sikt.nva.email.service.SesEmailSender;
+import no.sikt.nva.email.service.SqsEmailQueue;
+import no.sikt.nva.email.template.TemplateRenderer;
 import nva.commons.apigateway.ApiGatewayHandler;
 import nva.commons.apigateway.RequestInfo;
 import nva.commons.apigateway.exceptions.ApiGatewayException;
 import nva.commons.core.Environment;
 import nva.commons.core.JacocoGenerated;
-import nva.commons.core.StringUtils;
+import nva.commons.core.JsonUtils;
 import nva.commons.core.attempt.Failure;
+import org.crac.Core;
+import org.crac.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.GetAccountRequest;
 
-public class EmailRequestHandler extends ApiGatewayHandler<EmailRequest, String> {
+public class EmailRequestHandler extends ApiGatewayHandler<EmailRequest, String> implements Resource {
 
     public static final String SUCCESS_MESSAGE = "email sent successfully";
+    public static final String QUEUED_MESSAGE = "email queued for sending";
+    public static final String COULD_NOT_QUEUE_EMAIL_MESSAGE = "could not queue email";
+    public static final String COULD_NOT_RENDER_TEMPLATE_MESSAGE = "could not render template: ";
+    public static final String EMAIL_LOG_INFO_QUEUE_ID = "email queued with message id %s";
     public static final String COULD_NOT_SEND_EMAIL_MESSAGE = "could not send email";
+    public static final String SEND_RATE_EXCEEDED_MESSAGE = "email send rate exceeded, try again later";
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
     public static final String EMAIL_LOG_INFO_TRACK_ID = "email sent with track id %s";
-    public static final String UTF_8 = "UTF-8";
-    public static final String DEFAULT_FROM_ADDRESS_ENVIRONMENT_VARIABLE_NAME = "DEFAULT_FROM_ADDRESS";
+    public static final String DEFAULT_FROM_ADDRESS_ENVIRONMENT_VARIABLE_NAME =
+        SesEmailSender.DEFAULT_FROM_ADDRESS_ENVIRONMENT_VARIABLE_NAME;
+    public static final Duration API_GATEWAY_TIMEOUT = Duration.ofSeconds(29);
     private static final Logger logger = LoggerFactory.getLogger(EmailRequestHandler.class);
-    private final AmazonSimpleEmailService amazonSimpleEmailService;
-    private final String defaultFromAddress;
+    private static final String PRIMED_MESSAGE = "Primed request handling with a sample email request";
+    private static final String RECONNECT_FAILED_MESSAGE = "Could not reconnect to SES after restore";
+    private static final String PRIMING_ADDRESS = "priming@example.com";
+    private static final String PRIMING_CONTENT = "priming";
+    private final SesV2Client sesClient;
+    private final SesEmailSender emailSender;
+    private final SqsEmailQueue emailQueue;
+    private final TemplateRenderer templateRenderer;
+
+    public EmailRequestHandler(SesV2Client sesClient, Environment environment) {
+        this(sesClient, environment, null);
+    }
 
-    public EmailRequestHandler(AmazonSimpleEmailService amazonSimpleEmailService, Environment environment) {
+    //Requests are queued for SqsEmailRequestHandler instead of sent when an email queue is given.
+    public EmailRequestHandler(SesV2Client sesClient, Environment environment, SqsEmailQueue emailQueue) {
         super(EmailRequest.class, environment);
-        this.amazonSimpleEmailService = amazonSimpleEmailService;
-        this.defaultFromAddress = environment.readEnv(DEFAULT_FROM_ADDRESS_ENVIRONMENT_VARIABLE_NAME);
+        this.sesClient = sesClient;
+        this.emailSender = SesEmailSender.fromEnvironment(sesClient, environment);
+        this.emailQueue = emailQueue;
+        this.templateRenderer = TemplateRenderer.fromEnvironment(environment);
     }
 
+    //The clients are built once per container and reused by every warm invocation.
     @JacocoGenerated
     public EmailRequestHandler() {
-        this(AmazonSimpleEmailServiceClientBuilder.standard()
-                .withRegion(Regions.EU_WEST_1).build(), new Environment());
+        this(SesEmailSender.createSesClient(),
+             new Environment(),
+             SqsEmailQueue.fromEnvironment(new Environment(), SqsEmailQueue.EMAIL_QUEUE_URL_ENV_NAME));
+        Core.getGlobalContext().register(this);
+    }
+
+    //Serializes and maps a sample request without sending it, so a snapshot holds loaded and warm classes.
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws JsonProcessingException {
+        var sampleRequest = new EmailRequest(PRIMING_ADDRESS, PRIMING_ADDRESS, PRIMING_ADDRESS, PRIMING_ADDRESS,
+                                             PRIMING_CONTENT, PRIMING_CONTENT, PRIMING_CONTENT);
+        var json = JsonUtils.dtoObjectMapper.writeValueAsString(sampleRequest);
+        emailSender.createSendEmailRequest(JsonUtils.dtoObjectMapper.readValue(json, EmailRequest.class));
+        logger.info(PRIMED_MESSAGE);
+    }
+
+    //GetAccount is the cheapest SES call, it replaces the connections and credentials restored from the snapshot.
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        Try.run(() -> sesClient.getAccount(GetAccountRequest.builder().build()))
+            .onFailure(throwable -> logger.warn(RECONNECT_FAILED_MESSAGE, throwable));
     }
 
     @JacocoGenerated
@@ -59,60 +102,51 @@ public class EmailRequestHandler extends ApiGatewayHandler<EmailRequest, String>
     @Override
     protected String processInput(EmailRequest emailRequest, RequestInfo requestInfo, Context context)
             throws ApiGatewayException {
-        var sendEmailResult = sendEmail(emailRequest);
-        logger.info(String.format(EMAIL_LOG_INFO_TRACK_ID, sendEmailResult.getMessageId()));
+        var renderedRequest = renderTemplate(emailRequest);
+        if (emailQueue != null) {
+            //The request is queued unrendered, the consumer renders it again from the cached template.
+            var queueMessageId = queueEmail(emailRequest);
+            logger.info(String.format(EMAIL_LOG_INFO_QUEUE_ID, queueMessageId));
+            return QUEUED_MESSAGE;
+        }
+        var messageId = sendEmail(renderedRequest, SendRateLimiter.deadline(context, API_GATEWAY_TIMEOUT));
+        logger.info(String.format(EMAIL_LOG_INFO_TRACK_ID, messageId));
         return SUCCESS_MESSAGE;
     }
 
     @Override
     protected Integer getSuccessStatusCode(EmailRequest input, String output) {
-        return HttpURLConnection.HTTP_OK;
-    }
-
-    private SendEmailResult sendEmail(EmailRequest emailRequest) throws EmailException {
-        return attempt(() -> createSesEmailRequest(emailRequest))
-                .map(amazonSimpleEmailService::sendEmail)
-                .orElseThrow(this::logFailureAndThrowEmailException);
-    }
-
-    @SuppressWarnings("PMD.InvalidLogMessageFormat")
-    private EmailException logFailureAndThrowEmailException(Failure<SendEmailResult> failure) {
-        logger.warn(COULD_NOT_SEND_EMAIL_MESSAGE, failure.getException());
-        return new EmailException(COULD_NOT_SEND_EMAIL_MESSAGE, HttpURLConnection.HTTP_INTERNAL_ERROR);
+        return emailQueue != null ? HttpURLConnection.HTTP_ACCEPTED : HttpURLConnection.HTTP_OK;
     }
 
-    private SendEmailRequest createSesEmailRequest(EmailRequest emailRequest) {
-        return new SendEmailRequest()
-                .withDestination(getDestination(emailRequest))
-                .withMessage(getMessage(emailRequest))
-                .withSource(determineFromAddress(emailRequest));
+    private EmailRequest renderTemplate(EmailRequest emailRequest) throws EmailException {
+        return attempt(() -> templateRenderer.render(emailRequest))
+                .orElseThrow(failure -> new EmailException(
+                    COULD_NOT_RENDER_TEMPLATE_MESSAGE + failure.getException().getMessage(),
+                    HttpURLConnection.HTTP_BAD_REQUEST));
     }
 
-    private String determineFromAddress(EmailRequest emailRequest) {
-        return StringUtils.isNotBlank(emailRequest.getFromAddress())
-                ? emailRequest.getFromAddress()
-                : defaultFromAddress;
+    private String queueEmail(EmailRequest emailRequest) throws EmailException {
+        return attempt(() -> emailQueue.enqueue(emailRequest))
+                .orElseThrow(this::logFailureAndThrowQueueException);
     }
 
-    private Message getMessage(EmailRequest emailRequest) {
-        return new Message()
-                .withBody(new Body()
-                        .withHtml(createContent(emailRequest.getTextHtml()))
-                        .withText(createContent(emailRequest.getText())))
-                .withSubject(createContent(emailRequest.getSubject()));
+    private String sendEmail(EmailRequest emailRequest, Instant deadline) throws EmailException {
+        return attempt(() -> emailSender.send(emailRequest, deadline))
+                .orElseThrow(this::logFailureAndThrowEmailException);
     }
 
-    private Content createContent(String data) {
-        return new Content()
-                .withCharset(UTF_8)
-                .withData(
-                        data);
+    @SuppressWarnings("PMD.InvalidLogMessageFormat")
+    private EmailException logFailureAndThrowQueueException(Failure<String> failure) {
+        logger.warn(COULD_NOT_QUEUE_EMAIL_MESSAGE, failure.getException());
+        return new EmailException(COULD_NOT_QUEUE_EMAIL_MESSAGE, HttpURLConnection.HTTP_INTERNAL_ERROR);
     }
 
-    private Destination getDestination(EmailRequest emailRequest) {
-        return new Destination()
-                .withToAddresses(emailRequest.getToAddress())
-                .withCcAddresses(emailRequest.getCc())
-                .withBccAddresses(emailRequest.getBcc());
+    @SuppressWarnings("PMD.InvalidLogMessageFormat")
+    private EmailException logFailureAndThrowEmailException(Failure<String> failure) {
+        logger.warn(COULD_NOT_SEND_EMAIL_MESSAGE, failure.getException());
+        return SesEmailSender.isThrottling(failure.getException())
+                   ? new EmailException(SEND_RATE_EXCEEDED_MESSAGE, HTTP_TOO_MANY_REQUESTS)
+                   : new EmailException(COULD_NOT_SEND_EMAIL_MESSAGE, HttpURLConnection.HTTP_INTERNAL_ERROR);
     }
 }
@@ -0,0 +1,130 @@
+package no.sikt.nva.email;
+
+import static nva.commons.core.attempt.Try.attempt;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse.BatchItemFailure;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent.SQSMessage;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import no.sikt.nva.email.model.EmailRequest;
+import no.sikt.nva.email.service.SendRateLimiter;
+import no.sikt.nva.email.service.SesEmailSender;
+import no.sikt.nva.email.service.SqsEmailQueue;
+import no.sikt.nva.email.template.TemplateRenderer;
+import nva.commons.core.Environment;
+import nva.commons.core.JacocoGenerated;
+import nva.commons.core.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+
+/**
+ * Sends the email requests queued by {@link EmailRequestHandler}, at most {@code SQS_SEND_PARALLELISM} at a time.
+ * The messages that failed for a reason that may pass, like throttling or an unavailable SES, are reported back, so
+ * SQS redelivers them. Messages that can never be sent, like unreadable requests, unknown templates or addresses SES
+ * rejects, are moved to the dead letter queue at once. Without a dead letter queue, or when moving fails, they are
+ * reported back too, and the redrive policy of the queue moves them after their last receive.
+ */
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class SqsEmailRequestHandler implements RequestHandler<SQSEvent, SQSBatchResponse> {
+
+    public static final String SQS_SEND_PARALLELISM_ENV_NAME = "SQS_SEND_PARALLELISM";
+    public static final int DEFAULT_SQS_SEND_PARALLELISM = 8;
+    private static final Logger logger = LoggerFactory.getLogger(SqsEmailRequestHandler.class);
+    private static final String EMAIL_SENT_MESSAGE = "Sent queued message {} as email with track id {}";
+    private static final String EMAIL_FAILED_MESSAGE = "Could not send queued message {}, it will be redelivered";
+    private static final String EMAIL_DEAD_LETTERED_MESSAGE =
+        "Moving queued message {} that can never be sent to the dead letter queue";
+    private static final String EMAIL_NOT_DEAD_LETTERED_MESSAGE =
+        "Queued message {} can never be sent, it is redelivered until the redrive policy moves it";
+    private final SesEmailSender emailSender;
+    private final int parallelism;
+    private final TemplateRenderer templateRenderer;
+    private final SqsEmailQueue deadLetterQueue;
+
+    public SqsEmailRequestHandler(SesV2Client sesClient, Environment environment) {
+        this(sesClient, environment, null);
+    }
+
+    public SqsEmailRequestHandler(SesV2Client sesClient, Environment environment, SqsEmailQueue deadLetterQueue) {
+        this.emailSender = SesEmailSender.fromEnvironment(sesClient, environment);
+        this.parallelism = Math.max(1, environment.readEnvOpt(SQS_SEND_PARALLELISM_ENV_NAME)
+                                           .map(Integer::parseInt)
+                                           .orElse(DEFAULT_SQS_SEND_PARALLELISM));
+        this.templateRenderer = TemplateRenderer.fromEnvironment(environment);
+        this.deadLetterQueue = deadLetterQueue;
+    }
+
+    @JacocoGenerated
+    public SqsEmailRequestHandler() {
+        this(SesEmailSender.createSesClient(),
+             new Environment(),
+             SqsEmailQueue.fromEnvironment(new Environment(), SqsEmailQueue.EMAIL_DEAD_LETTER_QUEUE_URL_ENV_NAME));
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent event, Context context) {
+        var messages = event.getRecords();
+        if (messages == null || messages.isEmpty()) {
+            return new SQSBatchResponse(List.of());
+        }
+        var deadline = SendRateLimiter.deadline(context);
+        var executor = Executors.newFixedThreadPool(Math.min(parallelism, messages.size()));
+        try {
+            var futures = messages.stream()
+                              .map(message -> CompletableFuture.supplyAsync(() -> isHandled(message, deadline),
+                                                                            executor))
+                              .toList();
+            var failures = IntStream.range(0, messages.size())
+                               .filter(index -> !futures.get(index).join())
+                               .mapToObj(index -> new BatchItemFailure(messages.get(index).getMessageId()))
+                               .toList();
+            return new SQSBatchResponse(failures);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean isHandled(SQSMessage message, Instant deadline) {
+        return attempt(() -> JsonUtils.dtoObjectMapper.readValue(message.getBody(), EmailRequest.class))
+                   .map(templateRenderer::render)
+                   .map(emailRequest -> emailSender.send(emailRequest, deadline))
+                   .map(messageId -> logSent(message, messageId))
+                   .orElse(failure -> logFailure(message, failure.getException()));
+    }
+
+    private static boolean logSent(SQSMessage message, String messageId) {
+        logger.info(EMAIL_SENT_MESSAGE, message.getMessageId(), messageId);
+        return true;
+    }
+
+    private boolean logFailure(SQSMessage message, Exception exception) {
+        if (SesEmailSender.isRetryable(exception)) {
+            logger.warn(EMAIL_FAILED_MESSAGE, message.getMessageId(), exception);
+            return false;
+        }
+        return moveToDeadLetterQueue(message, exception);
+    }
+
+    private boolean moveToDeadLetterQueue(SQSMessage message, Exception exception) {
+        if (deadLetterQueue == null) {
+            logger.error(EMAIL_NOT_DEAD_LETTERED_MESSAGE, message.getMessageId(), exception);
+            return false;
+        }
+        logger.error(EMAIL_DEAD_LETTERED_MESSAGE, message.getMessageId(), exception);
+        return attempt(() -> deadLetterQueue.forward(message.getBody()))
+                   .map(deadLetterMessageId -> true)
+                   .orElse(failure -> logNotDeadLettered(message, failure.getException()));
+    }
+
+    private static boolean logNotDeadLettered(SQSMessage message, Exception exception) {
+        logger.error(EMAIL_NOT_DEAD_LETTERED_MESSAGE, message.getMessageId(), exception);
+        return false;
+    }
+}
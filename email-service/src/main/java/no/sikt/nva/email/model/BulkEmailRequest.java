@@ -0,0 +1,8 @@
+package no.sikt.nva.email.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+public record BulkEmailRequest(@JsonProperty("emails") List<EmailRequest> emails) {
+
+}
@@ -0,0 +1,11 @@
+package no.sikt.nva.email.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+/**
+ * One result per requested email, in the order of the request.
+ */
+public record BulkEmailResponse(@JsonProperty("results") List<EmailResult> results) {
+
+}
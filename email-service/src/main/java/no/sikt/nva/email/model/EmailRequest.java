@@ -2,6 +2,7 @@ package no.sikt.nva.email.model;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Map;
 import java.util.Objects;
 import nva.commons.core.JacocoGenerated;
 
@@ -15,6 +16,18 @@ public class EmailRequest {
     private String subject;
     private String text;
     private String textHtml;
+    private String templateId;
+    private Map<String, String> templateParameters;
+
+    public EmailRequest(String fromAddress,
+                        String toAddress,
+                        String cc,
+                        String bcc,
+                        String subject,
+                        String text,
+                        String textHtml) {
+        this(fromAddress, toAddress, cc, bcc, subject, text, textHtml, null, null);
+    }
 
     @JsonCreator
     public EmailRequest(@JsonProperty("from_address") String fromAddress,
@@ -23,7 +36,9 @@ public class EmailRequest {
                         @JsonProperty("bcc") String bcc,
                         @JsonProperty("subject") String subject,
                         @JsonProperty("text") String text,
-                        @JsonProperty("text_html") String textHtml) {
+                        @JsonProperty("text_html") String textHtml,
+                        @JsonProperty("template_id") String templateId,
+                        @JsonProperty("template_parameters") Map<String, String> templateParameters) {
         this.fromAddress = fromAddress;
         this.toAddress = toAddress;
         this.cc = cc;
@@ -31,8 +46,11 @@ public class EmailRequest {
         this.subject = subject;
         this.text = text;
         this.textHtml = textHtml;
+        this.templateId = templateId;
+        this.templateParameters = templateParameters;
     }
 
+    @JsonProperty("to_address")
     public String getToAddress() {
         return toAddress;
     }
@@ -41,6 +59,7 @@ public class EmailRequest {
         this.toAddress = toAddress;
     }
 
+    @JsonProperty("cc")
     public String getCc() {
         return cc;
     }
@@ -49,6 +68,7 @@ public class EmailRequest {
         this.cc = cc;
     }
 
+    @JsonProperty("bcc")
     public String getBcc() {
         return bcc;
     }
@@ -57,6 +77,7 @@ public class EmailRequest {
         this.bcc = bcc;
     }
 
+    @JsonProperty("subject")
     public String getSubject() {
         return subject;
     }
@@ -65,6 +86,7 @@ public class EmailRequest {
         this.subject = subject;
     }
 
+    @JsonProperty("text")
     public String getText() {
         return text;
     }
@@ -73,6 +95,7 @@ public class EmailRequest {
         this.text = text;
     }
 
+    @JsonProperty("text_html")
     public String getTextHtml() {
         return textHtml;
     }
@@ -81,6 +104,7 @@ public class EmailRequest {
         this.textHtml = textHtml;
     }
 
+    @JsonProperty("from_address")
     public String getFromAddress() {
         return fromAddress;
     }
@@ -89,6 +113,24 @@ public class EmailRequest {
         this.fromAddress = fromAddress;
     }
 
+    @JsonProperty("template_id")
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public void setTemplateId(String templateId) {
+        this.templateId = templateId;
+    }
+
+    @JsonProperty("template_parameters")
+    public Map<String, String> getTemplateParameters() {
+        return templateParameters;
+    }
+
+    public void setTemplateParameters(Map<String, String> templateParameters) {
+        this.templateParameters = templateParameters;
+    }
+
     @JacocoGenerated
     @Override
     public int hashCode() {
@@ -98,7 +140,9 @@ public class EmailRequest {
                             getSubject(),
                             getText(),
                             getTextHtml(),
-                            getFromAddress());
+                            getFromAddress(),
+                            getTemplateId(),
+                            getTemplateParameters());
     }
 
     @JacocoGenerated
@@ -118,6 +162,8 @@ public class EmailRequest {
                && Objects.equals(getText(), that.getText())
                && Objects.equals(getTextHtml(), that.getTextHtml())
                && Objects.equals(getFromAddress(), that.getFromAddress())
+               && Objects.equals(getTemplateId(), that.getTemplateId())
+               && Objects.equals(getTemplateParameters(), that.getTemplateParameters())
             ;
     }
 }
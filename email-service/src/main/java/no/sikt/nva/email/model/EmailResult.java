@@ -0,0 +1,17 @@
+package no.sikt.nva.email.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record EmailResult(@JsonProperty("message_id") String messageId,
+                          @JsonProperty("error") String error) {
+
+    public static EmailResult success(String messageId) {
+        return new EmailResult(messageId, null);
+    }
+
+    public static EmailResult failure(String error) {
+        return new EmailResult(null, error);
+    }
+}
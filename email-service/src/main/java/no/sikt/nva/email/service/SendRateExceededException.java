@@ -0,0 +1,11 @@
+package no.sikt.nva.email.service;
+
+/**
+ * Thrown instead of waiting for the send rate when the wait would not end before the caller's deadline.
+ */
+public class SendRateExceededException extends RuntimeException {
+
+    public SendRateExceededException(String message) {
+        super(message);
+    }
+}
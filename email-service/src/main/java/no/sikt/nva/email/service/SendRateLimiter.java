@@ -0,0 +1,189 @@
+package no.sikt.nva.email.service;
+
+import static nva.commons.core.attempt.Try.attempt;
+import com.amazonaws.services.lambda.runtime.Context;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import nva.commons.core.Environment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.GetAccountRequest;
+
+/**
+ * Token bucket holding at most one second of the SES max send rate, one token per recipient. Callers that find the
+ * bucket empty reserve tokens ahead and sleep until they are due, so a burst is queued inside the invocation instead
+ * of being throttled by SES.
+ *
+ * <p>The rate adapts to throttling responses: it is halved on every throttle and grows back by a tenth of the
+ * configured rate on every successful call.
+ */
+public class SendRateLimiter {
+
+    public static final String MAX_SEND_RATE_ENV_NAME = "SES_MAX_SEND_RATE";
+    public static final String SEND_CONCURRENCY_ENV_NAME = "SES_SEND_CONCURRENCY";
+    public static final int DEFAULT_SEND_CONCURRENCY = 1;
+    public static final double DEFAULT_MAX_SEND_RATE = 1.0;
+    public static final long BASE_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    public static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+    public static final Duration RESPONSE_RESERVE = Duration.ofSeconds(1);
+    private static final Logger logger = LoggerFactory.getLogger(SendRateLimiter.class);
+    private static final String SEND_QUOTA_UNAVAILABLE_MESSAGE =
+        "Could not read the SES send quota, limiting to {} emails per second";
+    private static final String DEADLINE_EXCEEDED_MESSAGE =
+        "Sending to %d recipients needs a wait of %d ms for the send rate, more than the time left";
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double MIN_RATE_FRACTION = 0.1;
+    private static final double RECOVERY_FRACTION = 0.1;
+    private static final int MAX_BACKOFF_EXPONENT = 30;
+    private final double maxSendRate;
+    private final LongSupplier nanoClock;
+    private final Sleeper sleeper;
+    private final Random random;
+    private final Object lock = new Object();
+    private double currentSendRate;
+    private double availablePermits;
+    private long lastRefillNanos;
+
+    public SendRateLimiter(double maxSendRate) {
+        this(maxSendRate, System::nanoTime, TimeUnit.NANOSECONDS::sleep, new Random());
+    }
+
+    public SendRateLimiter(double maxSendRate, LongSupplier nanoClock, Sleeper sleeper, Random random) {
+        this.maxSendRate = maxSendRate;
+        this.nanoClock = nanoClock;
+        this.sleeper = sleeper;
+        this.random = random;
+        this.currentSendRate = maxSendRate;
+        this.availablePermits = maxSendRate;
+        this.lastRefillNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Uses {@value #MAX_SEND_RATE_ENV_NAME} when set, otherwise the max send rate of the account's send quota. Every
+     * container has its own bucket, so the rate is shared evenly between the {@value #SEND_CONCURRENCY_ENV_NAME}
+     * containers expected to send at once.
+     */
+    public static SendRateLimiter forAccount(SesV2Client sesClient, Environment environment) {
+        var accountSendRate = environment.readEnvOpt(MAX_SEND_RATE_ENV_NAME)
+                                  .map(Double::parseDouble)
+                                  .orElseGet(() -> readMaxSendRate(sesClient));
+        var sendConcurrency = environment.readEnvOpt(SEND_CONCURRENCY_ENV_NAME)
+                                  .map(Integer::parseInt)
+                                  .orElse(DEFAULT_SEND_CONCURRENCY);
+        return new SendRateLimiter(accountSendRate / Math.max(1, sendConcurrency));
+    }
+
+    /**
+     * The time until which a caller may wait for the send rate: the end of the invocation less a reserve for answering.
+     */
+    public static Instant deadline(Context context) {
+        return deadline(context, Duration.ofMillis(context.getRemainingTimeInMillis()));
+    }
+
+    /**
+     * Like {@link #deadline(Context)}, but at most the given ceiling from now. The ceiling is the API Gateway timeout
+     * for requests answered through it.
+     */
+    public static Instant deadline(Context context, Duration ceiling) {
+        var remaining = Duration.ofMillis(context.getRemainingTimeInMillis());
+        return Instant.now().plus(remaining.compareTo(ceiling) < 0 ? remaining : ceiling).minus(RESPONSE_RESERVE);
+    }
+
+    /**
+     * Returns the given deadline on the clock of this limiter, to be passed to {@link #acquire}.
+     */
+    public long toDeadlineNanos(Instant deadline) {
+        return nanoClock.getAsLong() + Duration.between(Instant.now(), deadline).toNanos();
+    }
+
+    /**
+     * Blocks until the given number of permits is available and returns the time waited in nanoseconds. A wait that
+     * would end after the deadline is not started, the permits are left in the bucket and
+     * {@link SendRateExceededException} is thrown instead.
+     */
+    public long acquire(int permits, long deadlineNanos) throws InterruptedException {
+        var waitNanos = reserve(permits, deadlineNanos);
+        if (waitNanos > 0) {
+            sleeper.sleep(waitNanos);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Sleeps a random time up to the exponential backoff for the given retry (full jitter) and returns it. The sleep
+     * is clamped to the time left before the deadline, callers check {@link #isPast} before trying again.
+     */
+    public long backOff(int retry, long deadlineNanos) throws InterruptedException {
+        var ceiling = Math.min(MAX_BACKOFF_NANOS, BASE_BACKOFF_NANOS << Math.min(retry, MAX_BACKOFF_EXPONENT));
+        var remainingNanos = Math.max(0L, deadlineNanos - nanoClock.getAsLong());
+        var backoffNanos = Math.min(remainingNanos, (long) (random.nextDouble() * ceiling));
+        sleeper.sleep(backoffNanos);
+        return backoffNanos;
+    }
+
+    public boolean isPast(long deadlineNanos) {
+        return nanoClock.getAsLong() >= deadlineNanos;
+    }
+
+    public void onThrottled() {
+        synchronized (lock) {
+            refill();
+            currentSendRate = Math.max(maxSendRate * MIN_RATE_FRACTION, currentSendRate / 2);
+            availablePermits = Math.min(availablePermits, currentSendRate);
+        }
+    }
+
+    public void onSuccess() {
+        synchronized (lock) {
+            refill();
+            currentSendRate = Math.min(maxSendRate, currentSendRate + maxSendRate * RECOVERY_FRACTION);
+        }
+    }
+
+    public double getCurrentSendRate() {
+        synchronized (lock) {
+            return currentSendRate;
+        }
+    }
+
+    private long reserve(int permits, long deadlineNanos) {
+        synchronized (lock) {
+            refill();
+            var remainingPermits = availablePermits - permits;
+            var waitNanos = remainingPermits >= 0 ? 0 : (long) (-remainingPermits / currentSendRate * NANOS_PER_SECOND);
+            if (waitNanos > 0 && lastRefillNanos + waitNanos > deadlineNanos) {
+                throw new SendRateExceededException(String.format(DEADLINE_EXCEEDED_MESSAGE, permits,
+                                                                  TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+            }
+            availablePermits = remainingPermits;
+            return waitNanos;
+        }
+    }
+
+    private void refill() {
+        var now = nanoClock.getAsLong();
+        var refilled = availablePermits + (now - lastRefillNanos) * currentSendRate / NANOS_PER_SECOND;
+        availablePermits = Math.min(currentSendRate, refilled);
+        lastRefillNanos = now;
+    }
+
+    private static double readMaxSendRate(SesV2Client sesClient) {
+        return attempt(() -> sesClient.getAccount(GetAccountRequest.builder().build()).sendQuota().maxSendRate())
+                   .orElse(failure -> logQuotaFailure(failure.getException()));
+    }
+
+    private static double logQuotaFailure(Exception exception) {
+        logger.warn(SEND_QUOTA_UNAVAILABLE_MESSAGE, DEFAULT_MAX_SEND_RATE, exception);
+        return DEFAULT_MAX_SEND_RATE;
+    }
+
+    @FunctionalInterface
+    public interface Sleeper {
+
+        void sleep(long nanos) throws InterruptedException;
+    }
+}
@@ -0,0 +1,285 @@
+package no.sikt.nva.email.service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import no.sikt.nva.email.metrics.Metric;
+import no.sikt.nva.email.metrics.MetricsLogger;
+import no.sikt.nva.email.model.EmailRequest;
+import no.sikt.nva.email.model.EmailResult;
+import nva.commons.core.Environment;
+import nva.commons.core.StringUtils;
+import nva.commons.core.JacocoGenerated;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.conditions.AndRetryCondition;
+import software.amazon.awssdk.core.retry.conditions.RetryCondition;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.Body;
+import software.amazon.awssdk.services.sesv2.model.BulkEmailContent;
+import software.amazon.awssdk.services.sesv2.model.BulkEmailEntry;
+import software.amazon.awssdk.services.sesv2.model.BulkEmailEntryResult;
+import software.amazon.awssdk.services.sesv2.model.BulkEmailStatus;
+import software.amazon.awssdk.services.sesv2.model.Content;
+import software.amazon.awssdk.services.sesv2.model.Destination;
+import software.amazon.awssdk.services.sesv2.model.EmailContent;
+import software.amazon.awssdk.services.sesv2.model.EmailTemplateContent;
+import software.amazon.awssdk.services.sesv2.model.Message;
+import software.amazon.awssdk.services.sesv2.model.SendBulkEmailRequest;
+import software.amazon.awssdk.services.sesv2.model.SendEmailRequest;
+import software.amazon.awssdk.services.sesv2.model.Template;
+
+public class SesEmailSender {
+
+    public static final String UTF_8 = "UTF-8";
+    public static final int MAX_BULK_ENTRIES = 50;
+    public static final String DEFAULT_FROM_ADDRESS_ENVIRONMENT_VARIABLE_NAME = "DEFAULT_FROM_ADDRESS";
+    public static final String MAX_THROTTLE_RETRIES_ENV_NAME = "SES_THROTTLE_MAX_RETRIES";
+    public static final int DEFAULT_MAX_THROTTLE_RETRIES = 5;
+    public static final String SEND_EMAIL_OPERATION = "SendEmail";
+    public static final String SEND_BULK_EMAIL_OPERATION = "SendBulkEmail";
+    public static final String RATE_LIMIT_WAIT_METRIC = "RateLimitWait";
+    public static final String BACKOFF_WAIT_METRIC = "BackoffWait";
+    public static final String THROTTLED_METRIC = "Throttled";
+    public static final String THROTTLING_EXHAUSTED_METRIC = "ThrottlingExhausted";
+    public static final String SEND_RATE_METRIC = "SendRate";
+    public static final String METRICS_NAMESPACE = "NVA/EmailService";
+    public static final String OPERATION_DIMENSION = "Operation";
+    public static final int MIN_SERVER_ERROR_STATUS = 500;
+    private static final String EMPTY_TEMPLATE_DATA = "{}";
+    private static final String TEMPLATE_PLACEHOLDER_START = "{{";
+    private static final String BULK_ENTRY_FAILURE_TEMPLATE = "%s: %s";
+    /**
+     * The SDK's default retries without throttling, which {@link SesEmailSender} retries itself within the send rate.
+     */
+    public static final RetryCondition NON_THROTTLING_RETRY_CONDITION =
+        AndRetryCondition.create(RetryCondition.defaultRetryCondition(),
+                                 context -> !isThrottling(context.exception()));
+    private final SesV2Client sesClient;
+    private final String defaultFromAddress;
+    private final SendRateLimiter rateLimiter;
+    private final int maxThrottleRetries;
+    private final MetricsLogger metricsLogger;
+
+    public SesEmailSender(SesV2Client sesClient, String defaultFromAddress, SendRateLimiter rateLimiter,
+                          int maxThrottleRetries, MetricsLogger metricsLogger) {
+        this.sesClient = sesClient;
+        this.defaultFromAddress = defaultFromAddress;
+        this.rateLimiter = rateLimiter;
+        this.maxThrottleRetries = maxThrottleRetries;
+        this.metricsLogger = metricsLogger;
+    }
+
+    public static SesEmailSender fromEnvironment(SesV2Client sesClient, Environment environment) {
+        var defaultFromAddress = environment.readEnv(DEFAULT_FROM_ADDRESS_ENVIRONMENT_VARIABLE_NAME);
+        return new SesEmailSender(sesClient,
+                                  defaultFromAddress,
+                                  SendRateLimiter.forAccount(sesClient, environment),
+                                  environment.readEnvOpt(MAX_THROTTLE_RETRIES_ENV_NAME)
+                                      .map(Integer::parseInt)
+                                      .orElse(DEFAULT_MAX_THROTTLE_RETRIES),
+                                  new MetricsLogger(METRICS_NAMESPACE, OPERATION_DIMENSION, System.out));
+    }
+
+    /**
+     * Builds the client once per container. Throttled calls are not retried by the SDK, so they are only retried by
+     * {@link SesEmailSender} after the send rate has been lowered.
+     */
+    @JacocoGenerated
+    public static SesV2Client createSesClient() {
+        return SesV2Client.builder()
+                   .region(Region.EU_WEST_1)
+                   .httpClient(UrlConnectionHttpClient.create())
+                   .overrideConfiguration(ClientOverrideConfiguration.builder()
+                                              .retryPolicy(RetryPolicy.builder()
+                                                               .retryCondition(NON_THROTTLING_RETRY_CONDITION)
+                                                               .build())
+                                              .build())
+                   .build();
+    }
+
+    public static boolean isThrottling(Exception exception) {
+        return exception instanceof SendRateExceededException
+               || exception instanceof AwsServiceException serviceException
+                  && serviceException.isThrottlingException();
+    }
+
+    /**
+     * Whether sending again later may succeed: throttling, server errors and failures to reach SES. Invalid requests,
+     * rejected messages and addresses fail the same way every time.
+     */
+    public static boolean isRetryable(Exception exception) {
+        return isThrottling(exception)
+               || exception instanceof SdkClientException
+               || exception instanceof AwsServiceException serviceException
+                  && serviceException.statusCode() >= MIN_SERVER_ERROR_STATUS;
+    }
+
+    /**
+     * Sends a single email and returns the SES message id. Waits for the send rate until the deadline at most.
+     */
+    public String send(EmailRequest emailRequest, Instant deadline) throws Exception {
+        var request = createSendEmailRequest(emailRequest);
+        return callWithinSendRate(SEND_EMAIL_OPERATION, countRecipients(request.destination()), deadline,
+                                  () -> sesClient.sendEmail(request).messageId());
+    }
+
+    /**
+     * Sends up to {@link #MAX_BULK_ENTRIES} emails sharing sender, subject and body in one SendBulkEmail call.
+     * The shared content is passed as an inline template, so callers must check {@link #canShareContent} first.
+     * Results are returned in the order of the given requests. Waits for the send rate until the deadline at most.
+     */
+    public List<EmailResult> sendBulk(List<EmailRequest> emailRequests, Instant deadline) throws Exception {
+        var sharedContent = emailRequests.get(0);
+        var entries = createBulkEntries(emailRequests);
+        var request = SendBulkEmailRequest.builder()
+                          .fromEmailAddress(determineFromAddress(sharedContent))
+                          .defaultContent(createBulkContent(sharedContent))
+                          .bulkEmailEntries(entries)
+                          .build();
+        var recipients = entries.stream().mapToInt(entry -> countRecipients(entry.destination())).sum();
+        var response = callWithinSendRate(SEND_BULK_EMAIL_OPERATION, recipients, deadline,
+                                          () -> sesClient.sendBulkEmail(request));
+        return response.bulkEmailEntryResults().stream().map(SesEmailSender::toEmailResult).toList();
+    }
+
+    /**
+     * Inline templates substitute {@code {{...}}} placeholders, so content containing them is sent one by one.
+     */
+    public static boolean canShareContent(EmailRequest emailRequest) {
+        return !containsPlaceholder(emailRequest.getSubject())
+               && !containsPlaceholder(emailRequest.getText())
+               && !containsPlaceholder(emailRequest.getTextHtml());
+    }
+
+    public SendEmailRequest createSendEmailRequest(EmailRequest emailRequest) {
+        return SendEmailRequest.builder()
+                .destination(getDestination(emailRequest))
+                .content(EmailContent.builder().simple(getMessage(emailRequest)).build())
+                .fromEmailAddress(determineFromAddress(emailRequest))
+                .build();
+    }
+
+    /*
+     * SES counts every recipient against the max send rate. Throttled calls back off with jitter and are retried,
+     * so a burst above the quota is spread out inside the invocation instead of failing it. A wait for the send rate
+     * that would outlast the caller's time fails at once with SendRateExceededException, and a throttled call whose
+     * backoff reaches the deadline fails with the throttling error.
+     */
+    private <T> T callWithinSendRate(String operation, int recipients, Instant deadline, Callable<T> call)
+        throws Exception {
+        var deadlineNanos = rateLimiter.toDeadlineNanos(deadline);
+        var rateLimitWaitNanos = rateLimiter.acquire(recipients, deadlineNanos);
+        var backoffWaitNanos = 0L;
+        for (var retry = 0; ; retry++) {
+            try {
+                var result = call.call();
+                rateLimiter.onSuccess();
+                emitMetrics(operation, rateLimitWaitNanos, backoffWaitNanos, retry, false);
+                return result;
+            } catch (AwsServiceException exception) {
+                var retryable = exception.isThrottlingException() && retry < maxThrottleRetries;
+                if (retryable) {
+                    rateLimiter.onThrottled();
+                    backoffWaitNanos += rateLimiter.backOff(retry, deadlineNanos);
+                }
+                //A backoff ends at the deadline at the latest, SES is then not called again past it.
+                if (!retryable || rateLimiter.isPast(deadlineNanos)) {
+                    emitMetrics(operation, rateLimitWaitNanos, backoffWaitNanos, retry,
+                                exception.isThrottlingException());
+                    throw exception;
+                }
+                rateLimitWaitNanos += rateLimiter.acquire(recipients, deadlineNanos);
+            }
+        }
+    }
+
+    private void emitMetrics(String operation, long rateLimitWaitNanos, long backoffWaitNanos, int throttled,
+                             boolean throttlingExhausted) {
+        metricsLogger.emit(operation, List.of(
+            Metric.milliseconds(RATE_LIMIT_WAIT_METRIC, TimeUnit.NANOSECONDS.toMillis(rateLimitWaitNanos)),
+            Metric.milliseconds(BACKOFF_WAIT_METRIC, TimeUnit.NANOSECONDS.toMillis(backoffWaitNanos)),
+            Metric.count(THROTTLED_METRIC, throttlingExhausted ? throttled + 1 : throttled),
+            Metric.count(THROTTLING_EXHAUSTED_METRIC, throttlingExhausted ? 1 : 0),
+            Metric.countPerSecond(SEND_RATE_METRIC, rateLimiter.getCurrentSendRate())));
+    }
+
+    private static int countRecipients(Destination destination) {
+        return (int) Stream.of(destination.toAddresses(), destination.ccAddresses(), destination.bccAddresses())
+                         .mapToLong(List::size)
+                         .sum();
+    }
+
+    private static boolean containsPlaceholder(String content) {
+        return content != null && content.contains(TEMPLATE_PLACEHOLDER_START);
+    }
+
+    private static EmailResult toEmailResult(BulkEmailEntryResult entryResult) {
+        return BulkEmailStatus.SUCCESS.equals(entryResult.status())
+                   ? EmailResult.success(entryResult.messageId())
+                   : EmailResult.failure(String.format(BULK_ENTRY_FAILURE_TEMPLATE, entryResult.statusAsString(),
+                                                       entryResult.error()));
+    }
+
+    private static BulkEmailContent createBulkContent(EmailRequest sharedContent) {
+        var templateContent = EmailTemplateContent.builder()
+                .subject(sharedContent.getSubject())
+                .text(sharedContent.getText())
+                .html(sharedContent.getTextHtml())
+                .build();
+        return BulkEmailContent.builder()
+                .template(Template.builder()
+                              .templateContent(templateContent)
+                              .templateData(EMPTY_TEMPLATE_DATA)
+                              .build())
+                .build();
+    }
+
+    private static List<BulkEmailEntry> createBulkEntries(List<EmailRequest> emailRequests) {
+        return emailRequests.stream()
+                .map(emailRequest -> BulkEmailEntry.builder().destination(getDestination(emailRequest)).build())
+                .toList();
+    }
+
+    private String determineFromAddress(EmailRequest emailRequest) {
+        return StringUtils.isNotBlank(emailRequest.getFromAddress())
+                ? emailRequest.getFromAddress()
+                : defaultFromAddress;
+    }
+
+    private static Message getMessage(EmailRequest emailRequest) {
+        return Message.builder()
+                .body(Body.builder()
+                        .html(createContent(emailRequest.getTextHtml()))
+                        .text(createContent(emailRequest.getText()))
+                        .build())
+                .subject(createContent(emailRequest.getSubject()))
+                .build();
+    }
+
+    private static Content createContent(String data) {
+        return Content.builder()
+                .charset(UTF_8)
+                .data(data)
+                .build();
+    }
+
+    private static Destination getDestination(EmailRequest emailRequest) {
+        return Destination.builder()
+                .toAddresses(toAddressList(emailRequest.getToAddress()))
+                .ccAddresses(toAddressList(emailRequest.getCc()))
+                .bccAddresses(toAddressList(emailRequest.getBcc()))
+                .build();
+    }
+
+    //cc and bcc are optional, and SES rejects null entries in an address list.
+    private static List<String> toAddressList(String address) {
+        return StringUtils.isNotBlank(address) ? List.of(address) : List.of();
+    }
+}
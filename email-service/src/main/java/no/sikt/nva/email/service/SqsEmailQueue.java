@@ -0,0 +1,59 @@
+package no.sikt.nva.email.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import no.sikt.nva.email.model.EmailRequest;
+import nva.commons.core.Environment;
+import nva.commons.core.JacocoGenerated;
+import nva.commons.core.JsonUtils;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+/**
+ * Queues email requests as JSON messages for {@code SqsEmailRequestHandler}, which sends them asynchronously.
+ */
+public class SqsEmailQueue {
+
+    public static final String EMAIL_QUEUE_URL_ENV_NAME = "EMAIL_QUEUE_URL";
+    public static final String EMAIL_DEAD_LETTER_QUEUE_URL_ENV_NAME = "EMAIL_DEAD_LETTER_QUEUE_URL";
+    private final SqsClient sqsClient;
+    private final String queueUrl;
+
+    public SqsEmailQueue(SqsClient sqsClient, String queueUrl) {
+        this.sqsClient = sqsClient;
+        this.queueUrl = queueUrl;
+    }
+
+    /**
+     * Returns the queue whose URL is read from the given environment variable, or null when it is not set.
+     */
+    @JacocoGenerated
+    public static SqsEmailQueue fromEnvironment(Environment environment, String queueUrlEnvName) {
+        return environment.readEnvOpt(queueUrlEnvName)
+                   .map(queueUrl -> new SqsEmailQueue(SqsClient.builder()
+                                                          .region(Region.EU_WEST_1)
+                                                          .httpClient(UrlConnectionHttpClient.create())
+                                                          .build(), queueUrl))
+                   .orElse(null);
+    }
+
+    /**
+     * Returns the SQS message id of the queued request.
+     */
+    public String enqueue(EmailRequest emailRequest) throws JsonProcessingException {
+        return forward(JsonUtils.dtoObjectMapper.writeValueAsString(emailRequest));
+    }
+
+    /**
+     * Queues a message body as it is, like a queued request that is moved to a dead letter queue. Returns the SQS
+     * message id.
+     */
+    public String forward(String messageBody) {
+        var request = SendMessageRequest.builder()
+                          .queueUrl(queueUrl)
+                          .messageBody(messageBody)
+                          .build();
+        return sqsClient.sendMessage(request).messageId();
+    }
+}
@@ -0,0 +1,98 @@
+package no.sikt.nva.email.template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * A template split once into literal text and {@code {{parameter}}} placeholders, so rendering is a single pass of
+ * appends without any parsing.
+ */
+public final class CompiledTemplate {
+
+    public static final String PLACEHOLDER_START = "{{";
+    public static final String PLACEHOLDER_END = "}}";
+    public static final String UNCLOSED_PLACEHOLDER_MESSAGE = "Unclosed placeholder at position %d";
+    public static final String INVALID_PARAMETER_NAME_MESSAGE = "Invalid parameter name '%s'";
+    public static final String MISSING_PARAMETER_MESSAGE = "Missing template parameter '%s'";
+    private static final Pattern PARAMETER_NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+    private static final int EXPECTED_PARAMETER_LENGTH = 16;
+    private final List<Segment> segments;
+    private final int estimatedLength;
+
+    private CompiledTemplate(List<Segment> segments) {
+        this.segments = segments;
+        this.estimatedLength = segments.stream()
+                                   .mapToInt(segment -> segment.isParameter()
+                                                            ? EXPECTED_PARAMETER_LENGTH
+                                                            : segment.value().length())
+                                   .sum();
+    }
+
+    public static CompiledTemplate compile(String template) {
+        var segments = new ArrayList<Segment>();
+        var position = 0;
+        var start = template.indexOf(PLACEHOLDER_START);
+        while (start >= 0) {
+            var end = template.indexOf(PLACEHOLDER_END, start);
+            if (end < 0) {
+                throw new TemplateException(String.format(UNCLOSED_PLACEHOLDER_MESSAGE, start));
+            }
+            addLiteral(segments, template.substring(position, start));
+            var placeholder = template.substring(start + PLACEHOLDER_START.length(), end);
+            segments.add(Segment.parameter(parseParameterName(placeholder)));
+            position = end + PLACEHOLDER_END.length();
+            start = template.indexOf(PLACEHOLDER_START, position);
+        }
+        addLiteral(segments, template.substring(position));
+        return new CompiledTemplate(List.copyOf(segments));
+    }
+
+    /**
+     * Renders the template, passing every parameter value through the escaper before it is inserted.
+     */
+    public String render(Map<String, String> parameters, UnaryOperator<String> escaper) {
+        var rendered = new StringBuilder(estimatedLength);
+        for (var segment : segments) {
+            rendered.append(segment.isParameter()
+                                ? escaper.apply(readParameter(parameters, segment.value()))
+                                : segment.value());
+        }
+        return rendered.toString();
+    }
+
+    private static String readParameter(Map<String, String> parameters, String name) {
+        var value = parameters.get(name);
+        if (value == null) {
+            throw new TemplateException(String.format(MISSING_PARAMETER_MESSAGE, name));
+        }
+        return value;
+    }
+
+    private static String parseParameterName(String placeholder) {
+        var name = placeholder.trim();
+        if (!PARAMETER_NAME.matcher(name).matches()) {
+            throw new TemplateException(String.format(INVALID_PARAMETER_NAME_MESSAGE, name));
+        }
+        return name;
+    }
+
+    private static void addLiteral(List<Segment> segments, String literal) {
+        if (!literal.isEmpty()) {
+            segments.add(Segment.literal(literal));
+        }
+    }
+
+    private record Segment(String value, boolean isParameter) {
+
+        private static Segment literal(String text) {
+            return new Segment(text, false);
+        }
+
+        private static Segment parameter(String name) {
+            return new Segment(name, true);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package no.sikt.nva.email.template;
+
+public record EmailTemplate(CompiledTemplate subject, CompiledTemplate text, CompiledTemplate html) {
+
+}
@@ -0,0 +1,8 @@
+package no.sikt.nva.email.template;
+
+public class TemplateException extends RuntimeException {
+
+    public TemplateException(String message) {
+        super(message);
+    }
+}
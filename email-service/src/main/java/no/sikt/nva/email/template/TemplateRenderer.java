@@ -0,0 +1,131 @@
+package no.sikt.nva.email.template;
+
+import static nva.commons.core.attempt.Try.attempt;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import no.sikt.nva.email.model.EmailRequest;
+import nva.commons.core.Environment;
+
+/**
+ * Renders email requests that name a template into plain email requests. A template is the folder
+ * {@code templates/<template id>} on the classpath holding {@code subject.txt}, {@code body.txt} and
+ * {@code body.html}. Templates are compiled on first use and the most recently used ones are kept, so a warm
+ * container only renders.
+ */
+public class TemplateRenderer {
+
+    public static final String TEMPLATE_CACHE_SIZE_ENV_NAME = "TEMPLATE_CACHE_SIZE";
+    public static final int DEFAULT_TEMPLATE_CACHE_SIZE = 32;
+    public static final String TEMPLATE_FOLDER = "templates";
+    public static final String SUBJECT_FILE = "subject.txt";
+    public static final String TEXT_FILE = "body.txt";
+    public static final String HTML_FILE = "body.html";
+    public static final String UNKNOWN_TEMPLATE_MESSAGE = "Unknown template '%s'";
+    public static final String INVALID_TEMPLATE_ID_MESSAGE = "Invalid template id '%s'";
+    private static final Pattern TEMPLATE_ID = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final String PATH_DELIMITER = "/";
+    private static final Map<Character, String> HTML_ESCAPES = Map.of('&', "&amp;",
+                                                                     '<', "&lt;",
+                                                                     '>', "&gt;",
+                                                                     '"', "&quot;",
+                                                                     '\'', "&#39;");
+    private final TemplateSource templateSource;
+    private final Map<String, EmailTemplate> cache;
+
+    public TemplateRenderer(int cacheSize) {
+        this(cacheSize, TemplateRenderer::readResource);
+    }
+
+    public TemplateRenderer(int cacheSize, TemplateSource templateSource) {
+        this.templateSource = templateSource;
+        this.cache = new LinkedHashMap<>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EmailTemplate> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public static TemplateRenderer fromEnvironment(Environment environment) {
+        return new TemplateRenderer(environment.readEnvOpt(TEMPLATE_CACHE_SIZE_ENV_NAME)
+                                        .map(Integer::parseInt)
+                                        .orElse(DEFAULT_TEMPLATE_CACHE_SIZE));
+    }
+
+    /**
+     * Returns the request itself when it names no template, otherwise a copy with subject and bodies rendered from
+     * the template. Parameter values are HTML escaped in the HTML body only.
+     */
+    public EmailRequest render(EmailRequest emailRequest) {
+        if (emailRequest.getTemplateId() == null) {
+            return emailRequest;
+        }
+        var template = getTemplate(emailRequest.getTemplateId());
+        var parameters = Optional.ofNullable(emailRequest.getTemplateParameters()).orElse(Map.of());
+        return new EmailRequest(emailRequest.getFromAddress(),
+                                emailRequest.getToAddress(),
+                                emailRequest.getCc(),
+                                emailRequest.getBcc(),
+                                template.subject().render(parameters, UnaryOperator.identity()),
+                                template.text().render(parameters, UnaryOperator.identity()),
+                                template.html().render(parameters, TemplateRenderer::escapeHtml));
+    }
+
+    public EmailTemplate getTemplate(String templateId) {
+        synchronized (cache) {
+            return cache.computeIfAbsent(templateId, this::compile);
+        }
+    }
+
+    private EmailTemplate compile(String templateId) {
+        if (!TEMPLATE_ID.matcher(templateId).matches()) {
+            throw new TemplateException(String.format(INVALID_TEMPLATE_ID_MESSAGE, templateId));
+        }
+        return new EmailTemplate(compilePart(templateId, SUBJECT_FILE),
+                                 compilePart(templateId, TEXT_FILE),
+                                 compilePart(templateId, HTML_FILE));
+    }
+
+    private CompiledTemplate compilePart(String templateId, String file) {
+        return templateSource.read(String.join(PATH_DELIMITER, TEMPLATE_FOLDER, templateId, file))
+                   .map(CompiledTemplate::compile)
+                   .orElseThrow(() -> new TemplateException(String.format(UNKNOWN_TEMPLATE_MESSAGE, templateId)));
+    }
+
+    private static String escapeHtml(String value) {
+        var escaped = new StringBuilder(value.length());
+        for (var index = 0; index < value.length(); index++) {
+            var character = value.charAt(index);
+            var replacement = HTML_ESCAPES.get(character);
+            if (replacement == null) {
+                escaped.append(character);
+            } else {
+                escaped.append(replacement);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static Optional<String> readResource(String path) {
+        return Optional.ofNullable(TemplateRenderer.class.getClassLoader().getResourceAsStream(path))
+                   .map(stream -> attempt(() -> readFully(stream)).orElseThrow());
+    }
+
+    private static String readFully(InputStream stream) throws IOException {
+        try (stream) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @FunctionalInterface
+    public interface TemplateSource {
+
+        Optional<String> read(String path);
+    }
+}
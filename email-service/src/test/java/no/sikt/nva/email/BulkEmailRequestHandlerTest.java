@@ -0,0 +1,351 @@
+package no.sikt.nva.email;
+
+import static no.sikt.nva.email.BulkEmailRequestHandler.INVALID_BULK_SIZE_MESSAGE;
+import static no.sikt.nva.email.BulkEmailRequestHandler.INVALID_EMAIL_MESSAGE;
+import static no.sikt.nva.email.BulkEmailRequestHandler.MAX_EMAILS_PER_REQUEST;
+import static no.sikt.nva.email.BulkEmailRequestHandler.MISSING_STATUS_MESSAGE;
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import no.sikt.nva.email.model.BulkEmailRequest;
+import no.sikt.nva.email.model.EmailRequest;
+import no.sikt.nva.email.model.EmailResult;
+import no.unit.nva.stubs.FakeContext;
+import nva.commons.apigateway.RequestInfo;
+import nva.commons.apigateway.exceptions.ApiGatewayException;
+import nva.commons.core.Environment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.BulkEmailEntryResult;
+import software.amazon.awssdk.services.sesv2.model.BulkEmailStatus;
+import software.amazon.awssdk.services.sesv2.model.MessageRejectedException;
+import software.amazon.awssdk.services.sesv2.model.SendBulkEmailRequest;
+import software.amazon.awssdk.services.sesv2.model.SendBulkEmailResponse;
+import software.amazon.awssdk.services.sesv2.model.SendEmailRequest;
+import software.amazon.awssdk.services.sesv2.model.SendEmailResponse;
+
+class BulkEmailRequestHandlerTest {
+
+    private static final String FAILED_ADDRESS = "failed@test.no";
+    private FakeContext context;
+    private SesV2Client sesClient;
+    private BulkEmailRequestHandler handler;
+
+    @BeforeEach
+    public void init() {
+        this.context = new FakeContext();
+        this.sesClient = Mockito.mock(SesV2Client.class);
+        this.handler = new BulkEmailRequestHandler(sesClient, new Environment());
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class)))
+            .thenAnswer(invocation -> SendEmailResponse.builder()
+                                          .messageId(toAddressOf(invocation.getArgument(0)))
+                                          .build());
+        Mockito.when(sesClient.sendBulkEmail(any(SendBulkEmailRequest.class)))
+            .thenAnswer(invocation -> respondToBulkRequest(invocation.getArgument(0)));
+    }
+
+    @Test
+    void shouldSendWithOneThreadWhenConfiguredParallelismIsNotPositive() throws ApiGatewayException {
+        var environment = Mockito.spy(new Environment());
+        Mockito.doReturn(Optional.of("0"))
+            .when(environment).readEnvOpt(BulkEmailRequestHandler.BULK_SEND_PARALLELISM_ENV_NAME);
+        handler = new BulkEmailRequestHandler(sesClient, environment);
+        var emails = List.of(createEmail("0@test.no", randomString()), createEmail("1@test.no", randomString()));
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results(), contains(EmailResult.success("0@test.no"), EmailResult.success("1@test.no")));
+    }
+
+    @Test
+    void shouldSendEmailsSharingContentInOneBulkCall() throws ApiGatewayException {
+        var emails = createEmailsWithSharedContent(3, randomString());
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results(), contains(EmailResult.success("0@test.no"),
+                                                EmailResult.success("1@test.no"),
+                                                EmailResult.success("2@test.no")));
+        Mockito.verify(sesClient, times(1)).sendBulkEmail(any(SendBulkEmailRequest.class));
+        Mockito.verify(sesClient, never()).sendEmail(any(SendEmailRequest.class));
+    }
+
+    @Test
+    void shouldSendSharedContentAsInlineTemplateToEveryDestination() throws ApiGatewayException {
+        var emails = createEmailsWithSharedContent(2, randomString());
+        var sharedContent = emails.get(0);
+
+        handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        Mockito.verify(sesClient).sendBulkEmail(argThat((SendBulkEmailRequest request) -> {
+            var template = request.defaultContent().template();
+            return template.templateContent().subject().equals(sharedContent.getSubject())
+                   && template.templateContent().html().equals(sharedContent.getTextHtml())
+                   && template.templateContent().text().equals(sharedContent.getText())
+                   && request.bulkEmailEntries().size() == emails.size();
+        }));
+    }
+
+    @Test
+    void shouldSplitBulkCallsAtSesEntryLimit() throws ApiGatewayException {
+        var emails = createEmailsWithSharedContent(120, randomString());
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results(), hasSize(120));
+        assertThat(response.results().get(119), is(EmailResult.success("119@test.no")));
+        Mockito.verify(sesClient, times(3)).sendBulkEmail(any(SendBulkEmailRequest.class));
+    }
+
+    @Test
+    void shouldSendEmailsWithDistinctContentOneByOneAndKeepRequestOrder() throws ApiGatewayException {
+        var emails = new ArrayList<EmailRequest>();
+        emails.add(createEmail("0@test.no", "shared"));
+        emails.add(createEmail("1@test.no", randomString()));
+        emails.add(createEmail("2@test.no", "shared"));
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results(), contains(EmailResult.success("0@test.no"),
+                                                EmailResult.success("1@test.no"),
+                                                EmailResult.success("2@test.no")));
+        Mockito.verify(sesClient, times(1)).sendBulkEmail(any(SendBulkEmailRequest.class));
+        Mockito.verify(sesClient, times(1)).sendEmail(any(SendEmailRequest.class));
+    }
+
+    @Test
+    void shouldSendContentWithTemplatePlaceholdersOneByOne() throws ApiGatewayException {
+        var emails = createEmailsWithSharedContent(2, "Hello {{name}}");
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results(), hasSize(2));
+        Mockito.verify(sesClient, times(2)).sendEmail(any(SendEmailRequest.class));
+        Mockito.verify(sesClient, never()).sendBulkEmail(any(SendBulkEmailRequest.class));
+    }
+
+    @Test
+    void shouldReportFailedEmailWithoutFailingTheOthers() throws ApiGatewayException {
+        var emails = List.of(createEmail("0@test.no", randomString()),
+                             createEmail(FAILED_ADDRESS, randomString()),
+                             createEmail("2@test.no", randomString()));
+        var rejectionMessage = randomString();
+        Mockito.when(sesClient.sendEmail(argThat((SendEmailRequest request) -> isFailedAddress(request))))
+            .thenThrow(MessageRejectedException.builder().message(rejectionMessage).build());
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results().get(0), is(EmailResult.success("0@test.no")));
+        assertThat(response.results().get(1).messageId(), is(nullValue()));
+        assertThat(response.results().get(1).error(), containsString(rejectionMessage));
+        assertThat(response.results().get(2), is(EmailResult.success("2@test.no")));
+    }
+
+    @Test
+    void shouldReportEveryEmailOfFailedBulkCallAsFailed() throws ApiGatewayException {
+        var emails = createEmailsWithSharedContent(3, randomString());
+        Mockito.when(sesClient.sendBulkEmail(any(SendBulkEmailRequest.class)))
+            .thenThrow(MessageRejectedException.builder().message(randomString()).build());
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results(), hasSize(3));
+        assertThat(response.results().stream().map(EmailResult::error).toList(), everyItem(is(notNullValue())));
+    }
+
+    @Test
+    void shouldReportBulkEntriesRejectedBySes() throws ApiGatewayException {
+        var emails = createEmailsWithSharedContent(2, randomString());
+        var rejected = BulkEmailEntryResult.builder()
+                           .status(BulkEmailStatus.MESSAGE_REJECTED)
+                           .error(randomString())
+                           .build();
+        var accepted = BulkEmailEntryResult.builder().status(BulkEmailStatus.SUCCESS).messageId("1@test.no").build();
+        Mockito.when(sesClient.sendBulkEmail(any(SendBulkEmailRequest.class)))
+            .thenReturn(SendBulkEmailResponse.builder().bulkEmailEntryResults(rejected, accepted).build());
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results().get(0).error(), containsString(BulkEmailStatus.MESSAGE_REJECTED.toString()));
+        assertThat(response.results().get(0).error(), containsString(rejected.error()));
+        assertThat(response.results().get(1), is(EmailResult.success("1@test.no")));
+    }
+
+    @Test
+    void shouldRenderTemplatedEmailsBeforeSending() throws ApiGatewayException {
+        var emails = List.of(createTemplatedEmail("0@test.no", "publication-approved"),
+                             createTemplatedEmail("1@test.no", "publication-approved"));
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results(), contains(EmailResult.success("0@test.no"), EmailResult.success("1@test.no")));
+        Mockito.verify(sesClient).sendBulkEmail(argThat((SendBulkEmailRequest request) -> request.defaultContent()
+                                                                                              .template()
+                                                                                              .templateContent()
+                                                                                              .subject()
+                                                                                              .contains("Fjords")));
+    }
+
+    @Test
+    void shouldReportEmailWithUnknownTemplateAsFailedAndSendTheOthers() throws ApiGatewayException {
+        var unknownTemplate = randomString();
+        var emails = List.of(createEmail("0@test.no", randomString()),
+                             createTemplatedEmail("1@test.no", unknownTemplate),
+                             createTemplatedEmail("2@test.no", "publication-approved"));
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results().get(0), is(EmailResult.success("0@test.no")));
+        var templateError = response.results().get(1).error();
+        assertThat(templateError, containsString(EmailRequestHandler.COULD_NOT_RENDER_TEMPLATE_MESSAGE));
+        assertThat(templateError, containsString(unknownTemplate));
+        assertThat(response.results().get(2), is(EmailResult.success("2@test.no")));
+        Mockito.verify(sesClient, never()).sendEmail(argThat((SendEmailRequest request) -> request != null
+            && "1@test.no".equals(toAddressOf(request))));
+    }
+
+    @Test
+    void shouldReportEveryEmailAsFailedWhenNoTemplateCanBeRendered() throws ApiGatewayException {
+        var emails = List.of(createTemplatedEmail("0@test.no", randomString()));
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results(), hasSize(1));
+        assertThat(response.results().get(0).error(), is(notNullValue()));
+        Mockito.verifyNoInteractions(sesClient);
+    }
+
+    @Test
+    void shouldRejectEmptyBulkRequest() {
+        var request = new BulkEmailRequest(Collections.emptyList());
+
+        var exception = assertThrows(EmailException.class,
+                                     () -> handler.validateRequest(request, new RequestInfo(), context));
+
+        assertThat(exception.getMessage(), is(INVALID_BULK_SIZE_MESSAGE));
+        assertThat(exception.getStatusCode(), is(HttpURLConnection.HTTP_BAD_REQUEST));
+    }
+
+    @Test
+    void shouldRejectBulkRequestWithoutEmails() {
+        var request = new BulkEmailRequest(null);
+
+        assertThrows(EmailException.class, () -> handler.validateRequest(request, new RequestInfo(), context));
+    }
+
+    @Test
+    void shouldRejectBulkRequestWithMissingEmail() {
+        var emails = new ArrayList<EmailRequest>();
+        emails.add(createEmail("0@test.no", randomString()));
+        emails.add(null);
+
+        var exception = assertThrows(EmailException.class,
+                                     () -> handler.validateRequest(new BulkEmailRequest(emails), new RequestInfo(),
+                                                                   context));
+
+        assertThat(exception.getMessage(), is(String.format(INVALID_EMAIL_MESSAGE, 1)));
+        assertThat(exception.getStatusCode(), is(HttpURLConnection.HTTP_BAD_REQUEST));
+    }
+
+    @Test
+    void shouldRejectBulkRequestWithEmailWithoutRecipient() {
+        var emails = List.of(createEmail(null, randomString()));
+
+        var exception = assertThrows(EmailException.class,
+                                     () -> handler.validateRequest(new BulkEmailRequest(emails), new RequestInfo(),
+                                                                   context));
+
+        assertThat(exception.getMessage(), is(String.format(INVALID_EMAIL_MESSAGE, 0)));
+    }
+
+    @Test
+    void shouldRejectBulkRequestWithEmailWithoutSubjectOrTemplate() {
+        var emails = List.of(createEmail("0@test.no", null));
+
+        assertThrows(EmailException.class,
+                     () -> handler.validateRequest(new BulkEmailRequest(emails), new RequestInfo(), context));
+    }
+
+    @Test
+    void shouldAcceptBulkRequestWithTemplatedEmails() {
+        var emails = List.of(createTemplatedEmail("0@test.no", "publication-approved"));
+
+        assertDoesNotThrow(() -> handler.validateRequest(new BulkEmailRequest(emails), new RequestInfo(), context));
+    }
+
+    @Test
+    void shouldReportBulkEntriesWithoutSesStatusAsFailed() throws ApiGatewayException {
+        var emails = createEmailsWithSharedContent(3, randomString());
+        var accepted = BulkEmailEntryResult.builder().status(BulkEmailStatus.SUCCESS).messageId("0@test.no").build();
+        Mockito.when(sesClient.sendBulkEmail(any(SendBulkEmailRequest.class)))
+            .thenReturn(SendBulkEmailResponse.builder().bulkEmailEntryResults(accepted).build());
+
+        var response = handler.processInput(new BulkEmailRequest(emails), new RequestInfo(), context);
+
+        assertThat(response.results(), contains(EmailResult.success("0@test.no"),
+                                                EmailResult.failure(MISSING_STATUS_MESSAGE),
+                                                EmailResult.failure(MISSING_STATUS_MESSAGE)));
+    }
+
+    @Test
+    void shouldRejectBulkRequestAboveMaximumSize() {
+        var request = new BulkEmailRequest(createEmailsWithSharedContent(MAX_EMAILS_PER_REQUEST + 1, randomString()));
+
+        assertThrows(EmailException.class, () -> handler.validateRequest(request, new RequestInfo(), context));
+    }
+
+    private static List<EmailRequest> createEmailsWithSharedContent(int count, String subject) {
+        return IntStream.range(0, count)
+                   .mapToObj(index -> createEmail(index + "@test.no", subject))
+                   .toList();
+    }
+
+    private static EmailRequest createEmail(String toAddress, String subject) {
+        return new EmailRequest(null, toAddress, null, null, subject, "text", "<p>text</p>");
+    }
+
+    private static EmailRequest createTemplatedEmail(String toAddress, String templateId) {
+        return new EmailRequest(null, toAddress, null, null, null, null, null, templateId,
+                                Map.of("name", "Kari", "title", "Fjords"));
+    }
+
+    private static boolean isFailedAddress(SendEmailRequest request) {
+        return request != null && FAILED_ADDRESS.equals(toAddressOf(request));
+    }
+
+    private static String toAddressOf(SendEmailRequest request) {
+        return request.destination().toAddresses().get(0);
+    }
+
+    private static SendBulkEmailResponse respondToBulkRequest(SendBulkEmailRequest request) {
+        var results = request.bulkEmailEntries()
+                          .stream()
+                          .map(entry -> BulkEmailEntryResult.builder()
+                                            .status(BulkEmailStatus.SUCCESS)
+                                            .messageId(entry.destination().toAddresses().get(0))
+                                            .build())
+                          .toList();
+        return SendBulkEmailResponse.builder().bulkEmailEntryResults(results).build();
+    }
+}
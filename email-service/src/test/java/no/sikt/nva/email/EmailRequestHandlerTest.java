@@ -1,8 +1,12 @@
 package no.sikt.nva.email;
 
+import static no.sikt.nva.email.EmailRequestHandler.COULD_NOT_QUEUE_EMAIL_MESSAGE;
+import static no.sikt.nva.email.EmailRequestHandler.COULD_NOT_RENDER_TEMPLATE_MESSAGE;
 import static no.sikt.nva.email.EmailRequestHandler.COULD_NOT_SEND_EMAIL_MESSAGE;
 import static no.sikt.nva.email.EmailRequestHandler.DEFAULT_FROM_ADDRESS_ENVIRONMENT_VARIABLE_NAME;
 import static no.sikt.nva.email.EmailRequestHandler.EMAIL_LOG_INFO_TRACK_ID;
+import static no.sikt.nva.email.EmailRequestHandler.HTTP_TOO_MANY_REQUESTS;
+import static no.sikt.nva.email.EmailRequestHandler.SEND_RATE_EXCEEDED_MESSAGE;
 import static no.sikt.nva.email.EmailRequestHandler.SUCCESS_MESSAGE;
 import static no.unit.nva.testutils.RandomDataGenerator.randomString;
 import static org.hamcrest.CoreMatchers.containsString;
@@ -10,20 +14,15 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.times;
-import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
-import com.amazonaws.services.simpleemail.model.AccountSendingPausedException;
-import com.amazonaws.services.simpleemail.model.ConfigurationSetDoesNotExistException;
-import com.amazonaws.services.simpleemail.model.ConfigurationSetSendingPausedException;
-import com.amazonaws.services.simpleemail.model.MailFromDomainNotVerifiedException;
-import com.amazonaws.services.simpleemail.model.MessageRejectedException;
-import com.amazonaws.services.simpleemail.model.SendEmailRequest;
-import com.amazonaws.services.simpleemail.model.SendEmailResult;
 import java.net.HttpURLConnection;
+import java.util.Map;
 import java.util.stream.Stream;
 import no.sikt.nva.email.model.EmailRequest;
+import no.sikt.nva.email.service.SqsEmailQueue;
 import no.unit.nva.stubs.FakeContext;
 import nva.commons.apigateway.RequestInfo;
 import nva.commons.apigateway.exceptions.ApiGatewayException;
@@ -37,12 +36,26 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.AccountSuspendedException;
+import software.amazon.awssdk.services.sesv2.model.GetAccountRequest;
+import software.amazon.awssdk.services.sesv2.model.MailFromDomainNotVerifiedException;
+import software.amazon.awssdk.services.sesv2.model.MessageRejectedException;
+import software.amazon.awssdk.services.sesv2.model.NotFoundException;
+import software.amazon.awssdk.services.sesv2.model.SendEmailRequest;
+import software.amazon.awssdk.services.sesv2.model.SendEmailResponse;
+import software.amazon.awssdk.services.sesv2.model.SendingPausedException;
+import software.amazon.awssdk.services.sesv2.model.TooManyRequestsException;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SqsException;
 
 class EmailRequestHandlerTest {
 
     private FakeContext context;
     private EmailRequestHandler handler;
-    private AmazonSimpleEmailService amazonSimpleEmailService;
+    private SesV2Client sesClient;
     private TestAppender appender;
     private EmailRequest emailRequest;
     private Environment environment;
@@ -53,9 +66,9 @@ class EmailRequestHandlerTest {
         this.context = new FakeContext();
         this.environment = new Environment();
         this.defaultAddress = environment.readEnv(DEFAULT_FROM_ADDRESS_ENVIRONMENT_VARIABLE_NAME);
-        this.amazonSimpleEmailService = Mockito.mock(AmazonSimpleEmailService.class);
+        this.sesClient = Mockito.mock(SesV2Client.class);
         this.appender = LogUtils.getTestingAppenderForRootLogger();
-        this.handler = new EmailRequestHandler(amazonSimpleEmailService, environment);
+        this.handler = new EmailRequestHandler(sesClient, environment);
         this.emailRequest = new EmailRequest("test@test.no",
                                              "test1@test.no",
                                              "test2@test.no",
@@ -70,12 +83,11 @@ class EmailRequestHandlerTest {
     @Test
     public void sendsEmailSuccessfullyWhenAmazonSimpleEmailServiceIsNotThrowingException() throws ApiGatewayException {
         var trackId = randomString();
-        var sendEmailResult = new SendEmailResult();
-        sendEmailResult.setMessageId(trackId);
-        Mockito.when(amazonSimpleEmailService.sendEmail(any(SendEmailRequest.class))).thenReturn(sendEmailResult);
+        var sendEmailResponse = SendEmailResponse.builder().messageId(trackId).build();
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class))).thenReturn(sendEmailResponse);
         var response = handler.processInput(emailRequest, new RequestInfo(), context);
         assertThat(response, is(equalTo(SUCCESS_MESSAGE)));
-        Mockito.verify(amazonSimpleEmailService, times(1)).sendEmail(any(SendEmailRequest.class));
+        Mockito.verify(sesClient, times(1)).sendEmail(any(SendEmailRequest.class));
         assertThat(handler.getSuccessStatusCode(emailRequest, response), is(equalTo(HttpURLConnection.HTTP_OK)));
         assertThat(appender.getMessages(), containsString(String.format(EMAIL_LOG_INFO_TRACK_ID, trackId)));
     }
@@ -84,13 +96,13 @@ class EmailRequestHandlerTest {
     public void usesDefaultFromAddressWhenFromAddressIsNotSpecified() throws ApiGatewayException {
         emailRequest.setFromAddress(null);
         var trackId = randomString();
-        var sendEmailResult = new SendEmailResult();
-        sendEmailResult.setMessageId(trackId);
-        Mockito.when(amazonSimpleEmailService.sendEmail(any(SendEmailRequest.class))).thenReturn(sendEmailResult);
+        var sendEmailResponse = SendEmailResponse.builder().messageId(trackId).build();
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class))).thenReturn(sendEmailResponse);
         var response = handler.processInput(emailRequest, new RequestInfo(), context);
         assertThat(response, is(equalTo(SUCCESS_MESSAGE)));
-        Mockito.verify(amazonSimpleEmailService, times(1))
-            .sendEmail(argThat(new SendEmailRequestMatcher(new SendEmailRequest().withSource(defaultAddress))));
+        Mockito.verify(sesClient, times(1))
+            .sendEmail(argThat(new SendEmailRequestMatcher(
+                SendEmailRequest.builder().fromEmailAddress(defaultAddress).build())));
         assertThat(handler.getSuccessStatusCode(emailRequest, response), is(equalTo(HttpURLConnection.HTTP_OK)));
         assertThat(appender.getMessages(), containsString(String.format(EMAIL_LOG_INFO_TRACK_ID, trackId)));
     }
@@ -98,7 +110,7 @@ class EmailRequestHandlerTest {
     @ParameterizedTest
     @MethodSource("providedAmazonSesExceptions")
     public void sendsErrorBackWhenEmailRequestFails(Exception exception) {
-        Mockito.when(amazonSimpleEmailService.sendEmail(any(SendEmailRequest.class))).thenThrow(exception);
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class))).thenThrow(exception);
         var apiGatewayException = assertThrows(ApiGatewayException.class, () -> handler.processInput(emailRequest,
                                                                                                      new RequestInfo(),
                                                                                                      context));
@@ -107,14 +119,115 @@ class EmailRequestHandlerTest {
         assertThat(appender.getMessages(), containsString(exception.getMessage()));
     }
 
+    @Test
+    public void retriesThrottledEmailRequestAndSendsItWhenSesAcceptsIt() throws ApiGatewayException {
+        var trackId = randomString();
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class)))
+            .thenThrow(createThrottlingException())
+            .thenReturn(SendEmailResponse.builder().messageId(trackId).build());
+
+        var response = handler.processInput(emailRequest, new RequestInfo(), context);
+
+        assertThat(response, is(equalTo(SUCCESS_MESSAGE)));
+        Mockito.verify(sesClient, times(2)).sendEmail(any(SendEmailRequest.class));
+    }
+
+    @Test
+    public void sendsTooManyRequestsBackWhenSesKeepsThrottling() {
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class))).thenThrow(createThrottlingException());
+
+        var apiGatewayException = assertThrows(ApiGatewayException.class, () -> handler.processInput(emailRequest,
+                                                                                                     new RequestInfo(),
+                                                                                                     context));
+
+        assertThat(apiGatewayException.getStatusCode(), is(equalTo(HTTP_TOO_MANY_REQUESTS)));
+        assertThat(apiGatewayException.getMessage(), containsString(SEND_RATE_EXCEEDED_MESSAGE));
+    }
+
+    @Test
+    public void sendsErrorBackWhenEmailRequestCannotBeQueued() {
+        var sqsClient = Mockito.mock(SqsClient.class);
+        Mockito.when(sqsClient.sendMessage(any(SendMessageRequest.class)))
+            .thenThrow(SqsException.builder().message(randomString()).build());
+        var queueingHandler = new EmailRequestHandler(sesClient, environment, new SqsEmailQueue(sqsClient,
+                                                                                                randomString()));
+
+        var apiGatewayException = assertThrows(ApiGatewayException.class,
+                                               () -> queueingHandler.processInput(emailRequest, new RequestInfo(),
+                                                                                  context));
+
+        assertThat(apiGatewayException.getStatusCode(), is(equalTo(HttpURLConnection.HTTP_INTERNAL_ERROR)));
+        assertThat(apiGatewayException.getMessage(), containsString(COULD_NOT_QUEUE_EMAIL_MESSAGE));
+        Mockito.verifyNoInteractions(sesClient);
+    }
+
+    @Test
+    public void sendsEmailRenderedFromTemplate() throws ApiGatewayException {
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class)))
+            .thenReturn(SendEmailResponse.builder().messageId(randomString()).build());
+        var templatedRequest = new EmailRequest(null, "test1@test.no", null, null, null, null, null,
+                                                "publication-approved", Map.of("name", "Kari", "title", "Fjords"));
+
+        handler.processInput(templatedRequest, new RequestInfo(), context);
+
+        Mockito.verify(sesClient).sendEmail(argThat((SendEmailRequest request) -> request.content()
+                                                                                      .simple()
+                                                                                      .subject()
+                                                                                      .data()
+                                                                                      .contains("Fjords")));
+    }
+
+    @Test
+    public void sendsBadRequestBackWhenTemplateCannotBeRendered() {
+        var templatedRequest = new EmailRequest(null, "test1@test.no", null, null, null, null, null,
+                                                randomString(), Map.of());
+
+        var apiGatewayException = assertThrows(ApiGatewayException.class,
+                                               () -> handler.processInput(templatedRequest, new RequestInfo(),
+                                                                          context));
+
+        assertThat(apiGatewayException.getStatusCode(), is(equalTo(HttpURLConnection.HTTP_BAD_REQUEST)));
+        assertThat(apiGatewayException.getMessage(), containsString(COULD_NOT_RENDER_TEMPLATE_MESSAGE));
+        Mockito.verifyNoInteractions(sesClient);
+    }
+
+    @Test
+    public void primesRequestHandlingBeforeCheckpointWithoutSendingEmail() throws Exception {
+        handler.beforeCheckpoint(null);
+
+        Mockito.verifyNoInteractions(sesClient);
+    }
+
+    @Test
+    public void reconnectsToSesAfterRestore() {
+        handler.afterRestore(null);
+
+        Mockito.verify(sesClient, times(1)).getAccount(any(GetAccountRequest.class));
+    }
+
+    @Test
+    public void doesNotFailRestoreWhenReconnectingFails() {
+        Mockito.when(sesClient.getAccount(any(GetAccountRequest.class)))
+            .thenThrow(SdkClientException.create(randomString()));
+
+        assertDoesNotThrow(() -> handler.afterRestore(null));
+    }
+
+    private static TooManyRequestsException createThrottlingException() {
+        return TooManyRequestsException.builder()
+                   .message(randomString())
+                   .statusCode(HTTP_TOO_MANY_REQUESTS)
+                   .build();
+    }
+
     private static Stream<Arguments> providedAmazonSesExceptions() {
         return Stream.of(Arguments.of(
-                             new MessageRejectedException(randomString())),
+                             MessageRejectedException.builder().message(randomString()).build()),
                          Arguments.of(
-                             new MailFromDomainNotVerifiedException(randomString())),
-                         Arguments.of(new ConfigurationSetDoesNotExistException(randomString())),
-                         Arguments.of(new ConfigurationSetSendingPausedException(randomString())),
-                         Arguments.of(new AccountSendingPausedException(randomString())));
+                             MailFromDomainNotVerifiedException.builder().message(randomString()).build()),
+                         Arguments.of(NotFoundException.builder().message(randomString()).build()),
+                         Arguments.of(SendingPausedException.builder().message(randomString()).build()),
+                         Arguments.of(AccountSuspendedException.builder().message(randomString()).build()));
     }
 
     class SendEmailRequestMatcher implements ArgumentMatcher<SendEmailRequest> {
@@ -129,8 +242,8 @@ class EmailRequestHandlerTest {
 
         @Override
         public boolean matches(SendEmailRequest right) {
-            leftFromAddress = left.getSource();
-            rightFromAddress = right.getSource();
+            leftFromAddress = left.fromEmailAddress();
+            rightFromAddress = right.fromEmailAddress();
             return leftFromAddress.equals(rightFromAddress);
         }
 
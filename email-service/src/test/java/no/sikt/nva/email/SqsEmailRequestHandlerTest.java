@@ -0,0 +1,191 @@
+package no.sikt.nva.email;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse.BatchItemFailure;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent.SQSMessage;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import no.sikt.nva.email.model.EmailRequest;
+import no.sikt.nva.email.service.SqsEmailQueue;
+import no.sikt.nva.email.util.FakeSesClient;
+import no.sikt.nva.email.util.FakeSqsClient;
+import no.unit.nva.stubs.FakeContext;
+import nva.commons.apigateway.RequestInfo;
+import nva.commons.apigateway.exceptions.ApiGatewayException;
+import nva.commons.core.Environment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+class SqsEmailRequestHandlerTest {
+
+    private static final String QUEUE_URL = "https://sqs.eu-west-1.amazonaws.com/123456789012/email-queue";
+    private static final String DEAD_LETTER_QUEUE_URL =
+        "https://sqs.eu-west-1.amazonaws.com/123456789012/email-dead-letter-queue";
+    private static final String REJECTED_ADDRESS = "rejected@test.no";
+    private static final String UNAVAILABLE_ADDRESS = "unavailable@test.no";
+    private FakeContext context;
+    private FakeSqsClient sqsClient;
+    private FakeSqsClient deadLetterSqsClient;
+    private FakeSesClient sesClient;
+    private EmailRequestHandler apiHandler;
+    private SqsEmailRequestHandler queueHandler;
+
+    @BeforeEach
+    public void init() {
+        context = new FakeContext();
+        sqsClient = new FakeSqsClient();
+        deadLetterSqsClient = new FakeSqsClient();
+        sesClient = new FakeSesClient(Set.of(REJECTED_ADDRESS), Set.of(UNAVAILABLE_ADDRESS));
+        apiHandler = new EmailRequestHandler(sesClient, new Environment(), new SqsEmailQueue(sqsClient, QUEUE_URL));
+        queueHandler = new SqsEmailRequestHandler(sesClient, new Environment(),
+                                                  new SqsEmailQueue(deadLetterSqsClient, DEAD_LETTER_QUEUE_URL));
+    }
+
+    @Test
+    void shouldQueueEmailAndAnswerAcceptedWithoutSendingIt() throws ApiGatewayException {
+        var emailRequest = createEmail("to@test.no");
+
+        var response = apiHandler.processInput(emailRequest, new RequestInfo(), context);
+
+        assertThat(response, is(equalTo(EmailRequestHandler.QUEUED_MESSAGE)));
+        assertThat(apiHandler.getSuccessStatusCode(emailRequest, response), is(HttpURLConnection.HTTP_ACCEPTED));
+        assertThat(sqsClient.getMessages(), hasSize(1));
+        assertThat(sesClient.getSentEmails(), is(empty()));
+    }
+
+    @Test
+    void shouldSendQueuedEmailsAndReportNoFailures() throws ApiGatewayException {
+        var emailRequest = createEmail("to@test.no");
+        apiHandler.processInput(emailRequest, new RequestInfo(), context);
+        apiHandler.processInput(createEmail("other@test.no"), new RequestInfo(), context);
+
+        var batchResponse = queueHandler.handleRequest(sqsClient.toSqsEvent(), context);
+
+        assertThat(batchResponse.getBatchItemFailures(), is(empty()));
+        assertThat(sesClient.getSentEmails(), hasSize(2));
+        var sentEmail = sesClient.getSentEmails().stream()
+                            .filter(email -> email.destination().toAddresses().contains("to@test.no"))
+                            .findFirst()
+                            .orElseThrow();
+        assertThat(sentEmail.fromEmailAddress(), is(equalTo(emailRequest.getFromAddress())));
+        assertThat(sentEmail.destination().ccAddresses(), contains(emailRequest.getCc()));
+        assertThat(sentEmail.content().simple().subject().data(), is(equalTo(emailRequest.getSubject())));
+        assertThat(sentEmail.content().simple().body().html().data(), is(equalTo(emailRequest.getTextHtml())));
+    }
+
+    @Test
+    void shouldSendWithOneThreadWhenConfiguredParallelismIsNotPositive() throws ApiGatewayException {
+        var environment = Mockito.spy(new Environment());
+        Mockito.doReturn(Optional.of("0"))
+            .when(environment).readEnvOpt(SqsEmailRequestHandler.SQS_SEND_PARALLELISM_ENV_NAME);
+        queueHandler = new SqsEmailRequestHandler(sesClient, environment);
+        apiHandler.processInput(createEmail("to@test.no"), new RequestInfo(), context);
+        apiHandler.processInput(createEmail("other@test.no"), new RequestInfo(), context);
+
+        var batchResponse = queueHandler.handleRequest(sqsClient.toSqsEvent(), context);
+
+        assertThat(batchResponse.getBatchItemFailures(), is(empty()));
+        assertThat(sesClient.getSentEmails(), hasSize(2));
+    }
+
+    @Test
+    void shouldReportOnlyTheMessagesThatMaySucceedOnRedelivery() throws ApiGatewayException {
+        apiHandler.processInput(createEmail("first@test.no"), new RequestInfo(), context);
+        apiHandler.processInput(createEmail(UNAVAILABLE_ADDRESS), new RequestInfo(), context);
+        apiHandler.processInput(createEmail(REJECTED_ADDRESS), new RequestInfo(), context);
+        apiHandler.processInput(createEmail("fourth@test.no"), new RequestInfo(), context);
+        var unavailableMessageId = sqsClient.getMessages().get(1).getMessageId();
+        var rejectedMessageBody = sqsClient.getMessages().get(2).getBody();
+
+        var batchResponse = queueHandler.handleRequest(sqsClient.toSqsEvent(), context);
+
+        assertThat(batchResponse.getBatchItemFailures().stream().map(BatchItemFailure::getItemIdentifier).toList(),
+                   contains(unavailableMessageId));
+        assertThat(sesClient.getSentEmails(), hasSize(2));
+        assertThat(deadLetterBodies(), contains(rejectedMessageBody));
+    }
+
+    @Test
+    void shouldMoveTemplatedMessagesWithUnknownTemplateToDeadLetterQueue() {
+        var body = "{\"to_address\": \"to@test.no\", \"template_id\": \"no-such-template\"}";
+
+        var batchResponse = queueHandler.handleRequest(createEvent(body), context);
+
+        assertThat(batchResponse.getBatchItemFailures(), is(empty()));
+        assertThat(sesClient.getSentEmails(), is(empty()));
+        assertThat(deadLetterBodies(), contains(body));
+    }
+
+    @Test
+    void shouldMoveMessagesThatAreNotEmailRequestsToDeadLetterQueue() {
+        var batchResponse = queueHandler.handleRequest(createEvent("not json"), context);
+
+        assertThat(batchResponse.getBatchItemFailures(), is(empty()));
+        assertThat(deadLetterBodies(), contains("not json"));
+    }
+
+    @Test
+    void shouldReportMessagesThatCanNeverBeSentWhenThereIsNoDeadLetterQueue() {
+        queueHandler = new SqsEmailRequestHandler(sesClient, new Environment());
+        var event = createEvent("not json");
+
+        var batchResponse = queueHandler.handleRequest(event, context);
+
+        assertThat(batchResponse.getBatchItemFailures().stream().map(BatchItemFailure::getItemIdentifier).toList(),
+                   contains(event.getRecords().get(0).getMessageId()));
+    }
+
+    @Test
+    void shouldReportMessagesThatCouldNotBeMovedToDeadLetterQueue() {
+        var failingSqsClient = Mockito.mock(SqsClient.class);
+        Mockito.when(failingSqsClient.sendMessage(Mockito.any(SendMessageRequest.class)))
+            .thenThrow(SqsException.builder().message("Service unavailable").build());
+        queueHandler = new SqsEmailRequestHandler(sesClient, new Environment(),
+                                                  new SqsEmailQueue(failingSqsClient, DEAD_LETTER_QUEUE_URL));
+        var event = createEvent("not json");
+
+        var batchResponse = queueHandler.handleRequest(event, context);
+
+        assertThat(batchResponse.getBatchItemFailures().stream().map(BatchItemFailure::getItemIdentifier).toList(),
+                   contains(event.getRecords().get(0).getMessageId()));
+    }
+
+    @Test
+    void shouldReportNoFailuresForEmptyEvent() {
+        var event = new SQSEvent();
+        event.setRecords(List.of());
+
+        assertThat(queueHandler.handleRequest(event, context).getBatchItemFailures(), is(empty()));
+    }
+
+    private List<String> deadLetterBodies() {
+        return deadLetterSqsClient.getMessages().stream().map(SQSMessage::getBody).toList();
+    }
+
+    private static SQSEvent createEvent(String body) {
+        var message = new SQSMessage();
+        message.setMessageId(randomString());
+        message.setBody(body);
+        var event = new SQSEvent();
+        event.setRecords(List.of(message));
+        return event;
+    }
+
+    private static EmailRequest createEmail(String toAddress) {
+        return new EmailRequest("from@test.no", toAddress, "cc@test.no", null, randomString(), randomString(),
+                                "<p>" + randomString() + "</p>");
+    }
+}
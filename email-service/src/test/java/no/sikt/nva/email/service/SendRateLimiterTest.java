@@ -0,0 +1,209 @@
+package no.sikt.nva.email.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import com.amazonaws.services.lambda.runtime.Context;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import nva.commons.core.Environment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.GetAccountRequest;
+import software.amazon.awssdk.services.sesv2.model.GetAccountResponse;
+import software.amazon.awssdk.services.sesv2.model.SendQuota;
+
+class SendRateLimiterTest {
+
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private long now;
+    private List<Long> sleeps;
+    private SendRateLimiter rateLimiter;
+
+    @BeforeEach
+    void init() {
+        now = 0;
+        sleeps = new ArrayList<>();
+        rateLimiter = createRateLimiter(10);
+    }
+
+    @Test
+    void shouldGrantBurstOfOneSecondWithoutWaiting() throws InterruptedException {
+        for (var i = 0; i < 10; i++) {
+            assertThat(rateLimiter.acquire(1, NO_DEADLINE), is(equalTo(0L)));
+        }
+        assertThat(sleeps.isEmpty(), is(true));
+    }
+
+    @Test
+    void shouldQueueCallersBeyondBurstAtTheSendRate() throws InterruptedException {
+        rateLimiter.acquire(10, NO_DEADLINE);
+
+        var firstWait = rateLimiter.acquire(1, NO_DEADLINE);
+        var secondWait = rateLimiter.acquire(1, NO_DEADLINE);
+
+        assertThat(firstWait, is(equalTo(ONE_SECOND / 10)));
+        assertThat(secondWait, is(equalTo(2 * ONE_SECOND / 10)));
+        assertThat(sleeps, is(equalTo(List.of(firstWait, secondWait))));
+    }
+
+    @Test
+    void shouldRefillPermitsAsTimePasses() throws InterruptedException {
+        rateLimiter.acquire(10, NO_DEADLINE);
+        now += ONE_SECOND / 2;
+
+        assertThat(rateLimiter.acquire(5, NO_DEADLINE), is(equalTo(0L)));
+    }
+
+    @Test
+    void shouldFailFastAndKeepPermitsWhenWaitWouldEndAfterDeadline() throws InterruptedException {
+        rateLimiter.acquire(10, NO_DEADLINE);
+
+        assertThrows(SendRateExceededException.class, () -> rateLimiter.acquire(1, ONE_SECOND / 20));
+
+        assertThat(sleeps.isEmpty(), is(true));
+        assertThat(rateLimiter.acquire(1, NO_DEADLINE), is(equalTo(ONE_SECOND / 10)));
+    }
+
+    @Test
+    void shouldGrantAvailablePermitsAfterDeadline() throws InterruptedException {
+        now = ONE_SECOND;
+
+        assertThat(rateLimiter.acquire(1, 0), is(equalTo(0L)));
+    }
+
+    @Test
+    void shouldEndDeadlineAtApiGatewayTimeoutWhenInvocationHasMoreTimeLeft() {
+        var context = Mockito.mock(Context.class);
+        Mockito.when(context.getRemainingTimeInMillis()).thenReturn((int) Duration.ofMinutes(15).toMillis());
+        var ceiling = Duration.ofSeconds(29);
+
+        var deadline = SendRateLimiter.deadline(context, ceiling);
+
+        var expected = Instant.now().plus(ceiling).minus(SendRateLimiter.RESPONSE_RESERVE);
+        assertThat(deadline.isAfter(expected), is(false));
+        assertThat(deadline.isBefore(expected.minusSeconds(1)), is(false));
+    }
+
+    @Test
+    void shouldEndDeadlineBeforeInvocationTimesOut() {
+        var context = Mockito.mock(Context.class);
+        Mockito.when(context.getRemainingTimeInMillis()).thenReturn((int) Duration.ofSeconds(10).toMillis());
+
+        var deadline = SendRateLimiter.deadline(context);
+
+        assertThat(deadline.isAfter(Instant.now().plusSeconds(10).minus(SendRateLimiter.RESPONSE_RESERVE)), is(false));
+    }
+
+    @Test
+    void shouldHalveSendRateOnThrottlingAndRecoverOnSuccess() {
+        rateLimiter.onThrottled();
+        assertThat(rateLimiter.getCurrentSendRate(), is(closeTo(5, 0.001)));
+
+        rateLimiter.onThrottled();
+        rateLimiter.onThrottled();
+        rateLimiter.onThrottled();
+        assertThat(rateLimiter.getCurrentSendRate(), is(closeTo(1, 0.001)));
+
+        rateLimiter.onSuccess();
+        assertThat(rateLimiter.getCurrentSendRate(), is(closeTo(2, 0.001)));
+
+        for (var i = 0; i < 20; i++) {
+            rateLimiter.onSuccess();
+        }
+        assertThat(rateLimiter.getCurrentSendRate(), is(closeTo(10, 0.001)));
+    }
+
+    @Test
+    void shouldBackOffWithJitterBelowExponentialCeiling() throws InterruptedException {
+        for (var retry = 0; retry < 10; retry++) {
+            var ceiling = Math.min(SendRateLimiter.MAX_BACKOFF_NANOS, SendRateLimiter.BASE_BACKOFF_NANOS << retry);
+            assertThat(rateLimiter.backOff(retry, NO_DEADLINE), is(lessThanOrEqualTo(ceiling)));
+        }
+        assertThat(sleeps.size(), is(equalTo(10)));
+    }
+
+    @Test
+    void shouldNotBackOffPastDeadline() throws InterruptedException {
+        var deadline = ONE_SECOND / 1000;
+
+        assertThat(rateLimiter.backOff(10, deadline), is(lessThanOrEqualTo(deadline)));
+        assertThat(rateLimiter.isPast(deadline), is(false));
+
+        now = deadline;
+        assertThat(rateLimiter.backOff(10, deadline), is(equalTo(0L)));
+        assertThat(rateLimiter.isPast(deadline), is(true));
+    }
+
+    @Test
+    void shouldUseConfiguredSendRateWhenPresent() {
+        var sesClient = Mockito.mock(SesV2Client.class);
+        var environment = Mockito.mock(Environment.class);
+        Mockito.when(environment.readEnvOpt(SendRateLimiter.MAX_SEND_RATE_ENV_NAME))
+            .thenReturn(Optional.of("14"));
+
+        var limiter = SendRateLimiter.forAccount(sesClient, environment);
+
+        assertThat(limiter.getCurrentSendRate(), is(closeTo(14, 0.001)));
+        Mockito.verifyNoInteractions(sesClient);
+    }
+
+    @Test
+    void shouldShareSendRateBetweenContainersSendingAtOnce() {
+        var sesClient = Mockito.mock(SesV2Client.class);
+        var environment = Mockito.mock(Environment.class);
+        Mockito.when(environment.readEnvOpt(SendRateLimiter.MAX_SEND_RATE_ENV_NAME))
+            .thenReturn(Optional.of("14"));
+        Mockito.when(environment.readEnvOpt(SendRateLimiter.SEND_CONCURRENCY_ENV_NAME))
+            .thenReturn(Optional.of("4"));
+
+        var limiter = SendRateLimiter.forAccount(sesClient, environment);
+
+        assertThat(limiter.getCurrentSendRate(), is(closeTo(3.5, 0.001)));
+    }
+
+    @Test
+    void shouldUseAccountSendQuotaWhenSendRateIsNotConfigured() {
+        var sesClient = Mockito.mock(SesV2Client.class);
+        Mockito.when(sesClient.getAccount(any(GetAccountRequest.class)))
+            .thenReturn(GetAccountResponse.builder().sendQuota(SendQuota.builder().maxSendRate(40.0).build()).build());
+
+        var limiter = SendRateLimiter.forAccount(sesClient, environmentWithoutSendRate());
+
+        assertThat(limiter.getCurrentSendRate(), is(closeTo(40, 0.001)));
+    }
+
+    @Test
+    void shouldFallBackToDefaultSendRateWhenSendQuotaIsUnavailable() {
+        var sesClient = Mockito.mock(SesV2Client.class);
+        Mockito.when(sesClient.getAccount(any(GetAccountRequest.class)))
+            .thenThrow(SdkClientException.create("unavailable"));
+
+        var limiter = SendRateLimiter.forAccount(sesClient, environmentWithoutSendRate());
+
+        assertThat(limiter.getCurrentSendRate(), is(closeTo(SendRateLimiter.DEFAULT_MAX_SEND_RATE, 0.001)));
+    }
+
+    private static Environment environmentWithoutSendRate() {
+        var environment = Mockito.mock(Environment.class);
+        Mockito.when(environment.readEnvOpt(any())).thenReturn(Optional.empty());
+        return environment;
+    }
+
+    private SendRateLimiter createRateLimiter(double maxSendRate) {
+        return new SendRateLimiter(maxSendRate, () -> now, sleeps::add, new Random(42));
+    }
+}
@@ -0,0 +1,182 @@
+package no.sikt.nva.email.service;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import no.sikt.nva.email.metrics.MetricsLogger;
+import no.sikt.nva.email.model.EmailRequest;
+import nva.commons.core.JsonUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.retry.RetryPolicyContext;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.MessageRejectedException;
+import software.amazon.awssdk.services.sesv2.model.SendEmailRequest;
+import software.amazon.awssdk.services.sesv2.model.SendEmailResponse;
+import software.amazon.awssdk.services.sesv2.model.TooManyRequestsException;
+
+class SesEmailSenderTest {
+
+    private static final int MAX_THROTTLE_RETRIES = 3;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    private static final Instant NO_DEADLINE = Instant.now().plus(Duration.ofDays(1));
+    private SesV2Client sesClient;
+    private List<Long> sleeps;
+    private ByteArrayOutputStream metrics;
+    private SendRateLimiter rateLimiter;
+    private SesEmailSender emailSender;
+
+    @BeforeEach
+    void init() {
+        sesClient = Mockito.mock(SesV2Client.class);
+        sleeps = new ArrayList<>();
+        metrics = new ByteArrayOutputStream();
+        rateLimiter = new SendRateLimiter(10, () -> 0L, sleeps::add, new Random(42));
+        var metricsLogger = new MetricsLogger(SesEmailSender.METRICS_NAMESPACE, SesEmailSender.OPERATION_DIMENSION,
+                                              new PrintStream(metrics, true, StandardCharsets.UTF_8));
+        emailSender = new SesEmailSender(sesClient, "no-reply@test.no", rateLimiter, MAX_THROTTLE_RETRIES,
+                                         metricsLogger);
+    }
+
+    @Test
+    void shouldBackOffAndRetryWhenSesThrottles() throws Exception {
+        var messageId = randomString();
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class)))
+            .thenThrow(createThrottlingException(), createThrottlingException())
+            .thenReturn(SendEmailResponse.builder().messageId(messageId).build());
+
+        var result = emailSender.send(createEmail(), NO_DEADLINE);
+
+        assertThat(result, is(equalTo(messageId)));
+        assertThat(sleeps.size(), is(equalTo(2)));
+        var document = readMetricDocument();
+        assertThat(document.get(SesEmailSender.THROTTLED_METRIC).asInt(), is(equalTo(2)));
+        assertThat(document.get(SesEmailSender.THROTTLING_EXHAUSTED_METRIC).asInt(), is(equalTo(0)));
+        assertThat(document.get(SesEmailSender.OPERATION_DIMENSION).asText(),
+                   is(equalTo(SesEmailSender.SEND_EMAIL_OPERATION)));
+    }
+
+    @Test
+    void shouldGiveUpWhenSesKeepsThrottling() throws Exception {
+        var throttlingException = createThrottlingException();
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class))).thenThrow(throttlingException);
+
+        var exception = assertThrows(TooManyRequestsException.class,
+                                     () -> emailSender.send(createEmail(), NO_DEADLINE));
+
+        assertThat(exception, is(equalTo(throttlingException)));
+        assertThat(SesEmailSender.isThrottling(exception), is(true));
+        Mockito.verify(sesClient, times(MAX_THROTTLE_RETRIES + 1)).sendEmail(any(SendEmailRequest.class));
+        var document = readMetricDocument();
+        assertThat(document.get(SesEmailSender.THROTTLED_METRIC).asInt(), is(equalTo(MAX_THROTTLE_RETRIES + 1)));
+        assertThat(document.get(SesEmailSender.THROTTLING_EXHAUSTED_METRIC).asInt(), is(equalTo(1)));
+    }
+
+    @Test
+    void shouldFailWithThrottlingErrorWhenBackoffReachesDeadline() throws Exception {
+        var throttlingException = createThrottlingException();
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class))).thenThrow(throttlingException);
+
+        var exception = assertThrows(TooManyRequestsException.class,
+                                     () -> emailSender.send(createEmail(), Instant.now()));
+
+        assertThat(exception, is(equalTo(throttlingException)));
+        assertThat(sleeps, is(equalTo(List.of(0L))));
+        Mockito.verify(sesClient, times(1)).sendEmail(any(SendEmailRequest.class));
+        assertThat(readMetricDocument().get(SesEmailSender.THROTTLING_EXHAUSTED_METRIC).asInt(), is(equalTo(1)));
+    }
+
+    @Test
+    void shouldNotRetryOtherSesErrors() {
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class)))
+            .thenThrow(MessageRejectedException.builder().message(randomString()).build());
+
+        assertThrows(MessageRejectedException.class, () -> emailSender.send(createEmail(), NO_DEADLINE));
+
+        Mockito.verify(sesClient, times(1)).sendEmail(any(SendEmailRequest.class));
+        assertThat(sleeps.isEmpty(), is(true));
+    }
+
+    @Test
+    void shouldCountEveryRecipientAgainstTheSendRate() throws Exception {
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class)))
+            .thenReturn(SendEmailResponse.builder().messageId(randomString()).build());
+        var emailWithThreeRecipients = new EmailRequest(null, "to@test.no", "cc@test.no", "bcc@test.no",
+                                                        randomString(), randomString(), randomString());
+
+        for (var i = 0; i < 4; i++) {
+            emailSender.send(emailWithThreeRecipients, NO_DEADLINE);
+        }
+
+        assertThat(sleeps.size(), is(equalTo(1)));
+    }
+
+    @Test
+    void shouldFailFastWithThrottlingWhenSendRateWaitOutlastsDeadline() throws Exception {
+        Mockito.when(sesClient.sendEmail(any(SendEmailRequest.class)))
+            .thenReturn(SendEmailResponse.builder().messageId(randomString()).build());
+        var emailWithThreeRecipients = new EmailRequest(null, "to@test.no", "cc@test.no", "bcc@test.no",
+                                                        randomString(), randomString(), randomString());
+        var deadline = Instant.now();
+        for (var i = 0; i < 3; i++) {
+            emailSender.send(emailWithThreeRecipients, deadline);
+        }
+
+        var exception = assertThrows(SendRateExceededException.class,
+                                     () -> emailSender.send(emailWithThreeRecipients, deadline));
+
+        assertThat(SesEmailSender.isThrottling(exception), is(true));
+        assertThat(sleeps.isEmpty(), is(true));
+        Mockito.verify(sesClient, times(3)).sendEmail(any(SendEmailRequest.class));
+    }
+
+    @Test
+    void shouldLeaveThrottlingRetriesToSenderAndKeepOtherSdkRetries() {
+        var throttled = RetryPolicyContext.builder()
+                            .exception(createThrottlingException())
+                            .httpStatusCode(HTTP_TOO_MANY_REQUESTS)
+                            .build();
+        var unavailable = RetryPolicyContext.builder()
+                              .exception(AwsServiceException.builder()
+                                             .message(randomString())
+                                             .statusCode(HTTP_SERVICE_UNAVAILABLE)
+                                             .build())
+                              .httpStatusCode(HTTP_SERVICE_UNAVAILABLE)
+                              .build();
+
+        assertThat(SesEmailSender.NON_THROTTLING_RETRY_CONDITION.shouldRetry(throttled), is(false));
+        assertThat(SesEmailSender.NON_THROTTLING_RETRY_CONDITION.shouldRetry(unavailable), is(true));
+    }
+
+    private JsonNode readMetricDocument() throws Exception {
+        var line = metrics.toString(StandardCharsets.UTF_8).lines().findFirst().orElseThrow();
+        return JsonUtils.dtoObjectMapper.readTree(line);
+    }
+
+    private static EmailRequest createEmail() {
+        return new EmailRequest(null, "to@test.no", null, null, randomString(), randomString(), randomString());
+    }
+
+    private static TooManyRequestsException createThrottlingException() {
+        return TooManyRequestsException.builder()
+                   .message(randomString())
+                   .statusCode(HTTP_TOO_MANY_REQUESTS)
+                   .build();
+    }
+}
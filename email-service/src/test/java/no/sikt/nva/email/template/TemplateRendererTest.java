@@ -0,0 +1,148 @@
+package no.sikt.nva.email.template;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+import no.sikt.nva.email.model.EmailRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TemplateRendererTest {
+
+    private static final String TEMPLATE_ID = "publication-approved";
+    private TemplateRenderer templateRenderer;
+
+    @BeforeEach
+    void init() {
+        templateRenderer = new TemplateRenderer(TemplateRenderer.DEFAULT_TEMPLATE_CACHE_SIZE);
+    }
+
+    @Test
+    void shouldRenderSubjectAndBodiesFromTemplateParameters() {
+        var request = createTemplatedRequest(TEMPLATE_ID, Map.of("name", "Kari", "title", "On fjords"));
+
+        var rendered = templateRenderer.render(request);
+
+        assertThat(rendered.getSubject(), is(equalTo("Your publication \"On fjords\" was approved")));
+        assertThat(rendered.getText(), containsString("Hi Kari,"));
+        assertThat(rendered.getTextHtml(), containsString("<p>Hi Kari,</p>"));
+        assertThat(rendered.getToAddress(), is(equalTo(request.getToAddress())));
+        assertThat(rendered.getTemplateId(), is(equalTo(null)));
+    }
+
+    @Test
+    void shouldEscapeParametersInHtmlBodyOnly() {
+        var title = "Fish & <chips>";
+        var request = createTemplatedRequest(TEMPLATE_ID, Map.of("name", "O'Neil", "title", title));
+
+        var rendered = templateRenderer.render(request);
+
+        assertThat(rendered.getTextHtml(), containsString("<em>Fish &amp; &lt;chips&gt;</em>"));
+        assertThat(rendered.getTextHtml(), containsString("O&#39;Neil"));
+        assertThat(rendered.getText(), containsString(title));
+    }
+
+    @Test
+    void shouldReturnRequestWithoutTemplateUnchanged() {
+        var request = new EmailRequest(null, "to@test.no", null, null, "subject", "text", "<p>text</p>");
+
+        assertThat(templateRenderer.render(request), is(sameInstance(request)));
+    }
+
+    @Test
+    void shouldRejectMissingTemplateParameter() {
+        var request = createTemplatedRequest(TEMPLATE_ID, Map.of("name", "Kari"));
+
+        var exception = assertThrows(TemplateException.class, () -> templateRenderer.render(request));
+
+        assertThat(exception.getMessage(), is(equalTo(String.format(CompiledTemplate.MISSING_PARAMETER_MESSAGE,
+                                                                    "title"))));
+    }
+
+    @Test
+    void shouldRejectUnknownTemplate() {
+        var request = createTemplatedRequest("does-not-exist", Map.of());
+
+        var exception = assertThrows(TemplateException.class, () -> templateRenderer.render(request));
+
+        assertThat(exception.getMessage(), containsString("does-not-exist"));
+    }
+
+    @Test
+    void shouldRejectTemplateIdOutsideTemplateFolder() {
+        var request = createTemplatedRequest("../log4j2", Map.of());
+
+        var exception = assertThrows(TemplateException.class, () -> templateRenderer.render(request));
+
+        assertThat(exception.getMessage(), is(equalTo(String.format(TemplateRenderer.INVALID_TEMPLATE_ID_MESSAGE,
+                                                                    "../log4j2"))));
+    }
+
+    @Test
+    void shouldCompileTemplateOncePerContainer() {
+        var reads = new ArrayList<String>();
+        var renderer = new TemplateRenderer(2, countingSource(reads));
+
+        var first = renderer.getTemplate("a");
+        var second = renderer.getTemplate("a");
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(reads.size(), is(equalTo(3)));
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedTemplate() {
+        var reads = new ArrayList<String>();
+        var renderer = new TemplateRenderer(2, countingSource(reads));
+        renderer.getTemplate("a");
+        renderer.getTemplate("b");
+        renderer.getTemplate("a");
+        renderer.getTemplate("c");
+        reads.clear();
+
+        renderer.getTemplate("a");
+        renderer.getTemplate("b");
+
+        assertThat(reads, is(equalTo(List.of("templates/b/subject.txt", "templates/b/body.txt",
+                                             "templates/b/body.html"))));
+    }
+
+    @Test
+    void shouldRejectUnclosedPlaceholder() {
+        var exception = assertThrows(TemplateException.class, () -> CompiledTemplate.compile("Hi {{name"));
+
+        assertThat(exception.getMessage(), is(equalTo(String.format(CompiledTemplate.UNCLOSED_PLACEHOLDER_MESSAGE,
+                                                                    3))));
+    }
+
+    @Test
+    void shouldRejectInvalidParameterName() {
+        assertThrows(TemplateException.class, () -> CompiledTemplate.compile("Hi {{first name}}"));
+    }
+
+    @Test
+    void shouldRenderTemplateWithoutPlaceholdersAsIs() {
+        var template = CompiledTemplate.compile("No placeholders here");
+
+        assertThat(template.render(Map.of(), UnaryOperator.identity()), is(equalTo("No placeholders here")));
+    }
+
+    private static TemplateRenderer.TemplateSource countingSource(List<String> reads) {
+        return path -> {
+            reads.add(path);
+            return Optional.of("{{value}}");
+        };
+    }
+
+    private static EmailRequest createTemplatedRequest(String templateId, Map<String, String> parameters) {
+        return new EmailRequest(null, "to@test.no", null, null, null, null, null, templateId, parameters);
+    }
+}
@@ -0,0 +1,55 @@
+package no.sikt.nva.email.util;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.MessageRejectedException;
+import software.amazon.awssdk.services.sesv2.model.SendEmailRequest;
+import software.amazon.awssdk.services.sesv2.model.SendEmailResponse;
+import software.amazon.awssdk.services.sesv2.model.SesV2Exception;
+
+//Accepts every email except those addressed to one of the rejected or unavailable addresses.
+public class FakeSesClient implements SesV2Client {
+
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    private final Set<String> rejectedAddresses;
+    private final Set<String> unavailableAddresses;
+    private final List<SendEmailRequest> sentEmails = new CopyOnWriteArrayList<>();
+
+    public FakeSesClient(String... rejectedAddresses) {
+        this(Set.of(rejectedAddresses), Set.of());
+    }
+
+    public FakeSesClient(Set<String> rejectedAddresses, Set<String> unavailableAddresses) {
+        this.rejectedAddresses = rejectedAddresses;
+        this.unavailableAddresses = unavailableAddresses;
+    }
+
+    @Override
+    public SendEmailResponse sendEmail(SendEmailRequest sendEmailRequest) {
+        if (sendEmailRequest.destination().toAddresses().stream().anyMatch(rejectedAddresses::contains)) {
+            throw MessageRejectedException.builder().message("Email address is not verified").build();
+        }
+        if (sendEmailRequest.destination().toAddresses().stream().anyMatch(unavailableAddresses::contains)) {
+            throw SesV2Exception.builder().message("Service unavailable").statusCode(HTTP_SERVICE_UNAVAILABLE).build();
+        }
+        sentEmails.add(sendEmailRequest);
+        return SendEmailResponse.builder().messageId(UUID.randomUUID().toString()).build();
+    }
+
+    public List<SendEmailRequest> getSentEmails() {
+        return sentEmails;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        //Nothing to close
+    }
+}
@@ -0,0 +1,46 @@
+package no.sikt.nva.email.util;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent.SQSMessage;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+
+//In-memory queue, the sent messages can be delivered to a consumer as an SQSEvent.
+public class FakeSqsClient implements SqsClient {
+
+    private final List<SQSMessage> messages = new CopyOnWriteArrayList<>();
+
+    @Override
+    public SendMessageResponse sendMessage(SendMessageRequest sendMessageRequest) {
+        var message = new SQSMessage();
+        message.setMessageId(UUID.randomUUID().toString());
+        message.setBody(sendMessageRequest.messageBody());
+        message.setEventSourceArn(sendMessageRequest.queueUrl());
+        messages.add(message);
+        return SendMessageResponse.builder().messageId(message.getMessageId()).build();
+    }
+
+    public List<SQSMessage> getMessages() {
+        return messages;
+    }
+
+    public SQSEvent toSqsEvent() {
+        var event = new SQSEvent();
+        event.setRecords(List.copyOf(messages));
+        return event;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        //Nothing to close
+    }
+}
@@ -0,0 +1,30 @@
+package no.sikt.nva.email.metrics;
+
+public record Metric(String name, Number value, String unit) {
+
+    public static final String MILLISECONDS = "Milliseconds";
+    public static final String BYTES = "Bytes";
+    public static final String BYTES_PER_SECOND = "Bytes/Second";
+    public static final String COUNT = "Count";
+    public static final String COUNT_PER_SECOND = "Count/Second";
+
+    public static Metric milliseconds(String name, long value) {
+        return new Metric(name, value, MILLISECONDS);
+    }
+
+    public static Metric bytes(String name, long value) {
+        return new Metric(name, value, BYTES);
+    }
+
+    public static Metric bytesPerSecond(String name, long value) {
+        return new Metric(name, value, BYTES_PER_SECOND);
+    }
+
+    public static Metric count(String name, long value) {
+        return new Metric(name, value, COUNT);
+    }
+
+    public static Metric countPerSecond(String name, double value) {
+        return new Metric(name, value, COUNT_PER_SECOND);
+    }
+}
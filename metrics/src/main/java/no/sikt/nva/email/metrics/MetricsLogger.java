@@ -0,0 +1,61 @@
+package no.sikt.nva.email.metrics;
+
+import static nva.commons.core.attempt.Try.attempt;
+import java.io.PrintStream;
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import nva.commons.core.JsonUtils;
+
+//Writes CloudWatch Embedded Metric Format documents, which Lambda turns into metrics when they reach stdout. Every
+//metric of a logger shares its namespace and its single dimension, e.g. the stage or the operation being measured.
+public class MetricsLogger {
+
+    private static final String AWS_METADATA = "_aws";
+    private static final String TIMESTAMP = "Timestamp";
+    private static final String CLOUD_WATCH_METRICS = "CloudWatchMetrics";
+    private static final String NAMESPACE_FIELD = "Namespace";
+    private static final String DIMENSIONS = "Dimensions";
+    private static final String METRICS = "Metrics";
+    private static final String NAME = "Name";
+    private static final String UNIT = "Unit";
+    private final String namespace;
+    private final String dimension;
+    private final PrintStream output;
+    private final Clock clock;
+
+    public MetricsLogger(String namespace, String dimension, PrintStream output) {
+        this(namespace, dimension, output, Clock.systemUTC());
+    }
+
+    public MetricsLogger(String namespace, String dimension, PrintStream output, Clock clock) {
+        this.namespace = namespace;
+        this.dimension = dimension;
+        this.output = output;
+        this.clock = clock;
+    }
+
+    public void emit(String dimensionValue, List<Metric> metrics) {
+        emit(dimensionValue, Map.of(), metrics);
+    }
+
+    public void emit(String dimensionValue, Map<String, String> properties, List<Metric> metrics) {
+        var document = new LinkedHashMap<String, Object>();
+        document.put(AWS_METADATA, createMetadata(metrics));
+        document.put(dimension, dimensionValue);
+        document.putAll(properties);
+        metrics.forEach(metric -> document.put(metric.name(), metric.value()));
+        output.println(attempt(() -> JsonUtils.dtoObjectMapper.writeValueAsString(document)).orElseThrow());
+    }
+
+    private Map<String, Object> createMetadata(List<Metric> metrics) {
+        var definitions = metrics.stream()
+                              .map(metric -> Map.of(NAME, metric.name(), UNIT, metric.unit()))
+                              .toList();
+        var directive = Map.of(NAMESPACE_FIELD, namespace,
+                               DIMENSIONS, List.of(List.of(dimension)),
+                               METRICS, definitions);
+        return Map.of(TIMESTAMP, clock.millis(), CLOUD_WATCH_METRICS, List.of(directive));
+    }
+}
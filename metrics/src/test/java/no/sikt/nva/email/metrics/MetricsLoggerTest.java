@@ -0,0 +1,71 @@
+package no.sikt.nva.email.metrics;
+
+import static no.unit.nva.testutils.RandomDataGenerator.randomString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import nva.commons.core.JsonUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MetricsLoggerTest {
+
+    private static final Instant NOW = Instant.parse("2024-05-01T10:15:30Z");
+    private static final String NAMESPACE = "NVA/Test";
+    private static final String DIMENSION = "Stage";
+    private ByteArrayOutputStream output;
+    private MetricsLogger metricsLogger;
+
+    @BeforeEach
+    void init() {
+        output = new ByteArrayOutputStream();
+        metricsLogger = new MetricsLogger(NAMESPACE, DIMENSION, new PrintStream(output, true, StandardCharsets.UTF_8),
+                                          Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    void shouldWriteEmbeddedMetricFormatDocumentWithGivenNamespaceAndDimension() throws Exception {
+        var stage = randomString();
+        metricsLogger.emit(stage, List.of(Metric.milliseconds("Duration", 42)));
+
+        var document = JsonUtils.dtoObjectMapper.readTree(output.toString(StandardCharsets.UTF_8));
+        var directive = document.at("/_aws/CloudWatchMetrics/0");
+
+        assertThat(document.at("/_aws/Timestamp").asLong(), is(equalTo(NOW.toEpochMilli())));
+        assertThat(directive.get("Namespace").asText(), is(equalTo(NAMESPACE)));
+        assertThat(directive.at("/Dimensions/0/0").asText(), is(equalTo(DIMENSION)));
+        assertThat(directive.at("/Metrics/0/Name").asText(), is(equalTo("Duration")));
+        assertThat(directive.at("/Metrics/0/Unit").asText(), is(equalTo(Metric.MILLISECONDS)));
+        assertThat(document.get(DIMENSION).asText(), is(equalTo(stage)));
+        assertThat(document.get("Duration").asLong(), is(equalTo(42L)));
+    }
+
+    @Test
+    void shouldWriteOneLinePerDocumentWithPropertiesNextToMetrics() throws Exception {
+        metricsLogger.emit("Transfer", Map.of("Uri", "https://example.com/a.zip"),
+                           List.of(Metric.bytes("BytesDownloaded", 10), Metric.count("Failed", 0)));
+        metricsLogger.emit("Transfer", List.of(Metric.bytesPerSecond("Throughput", 100),
+                                               Metric.countPerSecond("SendRate", 7.5)));
+
+        var lines = output.toString(StandardCharsets.UTF_8).lines().toList();
+        var first = JsonUtils.dtoObjectMapper.readTree(lines.get(0));
+        var second = JsonUtils.dtoObjectMapper.readTree(lines.get(1));
+
+        assertThat(lines.size(), is(equalTo(2)));
+        assertThat(first.get("Uri").asText(), is(equalTo("https://example.com/a.zip")));
+        assertThat(first.get("BytesDownloaded").asLong(), is(equalTo(10L)));
+        assertThat(first.at("/_aws/CloudWatchMetrics/0/Metrics/1/Unit").asText(), is(equalTo(Metric.COUNT)));
+        assertThat(second.at("/_aws/CloudWatchMetrics/0/Metrics/1/Unit").asText(),
+                   is(equalTo(Metric.COUNT_PER_SECOND)));
+        assertThat(second.get("SendRate").asDouble(), is(closeTo(7.5, 0.001)));
+    }
+}